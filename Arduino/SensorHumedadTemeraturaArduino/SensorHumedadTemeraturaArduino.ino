@@ -4,38 +4,85 @@
 #define DHTTYPE DHT11
 #define LED_PIN 13 
 
+// Límites del intervalo de muestreo (el DHT11 no admite más de 1 lectura por segundo)
+#define INTERVALO_MINIMO_MS 1000
+#define INTERVALO_MAXIMO_MS 60000
+
 DHT dht(DHTPIN, DHTTYPE);
 
+unsigned long intervaloMs = 2000;
+unsigned long ultimaLectura = 0;
+// Número de secuencia de las tramas de datos (16 bits, da la vuelta en 65535)
+unsigned int secuencia = 0;
+String entrada = "";
+
 void setup() {
   Serial.begin(9600);
   pinMode(LED_PIN, OUTPUT);
   dht.begin();
   while (!Serial); 
+  entrada.reserve(32);
+}
+
+void procesarComando(String command) {
+  command.trim();
+
+  // Formato opcional "COMANDO#id": se confirma con "ACK:id;"
+  String id = "";
+  int separador = command.indexOf('#');
+  if (separador >= 0) {
+    id = command.substring(separador + 1);
+    command = command.substring(0, separador);
+  }
+  
+  if (command == "ON") {
+    digitalWrite(LED_PIN, HIGH);
+  } else if (command == "OFF") {
+    digitalWrite(LED_PIN, LOW);
+  } else if (command.startsWith("RATE ")) {
+    // "RATE <ms>": nuevo intervalo de muestreo, confirmado con "RATE:<ms>;"
+    long pedido = command.substring(5).toInt();
+    if (pedido > 0) {
+      intervaloMs = constrain(pedido, INTERVALO_MINIMO_MS, INTERVALO_MAXIMO_MS);
+    }
+    Serial.print("RATE:");
+    Serial.print(intervaloMs);
+    Serial.println(";");
+  }
+
+  if (id.length() > 0) {
+    Serial.println("ACK:" + id + ";");
+  }
 }
 
 void loop() {
-  // Leer comandos desde Java
-  if (Serial.available() > 0) {
-    String command = Serial.readStringUntil('\n');
-    command.trim();
-    
-    if (command == "ON") {
-      digitalWrite(LED_PIN, HIGH);
-    } else if (command == "OFF") {
-      digitalWrite(LED_PIN, LOW);
+  // Leer comandos desde Java sin bloquear: se acumulan hasta el salto de línea
+  while (Serial.available() > 0) {
+    char c = Serial.read();
+    if (c == '\n') {
+      procesarComando(entrada);
+      entrada = "";
+    } else if (entrada.length() < 32) {
+      entrada += c;
     }
   }
 
-  // Enviar datos del sensor (como antes)
-  delay(2000);
+  // Enviar datos del sensor cuando vence el intervalo (sin delay)
+  unsigned long ahora = millis();
+  if (ahora - ultimaLectura < intervaloMs) {
+    return;
+  }
+  ultimaLectura = ahora;
+
   float h = dht.readHumidity();
   float t = dht.readTemperature();
 
   if (isnan(h) || isnan(t)) {
-    Serial.println("ERROR"); 
+    Serial.println("ERROR;"); 
     return;
   }
 
-  String data = "TEMP:" + String(t, 1) + ",HUM:" + String(h, 1) + ";";
+  // El número de secuencia permite al monitor contar las tramas perdidas
+  String data = "SEQ:" + String(secuencia++) + ",TEMP:" + String(t, 1) + ",HUM:" + String(h, 1) + ";";
   Serial.println(data); 
-}
\ No newline at end of file
+}
@@ -0,0 +1,489 @@
+package com.untels.hito2labo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Historial de muestras de la sesión, codificado en bloques compactos de
+ * hasta {@value #FILAS_POR_BLOQUE} filas. Cada bloque guarda los tiempos como
+ * desplazamientos en milisegundos (int) desde su instante base y, por cada
+ * canal, los valores crudos y filtrados en punto fijo de 16 bits con una
+ * escala decimal propia de la columna: 0,01 mientras los valores quepan
+ * (±327,67, de sobra para el DHT11, cuyos pasos de 0,1 se recuperan
+ * exactos) y más gruesa si en el bloque aparece uno que no cabe, como la
+ * presión en hPa. Con temperatura y humedad una fila ocupa 12 bytes. Los
+ * huecos (muestras perdidas antes de una fila) son raros y se guardan
+ * aparte, solo para las filas que los tienen.
+ * Los canales se indexan por su identificador del RegistroCanales, así que
+ * añadir una fila no hace búsquedas por nombre ni crea objetos (salvo al
+ * abrir un bloque sin ninguno libre o al aparecer un canal nuevo). Las
+ * celdas de un canal que no venía en una trama quedan en NaN.
+ * Las filas se leen sueltas (búsqueda binaria del bloque) o por rangos,
+ * decodificando columna a columna para la gráfica y la exportación.
+ * Opcionalmente lleva delante el historial persistido de la sesión anterior
+ * (HistorialReciente), que solo se consulta para completar la gráfica.
+ * Con un máximo de filas se descartan los bloques más antiguos en cuanto
+ * sobran, y se reutilizan para las filas nuevas, para que una sesión de
+ * meses no agote la memoria.
+ * Los métodos están sincronizados: escribe el hilo de procesamiento y leen
+ * la interfaz y la exportación.
+ */
+public class AlmacenMuestras {
+    /** Filas de cada bloque codificado */
+    public static final int FILAS_POR_BLOQUE = 4096;
+
+    /* Valor reservado para las celdas sin dato */
+    private static final short HUECO = Short.MIN_VALUE;
+    /*
+     * Escalas del punto fijo, de la más fina a la más gruesa: con escala e el
+     * valor es q / POTENCIAS[e] para e <= 2 y q * POTENCIAS[e] para e > 2
+     * (pasos de 0,01, 0,1, 1, 10 y 100).
+     */
+    private static final float[] POTENCIAS = {100f, 10f, 1f, 10f, 100f};
+
+    private final List<BloqueCompacto> bloques = new ArrayList<>();
+    private final ArrayDeque<BloqueCompacto> libres = new ArrayDeque<>();
+    private final boolean[] canalesVistos = new boolean[RegistroCanales.MAX_CANALES];
+    private long filaCero;
+    private long siguienteFila;
+    private int tamano;
+    private int maxFilas = Integer.MAX_VALUE;
+    private HistorialReciente previo;
+
+    public AlmacenMuestras() {
+        this(FILAS_POR_BLOQUE);
+    }
+
+    /**
+     * @param capacidadInicial Filas para las que se reservan bloques de antemano.
+     */
+    public AlmacenMuestras(int capacidadInicial) {
+        reservar(capacidadInicial);
+    }
+
+    /**
+     * Añade una fila al historial.
+     *
+     * @param tiempoMs        Instante de la muestra (milisegundos desde la época).
+     * @param canales         Identificadores de los canales presentes.
+     * @param valoresCrudos   Valores crudos, en el mismo orden que los canales.
+     * @param valoresFiltrados Valores filtrados, en el mismo orden que los canales.
+     * @param n               Número de canales presentes.
+     * @param perdidasAntes   Muestras perdidas entre la fila anterior y esta (0 si no hubo hueco).
+     */
+    public synchronized void agregar(long tiempoMs, int[] canales, float[] valoresCrudos,
+                                     float[] valoresFiltrados, int n, int perdidasAntes) {
+        BloqueCompacto bloque = bloques.isEmpty() ? null : bloques.get(bloques.size() - 1);
+        if (bloque == null || !bloque.admite(tiempoMs)) {
+            bloque = abrirBloque(tiempoMs);
+        }
+        int fila = bloque.filas;
+        bloque.deltas[fila] = (int) (tiempoMs - bloque.base);
+        if (perdidasAntes > 0) {
+            bloque.agregarHueco(fila, perdidasAntes);
+        }
+        for (int i = 0; i < n; i++) {
+            int canal = canales[i];
+            canalesVistos[canal] = true;
+            if (!bloque.activo[canal]) {
+                bloque.activar(canal);
+            }
+            bloque.escalaCrudo[canal] = codificar(bloque.crudos[canal], fila, bloque.escalaCrudo[canal],
+                                                  valoresCrudos[i]);
+            bloque.escalaFiltrado[canal] = codificar(bloque.filtrados[canal], fila,
+                                                     bloque.escalaFiltrado[canal], valoresFiltrados[i]);
+        }
+        /*
+         * Los canales del bloque que no venían en la trama quedan como hueco.
+         */
+        for (int canal = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+            if (bloque.activo[canal] && !contiene(canales, n, canal)) {
+                bloque.crudos[canal][fila] = HUECO;
+                bloque.filtrados[canal][fila] = HUECO;
+            }
+        }
+        bloque.filas++;
+        tamano++;
+        siguienteFila++;
+        descartarSobrantes();
+    }
+
+    private static boolean contiene(int[] canales, int n, int canal) {
+        for (int i = 0; i < n; i++) {
+            if (canales[i] == canal) return true;
+        }
+        return false;
+    }
+
+    /*
+     * Abre un bloque nuevo, reutilizando uno libre si lo hay.
+     */
+    private BloqueCompacto abrirBloque(long base) {
+        BloqueCompacto bloque = libres.isEmpty() ? new BloqueCompacto() : libres.poll();
+        bloque.iniciar(base, siguienteFila);
+        if (bloques.isEmpty()) {
+            filaCero = siguienteFila;
+        }
+        bloques.add(bloque);
+        return bloque;
+    }
+
+    /*
+     * Escribe el valor en la fila de la columna con la escala indicada. Si
+     * no cabe, recodifica las filas anteriores del bloque con la escala más
+     * fina en la que quepa y la devuelve; en la más gruesa se satura.
+     */
+    private static byte codificar(short[] columna, int fila, byte escala, float valor) {
+        if (Float.isNaN(valor) || Float.isInfinite(valor)) {
+            columna[fila] = HUECO;
+            return escala;
+        }
+        int nueva = escala;
+        int q = cuantizar(valor, nueva);
+        while (!cabe(q) && nueva < POTENCIAS.length - 1) {
+            q = cuantizar(valor, ++nueva);
+        }
+        if (nueva != escala) {
+            recodificar(columna, fila, escala, nueva);
+        }
+        columna[fila] = (short) Math.max(Short.MIN_VALUE + 1, Math.min(Short.MAX_VALUE, q));
+        return (byte) nueva;
+    }
+
+    private static int cuantizar(float valor, int escala) {
+        return Math.round(escala <= 2 ? valor * POTENCIAS[escala] : valor / POTENCIAS[escala]);
+    }
+
+    private static boolean cabe(int q) {
+        return q > Short.MIN_VALUE && q <= Short.MAX_VALUE;
+    }
+
+    private static void recodificar(short[] columna, int filas, int escala, int nueva) {
+        float divisor = 1;
+        for (int e = escala; e < nueva; e++) {
+            divisor *= 10;
+        }
+        for (int i = 0; i < filas; i++) {
+            if (columna[i] != HUECO) {
+                columna[i] = (short) Math.round(columna[i] / divisor);
+            }
+        }
+    }
+
+    private static float decodificar(short q, int escala) {
+        if (q == HUECO) return Float.NaN;
+        return escala <= 2 ? q / POTENCIAS[escala] : q * POTENCIAS[escala];
+    }
+
+    /*
+     * Descarta los bloques más antiguos mientras sin ellos se siga llegando
+     * al máximo de filas; pasan a la lista de libres para las filas nuevas.
+     */
+    private void descartarSobrantes() {
+        while (bloques.size() > 1 && tamano - bloques.get(0).filas >= maxFilas) {
+            BloqueCompacto bloque = bloques.remove(0);
+            tamano -= bloque.filas;
+            filaCero = bloques.get(0).primeraFila;
+            libres.add(bloque);
+        }
+    }
+
+    /**
+     * Fija el máximo de filas en memoria; al superarlo se descartan los
+     * bloques más antiguos (sus filas ya están en el historial en disco),
+     * así que puede haber hasta un bloque más de filas que el máximo.
+     */
+    public synchronized void setMaxFilas(int maxFilas) {
+        this.maxFilas = Math.max(4, maxFilas);
+        descartarSobrantes();
+        int maxLibres = this.maxFilas / FILAS_POR_BLOQUE + 1;
+        while (libres.size() > maxLibres) {
+            libres.poll();
+        }
+    }
+
+    /**
+     * Reserva bloques para el número de filas adicionales indicado,
+     * evitando crearlos mientras llegan datos.
+     */
+    public synchronized void reservar(int filas) {
+        int capacidad = (int) Math.min(filas, (long) maxFilas + FILAS_POR_BLOQUE);
+        long disponibles = (long) libres.size() * FILAS_POR_BLOQUE;
+        if (!bloques.isEmpty()) {
+            disponibles += FILAS_POR_BLOQUE - bloques.get(bloques.size() - 1).filas;
+        }
+        while (disponibles < capacidad) {
+            libres.add(new BloqueCompacto());
+            disponibles += FILAS_POR_BLOQUE;
+        }
+    }
+
+    public synchronized int getTamano() {
+        return tamano;
+    }
+
+    public synchronized boolean isEmpty() {
+        return tamano == 0;
+    }
+
+    public synchronized boolean tieneCanal(int canal) {
+        return canalesVistos[canal];
+    }
+
+    public synchronized long getTiempo(int fila) {
+        BloqueCompacto bloque = buscar(fila);
+        return bloque.base + bloque.deltas[local(bloque, fila)];
+    }
+
+    /**
+     * Muestras perdidas justo antes de la fila (0 si no hubo hueco).
+     */
+    public synchronized int getPerdidas(int fila) {
+        BloqueCompacto bloque = buscar(fila);
+        return bloque.getPerdidas(local(bloque, fila));
+    }
+
+    public synchronized float getCrudo(int canal, int fila) {
+        BloqueCompacto bloque = buscar(fila);
+        return !bloque.activo[canal] ? Float.NaN
+            : decodificar(bloque.crudos[canal][local(bloque, fila)], bloque.escalaCrudo[canal]);
+    }
+
+    public synchronized float getFiltrado(int canal, int fila) {
+        BloqueCompacto bloque = buscar(fila);
+        return !bloque.activo[canal] ? Float.NaN
+            : decodificar(bloque.filtrados[canal][local(bloque, fila)], bloque.escalaFiltrado[canal]);
+    }
+
+    /*
+     * Bloque que contiene la fila, por búsqueda binaria sobre su primera fila.
+     */
+    private BloqueCompacto buscar(int fila) {
+        if (fila < 0 || fila >= tamano) {
+            throw new IndexOutOfBoundsException("Fila " + fila + " de " + tamano);
+        }
+        return bloques.get(indiceBloque(filaCero + fila));
+    }
+
+    private int indiceBloque(long fila) {
+        int bajo = 0;
+        int alto = bloques.size() - 1;
+        while (bajo < alto) {
+            int medio = (bajo + alto + 1) >>> 1;
+            if (bloques.get(medio).primeraFila <= fila) {
+                bajo = medio;
+            } else {
+                alto = medio - 1;
+            }
+        }
+        return bajo;
+    }
+
+    private int local(BloqueCompacto bloque, int fila) {
+        return (int) (filaCero + fila - bloque.primeraFila);
+    }
+
+    /**
+     * Fija el historial persistido que precede a las filas de esta sesión.
+     */
+    public synchronized void setPrevio(HistorialReciente previo) {
+        this.previo = previo;
+    }
+
+    /**
+     * Copia los últimos valores filtrados del canal en el arreglo destino.
+     * Si las filas de la sesión no bastan, se completan por delante con el
+     * historial persistido, decodificando solo las que faltan.
+     *
+     * @param canal   El canal a copiar.
+     * @param destino El arreglo destino; se copian como máximo destino.length valores.
+     * @return El número de valores copiados.
+     */
+    public synchronized int copiarUltimos(int canal, float[] destino) {
+        int n = Math.min(destino.length, tamano);
+        int anteriores = previo == null ? 0 : Math.min(destino.length - n, previo.getFilas());
+        if (anteriores > 0) {
+            previo.copiarUltimos(canal, destino, anteriores);
+        }
+        decodificarRango(canal, true, tamano - n, tamano, destino, anteriores);
+        return anteriores + n;
+    }
+
+    /*
+     * Decodifica la columna del canal para las filas [desde, hasta) en el
+     * destino a partir de la posición indicada, bloque a bloque.
+     */
+    private void decodificarRango(int canal, boolean filtrado, int desde, int hasta,
+                                  float[] destino, int posicion) {
+        if (desde >= hasta) return;
+        for (int b = indiceBloque(filaCero + desde); b < bloques.size() && desde < hasta; b++) {
+            BloqueCompacto bloque = bloques.get(b);
+            int inicio = local(bloque, desde);
+            int fin = Math.min(bloque.filas, inicio + (hasta - desde));
+            int cantidad = fin - inicio;
+            if (!bloque.activo[canal]) {
+                Arrays.fill(destino, posicion, posicion + cantidad, Float.NaN);
+            } else {
+                short[] columna = filtrado ? bloque.filtrados[canal] : bloque.crudos[canal];
+                int escala = filtrado ? bloque.escalaFiltrado[canal] : bloque.escalaCrudo[canal];
+                float potencia = POTENCIAS[escala];
+                boolean divide = escala <= 2;
+                for (int i = inicio; i < fin; i++) {
+                    short q = columna[i];
+                    destino[posicion + i - inicio] = q == HUECO ? Float.NaN
+                        : divide ? q / potencia : q * potencia;
+                }
+            }
+            posicion += cantidad;
+            desde += cantidad;
+        }
+    }
+
+    /**
+     * Copia un rango de filas: tiempos y valores decodificados de los
+     * canales que han aparecido en la sesión.
+     * Pensado para la exportación, que trabaja sobre la copia sin bloquear
+     * al hilo de procesamiento.
+     *
+     * @param desde  Primera fila (incluida).
+     * @param hasta  Última fila (excluida).
+     * @return La copia de las filas.
+     */
+    public synchronized Bloque copiar(int desde, int hasta) {
+        hasta = Math.min(hasta, tamano);
+        Bloque copia = new Bloque(Math.max(0, hasta - desde));
+        if (copia.filas == 0) {
+            for (int canal = 0; canal < canalesVistos.length; canal++) {
+                if (canalesVistos[canal]) {
+                    copia.crudos[canal] = new float[0];
+                    copia.filtrados[canal] = new float[0];
+                }
+            }
+            return copia;
+        }
+        int posicion = 0;
+        for (int b = indiceBloque(filaCero + desde); b < bloques.size() && posicion < copia.filas; b++) {
+            BloqueCompacto bloque = bloques.get(b);
+            int inicio = local(bloque, desde + posicion);
+            int fin = Math.min(bloque.filas, inicio + (copia.filas - posicion));
+            for (int i = inicio; i < fin; i++) {
+                copia.tiempos[posicion + i - inicio] = bloque.base + bloque.deltas[i];
+            }
+            for (int h = 0; h < bloque.huecos; h++) {
+                int fila = bloque.filasHueco[h];
+                if (fila >= inicio && fila < fin) {
+                    copia.perdidas[posicion + fila - inicio] = bloque.perdidasHueco[h];
+                }
+            }
+            posicion += fin - inicio;
+        }
+        for (int canal = 0; canal < canalesVistos.length; canal++) {
+            if (canalesVistos[canal]) {
+                copia.crudos[canal] = new float[copia.filas];
+                copia.filtrados[canal] = new float[copia.filas];
+                decodificarRango(canal, false, desde, hasta, copia.crudos[canal], 0);
+                decodificarRango(canal, true, desde, hasta, copia.filtrados[canal], 0);
+            }
+        }
+        return copia;
+    }
+
+    /**
+     * Elimina todas las filas (los bloques quedan libres para reutilizarse y
+     * los canales ya vistos se conservan).
+     */
+    public synchronized void limpiar() {
+        libres.addAll(bloques);
+        bloques.clear();
+        tamano = 0;
+        filaCero = siguienteFila;
+    }
+
+    /*
+     * Bloque codificado: instante base, desplazamientos de las filas,
+     * columnas en punto fijo por canal (creadas al aparecer el canal y
+     * conservadas al reutilizar el bloque) y los huecos de sus filas.
+     */
+    private static final class BloqueCompacto {
+        final int[] deltas = new int[FILAS_POR_BLOQUE];
+        final short[][] crudos = new short[RegistroCanales.MAX_CANALES][];
+        final short[][] filtrados = new short[RegistroCanales.MAX_CANALES][];
+        final byte[] escalaCrudo = new byte[RegistroCanales.MAX_CANALES];
+        final byte[] escalaFiltrado = new byte[RegistroCanales.MAX_CANALES];
+        final boolean[] activo = new boolean[RegistroCanales.MAX_CANALES];
+        int[] filasHueco = new int[4];
+        int[] perdidasHueco = new int[4];
+        int huecos;
+        long base;
+        long primeraFila;
+        int filas;
+
+        void iniciar(long base, long primeraFila) {
+            this.base = base;
+            this.primeraFila = primeraFila;
+            filas = 0;
+            huecos = 0;
+            Arrays.fill(activo, false);
+        }
+
+        /*
+         * El bloque admite la fila si le queda sitio y su desplazamiento cabe
+         * en un int (hasta 24 días desde la base, sin retroceder).
+         */
+        boolean admite(long tiempoMs) {
+            long delta = tiempoMs - base;
+            return filas < FILAS_POR_BLOQUE && delta >= 0 && delta <= Integer.MAX_VALUE;
+        }
+
+        /*
+         * Empieza a usar la columna del canal; las filas anteriores del
+         * bloque son huecos.
+         */
+        void activar(int canal) {
+            if (crudos[canal] == null) {
+                crudos[canal] = new short[FILAS_POR_BLOQUE];
+                filtrados[canal] = new short[FILAS_POR_BLOQUE];
+            }
+            Arrays.fill(crudos[canal], 0, filas, HUECO);
+            Arrays.fill(filtrados[canal], 0, filas, HUECO);
+            escalaCrudo[canal] = 0;
+            escalaFiltrado[canal] = 0;
+            activo[canal] = true;
+        }
+
+        void agregarHueco(int fila, int perdidas) {
+            if (huecos == filasHueco.length) {
+                filasHueco = Arrays.copyOf(filasHueco, huecos * 2);
+                perdidasHueco = Arrays.copyOf(perdidasHueco, huecos * 2);
+            }
+            filasHueco[huecos] = fila;
+            perdidasHueco[huecos] = perdidas;
+            huecos++;
+        }
+
+        int getPerdidas(int fila) {
+            int i = Arrays.binarySearch(filasHueco, 0, huecos, fila);
+            return i >= 0 ? perdidasHueco[i] : 0;
+        }
+    }
+
+    /**
+     * Copia independiente y decodificada de un rango de filas del almacén.
+     * Las columnas de los canales ausentes son null.
+     */
+    public static class Bloque {
+        public final int filas;
+        public final long[] tiempos;
+        public final int[] perdidas;
+        public final float[][] crudos = new float[RegistroCanales.MAX_CANALES][];
+        public final float[][] filtrados = new float[RegistroCanales.MAX_CANALES][];
+
+        Bloque(int filas) {
+            this.filas = filas;
+            this.tiempos = new long[filas];
+            this.perdidas = new int[filas];
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.untels.hito2labo;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Análisis fuera de línea de CSV exportados y del historial persistido,
+ * sin abrir la interfaz gráfica. Cada entrada (un CSV, un segmento .dat o
+ * un directorio de segmentos) se proyecta en memoria, se parte en trozos y
+ * se procesa en paralelo en el ForkJoinPool común, así que aprovecha todos
+ * los núcleos con archivos de varios GB. Se generan:
+ * <ul>
+ *   <li>resúmenes por día o por hora de cada columna y dispositivo,</li>
+ *   <li>el tiempo por encima (o por debajo) de cada umbral, total y por día,</li>
+ *   <li>una comparación entre dispositivos cuando hay más de uno.</li>
+ * </ul>
+ * Uso: {@code java -cp Hito2LAbo.jar com.untels.hito2labo.AnalisisCli
+ * [--por dia|hora] [--umbral "temperatura>30"]... [--hueco-max segundos]
+ * [--salida archivo] [dispositivo=]ruta...}
+ */
+public class AnalisisCli {
+    private static final String USO =
+        "Uso: AnalisisCli [--por dia|hora] [--umbral columna>valor]... [--hueco-max segundos]\n"
+        + "                 [--salida archivo] [dispositivo=]ruta...\n"
+        + "  ruta: CSV exportado, segmento .dat o directorio de segmentos del historial";
+
+    /*
+     * Una entrada de datos con la correspondencia entre sus columnas y las
+     * columnas globales del análisis.
+     */
+    private static class Entrada {
+        String dispositivo;
+        Path ruta;
+        long bytes;
+        /* CSV */
+        long inicioDatos;
+        List<String> titulos;
+        int[] columnaDeCampo;
+        /* Historial */
+        RegistroCanales registro;
+        List<SegmentoHistorial> segmentos;
+        int[] columnaDeCanal;
+    }
+
+    public static void main(String[] args) {
+        boolean porHora = false;
+        long huecoMaximoMs = 300_000L;
+        Path salida = null;
+        List<ResultadoAnalisis.Umbral> umbrales = new ArrayList<>();
+        List<String> rutas = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--por":
+                        String por = valor(args, ++i);
+                        if (!por.equals("dia") && !por.equals("hora")) {
+                            throw new IllegalArgumentException("--por debe ser dia u hora");
+                        }
+                        porHora = por.equals("hora");
+                        break;
+                    case "--umbral":
+                        umbrales.add(ResultadoAnalisis.Umbral.parsear(valor(args, ++i)));
+                        break;
+                    case "--hueco-max":
+                        huecoMaximoMs = (long) (Double.parseDouble(valor(args, ++i)) * 1000);
+                        break;
+                    case "--salida":
+                        salida = Paths.get(valor(args, ++i));
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+                        }
+                        rutas.add(args[i]);
+                }
+            }
+            if (rutas.isEmpty()) {
+                throw new IllegalArgumentException("Falta al menos una entrada");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USO);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            List<Entrada> entradas = new ArrayList<>();
+            for (String ruta : rutas) {
+                entradas.add(abrir(ruta));
+            }
+            analizar(entradas, umbrales.toArray(new ResultadoAnalisis.Umbral[0]),
+                     huecoMaximoMs, porHora, salida);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error en el análisis: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static String valor(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Falta el valor de " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    /*
+     * "[dispositivo=]ruta": sin nombre, el dispositivo es el nombre del
+     * archivo sin extensión (o el del directorio).
+     */
+    private static Entrada abrir(String texto) throws IOException {
+        Entrada entrada = new Entrada();
+        int igual = texto.indexOf('=');
+        entrada.ruta = Paths.get(igual > 0 ? texto.substring(igual + 1) : texto);
+        String nombre = entrada.ruta.toAbsolutePath().normalize().getFileName().toString();
+        int punto = nombre.lastIndexOf('.');
+        entrada.dispositivo = igual > 0 ? texto.substring(0, igual)
+            : Files.isDirectory(entrada.ruta) || punto <= 0 ? nombre : nombre.substring(0, punto);
+
+        if (Files.isDirectory(entrada.ruta) || nombre.endsWith(".dat")) {
+            entrada.registro = new RegistroCanales();
+            entrada.segmentos = Files.isDirectory(entrada.ruta)
+                ? ArchivoHistorial.abrirRecientes(entrada.ruta, entrada.registro, Long.MIN_VALUE)
+                : List.of(SegmentoHistorial.abrir(entrada.ruta, entrada.registro));
+            for (SegmentoHistorial segmento : entrada.segmentos) {
+                entrada.bytes += Files.size(segmento.getArchivo());
+            }
+        } else {
+            entrada.bytes = Files.size(entrada.ruta);
+            leerEncabezado(entrada);
+        }
+        return entrada;
+    }
+
+    /*
+     * Lee la primera línea del CSV y anota dónde empiezan los datos.
+     */
+    private static void leerEncabezado(Entrada entrada) throws IOException {
+        ByteArrayOutputStream linea = new ByteArrayOutputStream();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(entrada.ruta))) {
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                linea.write(b);
+            }
+            entrada.inicioDatos = linea.size() + (b == '\n' ? 1 : 0);
+        }
+        String encabezado = linea.toString(StandardCharsets.UTF_8).trim();
+        if (!encabezado.startsWith("Fecha,Hora")) {
+            throw new IOException("No es un CSV exportado por el monitor: " + entrada.ruta);
+        }
+        entrada.titulos = Arrays.asList(encabezado.split(",", -1));
+    }
+
+    /*
+     * Los valores crudos y las muestras perdidas no se resumen: el análisis
+     * trabaja con los valores filtrados y las métricas derivadas.
+     */
+    private static boolean seAnaliza(String titulo) {
+        return !titulo.equals("Muestras perdidas") && !titulo.contains(" crudo") && !titulo.contains(" cruda");
+    }
+
+    private static void analizar(List<Entrada> entradas, ResultadoAnalisis.Umbral[] umbrales,
+                                 long huecoMaximoMs, boolean porHora, Path salida) throws IOException {
+        /* Columnas globales: la unión de las de todas las entradas, por título */
+        Map<String, Integer> columnas = new LinkedHashMap<>();
+        for (Entrada entrada : entradas) {
+            if (entrada.segmentos != null) {
+                entrada.columnaDeCanal = new int[entrada.registro.getCantidad()];
+                Arrays.fill(entrada.columnaDeCanal, -1);
+                for (int canal = 0; canal < entrada.columnaDeCanal.length; canal++) {
+                    if (canal == RegistroCanales.SECUENCIA || !usaCanal(entrada.segmentos, canal)) continue;
+                    String titulo = ExportadorCsv.titulo(entrada.registro, canal, false);
+                    entrada.columnaDeCanal[canal] = columnas.computeIfAbsent(titulo, t -> columnas.size());
+                }
+            } else {
+                entrada.columnaDeCampo = new int[entrada.titulos.size()];
+                Arrays.fill(entrada.columnaDeCampo, -1);
+                for (int campo = 2; campo < entrada.titulos.size(); campo++) {
+                    String titulo = entrada.titulos.get(campo);
+                    if (seAnaliza(titulo)) {
+                        entrada.columnaDeCampo[campo] = columnas.computeIfAbsent(titulo, t -> columnas.size());
+                    }
+                }
+            }
+        }
+        List<String> titulos = new ArrayList<>(columnas.keySet());
+
+        int[] columnaDeUmbral = new int[umbrales.length];
+        for (int u = 0; u < umbrales.length; u++) {
+            columnaDeUmbral[u] = -1;
+            for (int c = 0; c < titulos.size() && columnaDeUmbral[u] < 0; c++) {
+                if (umbrales[u].correspondeA(titulos.get(c))) {
+                    columnaDeUmbral[u] = c;
+                }
+            }
+            if (columnaDeUmbral[u] < 0) {
+                System.err.println("Ninguna entrada tiene la columna del umbral " + umbrales[u].texto);
+            }
+        }
+        ResultadoAnalisis plantilla = new ResultadoAnalisis(titulos.size(), umbrales, columnaDeUmbral, huecoMaximoMs);
+
+        /* Todas las entradas se lanzan a la vez para repartir los núcleos entre ellas */
+        long inicio = System.nanoTime();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        List<ForkJoinTask<ResultadoAnalisis>> tareas = new ArrayList<>();
+        long bytes = 0;
+        for (Entrada entrada : entradas) {
+            bytes += entrada.bytes;
+            if (entrada.segmentos != null) {
+                tareas.add(pool.submit(new TareaAnalisisSegmentos(entrada.segmentos, entrada.columnaDeCanal,
+                                                                 ZoneId.systemDefault(), plantilla)));
+            } else {
+                tareas.add(pool.submit(new TareaAnalisisCsv(entrada.ruta, entrada.bytes, entrada.inicioDatos,
+                                                            entrada.bytes, entrada.columnaDeCampo, plantilla)));
+            }
+        }
+        Map<String, ResultadoAnalisis> porDispositivo = new LinkedHashMap<>();
+        long filas = 0;
+        long invalidas = 0;
+        for (int i = 0; i < tareas.size(); i++) {
+            ResultadoAnalisis resultado = tareas.get(i).join();
+            filas += resultado.getFilas();
+            invalidas += resultado.getFilasInvalidas();
+            ResultadoAnalisis existente = porDispositivo.putIfAbsent(entradas.get(i).dispositivo, resultado);
+            if (existente != null) {
+                existente.combinar(resultado, false);
+            }
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.err.println(String.format(Locale.ROOT,
+            "%d filas (%d inválidas), %.1f MB en %.2f s (%.0f MB/s, %d hilos)",
+            filas, invalidas, bytes / 1e6, segundos, bytes / 1e6 / Math.max(segundos, 1e-9), pool.getParallelism()));
+
+        PrintWriter writer = salida == null
+            ? new PrintWriter(System.out)
+            : new PrintWriter(Files.newBufferedWriter(salida, StandardCharsets.UTF_8));
+        try {
+            escribirResumen(writer, porDispositivo, titulos, porHora);
+            if (umbrales.length > 0) {
+                escribirExcedencias(writer, porDispositivo, umbrales);
+            }
+            if (porDispositivo.size() > 1) {
+                escribirComparacion(writer, porDispositivo, titulos, porHora);
+            }
+        } finally {
+            writer.flush();
+            if (salida != null) {
+                writer.close();
+            }
+        }
+    }
+
+    private static boolean usaCanal(List<SegmentoHistorial> segmentos, int canal) {
+        for (SegmentoHistorial segmento : segmentos) {
+            if (segmento.tieneCanal(canal)) return true;
+        }
+        return false;
+    }
+
+    /*
+     * Agrupa los acumulados por hora de una columna en periodos (horas o días).
+     */
+    private static TreeMap<Long, ResultadoAnalisis.Acumulado> agrupar(ResultadoAnalisis resultado, int columna,
+                                                                     boolean porHora) {
+        TreeMap<Long, ResultadoAnalisis.Acumulado> periodos = new TreeMap<>();
+        for (Map.Entry<Long, ResultadoAnalisis.Acumulado> e : resultado.getPorHora(columna).entrySet()) {
+            long periodo = porHora ? e.getKey() : Math.floorDiv(e.getKey(), 24L);
+            periodos.computeIfAbsent(periodo, p -> new ResultadoAnalisis.Acumulado()).combinar(e.getValue());
+        }
+        return periodos;
+    }
+
+    private static String periodo(long periodo, boolean porHora) {
+        if (porHora) {
+            LocalDateTime hora = LocalDateTime.ofEpochSecond(periodo * 3600, 0, ZoneOffset.UTC);
+            return String.format(Locale.ROOT, "%s %02d:00", hora.toLocalDate(), hora.getHour());
+        }
+        return LocalDate.ofEpochDay(periodo).toString();
+    }
+
+    private static String decimal(double valor) {
+        return Double.isNaN(valor) ? "" : String.format(Locale.ROOT, "%.2f", valor);
+    }
+
+    private static void escribirResumen(PrintWriter writer, Map<String, ResultadoAnalisis> porDispositivo,
+                                        List<String> titulos, boolean porHora) {
+        writer.println("# Resumen por " + (porHora ? "hora" : "dia"));
+        writer.println("Dispositivo,Columna," + (porHora ? "Hora" : "Dia") + ",Muestras,Media,Minimo,Maximo");
+        for (Map.Entry<String, ResultadoAnalisis> d : porDispositivo.entrySet()) {
+            for (int c = 0; c < titulos.size(); c++) {
+                for (Map.Entry<Long, ResultadoAnalisis.Acumulado> p : agrupar(d.getValue(), c, porHora).entrySet()) {
+                    ResultadoAnalisis.Acumulado a = p.getValue();
+                    writer.println(d.getKey() + ',' + titulos.get(c) + ',' + periodo(p.getKey(), porHora) + ','
+                        + a.muestras + ',' + decimal(a.getMedia()) + ',' + decimal(a.minimo) + ',' + decimal(a.maximo));
+                }
+            }
+        }
+        writer.println();
+    }
+
+    private static void escribirExcedencias(PrintWriter writer, Map<String, ResultadoAnalisis> porDispositivo,
+                                            ResultadoAnalisis.Umbral[] umbrales) {
+        writer.println("# Excedencia de umbrales");
+        writer.println("Dispositivo,Umbral,Dia,Duracion (s),Episodios");
+        for (Map.Entry<String, ResultadoAnalisis> d : porDispositivo.entrySet()) {
+            ResultadoAnalisis resultado = d.getValue();
+            for (int u = 0; u < umbrales.length; u++) {
+                for (Map.Entry<Long, Long> dia : new TreeMap<>(resultado.getExcedenciaPorDia(u)).entrySet()) {
+                    writer.println(d.getKey() + ',' + umbrales[u].texto + ',' + periodo(dia.getKey(), false) + ','
+                        + decimal(dia.getValue() / 1000.0) + ',');
+                }
+                writer.println(d.getKey() + ',' + umbrales[u].texto + ",Total,"
+                    + decimal(resultado.getExcedenciaMs(u) / 1000.0) + ',' + resultado.getEpisodios(u));
+            }
+        }
+        writer.println();
+    }
+
+    /*
+     * Media de cada dispositivo por periodo y diferencia máxima entre ellos,
+     * y un resumen global con la diferencia de medias respecto al primero.
+     */
+    private static void escribirComparacion(PrintWriter writer, Map<String, ResultadoAnalisis> porDispositivo,
+                                            List<String> titulos, boolean porHora) {
+        List<String> dispositivos = new ArrayList<>(porDispositivo.keySet());
+        writer.println("# Comparacion entre dispositivos");
+        writer.println("Columna,Dispositivo,Muestras,Media,Minimo,Maximo,Diferencia media con " + dispositivos.get(0));
+        for (int c = 0; c < titulos.size(); c++) {
+            double referencia = Double.NaN;
+            for (String dispositivo : dispositivos) {
+                ResultadoAnalisis.Acumulado total = new ResultadoAnalisis.Acumulado();
+                for (ResultadoAnalisis.Acumulado a : porDispositivo.get(dispositivo).getPorHora(c).values()) {
+                    total.combinar(a);
+                }
+                if (total.muestras == 0) continue;
+                if (Double.isNaN(referencia) && dispositivo.equals(dispositivos.get(0))) {
+                    referencia = total.getMedia();
+                }
+                writer.println(titulos.get(c) + ',' + dispositivo + ',' + total.muestras + ','
+                    + decimal(total.getMedia()) + ',' + decimal(total.minimo) + ',' + decimal(total.maximo) + ','
+                    + decimal(total.getMedia() - referencia));
+            }
+        }
+        writer.println();
+
+        writer.println("Columna," + (porHora ? "Hora" : "Dia") + ',' + String.join(",", dispositivos) + ",Diferencia maxima");
+        for (int c = 0; c < titulos.size(); c++) {
+            List<TreeMap<Long, ResultadoAnalisis.Acumulado>> series = new ArrayList<>();
+            TreeSet<Long> periodos = new TreeSet<>();
+            for (String dispositivo : dispositivos) {
+                TreeMap<Long, ResultadoAnalisis.Acumulado> serie = agrupar(porDispositivo.get(dispositivo), c, porHora);
+                series.add(serie);
+                periodos.addAll(serie.keySet());
+            }
+            for (long p : periodos) {
+                StringBuilder sb = new StringBuilder(titulos.get(c)).append(',').append(periodo(p, porHora));
+                double minimo = Double.POSITIVE_INFINITY;
+                double maximo = Double.NEGATIVE_INFINITY;
+                int conDato = 0;
+                for (TreeMap<Long, ResultadoAnalisis.Acumulado> serie : series) {
+                    ResultadoAnalisis.Acumulado a = serie.get(p);
+                    sb.append(',');
+                    if (a != null && a.muestras > 0) {
+                        double media = a.getMedia();
+                        sb.append(decimal(media));
+                        minimo = Math.min(minimo, media);
+                        maximo = Math.max(maximo, media);
+                        conDato++;
+                    }
+                }
+                sb.append(',').append(conDato > 1 ? decimal(maximo - minimo) : "");
+                writer.println(sb);
+            }
+        }
+    }
+}
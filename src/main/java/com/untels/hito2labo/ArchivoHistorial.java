@@ -0,0 +1,475 @@
+package com.untels.hito2labo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Persistencia del historial en segmentos binarios dentro de un directorio.
+ * Cada segmento ("segmento-&lt;inicioMs&gt;.dat") cubre como máximo una hora y
+ * un conjunto fijo de canales; si aparece un canal nuevo se empieza otro.
+ * Un segmento nunca se sobrescribe: si ya existe uno con el mismo inicio
+ * (reloj atrasado), el nuevo se llama "segmento-&lt;inicioMs&gt;_&lt;n&gt;.dat".
+ * <pre>
+ *   cabecera: int magia, int versión, long inicioMs, short canales,
+ *             por canal: clave y nombre (short longitud + UTF-8)
+ *   registro: long tiempoMs, int muestras perdidas,
+ *             por canal: float crudo, float filtrado (NaN si faltaba)
+ * </pre>
+ * Añadir una fila desde el hilo de procesamiento solo la copia a un buffer
+ * de entrada, en una sección crítica corta que no comparte cerrojo con el
+ * disco, y no crea objetos. Un hilo de baja prioridad intercambia ese
+ * buffer por otro vacío cada pocos segundos (antes si se llena a la
+ * mitad) y es quien rota los segmentos y escribe en el disco. Si el disco
+ * se atasca el buffer de entrada crece hasta un límite; pasado este las
+ * filas se descartan y se avisa.
+ * Con el tiempo {@link CompactadorHistorial} resume los segmentos antiguos
+ * en segmentos de medias por minuto ("minuto-&lt;inicio&gt;-&lt;fin&gt;.dat")
+ * y por hora ("hora-&lt;inicio&gt;-&lt;fin&gt;.dat"), con el mismo formato.
+ * Un resumen sustituye a los segmentos de nivel inferior que empiezan en su
+ * intervalo y que no se modificaron después de construirlo (su fecha de
+ * modificación es el instante en que se construyó): al leer, esos segmentos
+ * se ignoran aunque aún no se hayan borrado. Un segmento que llega tarde a
+ * un intervalo ya resumido sigue visible hasta que el compactador lo
+ * incorpora al resumen.
+ */
+public class ArchivoHistorial {
+    private static final String PREFIJO = "segmento-";
+    private static final String[] PREFIJOS_NIVEL = {PREFIJO, "minuto-", "hora-"};
+    /** Niveles de resolución de los segmentos */
+    static final int NIVEL_BRUTO = 0;
+    static final int NIVEL_MINUTOS = 1;
+    static final int NIVEL_HORAS = 2;
+    private static final String EXTENSION = ".dat";
+    static final long DURACION_SEGMENTO_MS = 3_600_000L;
+    private static final long PERIODO_VOLCADO_MS = 5000;
+    private static final int CAPACIDAD_ENTRADA = 64 * 1024;
+    private static final int CAPACIDAD_MAXIMA_ENTRADA = 4 * 1024 * 1024;
+    /* Fila en el buffer de entrada: long tiempo, int perdidas, byte columnas, y por columna byte canal y dos float */
+    private static final int BYTES_FIJOS_ENTRADA = 13;
+    private static final int BYTES_COLUMNA_ENTRADA = 9;
+
+    private final Path directorio;
+    private final RegistroCanales registro;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(16 * 1024);
+    private final int[] columnaDeCanal = new int[RegistroCanales.MAX_CANALES];
+    private final Thread volcador;
+
+    /* Entrada de filas del hilo de procesamiento (protegida por cerrojoEntrada) */
+    private final Object cerrojoEntrada = new Object();
+    private ByteBuffer entrada = ByteBuffer.allocate(CAPACIDAD_ENTRADA);
+    private boolean volcadoPedido;
+    private long descartadas;
+    private boolean cerrado;
+
+    /* Estado del volcado y del segmento actual (protegido por this) */
+    private ByteBuffer lote = ByteBuffer.allocate(CAPACIDAD_ENTRADA);
+    private final int[] filaCanales = new int[RegistroCanales.MAX_CANALES];
+    private final float[] filaCrudos = new float[RegistroCanales.MAX_CANALES];
+    private final float[] filaFiltrados = new float[RegistroCanales.MAX_CANALES];
+    private long descartadasAvisadas;
+    private FileChannel segmento;
+    private long inicioSegmentoMs;
+    private int mascaraCanales;
+    private int numColumnas;
+    private int[] canalDeColumna = new int[0];
+
+    /**
+     * @param directorio El directorio de los segmentos (se crea si no existe).
+     * @param registro   El registro de canales de la aplicación.
+     */
+    public ArchivoHistorial(Path directorio, RegistroCanales registro) {
+        this.directorio = directorio;
+        this.registro = registro;
+        volcador = new Thread(this::bucleVolcado, "persistencia-historial");
+        volcador.setDaemon(true);
+        volcador.setPriority(Thread.MIN_PRIORITY);
+        volcador.start();
+    }
+
+    /**
+     * Crea la persistencia según la configuración (claves historial.persistir
+     * e historial.directorio), o devuelve null si está desactivada.
+     */
+    public static ArchivoHistorial desdeConfiguracion(Configuracion configuracion, RegistroCanales registro) {
+        if (!configuracion.getBooleano("historial.persistir", true)) {
+            return null;
+        }
+        return new ArchivoHistorial(Paths.get(configuracion.getTexto("historial.directorio", "historial")), registro);
+    }
+
+    public Path getDirectorio() {
+        return directorio;
+    }
+
+    /**
+     * Añade una fila al historial; la escribe en el disco el hilo de volcado.
+     * Mismos parámetros que {@link AlmacenMuestras#agregar}.
+     */
+    public void agregar(long tiempoMs, int[] canales, float[] crudos, float[] filtrados,
+                        int n, int perdidas) {
+        int bytes = BYTES_FIJOS_ENTRADA + BYTES_COLUMNA_ENTRADA * n;
+        boolean despertar;
+        synchronized (cerrojoEntrada) {
+            if (cerrado) return;
+            if (entrada.remaining() < bytes && !ampliarEntrada(bytes)) {
+                descartadas++;
+                return;
+            }
+            entrada.putLong(tiempoMs).putInt(perdidas).put((byte) n);
+            for (int i = 0; i < n; i++) {
+                entrada.put((byte) canales[i]).putFloat(crudos[i]).putFloat(filtrados[i]);
+            }
+            despertar = !volcadoPedido && entrada.position() > entrada.capacity() / 2;
+            if (despertar) volcadoPedido = true;
+        }
+        if (despertar) {
+            LockSupport.unpark(volcador);
+        }
+    }
+
+    /*
+     * Duplica el buffer de entrada (solo si el volcado no da abasto), sin
+     * pasar del límite. Se llama con cerrojoEntrada tomado.
+     */
+    private boolean ampliarEntrada(int bytes) {
+        int capacidad = entrada.capacity();
+        while (capacidad - entrada.position() < bytes) {
+            capacidad *= 2;
+        }
+        if (capacidad > CAPACIDAD_MAXIMA_ENTRADA) {
+            return false;
+        }
+        ByteBuffer mayor = ByteBuffer.allocate(capacidad);
+        entrada.flip();
+        mayor.put(entrada);
+        entrada = mayor;
+        return true;
+    }
+
+    /*
+     * Escribe en el segmento la siguiente fila del lote, rotando el
+     * segmento si hace falta.
+     */
+    private void escribirFila(ByteBuffer lote) throws IOException {
+        long tiempoMs = lote.getLong();
+        int perdidas = lote.getInt();
+        int n = lote.get();
+        for (int i = 0; i < n; i++) {
+            filaCanales[i] = lote.get();
+            filaCrudos[i] = lote.getFloat();
+            filaFiltrados[i] = lote.getFloat();
+        }
+        escribirFila(tiempoMs, filaCanales, filaCrudos, filaFiltrados, n, perdidas);
+    }
+
+    private void escribirFila(long tiempoMs, int[] canales, float[] crudos, float[] filtrados,
+                              int n, int perdidas) throws IOException {
+        int mascara = 0;
+        for (int i = 0; i < n; i++) {
+            mascara |= 1 << canales[i];
+        }
+        if (segmento == null || tiempoMs - inicioSegmentoMs >= DURACION_SEGMENTO_MS
+                || (mascara & ~mascaraCanales) != 0) {
+            rotar(tiempoMs, mascara | (segmento == null ? 0 : mascaraCanales));
+        }
+        if (buffer.remaining() < SegmentoHistorial.BYTES_FIJOS_REGISTRO + 8 * numColumnas) {
+            escribirBuffer();
+        }
+        int inicio = buffer.position();
+        buffer.putLong(tiempoMs).putInt(perdidas);
+        for (int c = 0; c < numColumnas; c++) {
+            buffer.putFloat(Float.NaN).putFloat(Float.NaN);
+        }
+        for (int i = 0; i < n; i++) {
+            int posicion = inicio + SegmentoHistorial.BYTES_FIJOS_REGISTRO + columnaDeCanal[canales[i]] * 8;
+            buffer.putFloat(posicion, crudos[i]);
+            buffer.putFloat(posicion + 4, filtrados[i]);
+        }
+    }
+
+    /*
+     * Cierra el segmento actual y abre uno nuevo con los canales indicados.
+     */
+    private void rotar(long tiempoMs, int mascara) throws IOException {
+        escribirBuffer();
+        cerrarSegmento();
+        Files.createDirectories(directorio);
+
+        mascaraCanales = mascara;
+        numColumnas = Integer.bitCount(mascara);
+        canalDeColumna = new int[numColumnas];
+        java.util.Arrays.fill(columnaDeCanal, -1);
+        int columna = 0;
+        for (int canal = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+            if ((mascara & (1 << canal)) != 0) {
+                canalDeColumna[columna] = canal;
+                columnaDeCanal[canal] = columna++;
+            }
+        }
+
+        inicioSegmentoMs = tiempoMs;
+        segmento = crearSegmento(tiempoMs);
+        segmento.write(ByteBuffer.wrap(cabecera(tiempoMs, canalDeColumna, registro)));
+    }
+
+    /*
+     * Crea el archivo de un segmento nuevo sin tocar ninguno existente: si
+     * ya hay uno con el mismo inicio se le añade un sufijo.
+     */
+    private FileChannel crearSegmento(long inicioMs) throws IOException {
+        for (int copia = 0; ; copia++) {
+            Path ruta = directorio.resolve(PREFIJO + inicioMs + (copia == 0 ? "" : "_" + copia) + EXTENSION);
+            try {
+                return FileChannel.open(ruta, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (FileAlreadyExistsException e) {
+                // Se prueba con el siguiente sufijo
+            }
+        }
+    }
+
+    /*
+     * Cabecera de un segmento con los canales indicados, en orden de columna.
+     */
+    static byte[] cabecera(long inicioMs, int[] canalDeColumna, RegistroCanales registro) throws IOException {
+        ByteArrayOutputStream cabecera = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(cabecera);
+        out.writeInt(SegmentoHistorial.MAGIA);
+        out.writeInt(SegmentoHistorial.VERSION);
+        out.writeLong(inicioMs);
+        out.writeShort(canalDeColumna.length);
+        for (int canal : canalDeColumna) {
+            escribirTexto(out, registro.getClave(canal));
+            escribirTexto(out, registro.getNombre(canal));
+        }
+        return cabecera.toByteArray();
+    }
+
+    private static void escribirTexto(DataOutputStream out, String texto) throws IOException {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private void escribirBuffer() throws IOException {
+        if (segmento == null || buffer.position() == 0) {
+            buffer.clear();
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segmento.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void cerrarSegmento() {
+        if (segmento != null) {
+            try {
+                segmento.close();
+            } catch (IOException e) {
+                // El segmento ya no se usará
+            }
+            segmento = null;
+        }
+    }
+
+    /**
+     * Vuelca al disco las filas añadidas hasta ahora. El hilo de
+     * procesamiento solo espera al intercambio de buffers, no al disco.
+     */
+    public synchronized void vaciar() {
+        ByteBuffer filas;
+        long totalDescartadas;
+        synchronized (cerrojoEntrada) {
+            filas = entrada;
+            entrada = lote;
+            volcadoPedido = false;
+            totalDescartadas = descartadas;
+        }
+        lote = filas;
+        filas.flip();
+        try {
+            while (filas.hasRemaining()) {
+                escribirFila(filas);
+            }
+            escribirBuffer();
+        } catch (IOException e) {
+            System.err.println("Error al guardar el historial: " + e.getMessage());
+            cerrarSegmento();
+        } finally {
+            filas.clear();
+        }
+        if (totalDescartadas > descartadasAvisadas) {
+            System.err.println("Historial en disco: " + (totalDescartadas - descartadasAvisadas)
+                + " filas descartadas, el disco no da abasto");
+            descartadasAvisadas = totalDescartadas;
+        }
+    }
+
+    private void bucleVolcado() {
+        while (!Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(PERIODO_VOLCADO_MS * 1_000_000L);
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            vaciar();
+        }
+    }
+
+    /**
+     * Vuelca lo pendiente y cierra el segmento actual.
+     */
+    public synchronized void cerrar() {
+        synchronized (cerrojoEntrada) {
+            cerrado = true;
+        }
+        vaciar();
+        cerrarSegmento();
+        volcador.interrupt();
+    }
+
+    /**
+     * Proyecta en memoria los segmentos que contienen datos posteriores al
+     * instante indicado, sin decodificar sus registros. Solo se listan los
+     * nombres del directorio; los segmentos antiguos no se abren. Se
+     * combinan los niveles: donde hay resúmenes, sus segmentos sustituyen a
+     * los de más resolución.
+     *
+     * @param directorio El directorio de los segmentos.
+     * @param registro   El registro de canales de la aplicación.
+     * @param desdeMs    Instante más antiguo que interesa.
+     * @return Los segmentos en orden cronológico (vacía si no hay ninguno).
+     */
+    public static List<SegmentoHistorial> abrirRecientes(Path directorio, RegistroCanales registro, long desdeMs) {
+        List<SegmentoHistorial> segmentos = new ArrayList<>();
+        List<EntradaSegmento> todas = listar(directorio);
+        List<EntradaSegmento> vigentes = new ArrayList<>();
+        for (EntradaSegmento entrada : todas) {
+            if (!cubierta(entrada, todas)) {
+                vigentes.add(entrada);
+            }
+        }
+        /*
+         * Un segmento interesa si empieza después de desdeMs, o si es el
+         * último que empieza antes (puede contener el principio de la ventana).
+         */
+        long ultimoAnterior = Long.MIN_VALUE;
+        for (EntradaSegmento entrada : vigentes) {
+            if (entrada.inicio < desdeMs && entrada.inicio > ultimoAnterior) {
+                ultimoAnterior = entrada.inicio;
+            }
+        }
+        for (EntradaSegmento entrada : vigentes) {
+            if (entrada.inicio < desdeMs && (entrada.inicio != ultimoAnterior || ultimoAnterior == Long.MIN_VALUE)) {
+                continue;
+            }
+            try {
+                SegmentoHistorial segmento = SegmentoHistorial.abrir(entrada.ruta, registro);
+                if (segmento.getFilas() > 0) {
+                    segmentos.add(segmento);
+                }
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        return segmentos;
+    }
+
+    /*
+     * Segmentos del directorio, de todos los niveles, en orden de inicio
+     * (a igual inicio, el de menos resolución primero).
+     */
+    static List<EntradaSegmento> listar(Path directorio) {
+        List<EntradaSegmento> entradas = new ArrayList<>();
+        File[] archivos = directorio.toFile().listFiles((dir, nombre) -> nombre.endsWith(EXTENSION));
+        if (archivos == null) {
+            return entradas;
+        }
+        for (File archivo : archivos) {
+            EntradaSegmento entrada = EntradaSegmento.desdeNombre(archivo.toPath());
+            if (entrada != null) {
+                entradas.add(entrada);
+            }
+        }
+        entradas.sort((a, b) -> a.inicio != b.inicio ? Long.compare(a.inicio, b.inicio)
+                                                     : Integer.compare(b.nivel, a.nivel));
+        return entradas;
+    }
+
+    /*
+     * Un segmento está cubierto si empieza dentro del intervalo de un
+     * resumen de nivel superior construido después de su última modificación.
+     */
+    static boolean cubierta(EntradaSegmento entrada, List<EntradaSegmento> todas) {
+        for (EntradaSegmento resumen : todas) {
+            if (resumen.nivel > entrada.nivel && entrada.inicio >= resumen.inicio && entrada.inicio < resumen.fin
+                    && entrada.modificado < resumen.modificado) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Nombre de un segmento de resumen del nivel e intervalo indicados.
+     */
+    static String nombreResumen(int nivel, long inicio, long fin) {
+        return PREFIJOS_NIVEL[nivel] + inicio + "-" + fin + EXTENSION;
+    }
+
+    /*
+     * Nivel e intervalo de un segmento, leídos de su nombre, y su fecha de
+     * modificación (en un resumen, el instante en que se construyó).
+     */
+    static final class EntradaSegmento {
+        final int nivel;
+        final long inicio;
+        final long fin;
+        final Path ruta;
+        final long modificado;
+
+        private EntradaSegmento(int nivel, long inicio, long fin, Path ruta) {
+            this.nivel = nivel;
+            this.inicio = inicio;
+            this.fin = fin;
+            this.ruta = ruta;
+            this.modificado = ruta.toFile().lastModified();
+        }
+
+        static EntradaSegmento desdeNombre(Path ruta) {
+            String nombre = ruta.getFileName().toString();
+            for (int nivel = 0; nivel < PREFIJOS_NIVEL.length; nivel++) {
+                if (!nombre.startsWith(PREFIJOS_NIVEL[nivel])) continue;
+                String cuerpo = nombre.substring(PREFIJOS_NIVEL[nivel].length(), nombre.length() - EXTENSION.length());
+                try {
+                    if (nivel == NIVEL_BRUTO) {
+                        /* Sin el sufijo de los segmentos con el mismo inicio */
+                        int sufijo = cuerpo.indexOf('_');
+                        long inicio = Long.parseLong(sufijo < 0 ? cuerpo : cuerpo.substring(0, sufijo));
+                        return new EntradaSegmento(nivel, inicio, inicio + DURACION_SEGMENTO_MS, ruta);
+                    }
+                    /* El inicio puede ser negativo: el guion del intervalo es el último */
+                    int guion = cuerpo.lastIndexOf('-');
+                    return new EntradaSegmento(nivel, Long.parseLong(cuerpo.substring(0, guion)),
+                                               Long.parseLong(cuerpo.substring(guion + 1)), ruta);
+                } catch (RuntimeException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+}
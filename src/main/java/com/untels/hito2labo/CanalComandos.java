@@ -0,0 +1,311 @@
+package com.untels.hito2labo;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Canal asíncrono de comandos hacia la placa.
+ * Los comandos se encolan sin bloquear al llamador (normalmente el hilo de
+ * eventos de Swing) y un hilo escritor propio los envía al puerto.
+ * Los comandos con la misma clave de agrupación se combinan: si "ON" sigue
+ * pendiente cuando llega "OFF", solo se envía "OFF".
+ * Con el protocolo de confirmación activo cada comando viaja como
+ * "COMANDO#id" y la placa responde "ACK:id;", lo que permite medir la
+ * latencia de ida y vuelta; sin él un comando se da por confirmado al
+ * escribirlo en el puerto.
+ */
+public class CanalComandos implements CanalComandosMXBean {
+    private static final long ESPERA_MAXIMA_ACK_MS = 5000;
+
+    /**
+     * Escritura de bytes en el puerto; devuelve los bytes escritos o -1 si falla.
+     */
+    public interface Escritor {
+        int escribir(byte[] datos, int longitud);
+    }
+
+    /**
+     * Resultado de un comando: confirmado (con su latencia), fallido o
+     * reemplazado por uno más reciente de la misma agrupación antes de
+     * enviarse (lo normal con pulsaciones rápidas, no un error).
+     * Se invoca desde el hilo escritor o el de lectura, salvo el fallo por
+     * canal detenido y el reemplazo, que se notifican en el hilo que llama
+     * a {@link #enviar} (el EDT desde la interfaz): el listener no debe
+     * bloquear ni tocar componentes Swing directamente.
+     */
+    public interface ComandoListener {
+        void onComandoConfirmado(String comando, long latenciaNanos);
+        void onComandoFallido(String comando, String motivo);
+        void onComandoReemplazado(String comando, String nuevo);
+    }
+
+    private static class Comando {
+        final String texto;
+        final ComandoListener listener;
+        long enviadoNanos;
+
+        Comando(String texto, ComandoListener listener) {
+            this.texto = texto;
+            this.listener = listener;
+        }
+    }
+
+    private final Escritor escritor;
+    private final Map<String, Comando> pendientes = new LinkedHashMap<>();
+    private final Map<Integer, Comando> esperandoAck = new ConcurrentHashMap<>();
+    private volatile boolean confirmacion;
+    private int siguienteId = 1;
+    private Thread hiloEscritor;
+    private volatile boolean activo;
+
+    /*
+     * Estadísticas de latencia de ida y vuelta (nanosegundos).
+     */
+    private long confirmados;
+    private long latenciaTotal;
+    private long latenciaMinima = Long.MAX_VALUE;
+    private long latenciaMaxima;
+
+    /**
+     * @param escritor     La función que escribe en el puerto.
+     * @param confirmacion True para usar el protocolo de confirmación con la placa.
+     */
+    public CanalComandos(Escritor escritor, boolean confirmacion) {
+        this.escritor = escritor;
+        this.confirmacion = confirmacion;
+    }
+
+    public void setConfirmacion(boolean confirmacion) {
+        this.confirmacion = confirmacion;
+    }
+
+    @Override
+    public boolean isConfirmacion() {
+        return confirmacion;
+    }
+
+    /**
+     * Publica la latencia de los comandos en el servidor JMX de la plataforma.
+     * Un fallo al registrar no impide seguir enviando comandos.
+     *
+     * @param dispositivo El puerto de la placa.
+     */
+    public void registrarJmx(String dispositivo) {
+        try {
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            ObjectName nombre = new ObjectName("com.untels.hito2labo:type=Comandos,dispositivo="
+                + ObjectName.quote(dispositivo));
+            if (!servidor.isRegistered(nombre)) {
+                servidor.registerMBean(this, nombre);
+            }
+        } catch (Exception e) {
+            System.err.println("No se pudieron publicar las métricas de los comandos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Inicia el hilo escritor si no está en marcha.
+     */
+    public synchronized void iniciar() {
+        if (activo) return;
+        activo = true;
+        hiloEscritor = new Thread(this::bucleEscritura, "escritor-comandos");
+        hiloEscritor.setDaemon(true);
+        hiloEscritor.start();
+    }
+
+    /**
+     * Detiene el hilo escritor; los comandos pendientes se notifican como fallidos.
+     */
+    public void detener() {
+        Thread hilo;
+        synchronized (this) {
+            activo = false;
+            hilo = hiloEscritor;
+            hiloEscritor = null;
+            notifyAll();
+        }
+        if (hilo != null) {
+            hilo.interrupt();
+        }
+        fallarTodos("Canal de comandos detenido");
+    }
+
+    /**
+     * Encola un comando sin bloquear.
+     *
+     * @param comando   El texto del comando (sin salto de línea).
+     * @param agrupacion Clave de agrupación; un comando pendiente con la misma
+     *                  clave se sustituye por este.
+     * @param listener  Listener del resultado, o null.
+     */
+    public void enviar(String comando, String agrupacion, ComandoListener listener) {
+        Comando reemplazado = null;
+        boolean aceptado;
+        synchronized (this) {
+            aceptado = activo;
+            if (aceptado) {
+                /*
+                 * Se elimina antes de insertar para que el comando pase al final de la cola.
+                 */
+                reemplazado = pendientes.remove(agrupacion);
+                pendientes.put(agrupacion, new Comando(comando, listener));
+                notifyAll();
+            }
+        }
+        if (!aceptado) {
+            if (listener != null) listener.onComandoFallido(comando, "Dispositivo desconectado");
+            return;
+        }
+        if (reemplazado != null && reemplazado.listener != null) {
+            reemplazado.listener.onComandoReemplazado(reemplazado.texto, comando);
+        }
+    }
+
+    /*
+     * Bucle del hilo escritor: toma el comando más antiguo y lo escribe en el
+     * puerto; entre comandos revisa las confirmaciones caducadas.
+     */
+    private void bucleEscritura() {
+        while (activo) {
+            Comando comando;
+            synchronized (this) {
+                while (activo && pendientes.isEmpty()) {
+                    try {
+                        wait(esperandoAck.isEmpty() ? 0 : 500);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    revisarCaducados();
+                }
+                if (!activo) return;
+                Iterator<Comando> it = pendientes.values().iterator();
+                comando = it.next();
+                it.remove();
+            }
+            escribir(comando);
+        }
+    }
+
+    private void escribir(Comando comando) {
+        String linea = comando.texto;
+        int id = 0;
+        if (confirmacion) {
+            id = siguienteId++;
+            linea = linea + "#" + id;
+        }
+        /*
+         * La longitud se toma de los bytes codificados, no de los caracteres.
+         */
+        byte[] bytes = (linea + "\n").getBytes(StandardCharsets.US_ASCII);
+        comando.enviadoNanos = System.nanoTime();
+        if (confirmacion) {
+            esperandoAck.put(id, comando);
+        }
+
+        int escritos = escritor.escribir(bytes, bytes.length);
+        if (escritos != bytes.length) {
+            esperandoAck.remove(id);
+            if (comando.listener != null) {
+                comando.listener.onComandoFallido(comando.texto, "Error de escritura en el puerto");
+            }
+        } else if (!confirmacion) {
+            completar(comando);
+        }
+    }
+
+    /**
+     * Procesa una respuesta "ACK:id" recibida de la placa.
+     *
+     * @param trama La trama recibida, sin el terminador ';'.
+     * @return True si la trama era una confirmación.
+     */
+    public boolean procesarRespuesta(String trama) {
+        if (!trama.startsWith("ACK:")) {
+            return false;
+        }
+        try {
+            Comando comando = esperandoAck.remove(Integer.parseInt(trama.substring(4).trim()));
+            if (comando != null) {
+                completar(comando);
+            }
+        } catch (NumberFormatException e) {
+            // Confirmación mal formada: se descarta
+        }
+        return true;
+    }
+
+    private void completar(Comando comando) {
+        long latencia = System.nanoTime() - comando.enviadoNanos;
+        synchronized (this) {
+            confirmados++;
+            latenciaTotal += latencia;
+            latenciaMinima = Math.min(latenciaMinima, latencia);
+            latenciaMaxima = Math.max(latenciaMaxima, latencia);
+        }
+        if (comando.listener != null) {
+            comando.listener.onComandoConfirmado(comando.texto, latencia);
+        }
+    }
+
+    private void revisarCaducados() {
+        long ahora = System.nanoTime();
+        Iterator<Comando> it = esperandoAck.values().iterator();
+        while (it.hasNext()) {
+            Comando comando = it.next();
+            if (ahora - comando.enviadoNanos > ESPERA_MAXIMA_ACK_MS * 1_000_000L) {
+                it.remove();
+                if (comando.listener != null) {
+                    comando.listener.onComandoFallido(comando.texto, "Sin confirmación de la placa");
+                }
+            }
+        }
+    }
+
+    private void fallarTodos(String motivo) {
+        Comando[] restantes;
+        synchronized (this) {
+            restantes = pendientes.values().toArray(new Comando[0]);
+            pendientes.clear();
+        }
+        for (Comando comando : restantes) {
+            if (comando.listener != null) comando.listener.onComandoFallido(comando.texto, motivo);
+        }
+        Iterator<Comando> it = esperandoAck.values().iterator();
+        while (it.hasNext()) {
+            Comando comando = it.next();
+            it.remove();
+            if (comando.listener != null) comando.listener.onComandoFallido(comando.texto, motivo);
+        }
+    }
+
+    @Override
+    public synchronized long getComandosConfirmados() {
+        return confirmados;
+    }
+
+    /**
+     * @return La latencia media de ida y vuelta en milisegundos (0 sin datos).
+     */
+    @Override
+    public synchronized double getLatenciaMediaMs() {
+        return confirmados == 0 ? 0 : latenciaTotal / 1e6 / confirmados;
+    }
+
+    @Override
+    public synchronized double getLatenciaMinimaMs() {
+        return confirmados == 0 ? 0 : latenciaMinima / 1e6;
+    }
+
+    @Override
+    public synchronized double getLatenciaMaximaMs() {
+        return latenciaMaxima / 1e6;
+    }
+}
@@ -0,0 +1,17 @@
+package com.untels.hito2labo;
+
+/**
+ * Latencia de ida y vuelta de los comandos confirmados por la placa,
+ * publicada por JMX (bajo com.untels.hito2labo:type=Comandos).
+ */
+public interface CanalComandosMXBean {
+    boolean isConfirmacion();
+
+    long getComandosConfirmados();
+
+    double getLatenciaMediaMs();
+
+    double getLatenciaMinimaMs();
+
+    double getLatenciaMaximaMs();
+}
@@ -0,0 +1,163 @@
+package com.untels.hito2labo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generador de carga para la ingesta de red: abre muchas conexiones TCP
+ * y/o emisores UDP que envían tramas "SEQ:n,TEMP:xx.x,HUM:yy.y;" a la tasa
+ * pedida, desde un único hilo. Con --local arranca además un
+ * {@link ServidorIngesta} en el mismo proceso que analiza las tramas con
+ * {@link ParserTramas} y cuenta las recibidas, para medir el servidor sin
+ * abrir la aplicación.
+ * Uso: {@code java -cp Hito2LAbo.jar com.untels.hito2labo.ClienteCargaIngesta
+ * [--host 127.0.0.1] [--puerto p | --local] [--tcp 1000] [--udp 0]
+ * [--tasa tramas/s por emisor] [--duracion s]}
+ */
+public class ClienteCargaIngesta {
+    private static final String USO =
+        "Uso: ClienteCargaIngesta [--host h] [--puerto p | --local] [--tcp N] [--udp N]\n"
+        + "                         [--tasa tramas/s por emisor] [--duracion s]";
+    private static final long PASO_NANOS = 10_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        String host = "127.0.0.1";
+        int puerto = 0;
+        boolean local = false;
+        int tcp = 1000;
+        int udp = 0;
+        double tasa = 1.0;
+        int duracion = 10;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--host": host = args[++i]; break;
+                    case "--puerto": puerto = Integer.parseInt(args[++i]); break;
+                    case "--local": local = true; break;
+                    case "--tcp": tcp = Integer.parseInt(args[++i]); break;
+                    case "--udp": udp = Integer.parseInt(args[++i]); break;
+                    case "--tasa": tasa = Double.parseDouble(args[++i]); break;
+                    case "--duracion": duracion = Integer.parseInt(args[++i]); break;
+                    default: throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+                }
+            }
+            if (!local && puerto <= 0) {
+                throw new IllegalArgumentException("Falta --puerto o --local");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USO);
+            System.exit(2);
+            return;
+        }
+
+        /* Servidor local: analiza cada trama como lo haría la aplicación */
+        ServidorIngesta servidor = null;
+        AtomicLong recibidas = new AtomicLong();
+        AtomicLong invalidas = new AtomicLong();
+        if (local) {
+            ParserTramas parser = new ParserTramas(new RegistroCanales());
+            servidor = new ServidorIngesta(new InetSocketAddress(host, 0), tcp + 16, (tramas, llegadas, dispositivos, n) -> {
+                for (int i = 0; i < n; i++) {
+                    if (parser.parsear(tramas[i]) < 0) invalidas.incrementAndGet();
+                }
+                recibidas.addAndGet(n);
+            });
+            servidor.iniciar();
+            puerto = servidor.getPuerto();
+            System.out.println("Servidor local en " + host + ":" + puerto);
+        }
+
+        InetSocketAddress destino = new InetSocketAddress(host, puerto);
+        List<WritableByteChannel> emisores = new ArrayList<>(tcp + udp);
+        try {
+            for (int i = 0; i < tcp; i++) {
+                emisores.add(SocketChannel.open(destino));
+            }
+            for (int i = 0; i < udp; i++) {
+                DatagramChannel canal = DatagramChannel.open();
+                canal.connect(destino);
+                emisores.add(canal);
+            }
+            System.out.println(tcp + " conexiones TCP y " + udp + " emisores UDP a "
+                + tasa + " tramas/s cada uno");
+            long enviadas = enviar(emisores, tasa, duracion, servidor, recibidas);
+
+            if (servidor != null) {
+                /* Margen para que el servidor termine de leer lo enviado */
+                Thread.sleep(500);
+                System.out.println(String.format(Locale.ROOT,
+                    "Enviadas %d, recibidas %d (%d inválidas), %s",
+                    enviadas, recibidas.get(), invalidas.get(), servidor.resumen()));
+            }
+        } catch (IOException e) {
+            System.err.println("Error en la carga: " + e.getMessage() + " (" + emisores.size() + " emisores abiertos)");
+        } finally {
+            for (WritableByteChannel emisor : emisores) {
+                try {
+                    emisor.close();
+                } catch (IOException e) {
+                    // Se sigue cerrando el resto
+                }
+            }
+            if (servidor != null) {
+                servidor.detener();
+            }
+        }
+    }
+
+    /*
+     * Reparte las tramas por turnos entre los emisores manteniendo la tasa
+     * total; cada segundo muestra el progreso.
+     */
+    private static long enviar(List<WritableByteChannel> emisores, double tasa, int duracion,
+                               ServidorIngesta servidor, AtomicLong recibidas) throws IOException, InterruptedException {
+        int[] secuencias = new int[emisores.size()];
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        StringBuilder trama = new StringBuilder(64);
+        double porNanosegundo = tasa * emisores.size() / 1e9;
+        long inicio = System.nanoTime();
+        long fin = inicio + duracion * 1_000_000_000L;
+        long siguienteInforme = inicio + 1_000_000_000L;
+        long enviadas = 0;
+        int turno = 0;
+        long ahora;
+        while ((ahora = System.nanoTime()) < fin) {
+            long objetivo = (long) ((ahora - inicio) * porNanosegundo);
+            while (enviadas < objetivo && !emisores.isEmpty()) {
+                int e = turno;
+                turno = (turno + 1) % emisores.size();
+                int secuencia = secuencias[e];
+                secuencias[e] = (secuencia + 1) & 0xFFFF;
+                trama.setLength(0);
+                trama.append("SEQ:").append(secuencia)
+                     .append(",TEMP:").append(20 + (e % 100) / 10).append('.').append(secuencia % 10)
+                     .append(",HUM:").append(40 + e % 50).append(".0;");
+                buffer.clear();
+                for (int i = 0; i < trama.length(); i++) {
+                    buffer.put((byte) trama.charAt(i));
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    emisores.get(e).write(buffer);
+                }
+                enviadas++;
+            }
+            if (ahora >= siguienteInforme) {
+                siguienteInforme += 1_000_000_000L;
+                System.out.println("Enviadas " + enviadas
+                    + (servidor != null ? ", recibidas " + recibidas.get() + ", conexiones " + servidor.getConexiones() : ""));
+            }
+            Thread.sleep(PASO_NANOS / 1_000_000L);
+        }
+        return enviadas;
+    }
+}
@@ -0,0 +1,281 @@
+package com.untels.hito2labo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * Cliente del {@link DemonioMonitor}: mantiene una conexión con el demonio
+ * (reconectando cada pocos segundos si se pierde) y reconstruye a partir de
+ * la instantánea y del flujo un historial local en un AlmacenMuestras, de
+ * modo que los paneles de la aplicación lo leen igual que en modo local.
+ * Los canales del demonio se dan de alta en el registro local con su
+ * clave y su nombre. Cada conexión empieza con el historial vacío: la
+ * instantánea lo vuelve a llenar.
+ * El receptor se llama desde el hilo del cliente; las filas de la
+ * instantánea no se le pasan una a una, solo su número al terminar.
+ */
+public class ClienteMonitor {
+    /**
+     * Receptor de lo que llega del demonio, llamado desde el hilo del cliente.
+     */
+    public interface Receptor {
+        /** La conexión con el demonio se estableció o se perdió */
+        void onEnlace(boolean conectado, String detalle);
+
+        /** Terminó la instantánea; el almacén ya tiene sus filas */
+        void onInstantanea(int filas);
+
+        void onEstado(String dispositivo, boolean conectado, int salud, int intervaloMs);
+
+        /** Alerta de un canal (identificador local): severidad y sentido */
+        void onAlerta(int canal, int severidad, boolean porEncima);
+
+        /**
+         * Una fila nueva del flujo, ya guardada en el almacén. Los arreglos
+         * (con identificadores locales) se reutilizan.
+         */
+        void onFila(long tiempoMs, int[] canales, float[] filtrados, int n, int perdidas);
+
+        void onEvento(long tiempoMs, int colorRgb, String fuente, String mensaje);
+    }
+
+    private static final int ESPERA_RECONEXION_MS = 2000;
+    private static final int TIEMPO_CONEXION_MS = 2000;
+
+    private final InetSocketAddress direccion;
+    private final RegistroCanales registro;
+    private final AlmacenMuestras almacen;
+    private final Receptor receptor;
+
+    /* Estado de la conexión, solo del hilo del cliente */
+    private final ProtocoloMonitor.Lector lector = new ProtocoloMonitor.Lector();
+    private final ProtocoloMonitor.EstadoFilas estado = new ProtocoloMonitor.EstadoFilas();
+    private final int[] canalLocal = new int[RegistroCanales.MAX_CANALES];
+    private final long[] tiempo = new long[1];
+    private final int[] perdidas = new int[1];
+    private final int[] canales = new int[RegistroCanales.MAX_CANALES];
+    private final float[] crudos = new float[RegistroCanales.MAX_CANALES];
+    private final float[] filtrados = new float[RegistroCanales.MAX_CANALES];
+
+    private Thread hilo;
+    private volatile boolean activo;
+    private volatile Socket socket;
+    private final ProtocoloMonitor.Escritor salida = new ProtocoloMonitor.Escritor(64);
+
+    /**
+     * @param direccion Dirección del demonio.
+     * @param registro  Registro local de canales.
+     * @param almacen   Historial local que se reconstruye.
+     * @param receptor  Receptor de los mensajes.
+     */
+    public ClienteMonitor(InetSocketAddress direccion, RegistroCanales registro, AlmacenMuestras almacen,
+                          Receptor receptor) {
+        this.direccion = direccion;
+        this.registro = registro;
+        this.almacen = almacen;
+        this.receptor = receptor;
+    }
+
+    /**
+     * Interpreta "host:puerto" (o solo "puerto", en 127.0.0.1).
+     *
+     * @throws IllegalArgumentException Si el texto no es una dirección válida.
+     */
+    public static InetSocketAddress parsearDireccion(String texto) {
+        String host = "127.0.0.1";
+        String puerto = texto.trim();
+        int separador = puerto.lastIndexOf(':');
+        if (separador >= 0) {
+            host = puerto.substring(0, separador);
+            puerto = puerto.substring(separador + 1);
+        }
+        try {
+            return new InetSocketAddress(host, Integer.parseInt(puerto));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Dirección del demonio inválida: " + texto);
+        }
+    }
+
+    public InetSocketAddress getDireccion() {
+        return direccion;
+    }
+
+    /**
+     * Arranca el hilo del cliente, que conecta y reconecta solo.
+     */
+    public void iniciar() {
+        activo = true;
+        hilo = new Thread(this::bucle, "cliente-demonio");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    public void detener() {
+        activo = false;
+        cerrarSocket();
+        if (hilo != null) {
+            hilo.interrupt();
+        }
+    }
+
+    /**
+     * Envía un comando para la placa al demonio (que solo admite "ON" y "OFF").
+     *
+     * @return False si no hay conexión con el demonio.
+     */
+    public synchronized boolean enviarComando(String comando) {
+        Socket actual = socket;
+        if (actual == null) return false;
+        salida.reiniciar();
+        salida.empezar(ProtocoloMonitor.COMANDO);
+        salida.texto(comando);
+        salida.terminar();
+        try {
+            OutputStream out = actual.getOutputStream();
+            out.write(salida.getDatos(), 0, salida.getLongitud());
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void bucle() {
+        boolean avisado = false;
+        while (activo) {
+            try (Socket nuevo = new Socket()) {
+                nuevo.connect(direccion, TIEMPO_CONEXION_MS);
+                nuevo.setTcpNoDelay(true);
+                socket = nuevo;
+                DataInputStream entrada = new DataInputStream(
+                    new BufferedInputStream(nuevo.getInputStream(), 64 * 1024));
+                leerFlujo(entrada);
+            } catch (IOException e) {
+                if (activo && (socket != null || !avisado)) {
+                    receptor.onEnlace(false, e.getMessage() != null ? e.getMessage() : e.toString());
+                    avisado = true;
+                }
+            } finally {
+                socket = null;
+            }
+            try {
+                Thread.sleep(ESPERA_RECONEXION_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /*
+     * Lee mensajes hasta que se cierre la conexión. El primero tiene que
+     * ser HOLA con la versión del protocolo.
+     */
+    private void leerFlujo(DataInputStream entrada) throws IOException {
+        if (lector.leer(entrada) != ProtocoloMonitor.HOLA
+                || lector.varint() != ProtocoloMonitor.MAGIA
+                || lector.varint() != ProtocoloMonitor.VERSION) {
+            throw new IOException("El servidor no es un demonio de monitoreo compatible");
+        }
+        almacen.limpiar();
+        estado.reiniciar();
+        Arrays.fill(canalLocal, -1);
+        receptor.onEnlace(true, direccion.getHostString() + ":" + direccion.getPort());
+        boolean enInstantanea = true;
+        int filasInstantanea = 0;
+        while (activo) {
+            int tipo = lector.leer(entrada);
+            switch (tipo) {
+                case ProtocoloMonitor.CANAL: {
+                    int canal = lector.octeto();
+                    String clave = lector.texto();
+                    String nombre = lector.texto();
+                    if (canal < RegistroCanales.MAX_CANALES) {
+                        try {
+                            canalLocal[canal] = registro.registrar(clave, nombre);
+                        } catch (IllegalStateException e) {
+                            canalLocal[canal] = -1;
+                        }
+                    }
+                    break;
+                }
+                case ProtocoloMonitor.ESTADO: {
+                    String dispositivo = lector.texto();
+                    boolean conectado = lector.octeto() != 0;
+                    int salud = lector.octeto();
+                    receptor.onEstado(dispositivo, conectado, salud, (int) lector.varint());
+                    break;
+                }
+                case ProtocoloMonitor.ALERTA: {
+                    int canal = lector.octeto();
+                    int severidad = lector.octeto();
+                    boolean porEncima = lector.octeto() != 0;
+                    if (canal < RegistroCanales.MAX_CANALES && canalLocal[canal] >= 0) {
+                        receptor.onAlerta(canalLocal[canal], severidad, porEncima);
+                    }
+                    break;
+                }
+                case ProtocoloMonitor.FILA: {
+                    int n = ProtocoloMonitor.leerFila(lector, estado, tiempo, perdidas, canales, crudos, filtrados);
+                    n = aCanalesLocales(n);
+                    almacen.agregar(tiempo[0], canales, crudos, filtrados, n, perdidas[0]);
+                    if (enInstantanea) {
+                        filasInstantanea++;
+                    } else {
+                        receptor.onFila(tiempo[0], canales, filtrados, n, perdidas[0]);
+                    }
+                    break;
+                }
+                case ProtocoloMonitor.SINCRONIA:
+                    ProtocoloMonitor.leerSincronia(lector, estado);
+                    break;
+                case ProtocoloMonitor.FIN_INSTANTANEA:
+                    enInstantanea = false;
+                    receptor.onInstantanea(filasInstantanea);
+                    break;
+                case ProtocoloMonitor.EVENTO: {
+                    long tiempoMs = lector.zigzag();
+                    int color = (int) lector.varint();
+                    String fuente = lector.texto();
+                    receptor.onEvento(tiempoMs, color, fuente, lector.texto());
+                    break;
+                }
+                default:
+                    /* Tipos de versiones posteriores: se ignoran */
+                    break;
+            }
+        }
+    }
+
+    /*
+     * Traduce los canales de la fila a los identificadores locales,
+     * quitando los que no se anunciaron.
+     */
+    private int aCanalesLocales(int n) {
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int local = canalLocal[canales[i]];
+            if (local < 0) continue;
+            canales[m] = local;
+            crudos[m] = crudos[i];
+            filtrados[m] = filtrados[i];
+            m++;
+        }
+        return m;
+    }
+
+    private void cerrarSocket() {
+        Socket actual = socket;
+        if (actual != null) {
+            try {
+                actual.close();
+            } catch (IOException e) {
+                // Ya cerrado
+            }
+        }
+    }
+}
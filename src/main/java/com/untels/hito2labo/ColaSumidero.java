@@ -0,0 +1,388 @@
+package com.untels.hito2labo;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Entrega asíncrona a un {@link SumideroMuestras}: una cola acotada (un
+ * anillo de eventos preasignado) y un hilo propio que la vacía por lotes.
+ * Publicar solo copia el evento al anillo bajo un cerrojo breve, sin
+ * esperar nunca al sumidero, de modo que un sumidero lento no retrasa al
+ * lector serial, al hilo de eventos ni a los demás sumideros.
+ * El hilo entrega en cuanto hay un lote completo o, si no, cuando el
+ * primer evento pendiente ha esperado el tiempo máximo. Con la cola llena
+ * se descarta el evento nuevo o el más antiguo pendiente según la política
+ * de desborde, y se cuenta.
+ * Las métricas (pendientes, descartes, errores y retraso) se publican por
+ * JMX bajo com.untels.hito2labo:type=Sumidero.
+ */
+public class ColaSumidero implements ColaSumideroMXBean {
+    /** Política de desborde: con la cola llena se descarta el evento que llega */
+    public static final String DESCARTAR_NUEVOS = "descartar-nuevos";
+    /** Política de desborde: con la cola llena se descarta el evento pendiente más antiguo */
+    public static final String DESCARTAR_ANTIGUOS = "descartar-antiguos";
+
+    private final SumideroMuestras sumidero;
+    private final int capacidad;
+    private final int tamanoLote;
+    private final long esperaNanos;
+    private final boolean descartarAntiguos;
+    private final LoteEventos anillo;
+    private final LoteEventos lote;
+
+    private final ReentrantLock cerrojo = new ReentrantLock();
+    private final Condition hayEventos = cerrojo.newCondition();
+    /* Protegidos por el cerrojo */
+    private int cabeza;
+    private int pendientes;
+    private boolean cerrada;
+    private int maxPendientes;
+    private long publicados;
+    private long descartados;
+
+    /* Escritos solo por el hilo del sumidero */
+    private volatile long entregados;
+    private volatile long lotes;
+    private volatile long errores;
+    private volatile long ultimoRetrasoMs;
+    private volatile long maxRetrasoMs;
+    private volatile long ultimaEscrituraNanos;
+    private long erroresSeguidos;
+
+    private ExecutorService hilo;
+
+    /**
+     * @param sumidero          El sumidero que recibe los eventos.
+     * @param capacidad         Eventos que caben en la cola.
+     * @param tamanoLote        Eventos máximos por entrega.
+     * @param esperaMs          Tiempo máximo que espera el primer evento pendiente a completar un lote.
+     * @param descartarAntiguos True para descartar el evento más antiguo con la cola llena, false para el nuevo.
+     */
+    public ColaSumidero(SumideroMuestras sumidero, int capacidad, int tamanoLote, int esperaMs,
+                        boolean descartarAntiguos) {
+        this.sumidero = sumidero;
+        this.capacidad = Math.max(1, capacidad);
+        this.tamanoLote = Math.max(1, Math.min(tamanoLote, this.capacidad));
+        this.esperaNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, esperaMs));
+        this.descartarAntiguos = descartarAntiguos;
+        this.anillo = new LoteEventos(this.capacidad);
+        this.lote = new LoteEventos(this.tamanoLote);
+    }
+
+    /**
+     * Abre el sumidero y empieza a entregar, en el hilo "sumidero-&lt;nombre&gt;".
+     * Si el sumidero no se puede abrir se avisa y la cola deja de aceptar eventos.
+     *
+     * @param configuracion La configuración que recibe el sumidero al abrirse.
+     * @param registro      El registro de canales de la aplicación.
+     * @param avisos        Recibe los errores del sumidero (desde su hilo).
+     */
+    public synchronized void iniciar(Configuracion configuracion, RegistroCanales registro,
+                                     Consumer<String> avisos) {
+        if (hilo != null) return;
+        hilo = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "sumidero-" + sumidero.getNombre());
+            t.setDaemon(true);
+            return t;
+        });
+        hilo.execute(() -> {
+            try {
+                sumidero.abrir(configuracion, registro);
+            } catch (Exception e) {
+                avisos.accept("No se pudo abrir el sumidero " + sumidero.getNombre() + ": " + e.getMessage());
+                cerrojo.lock();
+                try {
+                    cerrada = true;
+                    pendientes = 0;
+                } finally {
+                    cerrojo.unlock();
+                }
+                return;
+            }
+            try {
+                entregar(avisos);
+            } finally {
+                try {
+                    sumidero.cerrar();
+                } catch (Exception e) {
+                    avisos.accept("Error al cerrar el sumidero " + sumidero.getNombre() + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Encola un evento; nunca espera al sumidero. Los arreglos se copian.
+     *
+     * @param tipo      Tipo de evento ({@link SumideroMuestras#MUESTRA}, CONECTADO, ...).
+     * @param tiempoMs  Instante del evento.
+     * @param canales   Canales de la muestra.
+     * @param crudos    Valores crudos, en el mismo orden que los canales.
+     * @param filtrados Valores filtrados, en el mismo orden que los canales.
+     * @param n         Número de canales (0 en los eventos de conexión).
+     * @param perdidas  Muestras perdidas antes de la muestra.
+     * @param detalle   Dispositivo o motivo de un evento de conexión; en una
+     *                  muestra, la placa de red que la envió (null para el puerto serial).
+     */
+    public void publicar(int tipo, long tiempoMs, int[] canales, float[] crudos, float[] filtrados,
+                         int n, int perdidas, String detalle) {
+        cerrojo.lock();
+        try {
+            if (cerrada) return;
+            publicados++;
+            if (pendientes == capacidad) {
+                descartados++;
+                if (!descartarAntiguos) return;
+                anillo.olvidarDetalle(cabeza);
+                cabeza = cabeza + 1 == capacidad ? 0 : cabeza + 1;
+                pendientes--;
+            }
+            int posicion = cabeza + pendientes;
+            if (posicion >= capacidad) posicion -= capacidad;
+            anillo.poner(posicion, tipo, tiempoMs, canales, crudos, filtrados, n, perdidas, detalle);
+            pendientes++;
+            if (pendientes > maxPendientes) maxPendientes = pendientes;
+            /* Se despierta al hilo para empezar a contar la espera o con el lote completo */
+            if (pendientes == 1 || pendientes == tamanoLote) hayEventos.signal();
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Deja de aceptar eventos, entrega los pendientes y cierra el sumidero,
+     * esperando como mucho el tiempo indicado; pasado ese tiempo se
+     * interrumpe su hilo.
+     */
+    public void detener(long esperaMs) {
+        ExecutorService hilo;
+        synchronized (this) {
+            hilo = this.hilo;
+        }
+        cerrojo.lock();
+        try {
+            cerrada = true;
+            hayEventos.signal();
+        } finally {
+            cerrojo.unlock();
+        }
+        if (hilo == null) return;
+        hilo.shutdown();
+        try {
+            if (!hilo.awaitTermination(esperaMs, TimeUnit.MILLISECONDS)) {
+                hilo.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            hilo.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Bucle del hilo del sumidero: espera un lote completo o a que venza la
+     * espera del primer evento, copia el lote fuera del anillo (liberándolo
+     * para el productor) y lo entrega sin el cerrojo. Con la cola cerrada
+     * vacía lo pendiente y termina.
+     */
+    private void entregar(Consumer<String> avisos) {
+        try {
+            while (true) {
+                cerrojo.lock();
+                try {
+                    if (pendientes == 0) {
+                        if (cerrada) return;
+                        hayEventos.await();
+                        continue;
+                    }
+                    long restante = esperaNanos;
+                    while (pendientes < tamanoLote && !cerrada && restante > 0) {
+                        restante = hayEventos.awaitNanos(restante);
+                    }
+                    int n = Math.min(pendientes, tamanoLote);
+                    for (int i = 0; i < n; i++) {
+                        lote.copiar(anillo, cabeza, i);
+                        anillo.olvidarDetalle(cabeza);
+                        cabeza = cabeza + 1 == capacidad ? 0 : cabeza + 1;
+                    }
+                    pendientes -= n;
+                    lote.setCantidad(n);
+                } finally {
+                    cerrojo.unlock();
+                }
+                entregarLote(avisos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Entrega el lote copiado. Un sumidero que falla se avisa una vez al
+     * empezar a fallar y otra al recuperarse, no en cada lote.
+     */
+    private void entregarLote(Consumer<String> avisos) {
+        int n = lote.getCantidad();
+        long retraso = System.currentTimeMillis() - lote.getTiempo(0);
+        long inicio = System.nanoTime();
+        try {
+            sumidero.escribir(lote);
+            if (erroresSeguidos > 0) {
+                avisos.accept("Sumidero " + sumidero.getNombre() + " restablecido tras "
+                    + erroresSeguidos + (erroresSeguidos == 1 ? " lote fallido" : " lotes fallidos"));
+                erroresSeguidos = 0;
+            }
+        } catch (Exception e) {
+            errores++;
+            if (erroresSeguidos++ == 0) {
+                avisos.accept("Error en el sumidero " + sumidero.getNombre() + ": " + e.getMessage());
+            }
+        }
+        ultimaEscrituraNanos = System.nanoTime() - inicio;
+        ultimoRetrasoMs = retraso;
+        if (retraso > maxRetrasoMs) maxRetrasoMs = retraso;
+        entregados += n;
+        lotes++;
+        for (int i = 0; i < n; i++) {
+            lote.olvidarDetalle(i);
+        }
+    }
+
+    /**
+     * Publica las métricas por JMX (com.untels.hito2labo:type=Sumidero,nombre=...).
+     */
+    public void registrarJmx() {
+        try {
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            ObjectName nombre = new ObjectName("com.untels.hito2labo:type=Sumidero,nombre="
+                + ObjectName.quote(sumidero.getNombre()));
+            if (!servidor.isRegistered(nombre)) {
+                servidor.registerMBean(this, nombre);
+            }
+        } catch (Exception e) {
+            System.err.println("No se pudieron publicar las métricas del sumidero: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Resumen de una línea para el registro de eventos.
+     */
+    public String resumen() {
+        return String.format(Locale.ROOT,
+            "Sumidero %s: %d entregados, %d pendientes, %d descartados, %d errores, retraso %d ms (máx. %d ms)",
+            getNombre(), getEntregados(), getPendientes(), getDescartados(), getErrores(),
+            getRetrasoMs(), getMaxRetrasoEntregaMs());
+    }
+
+    @Override
+    public String getNombre() {
+        return sumidero.getNombre();
+    }
+
+    @Override
+    public String getDesborde() {
+        return descartarAntiguos ? DESCARTAR_ANTIGUOS : DESCARTAR_NUEVOS;
+    }
+
+    @Override
+    public int getCapacidad() {
+        return capacidad;
+    }
+
+    @Override
+    public int getPendientes() {
+        cerrojo.lock();
+        try {
+            return pendientes;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    @Override
+    public int getMaxPendientes() {
+        cerrojo.lock();
+        try {
+            return maxPendientes;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    @Override
+    public long getPublicados() {
+        cerrojo.lock();
+        try {
+            return publicados;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    @Override
+    public long getEntregados() {
+        return entregados;
+    }
+
+    @Override
+    public long getDescartados() {
+        cerrojo.lock();
+        try {
+            return descartados;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    @Override
+    public long getLotes() {
+        return lotes;
+    }
+
+    @Override
+    public long getErrores() {
+        return errores;
+    }
+
+    /**
+     * Antigüedad del evento pendiente más antiguo (0 con la cola vacía).
+     */
+    @Override
+    public long getRetrasoMs() {
+        cerrojo.lock();
+        try {
+            return pendientes == 0 ? 0 : Math.max(0, System.currentTimeMillis() - anillo.getTiempo(cabeza));
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Antigüedad del primer evento del último lote al entregarlo.
+     */
+    @Override
+    public long getUltimoRetrasoEntregaMs() {
+        return ultimoRetrasoMs;
+    }
+
+    @Override
+    public long getMaxRetrasoEntregaMs() {
+        return maxRetrasoMs;
+    }
+
+    /**
+     * Duración de la última llamada a {@link SumideroMuestras#escribir}.
+     */
+    @Override
+    public double getUltimaEscrituraMs() {
+        return ultimaEscrituraNanos / 1e6;
+    }
+}
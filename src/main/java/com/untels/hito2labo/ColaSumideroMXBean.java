@@ -0,0 +1,35 @@
+package com.untels.hito2labo;
+
+/**
+ * Métricas de la cola de un sumidero, publicadas por JMX
+ * (bajo com.untels.hito2labo:type=Sumidero).
+ */
+public interface ColaSumideroMXBean {
+    String getNombre();
+
+    String getDesborde();
+
+    int getCapacidad();
+
+    int getPendientes();
+
+    int getMaxPendientes();
+
+    long getPublicados();
+
+    long getEntregados();
+
+    long getDescartados();
+
+    long getLotes();
+
+    long getErrores();
+
+    long getRetrasoMs();
+
+    long getUltimoRetrasoEntregaMs();
+
+    long getMaxRetrasoEntregaMs();
+
+    double getUltimaEscrituraMs();
+}
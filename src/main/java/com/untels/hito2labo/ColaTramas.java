@@ -0,0 +1,165 @@
+package com.untels.hito2labo;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Paso de las tramas desde los hilos que las reciben (lector serial,
+ * servidor de ingesta) al hilo que las procesa: un anillo acotado y
+ * preasignado, vaciado por una única tarea que se reutiliza. Ofrecer una
+ * trama solo la copia al anillo bajo un cerrojo breve; la tarea se entrega
+ * al ejecutor cuando el anillo pasa de vacío a tener tramas, de modo que
+ * una ráfaga se procesa en un solo paso por el hilo de entrega en lugar de
+ * uno por trama. Con el anillo lleno la trama nueva se descarta y se cuenta:
+ * un hilo de entrega saturado (el de eventos de Swing, por ejemplo) no hace
+ * crecer la memoria.
+ */
+public class ColaTramas {
+    /**
+     * Destino de las tramas, llamado en el hilo del ejecutor.
+     */
+    public interface Consumidor {
+        /**
+         * @param trama        La trama sin el terminador.
+         * @param llegadaNanos Instante (System.nanoTime) de llegada de la trama.
+         * @param esperaNanos  Tiempo que la trama pasó en la cola.
+         * @param origen       Origen indicado al ofrecerla.
+         */
+        void procesar(String trama, long llegadaNanos, long esperaNanos, int origen);
+
+        /**
+         * Fin de un paso por el hilo de entrega.
+         *
+         * @param tramas      Tramas procesadas en el paso.
+         * @param esperaNanos Espera de la primera trama del paso.
+         */
+        void finLote(int tramas, long esperaNanos);
+    }
+
+    private final Executor ejecutor;
+    private final Consumidor consumidor;
+    private final int capacidad;
+    private final String[] tramas;
+    private final long[] llegadas;
+    private final long[] encoladas;
+    private final int[] origenes;
+    private final Runnable vaciado = this::vaciar;
+
+    /* Protegidos por el cerrojo de la cola */
+    private int cabeza;
+    private int pendientes;
+    private boolean programada;
+    private long descartadas;
+
+    /**
+     * @param capacidad  Tramas que caben en la cola.
+     * @param ejecutor   Hilo en el que se procesan las tramas.
+     * @param consumidor Destino de las tramas.
+     */
+    public ColaTramas(int capacidad, Executor ejecutor, Consumidor consumidor) {
+        this.capacidad = Math.max(1, capacidad);
+        this.ejecutor = ejecutor;
+        this.consumidor = consumidor;
+        this.tramas = new String[this.capacidad];
+        this.llegadas = new long[this.capacidad];
+        this.encoladas = new long[this.capacidad];
+        this.origenes = new int[this.capacidad];
+    }
+
+    /**
+     * Encola una trama; nunca espera al hilo de entrega.
+     *
+     * @return False si la cola estaba llena y la trama se descartó.
+     */
+    public boolean ofrecer(String trama, long llegadaNanos, int origen) {
+        return ofrecer(trama, llegadaNanos, origen, capacidad);
+    }
+
+    /**
+     * Encola una trama si hay menos de maxPendientes en la cola: una fuente
+     * con un límite menor que la capacidad deja sitio a las demás.
+     *
+     * @return False si la cola estaba llena y la trama se descartó.
+     */
+    public boolean ofrecer(String trama, long llegadaNanos, int origen, int maxPendientes) {
+        boolean programar;
+        synchronized (this) {
+            if (pendientes >= Math.min(maxPendientes, capacidad)) {
+                descartadas++;
+                return false;
+            }
+            int i = (cabeza + pendientes) % capacidad;
+            tramas[i] = trama;
+            llegadas[i] = llegadaNanos;
+            encoladas[i] = System.nanoTime();
+            origenes[i] = origen;
+            pendientes++;
+            programar = !programada;
+            programada = true;
+        }
+        if (programar) {
+            ejecutor.execute(vaciado);
+        }
+        return true;
+    }
+
+    /*
+     * Tarea del hilo de entrega: procesa como mucho las tramas que había al
+     * empezar, para no acaparar el hilo, y se vuelve a programar si llegaron más.
+     */
+    private void vaciar() {
+        int limite;
+        synchronized (this) {
+            limite = pendientes;
+        }
+        int procesadas = 0;
+        long esperaPrimera = 0;
+        try {
+            while (procesadas < limite) {
+                String trama;
+                long llegada;
+                long espera;
+                int origen;
+                synchronized (this) {
+                    trama = tramas[cabeza];
+                    llegada = llegadas[cabeza];
+                    espera = System.nanoTime() - encoladas[cabeza];
+                    origen = origenes[cabeza];
+                    tramas[cabeza] = null;
+                    cabeza = (cabeza + 1) % capacidad;
+                    pendientes--;
+                }
+                if (procesadas == 0) {
+                    esperaPrimera = espera;
+                }
+                procesadas++;
+                consumidor.procesar(trama, llegada, espera, origen);
+            }
+            consumidor.finLote(procesadas, esperaPrimera);
+        } finally {
+            /* Aunque el consumidor falle, la cola no se queda sin tarea */
+            boolean reprogramar;
+            synchronized (this) {
+                reprogramar = pendientes > 0;
+                programada = reprogramar;
+            }
+            if (reprogramar) {
+                ejecutor.execute(vaciado);
+            }
+        }
+    }
+
+    /**
+     * Tramas descartadas por tener la cola llena desde que se creó.
+     */
+    public synchronized long getDescartadas() {
+        return descartadas;
+    }
+
+    public synchronized int getPendientes() {
+        return pendientes;
+    }
+
+    public int getCapacidad() {
+        return capacidad;
+    }
+}
@@ -0,0 +1,356 @@
+package com.untels.hito2labo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Retención por niveles del historial persistido: los datos brutos se
+ * conservan mientras tienen menos de cierta antigüedad (por defecto 7
+ * días); después se resumen en medias por minuto, que se conservan hasta
+ * otra antigüedad (por defecto 90 días), y después en medias por hora, que
+ * se conservan siempre.
+ * Cada resumen agrupa los segmentos que empiezan en su intervalo (un día
+ * para los de minutos, 30 días para los de horas) y se escribe en un
+ * temporal que se renombra de forma atómica: ese renombrado es el punto en
+ * que los lectores pasan de los segmentos de origen al resumen, sin ver
+ * nunca datos a medias. La fecha de modificación del resumen se fija al
+ * instante en que se listaron sus segmentos de origen: solo sustituye (y
+ * solo se borran) los segmentos no modificados desde entonces. Un segmento
+ * que llega tarde a un intervalo ya resumido (por ejemplo, tras atrasar el
+ * reloj) se incorpora en la siguiente pasada, que vuelve a escribir el
+ * resumen mezclando por tiempo sus filas con las del resumen anterior. Los
+ * de origen se borran a continuación; si no se pueden borrar todavía (en
+ * Windows un archivo proyectado en memoria no se puede borrar hasta que se
+ * libera la proyección) los lectores ya los ignoran y se reintenta en la
+ * siguiente pasada.
+ * Cada fila de un resumen tiene el inicio del minuto u hora, la media de
+ * los valores crudos y filtrados de cada canal (sin contar los NaN) y la
+ * suma de las muestras perdidas. Al pasar de minutos a horas se promedian
+ * las medias por minuto.
+ * Las pasadas se ejecutan en un hilo propio de baja prioridad y solo leen
+ * segmentos cerrados, así que no comparten nada con la escritura de las
+ * muestras nuevas.
+ */
+public class CompactadorHistorial {
+    static final long MINUTO_MS = 60_000L;
+    static final long HORA_MS = 3_600_000L;
+    static final long DIA_MS = 86_400_000L;
+    /* Intervalo que agrupa cada resumen de un nivel */
+    private static final long[] AGRUPACION_MS = {0, DIA_MS, 30 * DIA_MS};
+    /* Resolución de las filas de cada nivel */
+    private static final long[] RESOLUCION_MS = {0, MINUTO_MS, HORA_MS};
+
+    private final Path directorio;
+    private final RegistroCanales registro;
+    private final long retencionBrutoMs;
+    private final long retencionMinutosMs;
+    private ScheduledExecutorService planificador;
+
+    /**
+     * @param directorio         El directorio de los segmentos.
+     * @param registro           El registro de canales de la aplicación.
+     * @param retencionBrutoMs   Tiempo que se conservan los segmentos brutos.
+     * @param retencionMinutosMs Antigüedad a partir de la cual los datos se
+     *                           resumen por horas (0 para no hacerlo nunca).
+     */
+    public CompactadorHistorial(Path directorio, RegistroCanales registro, long retencionBrutoMs,
+                                long retencionMinutosMs) {
+        this.directorio = directorio;
+        this.registro = registro;
+        this.retencionBrutoMs = retencionBrutoMs;
+        this.retencionMinutosMs = retencionMinutosMs;
+    }
+
+    /**
+     * Crea el compactador según la configuración (claves
+     * historial.retencion.bruto y historial.retencion.minutos, en días), o
+     * devuelve null si no hay historial persistido o la retención de los
+     * datos brutos es 0 (se conservan siempre).
+     */
+    public static CompactadorHistorial desdeConfiguracion(Configuracion configuracion, RegistroCanales registro,
+                                                        ArchivoHistorial historial) {
+        int diasBruto = configuracion.getEntero("historial.retencion.bruto", 7);
+        int diasMinutos = configuracion.getEntero("historial.retencion.minutos", 90);
+        if (historial == null || diasBruto <= 0) {
+            return null;
+        }
+        return new CompactadorHistorial(historial.getDirectorio(), registro, diasBruto * DIA_MS,
+                                        Math.max(0, diasMinutos) * DIA_MS);
+    }
+
+    /**
+     * Programa una pasada cada periodo, la primera al cabo de un minuto para
+     * no competir con el arranque.
+     *
+     * @param periodoMinutos Minutos entre el final de una pasada y la siguiente.
+     * @param avisos         Recibe los errores de las pasadas (desde el hilo de compactación).
+     */
+    public synchronized void iniciar(int periodoMinutos, Consumer<String> avisos) {
+        if (planificador != null) return;
+        planificador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "compactacion-historial");
+            hilo.setDaemon(true);
+            hilo.setPriority(Thread.MIN_PRIORITY);
+            return hilo;
+        });
+        planificador.scheduleWithFixedDelay(() -> {
+            try {
+                compactar(System.currentTimeMillis());
+            } catch (IOException | RuntimeException e) {
+                avisos.accept("Error al compactar el historial: " + e.getMessage());
+            }
+        }, 1, Math.max(1, periodoMinutos), TimeUnit.MINUTES);
+    }
+
+    /**
+     * Detiene las pasadas programadas. Una pasada interrumpida deja como
+     * mucho un temporal, que se borra en la siguiente.
+     */
+    public synchronized void detener() {
+        if (planificador != null) {
+            planificador.shutdownNow();
+            planificador = null;
+        }
+    }
+
+    /**
+     * Resume los segmentos vencidos y borra los ya sustituidos.
+     *
+     * @param ahoraMs Instante actual.
+     * @return El número de resúmenes escritos.
+     * @throws IOException Si no se pudo escribir un resumen.
+     */
+    public synchronized int compactar(long ahoraMs) throws IOException {
+        borrarSustituidos();
+        int escritos = resumir(ArchivoHistorial.NIVEL_MINUTOS, ahoraMs - retencionBrutoMs);
+        if (retencionMinutosMs > 0) {
+            escritos += resumir(ArchivoHistorial.NIVEL_HORAS, ahoraMs - retencionMinutosMs);
+        }
+        borrarSustituidos();
+        return escritos;
+    }
+
+    /*
+     * Escribe los resúmenes del nivel cuyos intervalos terminan antes del
+     * límite, con los segmentos vigentes de niveles inferiores que empiezan
+     * en ellos. Un segmento bruto puede durar hasta una hora más allá de su
+     * inicio, así que el intervalo debe acabar esa hora antes del límite.
+     */
+    private int resumir(int nivel, long limiteMs) throws IOException {
+        long agrupacion = AGRUPACION_MS[nivel];
+        /* Marca de construcción: lo modificado después no entra en estos resúmenes */
+        long marcaMs = System.currentTimeMillis();
+        List<ArchivoHistorial.EntradaSegmento> todas = ArchivoHistorial.listar(directorio);
+        List<ArchivoHistorial.EntradaSegmento> grupo = new ArrayList<>();
+        long grupoInicio = Long.MIN_VALUE;
+        int escritos = 0;
+        for (ArchivoHistorial.EntradaSegmento entrada : todas) {
+            if (Thread.currentThread().isInterrupted()) break;
+            if (entrada.nivel >= nivel || ArchivoHistorial.cubierta(entrada, todas)) continue;
+            long inicio = Math.floorDiv(entrada.inicio, agrupacion) * agrupacion;
+            if (inicio + agrupacion + ArchivoHistorial.DURACION_SEGMENTO_MS > limiteMs) break;
+            if (inicio != grupoInicio && !grupo.isEmpty()) {
+                escribirResumen(nivel, grupoInicio, grupoInicio + agrupacion, grupo, todas, marcaMs);
+                escritos++;
+                grupo.clear();
+            }
+            grupoInicio = inicio;
+            grupo.add(entrada);
+        }
+        if (!grupo.isEmpty()) {
+            escribirResumen(nivel, grupoInicio, grupoInicio + agrupacion, grupo, todas, marcaMs);
+            escritos++;
+        }
+        return escritos;
+    }
+
+    /*
+     * Agrega las filas de los segmentos del grupo (mezcladas por tiempo) en
+     * filas de la resolución del nivel y las escribe en el resumen. Si ya
+     * había un resumen vigente del intervalo (el grupo son segmentos que
+     * llegaron tarde), sus filas se incorporan al nuevo.
+     */
+    private void escribirResumen(int nivel, long inicio, long fin, List<ArchivoHistorial.EntradaSegmento> grupo,
+                                 List<ArchivoHistorial.EntradaSegmento> todas, long marcaMs) throws IOException {
+        String nombre = ArchivoHistorial.nombreResumen(nivel, inicio, fin);
+        for (ArchivoHistorial.EntradaSegmento entrada : todas) {
+            if (entrada.nivel == nivel && entrada.ruta.getFileName().toString().equals(nombre)
+                    && !ArchivoHistorial.cubierta(entrada, todas)) {
+                grupo.add(0, entrada);
+            }
+        }
+        List<SegmentoHistorial> segmentos = new ArrayList<>();
+        int mascara = 0;
+        for (ArchivoHistorial.EntradaSegmento entrada : grupo) {
+            try {
+                SegmentoHistorial segmento = SegmentoHistorial.abrir(entrada.ruta, registro);
+                segmentos.add(segmento);
+                for (int canal = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+                    if (segmento.tieneCanal(canal)) mascara |= 1 << canal;
+                }
+            } catch (IOException e) {
+                /* Un segmento dañado no impide resumir el resto; se borra con el grupo */
+                System.err.println(e.getMessage());
+            }
+        }
+        int[] canalDeColumna = new int[Integer.bitCount(mascara)];
+        for (int canal = 0, columna = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+            if ((mascara & (1 << canal)) != 0) canalDeColumna[columna++] = canal;
+        }
+
+        Path destino = directorio.resolve(nombre);
+        Path temporal = directorio.resolve(destino.getFileName() + ".tmp");
+        try (FileChannel salida = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING)) {
+            escribirTodo(salida, ByteBuffer.wrap(ArchivoHistorial.cabecera(inicio, canalDeColumna, registro)));
+            Agregador agregador = new Agregador(canalDeColumna, RESOLUCION_MS[nivel], salida);
+            int[] filas = new int[segmentos.size()];
+            while (true) {
+                /* Siguiente fila por tiempo entre todos los segmentos */
+                int elegido = -1;
+                for (int s = 0; s < filas.length; s++) {
+                    SegmentoHistorial segmento = segmentos.get(s);
+                    if (filas[s] < segmento.getFilas() && (elegido < 0
+                            || segmento.getTiempo(filas[s]) < segmentos.get(elegido).getTiempo(filas[elegido]))) {
+                        elegido = s;
+                    }
+                }
+                if (elegido < 0) break;
+                agregador.agregar(segmentos.get(elegido), filas[elegido]++);
+            }
+            agregador.terminar();
+            salida.force(true);
+        }
+        Files.setLastModifiedTime(temporal, FileTime.fromMillis(marcaMs));
+        /* El renombrado publica el resumen; desde aquí los de origen se ignoran */
+        Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Borra los segmentos sustituidos por un resumen y los temporales de
+     * pasadas interrumpidas.
+     */
+    private void borrarSustituidos() {
+        List<ArchivoHistorial.EntradaSegmento> todas = ArchivoHistorial.listar(directorio);
+        for (ArchivoHistorial.EntradaSegmento entrada : todas) {
+            if (ArchivoHistorial.cubierta(entrada, todas)) {
+                borrar(entrada.ruta);
+            }
+        }
+        File[] temporales = directorio.toFile().listFiles((dir, nombre) -> nombre.endsWith(".dat.tmp"));
+        if (temporales != null) {
+            for (File temporal : temporales) {
+                borrar(temporal.toPath());
+            }
+        }
+    }
+
+    private static void borrar(Path ruta) {
+        try {
+            Files.deleteIfExists(ruta);
+        } catch (IOException e) {
+            // Sigue proyectado o bloqueado: se reintenta en la siguiente pasada
+        }
+    }
+
+    private static void escribirTodo(FileChannel salida, ByteBuffer datos) throws IOException {
+        while (datos.hasRemaining()) {
+            salida.write(datos);
+        }
+    }
+
+    /*
+     * Acumula las filas de un intervalo de la resolución indicada y escribe
+     * su media al pasar al siguiente.
+     */
+    private static final class Agregador {
+        private final int[] canalDeColumna;
+        private final long resolucion;
+        private final FileChannel salida;
+        private final ByteBuffer buffer;
+        private final double[] sumaCrudo;
+        private final double[] sumaFiltrado;
+        private final int[] nCrudo;
+        private final int[] nFiltrado;
+        private long intervalo = Long.MIN_VALUE;
+        private long perdidas;
+        private boolean hayFilas;
+
+        Agregador(int[] canalDeColumna, long resolucion, FileChannel salida) {
+            this.canalDeColumna = canalDeColumna;
+            this.resolucion = resolucion;
+            this.salida = salida;
+            int columnas = canalDeColumna.length;
+            this.buffer = ByteBuffer.allocate(1024 * (SegmentoHistorial.BYTES_FIJOS_REGISTRO + 8 * columnas));
+            this.sumaCrudo = new double[columnas];
+            this.sumaFiltrado = new double[columnas];
+            this.nCrudo = new int[columnas];
+            this.nFiltrado = new int[columnas];
+        }
+
+        void agregar(SegmentoHistorial segmento, int fila) throws IOException {
+            /* Sin retroceder: una fila fuera de orden cuenta en el intervalo actual */
+            long inicio = Math.max(intervalo, Math.floorDiv(segmento.getTiempo(fila), resolucion) * resolucion);
+            if (inicio != intervalo) {
+                emitir();
+                intervalo = inicio;
+            }
+            hayFilas = true;
+            perdidas += segmento.getPerdidas(fila);
+            for (int c = 0; c < canalDeColumna.length; c++) {
+                float crudo = segmento.getCrudo(canalDeColumna[c], fila);
+                float filtrado = segmento.getFiltrado(canalDeColumna[c], fila);
+                if (!Float.isNaN(crudo)) {
+                    sumaCrudo[c] += crudo;
+                    nCrudo[c]++;
+                }
+                if (!Float.isNaN(filtrado)) {
+                    sumaFiltrado[c] += filtrado;
+                    nFiltrado[c]++;
+                }
+            }
+        }
+
+        private void emitir() throws IOException {
+            if (!hayFilas) return;
+            if (buffer.remaining() < SegmentoHistorial.BYTES_FIJOS_REGISTRO + 8 * canalDeColumna.length) {
+                vaciar();
+            }
+            buffer.putLong(intervalo).putInt((int) Math.min(Integer.MAX_VALUE, perdidas));
+            for (int c = 0; c < canalDeColumna.length; c++) {
+                buffer.putFloat(nCrudo[c] == 0 ? Float.NaN : (float) (sumaCrudo[c] / nCrudo[c]));
+                buffer.putFloat(nFiltrado[c] == 0 ? Float.NaN : (float) (sumaFiltrado[c] / nFiltrado[c]));
+                sumaCrudo[c] = 0;
+                sumaFiltrado[c] = 0;
+                nCrudo[c] = 0;
+                nFiltrado[c] = 0;
+            }
+            perdidas = 0;
+            hayFilas = false;
+        }
+
+        private void vaciar() throws IOException {
+            buffer.flip();
+            escribirTodo(salida, buffer);
+            buffer.clear();
+        }
+
+        void terminar() throws IOException {
+            emitir();
+            vaciar();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.untels.hito2labo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Configuración de la aplicación.
+ * Lee las claves del archivo "monitor.properties" del directorio de trabajo
+ * (si existe) y permite sobrescribirlas con propiedades del sistema (-Dclave=valor).
+ * Si una clave no está definida se usa el valor por defecto indicado por el llamador.
+ */
+public class Configuracion {
+    public static final String ARCHIVO = "monitor.properties";
+
+    private final Properties propiedades;
+
+    private Configuracion(Properties propiedades) {
+        this.propiedades = propiedades;
+    }
+
+    /**
+     * Carga la configuración desde el archivo por defecto.
+     * Un archivo ausente o ilegible equivale a una configuración vacía.
+     *
+     * @return La configuración cargada.
+     */
+    public static Configuracion cargar() {
+        return cargar(new File(ARCHIVO));
+    }
+
+    /**
+     * Carga la configuración desde el archivo indicado.
+     *
+     * @param archivo El archivo de propiedades a leer.
+     * @return La configuración cargada.
+     */
+    public static Configuracion cargar(File archivo) {
+        Properties props = new Properties();
+        if (archivo.isFile()) {
+            try (InputStream in = new FileInputStream(archivo)) {
+                props.load(in);
+            } catch (IOException e) {
+                System.err.println("No se pudo leer " + archivo + ": " + e.getMessage());
+            }
+        }
+        return new Configuracion(props);
+    }
+
+    /**
+     * Obtiene el valor de texto de una clave.
+     *
+     * @param clave       La clave a buscar.
+     * @param porDefecto  El valor a devolver si la clave no existe.
+     * @return El valor de la clave o el valor por defecto.
+     */
+    public String getTexto(String clave, String porDefecto) {
+        String valor = System.getProperty(clave);
+        if (valor == null) {
+            valor = propiedades.getProperty(clave);
+        }
+        return valor != null ? valor.trim() : porDefecto;
+    }
+
+    /**
+     * Obtiene el valor entero de una clave.
+     * Un valor mal formado se ignora y se usa el valor por defecto.
+     */
+    public int getEntero(String clave, int porDefecto) {
+        String valor = getTexto(clave, null);
+        if (valor == null) return porDefecto;
+        try {
+            return Integer.parseInt(valor);
+        } catch (NumberFormatException e) {
+            return porDefecto;
+        }
+    }
+
+    /**
+     * Obtiene el valor decimal de una clave.
+     * Un valor mal formado se ignora y se usa el valor por defecto.
+     */
+    public float getFlotante(String clave, float porDefecto) {
+        String valor = getTexto(clave, null);
+        if (valor == null) return porDefecto;
+        try {
+            return Float.parseFloat(valor);
+        } catch (NumberFormatException e) {
+            return porDefecto;
+        }
+    }
+
+    /**
+     * Obtiene el valor booleano de una clave ("true"/"false").
+     */
+    public boolean getBooleano(String clave, boolean porDefecto) {
+        String valor = getTexto(clave, null);
+        return valor != null ? Boolean.parseBoolean(valor) : porDefecto;
+    }
+
+    /**
+     * Devuelve las claves que empiezan por el prefijo indicado.
+     * Incluye tanto las del archivo como las propiedades del sistema.
+     *
+     * @param prefijo El prefijo de las claves buscadas.
+     * @return Las claves encontradas, ordenadas alfabéticamente.
+     */
+    public Set<String> getClaves(String prefijo) {
+        Set<String> claves = new TreeSet<>();
+        for (String clave : propiedades.stringPropertyNames()) {
+            if (clave.startsWith(prefijo)) claves.add(clave);
+        }
+        for (String clave : System.getProperties().stringPropertyNames()) {
+            if (clave.startsWith(prefijo)) claves.add(clave);
+        }
+        return claves;
+    }
+}
@@ -3,56 +3,97 @@ package com.untels.hito2labo;
 import java.awt.Color;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 
 /**
  * Clase Controlador: Gestiona la lógica central de la aplicación.
  * Actúa como intermediario entre la interfaz de usuario (VentanaPrincipal)
- * y el módulo de comunicación serial (SerialReader).
- * Maneja las acciones del usuario, procesa datos seriales y controla el estado de la conexión.
+ * y el núcleo del monitoreo ({@link NucleoMonitor}), que lleva la conexión
+ * serial, el procesamiento de las tramas y los procesos de fondo en el
+ * hilo de eventos de Swing.
+ * Maneja las acciones del usuario y refleja en la ventana lo que notifica el núcleo.
  */
-public class Controlador implements ActionListener {
+public class Controlador implements ActionListener, NucleoMonitor.Oyente {
     private VentanaPrincipal ventana;
-    private SerialReader serialReader;
-    private final String PUERTO_ARDUINO = "COM5";
-    private boolean monitoreando = false;
-    private boolean intentandoReconexion = false;
-    private int intentosReconexion = 0;
+    private final NucleoMonitor nucleo;
+    private final String PUERTO_ARDUINO;
     private final int MAX_INTENTOS_RECONEXION = 5;
-    private boolean primeraConexion = true;
-    private Thread reconexionThread;
+    private final Configuracion configuracion;
+    private final RegistroCanales registroCanales;
+    private final AlmacenMuestras almacen;
+    private final MotorReglas motorReglas;
+    private static final int PERIODO_SALUD_MS = 1000;
+    /*
+     * Fuentes de los eventos del registro, para poder filtrarlos en PanelLog.
+     */
+    private static final String FUENTE_ENLACE = NucleoMonitor.FUENTE_ENLACE;
+    private static final String FUENTE_COMANDOS = NucleoMonitor.FUENTE_COMANDOS;
+    private static final String FUENTE_EXPORTACION = NucleoMonitor.FUENTE_EXPORTACION;
+    private static final String FUENTE_SUMIDEROS = NucleoMonitor.FUENTE_SUMIDEROS;
+    /*
+     * Tablero de dispositivos: se crea al abrirlo por primera vez.
+     */
+    private DialogoTablero dialogoTablero;
+    private TeselaDispositivo teselaLocal;
+    private List<DispositivoTablero> dispositivosTablero = new ArrayList<>();
+    private DialogoLatencias dialogoLatencias;
 
     /**
      * Constructor de la clase Controlador.
-     * Inicializa el SerialReader, configura los listeners y establece la conexión inicial.
+     * Crea el núcleo en el hilo de eventos, conecta los paneles con su
+     * historial y lo arranca, con la conexión inicial en segundo plano.
      *
      * @param ventana La instancia de VentanaPrincipal asociada a este controlador.
      */
     public Controlador(VentanaPrincipal ventana) {
         this.ventana = ventana;
-        this.serialReader = new SerialReader();
+        this.nucleo = new NucleoMonitor(Configuracion.cargar(), SwingUtilities::invokeLater,
+                                        MAX_INTENTOS_RECONEXION);
+        this.configuracion = nucleo.getConfiguracion();
+        this.registroCanales = nucleo.getRegistroCanales();
+        this.almacen = nucleo.getAlmacen();
+        this.motorReglas = nucleo.getMotorReglas();
+        this.PUERTO_ARDUINO = nucleo.getPuerto();
+        ventana.setTitle("Sistema de Monitoreo de Sensores - " + PUERTO_ARDUINO);
         /*
-         * Configuración de los manejadores de eventos de la interfaz de usuario.
+         * Los indicadores leen su gráfica del historial (clave panel.sparkline).
          */
-        configurarControladores();
+        boolean sparkline = configuracion.getBooleano("panel.sparkline", true);
+        ventana.getPanelLog().setCapacidad(configuracion.getEntero("registro.eventos", 200_000));
+        ventana.getPanelTemperatura().setFuente(almacen, RegistroCanales.TEMPERATURA);
+        ventana.getPanelTemperatura().setSparkline(sparkline);
+        ventana.getPanelHumedad().setFuente(almacen, RegistroCanales.HUMEDAD);
+        ventana.getPanelHumedad().setSparkline(sparkline);
+        ventana.getPanelTemperatura().setTrazaLatencia(nucleo.getTrazaLatencia());
         /*
-         * Configuración de los listeners para los eventos del SerialReader.
+         * El reloj del núcleo vigila la salud del dispositivo principal; este
+         * la de los dispositivos del tablero.
          */
-        configurarListenersSerial();
+        Timer relojSalud = new Timer(PERIODO_SALUD_MS, e -> comprobarSaludTablero());
+        relojSalud.start();
         /*
-         * Intento de conexión serial inicial al iniciar el controlador.
+         * Configuración de los manejadores de eventos de la interfaz de usuario.
+         */
+        configurarControladores();
+        /*
+         * Arranque del núcleo: procesos de fondo, ingesta de red y conexión
+         * serial inicial (en segundo plano).
          */
-        iniciarConexionSerial();
+        nucleo.iniciar(this);
     }
 
     /*
@@ -60,199 +101,152 @@ public class Controlador implements ActionListener {
      */
     private void configurarControladores() {
         ventana.getPanelControl().setActionListener(this);
-    }
-
-    /*
-     * Configura los listeners para los eventos generados por el SerialReader,
-     * como la llegada de datos o cambios en el estado de la conexión.
-     */
-    private void configurarListenersSerial() {
         /*
-         * Listener para la recepción de datos seriales.
+         * Al cerrar la ventana se liberan el puerto y el historial en disco
+         * antes de que la aplicación termine.
          */
-        serialReader.setDataListener(data -> {
-            SwingUtilities.invokeLater(() -> {
-                if (monitoreando) {
-                    procesarDatosSerial(data);
-                }
-            });
-        });
-
-        /*
-         * Listener para los cambios en el estado de la conexión serial.
-         */
-        serialReader.setConnectionListener(new SerialReader.ConnectionListener() {
+        ventana.addWindowListener(new WindowAdapter() {
             @Override
-            public void onDisconnected() {
-                /*
-                 * Manejo de la desconexión del dispositivo.
-                 */
-                SwingUtilities.invokeLater(() -> {
-                    ventana.setEstadoConexion(false);
-                    ventana.getPanelTemperatura().reset();
-                    ventana.getPanelHumedad().reset();
-
-                    if (!intentandoReconexion) {
-                        ventana.getPanelLog().appendError("¡Dispositivo desconectado!");
-                        iniciarReconexionAutomatica();
-                    }
-                });
-            }
-
-            @Override
-            public void onReconnected() {
-                /*
-                 * Manejo de la reconexión exitosa del dispositivo.
-                 */
-                SwingUtilities.invokeLater(() -> {
-                    ventana.setEstadoConexion(true);
-                    if (!primeraConexion) {
-                        ventana.getPanelLog().appendMensaje("¡Dispositivo reconectado!", new Color(0, 150, 0));
-                    }
-                    primeraConexion = false;
-                    detenerReconexionAutomatica();
-
-                    if (monitoreando) {
-                        ventana.getPanelLog().appendMensaje("Monitoreo reanudado", new Color(0, 100, 0));
-                    }
-                });
-            }
-
-            @Override
-            public void onConnectionFailed(String error) {
-                /*
-                 * Manejo de fallos en los intentos de conexión.
-                 */
-                SwingUtilities.invokeLater(() -> {
-                    intentosReconexion++;
-                    if (intentosReconexion >= MAX_INTENTOS_RECONEXION) {
-                        ventana.getPanelLog().appendError("Maximos intentos de reconexión alcanzados");
-                        detenerReconexionAutomatica();
-                    } else {
-                        ventana.getPanelLog().appendMensaje(
-                            "Intento " + intentosReconexion + "/" + MAX_INTENTOS_RECONEXION,
-                            Color.ORANGE
-                        );
-                    }
-                });
+            public void windowClosing(WindowEvent e) {
+                cerrarAplicacion();
             }
         });
     }
 
+    @Override
+    public void onMensaje(String fuente, String mensaje, Color color, long tiempoMs) {
+        ventana.getPanelLog().appendMensaje(fuente, mensaje, color, tiempoMs);
+    }
+
     /*
-     * Inicia el proceso de reconexión automática en un hilo separado.
+     * Actualización de los indicadores de los canales presentes en la fila.
      */
-    private void iniciarReconexionAutomatica() {
-        if (reconexionThread != null && reconexionThread.isAlive()) {
-            return;
+    @Override
+    public void onFila(long llegadaNanos) {
+        ProcesadorMuestras procesador = nucleo.getProcesador();
+        float temp = procesador.getValorFiltrado(RegistroCanales.TEMPERATURA);
+        float hum = procesador.getValorFiltrado(RegistroCanales.HUMEDAD);
+        if (!Float.isNaN(temp)) {
+            ventana.getPanelTemperatura().actualizarDatos(temp, llegadaNanos);
+        }
+        if (!Float.isNaN(hum)) {
+            ventana.getPanelHumedad().actualizarDatos(hum);
+        }
+        if (teselaLocal != null) {
+            teselaLocal.actualizar(temp, hum);
         }
 
-        intentandoReconexion = true;
-        intentosReconexion = 0;
-
-        reconexionThread = new Thread(() -> {
-            /*
-             * Bucle principal del hilo de reconexión.
-             */
-            while (intentandoReconexion && intentosReconexion < MAX_INTENTOS_RECONEXION) {
-                try {
-                    Thread.sleep(3000); // Espera entre intentos
+        if (MedicionArranque.getMsPrimeraMuestra() < 0) {
+            MedicionArranque.marcarPrimeraMuestra();
+            ventana.getPanelLog().appendMensaje(
+                "Arranque: primer frame " + MedicionArranque.getMsPrimerFrame()
+                    + " ms, primera muestra " + MedicionArranque.getMsPrimeraMuestra() + " ms",
+                Color.GRAY
+            );
+        }
+    }
 
-                    SwingUtilities.invokeLater(() -> {
-                        ventana.getPanelLog().appendMensaje("Intentando reconectar...", Color.ORANGE);
-                    });
+    /*
+     * Las placas de red se muestran en el tablero, con una tesela cada una.
+     */
+    @Override
+    public void onNodoRed(NodoRed nodo) {
+        if (dialogoTablero != null) {
+            nodo.setTesela(dialogoTablero.getTablero().agregar(nodo.getNombre()));
+        }
+    }
 
-                    try {
-                        serialReader.connect(PUERTO_ARDUINO);
-                        return; 
-                    } catch (Exception e) {
-                        
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    return; 
-                }
-            }
+    @Override
+    public void onConexion(boolean conectado) {
+        ventana.setEstadoConexion(conectado);
+        if (teselaLocal != null) {
+            teselaLocal.setConectado(conectado);
+        }
+        if (!conectado) {
+            ventana.getPanelTemperatura().reset();
+            ventana.getPanelHumedad().reset();
+        }
+        actualizarReconectar();
+    }
 
-            /*
-             * Acciones a realizar al finalizar los intentos de reconexión.
-             */
-            SwingUtilities.invokeLater(() -> {
-                if (intentosReconexion >= MAX_INTENTOS_RECONEXION) {
-                    ventana.getPanelLog().appendError("No se pudo reconectar. Intente manualmente.");
-                }
-                intentandoReconexion = false;
-            });
-        });
+    @Override
+    public void onConectando(boolean enCurso) {
+        actualizarReconectar();
+    }
 
-        reconexionThread.setDaemon(true);
-        reconexionThread.start();
+    /*
+     * La reconexión manual solo se ofrece desconectado y sin un intento en curso.
+     */
+    private void actualizarReconectar() {
+        ventana.getPanelControl().setReconectarHabilitado(!nucleo.isConectado() && !nucleo.isConectando());
     }
 
     /*
-     * Detiene el proceso de reconexión automática.
+     * Intervalo confirmado por la placa: la tesela del tablero lo usa para
+     * decidir cuándo mostrarla inactiva por falta de muestras.
      */
-    private void detenerReconexionAutomatica() {
-        intentandoReconexion = false;
-        if (reconexionThread != null) {
-            reconexionThread.interrupt();
+    @Override
+    public void onIntervaloMuestreo(int intervaloMs) {
+        if (teselaLocal != null) {
+            teselaLocal.setIntervaloMuestreo(intervaloMs);
         }
     }
 
     /*
-     * Intenta establecer la conexión serial inicial.
+     * Alertas del motor de reglas: actualiza el estado de los paneles; el
+     * núcleo deja constancia en el registro de eventos.
      */
-    private void iniciarConexionSerial() {
-        try {
-            serialReader.connect(PUERTO_ARDUINO);
-            ventana.setEstadoConexion(true);
-            ventana.getPanelLog().appendMensaje("Conectado a " + PUERTO_ARDUINO, Color.BLUE);
+    @Override
+    public void onAlerta(ReglaAlerta regla, boolean activa, float valor) {
+        int canal = regla.getCanal();
+        int severidad = motorReglas.getSeveridadActiva(canal);
+        boolean porEncima = motorReglas.isActivaPorEncima(canal);
+        if (canal == RegistroCanales.TEMPERATURA) {
+            ventana.getPanelTemperatura().setAlerta(severidad, porEncima);
+        } else if (canal == RegistroCanales.HUMEDAD) {
+            ventana.getPanelHumedad().setAlerta(severidad, porEncima);
+        }
+        if (teselaLocal != null) {
+            teselaLocal.setSeveridadAlerta(Math.max(motorReglas.getSeveridadActiva(RegistroCanales.TEMPERATURA),
+                                                    motorReglas.getSeveridadActiva(RegistroCanales.HUMEDAD)));
+        }
+    }
 
-        } catch (Exception e) {
-            /*
-             * Manejo de errores en la conexión inicial e inicio de reconexión automática.
-             */
-            ventana.setEstadoConexion(false);
-            ventana.getPanelLog().appendError("Error de conexión: " + e.getMessage());
-            iniciarReconexionAutomatica();
+    @Override
+    public void onSalud(MonitorSalud monitor, int estado, String detalle) {
+        if (teselaLocal != null) {
+            teselaLocal.setSalud(estado);
         }
     }
 
     /*
-     * Procesa los datos recibidos por serial, extrayendo temperatura y humedad
-     * y actualizando la interfaz gráfica.
+     * Con el historial recuperado los indicadores muestran el último valor
+     * sin esperar a la placa.
      */
-    private void procesarDatosSerial(String data) {
-        try {
-            /*
-             * Verificación de mensajes de error del sensor.
-             */
-            if (data.equals("ERROR")) {
-                ventana.getPanelLog().appendError("Error en sensor DHT11");
-                return;
-            }
-
-            /*
-             * Parseo de los datos recibidos y actualización de la UI.
-             */
-            String[] partes = data.split(",");
-            if (partes.length == 2) {
-                float temp = Float.parseFloat(partes[0].split(":")[1]);
-                float hum = Float.parseFloat(partes[1].split(":")[1]);
-
-                ventana.getPanelTemperatura().actualizarDatos(temp);
-                ventana.getPanelHumedad().actualizarDatos(hum);
+    @Override
+    public void onHistorialRecuperado(HistorialReciente previo) {
+        float temp = previo.getUltimoFiltrado(RegistroCanales.TEMPERATURA);
+        float hum = previo.getUltimoFiltrado(RegistroCanales.HUMEDAD);
+        if (!Float.isNaN(temp) && !ventana.getPanelTemperatura().tieneValor()) {
+            ventana.getPanelTemperatura().actualizarDatos(temp);
+        }
+        if (!Float.isNaN(hum) && !ventana.getPanelHumedad().tieneValor()) {
+            ventana.getPanelHumedad().actualizarDatos(hum);
+        }
+    }
 
-                ventana.getPanelLog().appendMensaje(
-                    String.format(": Temp %.1f°C, Hum %.1f%%", temp, hum),
-                    Color.DARK_GRAY
-                );
-            }
-        } catch (Exception e) {
-            /*
-             * Manejo de errores durante el procesamiento de datos.
-             */
-            ventana.getPanelLog().appendError("Datos inválidos: " + data);
+    /*
+     * Actualiza la vista de estadísticas de temperatura y humedad.
+     */
+    @Override
+    public void onEstadisticas(EstadisticasStreaming estadisticas, long ahoraMs) {
+        PanelEstadisticas panel = ventana.getPanelEstadisticas();
+        int[] ventanas = {EstadisticasStreaming.VENTANA_HORA, EstadisticasStreaming.VENTANA_DIA};
+        for (int v : ventanas) {
+            panel.mostrar(PanelEstadisticas.FILA_TEMPERATURA, v,
+                          estadisticas.consultar(RegistroCanales.TEMPERATURA, v, ahoraMs));
+            panel.mostrar(PanelEstadisticas.FILA_HUMEDAD, v,
+                          estadisticas.consultar(RegistroCanales.HUMEDAD, v, ahoraMs));
         }
     }
 
@@ -271,9 +265,10 @@ public class Controlador implements ActionListener {
         switch (comando) {
             case "Iniciar":
                 /* Lógica para iniciar el monitoreo */
-                if (!monitoreando) {
-                    if (serialReader.isConnected()) {
-                        monitoreando = true;
+                if (!nucleo.isMonitoreando()) {
+                    /* Con la ingesta de red activa se puede monitorear sin placa serial */
+                    if (nucleo.isConectado() || nucleo.getServidorIngesta() != null) {
+                        nucleo.iniciarMonitoreo();
                         ventana.getPanelLog().appendMensaje("Monitoreo iniciado", new Color(0, 100, 0));
                     } else {
                         ventana.getPanelLog().appendError("No se puede iniciar - Dispositivo desconectado");
@@ -282,46 +277,197 @@ public class Controlador implements ActionListener {
                 break;
         
             case "Encender LED":
-                if (serialReader.isConnected()) {
-                    serialReader.sendCommand("ON");  // Método nuevo (ver abajo)
-                    ((JButton)e.getSource()).setText("Apagar LED");
-                }
-                break;
             case "Apagar LED":
-                if (serialReader.isConnected()) {
-                    serialReader.sendCommand("OFF");
-                    ((JButton)e.getSource()).setText("Encender LED");
+                /* El texto del botón cambia solo cuando la placa confirma el comando */
+                if (nucleo.isConectado()) {
+                    enviarComandoLed((JButton) e.getSource(), comando.equals("Encender LED"));
                 }
                 break;
 
             case "Detener":
                 /* Lógica para detener el monitoreo */
-                if (monitoreando) {
-                    monitoreando = false;
+                if (nucleo.isMonitoreando()) {
+                    nucleo.detenerMonitoreo();
                     ventana.getPanelLog().appendMensaje("Monitoreo detenido", Color.ORANGE);
+                    ventana.getPanelLog().appendMensaje(FUENTE_ENLACE, nucleo.getEstadisticasEnlace().resumen(),
+                                                        Color.GRAY);
+                    if (nucleo.getServidorIngesta() != null) {
+                        ventana.getPanelLog().appendMensaje(FUENTE_ENLACE, nucleo.getServidorIngesta().resumen(),
+                                                            Color.GRAY);
+                    }
+                    if (nucleo.getSumideros() != null) {
+                        for (ColaSumidero cola : nucleo.getSumideros().getColas()) {
+                            ventana.getPanelLog().appendMensaje(FUENTE_SUMIDEROS, cola.resumen(), Color.GRAY);
+                        }
+                    }
                 }
                 break;
 
             case "Exportar Datos":
                 /* Lógica para exportar datos */
-                if (serialReader.isConnected()) {
-                    ventana.getPanelLog().appendMensaje("Exportando datos...", Color.BLUE);
+                if (nucleo.isConectado()) {
+                    ventana.getPanelLog().appendMensaje(FUENTE_EXPORTACION, "Exportando datos...", Color.BLUE);
                     exportarDatos();
                 } else {
-                    ventana.getPanelLog().appendError("No se puede exportar - Dispositivo desconectado");
+                    ventana.getPanelLog().appendError(FUENTE_EXPORTACION, "No se puede exportar - Dispositivo desconectado");
                 }
                 break;
 
+            case "Métricas Derivadas":
+                /* Gráfica de punto de rocío, índice de calor y humedad absoluta */
+                mostrarMetricasDerivadas();
+                break;
+
+            case "Tablero":
+                /* Teselas de todos los dispositivos con un único reloj de repintado */
+                mostrarTablero();
+                break;
+
+            case "Latencias":
+                /* Latencias por etapa desde el primer byte hasta el píxel */
+                mostrarLatencias();
+                break;
+
             case "Reconectar":
                 /* Lógica para intentar reconexión manual */
-                if (!serialReader.isConnected() && !intentandoReconexion) {
-                    ventana.getPanelLog().appendMensaje("Reconexión manual iniciada...", Color.BLUE);
-                    iniciarConexionSerial();
+                if (!nucleo.isConectado() && nucleo.conectar()) {
+                    ventana.getPanelLog().appendMensaje(FUENTE_ENLACE, "Reconexión manual iniciada...", Color.BLUE);
+                    actualizarReconectar();
                 }
                 break;
         }
     }
 
+    /*
+     * Encola el comando del LED; ON y OFF comparten clave de agrupación, por lo
+     * que pulsaciones rápidas solo envían el último estado pedido.
+     */
+    private void enviarComandoLed(JButton boton, boolean encender) {
+        nucleo.getSerialReader().sendCommand(encender ? "ON" : "OFF", "LED", new CanalComandos.ComandoListener() {
+            @Override
+            public void onComandoConfirmado(String comando, long latenciaNanos) {
+                /* Sin el protocolo de confirmación no hay latencia que mostrar */
+                String detalle = nucleo.getSerialReader().getCanalComandos().isConfirmacion()
+                    ? " (" + latenciaNanos / 1_000_000 + " ms)" : " (enviado, sin confirmación)";
+                SwingUtilities.invokeLater(() -> {
+                    boton.setText(encender ? "Apagar LED" : "Encender LED");
+                    ventana.getPanelLog().appendMensaje(FUENTE_COMANDOS,
+                        (encender ? "LED encendido" : "LED apagado") + detalle,
+                        Color.DARK_GRAY
+                    );
+                });
+            }
+
+            @Override
+            public void onComandoFallido(String comando, String motivo) {
+                SwingUtilities.invokeLater(() -> {
+                    ventana.getPanelLog().appendError(FUENTE_COMANDOS, "Comando " + comando + " no aplicado: " + motivo);
+                });
+            }
+
+            @Override
+            public void onComandoReemplazado(String comando, String nuevo) {
+                SwingUtilities.invokeLater(() -> {
+                    ventana.getPanelLog().appendMensaje(FUENTE_COMANDOS,
+                        "Comando " + comando + " reemplazado por " + nuevo, Color.DARK_GRAY);
+                });
+            }
+        });
+    }
+
+    /*
+     * Abre el tablero de dispositivos. La primera vez se crea la tesela del
+     * dispositivo principal, se conectan los adicionales de la configuración
+     * y se añaden las placas de red ya vistas.
+     */
+    private void mostrarTablero() {
+        if (dialogoTablero == null) {
+            dialogoTablero = new DialogoTablero(ventana);
+            TableroDispositivos tablero = dialogoTablero.getTablero();
+            teselaLocal = tablero.agregar(PUERTO_ARDUINO);
+            teselaLocal.setConectado(nucleo.isConectado());
+            teselaLocal.setSalud(nucleo.getMonitorSalud().getEstado());
+            teselaLocal.setIntervaloMuestreo(nucleo.getEstadisticasEnlace().getIntervaloEsperadoMs());
+            dispositivosTablero = DispositivoTablero.desdeConfiguracion(configuracion, tablero);
+            for (DispositivoTablero dispositivo : dispositivosTablero) {
+                dispositivo.getMonitorSalud().setSaludListener((monitor, estado, detalle) -> {
+                    dispositivo.getTesela().setSalud(estado);
+                    nucleo.registrarCambioSalud(monitor, estado, detalle);
+                });
+                dispositivo.iniciar();
+            }
+            for (NodoRed nodo : nucleo.getNodosRed()) {
+                nodo.setTesela(tablero.agregar(nodo.getNombre()));
+            }
+            ventana.getPanelLog().appendMensaje(
+                "Tablero: " + tablero.getCantidad() + " dispositivos", Color.BLUE);
+        }
+        dialogoTablero.setVisible(true);
+    }
+
+    /*
+     * Llamado por el reloj de salud: comprueba el silencio de la conexión
+     * de los dispositivos del tablero.
+     */
+    private void comprobarSaludTablero() {
+        long ahora = System.currentTimeMillis();
+        for (DispositivoTablero dispositivo : dispositivosTablero) {
+            dispositivo.getMonitorSalud().comprobar(ahora);
+        }
+    }
+
+    /*
+     * Acceso para PruebaResistencia, que maneja la aplicación completa.
+     */
+    TrazaLatencia getTrazaLatencia() {
+        return nucleo.getTrazaLatencia();
+    }
+
+    boolean isMonitoreando() {
+        return nucleo.isMonitoreando();
+    }
+
+    /*
+     * Abre la ventana de latencias; se crea la primera vez.
+     */
+    private void mostrarLatencias() {
+        if (dialogoLatencias == null) {
+            dialogoLatencias = new DialogoLatencias(ventana, nucleo.getTrazaLatencia());
+        }
+        dialogoLatencias.setVisible(true);
+    }
+
+    /*
+     * Calcula las métricas derivadas de todo el historial de la sesión en un
+     * hilo aparte (una pasada vectorial si está disponible) y las muestra
+     * en una ventana.
+     */
+    private void mostrarMetricasDerivadas() {
+        if (almacen.isEmpty()) {
+            ventana.getPanelLog().appendError("No hay datos para calcular métricas derivadas");
+            return;
+        }
+        new Thread(() -> {
+            AlmacenMuestras.Bloque bloque = almacen.copiar(0, almacen.getTamano());
+            MetricasDerivadas metricas = MetricasDerivadas.obtener();
+            long inicio = System.nanoTime();
+            MetricasDerivadas.Series series = metricas.calcular(bloque);
+            long microsegundos = (System.nanoTime() - inicio) / 1000;
+            SwingUtilities.invokeLater(() -> {
+                if (series == null) {
+                    ventana.getPanelLog().appendError("El historial no tiene temperatura y humedad");
+                    return;
+                }
+                ventana.getPanelLog().appendMensaje(
+                    "Métricas derivadas (" + metricas.getNombre() + "): " + series.filas
+                        + " filas en " + microsegundos + " µs",
+                    Color.GRAY
+                );
+                new DialogoDerivadas(ventana, bloque.tiempos, series).setVisible(true);
+            });
+        }, "metricas-derivadas").start();
+    }
+
     /**
      * Permite al usuario seleccionar una ubicación y nombre de archivo
      * y exporta los datos de temperatura y humedad a un archivo CSV.
@@ -330,9 +476,8 @@ public class Controlador implements ActionListener {
         /*
          * Verificar si hay datos suficientes en los historiales para exportar.
          */
-        if (ventana.getPanelTemperatura().getHistorial().isEmpty() ||
-            ventana.getPanelHumedad().getHistorial().isEmpty()) {
-            ventana.getPanelLog().appendError("No hay datos suficientes para exportar");
+        if (almacen.isEmpty()) {
+            ventana.getPanelLog().appendError(FUENTE_EXPORTACION, "No hay datos suficientes para exportar");
             return;
         }
 
@@ -354,42 +499,34 @@ public class Controlador implements ActionListener {
              * y evitar bloquear la interfaz de usuario.
              */
             new Thread(() -> {
+                EventosJfr.Exportacion evento = new EventosJfr.Exportacion();
+                evento.begin();
+                evento.tipo = "manual";
+                evento.archivo = archivo.getAbsolutePath();
                 try (PrintWriter writer = new PrintWriter(archivo)) {
                     /*
-                     * Escribir la fila de encabezado del archivo CSV.
-                     */
-                    writer.println("Fecha,Hora,Temperatura (C),Humedad (%)");
-
-                    /*
-                     * Obtener los historiales de datos de temperatura y humedad.
+                     * Copiar el historial para no bloquear al procesamiento de datos
+                     * mientras se escribe el archivo.
                      */
-                    List<Float> temps = ventana.getPanelTemperatura().getHistorial();
-                    List<Float> hums = ventana.getPanelHumedad().getHistorial();
+                    AlmacenMuestras.Bloque bloque = almacen.copiar(0, almacen.getTamano());
 
                     /*
-                     * Determinar el número de filas a escribir basándose en el historial más corto.
+                     * Escribir el encabezado y cada fila de datos en el archivo CSV,
+                     * con la fecha y hora en que se recibió cada muestra.
                      */
-                    int size = Math.min(temps.size(), hums.size());
-
-                    /*
-                     * Escribir cada fila de datos en el archivo CSV.
-                     */
-                    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                    SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
-
-                    for (int i = 0; i < size; i++) {
-                        String fecha = dateFormat.format(new Date());
-                        String hora = timeFormat.format(new Date()); 
-
-                        writer.printf("%s,%s,%.1f,%.1f%n",
-                            fecha, hora, temps.get(i), hums.get(i));
-                    }
+                    ExportadorCsv exportador = new ExportadorCsv(registroCanales);
+                    exportador.escribirEncabezado(writer, bloque);
+                    exportador.escribirFilas(writer, bloque);
+                    writer.flush();
+                    evento.filas = bloque.filas;
+                    evento.bytes = archivo.length();
+                    evento.correcta = !writer.checkError();
 
                     /*
                      * Mostrar un mensaje de éxito en el log de la interfaz de usuario.
                      */
                     SwingUtilities.invokeLater(() -> {
-                        ventana.getPanelLog().appendMensaje(
+                        ventana.getPanelLog().appendMensaje(FUENTE_EXPORTACION,
                             "Datos exportados correctamente a: " + archivo.getAbsolutePath(),
                             new Color(0, 100, 0)
                         );
@@ -399,15 +536,16 @@ public class Controlador implements ActionListener {
                      * Manejar y reportar cualquier error de escritura del archivo.
                      */
                     SwingUtilities.invokeLater(() -> {
-                        ventana.getPanelLog().appendError("Error al exportar: " + e.getMessage());
+                        ventana.getPanelLog().appendError(FUENTE_EXPORTACION, "Error al exportar: " + e.getMessage());
                     });
                 }
+                evento.commit();
             }).start(); // Iniciar el hilo de exportación
         } else {
             /*
              * Mostrar un mensaje en el log si la exportación fue cancelada.
              */
-            ventana.getPanelLog().appendMensaje("Exportación cancelada", Color.ORANGE);
+            ventana.getPanelLog().appendMensaje(FUENTE_EXPORTACION, "Exportación cancelada", Color.ORANGE);
         }
     }
 
@@ -418,10 +556,9 @@ public class Controlador implements ActionListener {
         /*
          * Detener procesos y desconectar el dispositivo serial.
          */
-        detenerReconexionAutomatica();
-        monitoreando = false;
-        if (serialReader != null) {
-            serialReader.disconnect();
+        nucleo.cerrar();
+        for (DispositivoTablero dispositivo : dispositivosTablero) {
+            dispositivo.detener();
         }
     }
 }
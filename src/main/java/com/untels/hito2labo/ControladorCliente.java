@@ -0,0 +1,300 @@
+package com.untels.hito2labo;
+
+import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Controlador de la ventana en modo cliente (clave cliente.demonio): en
+ * lugar de abrir el puerto serial, la ventana se alimenta del
+ * {@link DemonioMonitor} a través de un {@link ClienteMonitor}. Los
+ * indicadores y sus gráficas leen el historial local que reconstruye el
+ * cliente; el registro de eventos muestra los del demonio.
+ * Iniciar y Detener pausan y reanudan la visualización, el LED se maneja a
+ * través del demonio y la exportación usa el historial local. El resto de
+ * acciones solo existen en la aplicación conectada a la placa.
+ * Los indicadores se repintan como mucho una vez por paso del hilo de
+ * eventos, por rápido que llegue el flujo.
+ */
+public class ControladorCliente implements ActionListener {
+    private static final int PERIODO_ESTADISTICAS_MS = 5000;
+    private static final String FUENTE_DEMONIO = "demonio";
+    private static final String FUENTE_COMANDOS = "comandos";
+    private static final String FUENTE_EXPORTACION = "exportacion";
+
+    private final VentanaPrincipal ventana;
+    private final RegistroCanales registroCanales = new RegistroCanales();
+    private final AlmacenMuestras almacen = new AlmacenMuestras();
+    private final EstadisticasStreaming estadisticas = new EstadisticasStreaming();
+    private final ClienteMonitor cliente;
+    private final AtomicBoolean repintadoPendiente = new AtomicBoolean();
+    /* Estado de la vista, solo del hilo de eventos */
+    private boolean mostrando = true;
+    private boolean enlazado;
+    private boolean dispositivoConectado;
+    private int saludMostrada = -1;
+
+    /**
+     * @param ventana La ventana principal.
+     * @param demonio Dirección del demonio ("host:puerto").
+     * @throws IllegalArgumentException Si la dirección no es válida.
+     */
+    public ControladorCliente(VentanaPrincipal ventana, String demonio) {
+        this.ventana = ventana;
+        Configuracion configuracion = Configuracion.cargar();
+        this.cliente = new ClienteMonitor(ClienteMonitor.parsearDireccion(demonio), registroCanales, almacen,
+                                          new Receptor());
+        ventana.setTitle("Sistema de Monitoreo de Sensores - demonio " + demonio);
+        ventana.setEstadoConexion(false);
+        boolean sparkline = configuracion.getBooleano("panel.sparkline", true);
+        almacen.setMaxFilas(configuracion.getEntero("historial.memoria.filas", 4_000_000));
+        ventana.getPanelLog().setCapacidad(configuracion.getEntero("registro.eventos", 200_000));
+        ventana.getPanelTemperatura().setFuente(almacen, RegistroCanales.TEMPERATURA);
+        ventana.getPanelTemperatura().setSparkline(sparkline);
+        ventana.getPanelHumedad().setFuente(almacen, RegistroCanales.HUMEDAD);
+        ventana.getPanelHumedad().setSparkline(sparkline);
+        Timer refrescoEstadisticas = new Timer(PERIODO_ESTADISTICAS_MS, e -> refrescarEstadisticas());
+        refrescoEstadisticas.start();
+
+        ventana.getPanelControl().setActionListener(this);
+        ventana.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                cerrarAplicacion();
+            }
+        });
+        ventana.getPanelLog().appendMensaje(FUENTE_DEMONIO, "Conectando con el demonio " + demonio + "...",
+                                            Color.BLUE);
+        cliente.iniciar();
+    }
+
+    /*
+     * Lo que llega del demonio, en el hilo del cliente: las filas ya están
+     * en el historial local y alimentan aquí las estadísticas; la ventana se
+     * actualiza en el hilo de eventos.
+     */
+    private class Receptor implements ClienteMonitor.Receptor {
+        @Override
+        public void onEnlace(boolean conectado, String detalle) {
+            SwingUtilities.invokeLater(() -> {
+                enlazado = conectado;
+                if (conectado) {
+                    ventana.getPanelLog().appendMensaje(FUENTE_DEMONIO, "Conectado al demonio " + detalle,
+                                                        Color.BLUE);
+                } else {
+                    ventana.setEstadoConexion(false);
+                    ventana.getPanelTemperatura().reset();
+                    ventana.getPanelHumedad().reset();
+                    saludMostrada = -1;
+                    ventana.getPanelLog().appendError(FUENTE_DEMONIO,
+                        "Sin conexión con el demonio (" + detalle + "); se reintenta");
+                }
+            });
+        }
+
+        @Override
+        public void onInstantanea(int filas) {
+            /* Las estadísticas se rehacen con las filas de la instantánea */
+            estadisticas.reset();
+            AlmacenMuestras.Bloque bloque = almacen.copiar(0, almacen.getTamano());
+            for (int canal = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+                float[] filtrados = bloque.filtrados[canal];
+                if (filtrados == null || canal == RegistroCanales.SECUENCIA) continue;
+                for (int fila = 0; fila < bloque.filas; fila++) {
+                    if (!Float.isNaN(filtrados[fila])) {
+                        estadisticas.agregar(canal, bloque.tiempos[fila], filtrados[fila]);
+                    }
+                }
+            }
+            SwingUtilities.invokeLater(() -> {
+                ventana.getPanelLog().appendMensaje(FUENTE_DEMONIO, "Instantánea: " + filas + " muestras",
+                                                    Color.GRAY);
+                refrescarIndicadores();
+                refrescarEstadisticas();
+            });
+        }
+
+        @Override
+        public void onEstado(String dispositivo, boolean conectado, int salud, int intervaloMs) {
+            SwingUtilities.invokeLater(() -> {
+                dispositivoConectado = conectado;
+                ventana.setEstadoConexion(conectado);
+                if (!conectado) {
+                    ventana.getPanelTemperatura().reset();
+                    ventana.getPanelHumedad().reset();
+                }
+                if (salud != saludMostrada && salud < MonitorSalud.NOMBRES.length) {
+                    saludMostrada = salud;
+                    ventana.getPanelLog().appendMensaje(FUENTE_DEMONIO,
+                        dispositivo + (conectado ? " conectado" : " desconectado")
+                            + ", " + MonitorSalud.NOMBRES[salud]
+                            + (intervaloMs > 0 ? ", muestreo " + intervaloMs + " ms" : ""),
+                        Color.GRAY);
+                }
+            });
+        }
+
+        @Override
+        public void onAlerta(int canal, int severidad, boolean porEncima) {
+            SwingUtilities.invokeLater(() -> {
+                if (canal == RegistroCanales.TEMPERATURA) {
+                    ventana.getPanelTemperatura().setAlerta(severidad, porEncima);
+                } else if (canal == RegistroCanales.HUMEDAD) {
+                    ventana.getPanelHumedad().setAlerta(severidad, porEncima);
+                }
+            });
+        }
+
+        @Override
+        public void onFila(long tiempoMs, int[] canales, float[] filtrados, int n, int perdidas) {
+            for (int i = 0; i < n; i++) {
+                if (canales[i] != RegistroCanales.SECUENCIA && !Float.isNaN(filtrados[i])) {
+                    estadisticas.agregar(canales[i], tiempoMs, filtrados[i]);
+                }
+            }
+            if (repintadoPendiente.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(() -> {
+                    repintadoPendiente.set(false);
+                    if (mostrando) {
+                        refrescarIndicadores();
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onEvento(long tiempoMs, int colorRgb, String fuente, String mensaje) {
+            SwingUtilities.invokeLater(() ->
+                ventana.getPanelLog().appendMensaje(fuente, mensaje, new Color(colorRgb), tiempoMs));
+        }
+    }
+
+    /*
+     * Pone en los indicadores el último valor de cada canal en el historial local.
+     */
+    private void refrescarIndicadores() {
+        int filas = almacen.getTamano();
+        if (filas == 0 || !dispositivoConectado) return;
+        float temp = almacen.getFiltrado(RegistroCanales.TEMPERATURA, filas - 1);
+        float hum = almacen.getFiltrado(RegistroCanales.HUMEDAD, filas - 1);
+        if (!Float.isNaN(temp)) {
+            ventana.getPanelTemperatura().actualizarDatos(temp);
+        }
+        if (!Float.isNaN(hum)) {
+            ventana.getPanelHumedad().actualizarDatos(hum);
+        }
+    }
+
+    private void refrescarEstadisticas() {
+        long ahora = System.currentTimeMillis();
+        PanelEstadisticas panel = ventana.getPanelEstadisticas();
+        int[] ventanas = {EstadisticasStreaming.VENTANA_HORA, EstadisticasStreaming.VENTANA_DIA};
+        for (int v : ventanas) {
+            panel.mostrar(PanelEstadisticas.FILA_TEMPERATURA, v,
+                          estadisticas.consultar(RegistroCanales.TEMPERATURA, v, ahora));
+            panel.mostrar(PanelEstadisticas.FILA_HUMEDAD, v,
+                          estadisticas.consultar(RegistroCanales.HUMEDAD, v, ahora));
+        }
+    }
+
+    /**
+     * Maneja los botones del panel de control.
+     *
+     * @param e El ActionEvent que ocurrió.
+     */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        String comando = e.getActionCommand();
+        switch (comando) {
+            case "Iniciar":
+                if (!mostrando) {
+                    mostrando = true;
+                    refrescarIndicadores();
+                    ventana.getPanelLog().appendMensaje("Visualización reanudada", new Color(0, 100, 0));
+                }
+                break;
+
+            case "Detener":
+                /* El demonio sigue monitoreando; solo se congela la vista */
+                if (mostrando) {
+                    mostrando = false;
+                    ventana.getPanelLog().appendMensaje("Visualización detenida (el demonio sigue monitoreando)",
+                                                        Color.ORANGE);
+                }
+                break;
+
+            case "Encender LED":
+            case "Apagar LED":
+                /* La confirmación de la placa llega en el registro del demonio */
+                boolean encender = comando.equals("Encender LED");
+                if (!enlazado || !dispositivoConectado) {
+                    ventana.getPanelLog().appendError(FUENTE_COMANDOS, "No se puede enviar - Dispositivo desconectado");
+                } else if (cliente.enviarComando(encender ? "ON" : "OFF")) {
+                    ((JButton) e.getSource()).setText(encender ? "Apagar LED" : "Encender LED");
+                } else {
+                    ventana.getPanelLog().appendError(FUENTE_COMANDOS, "No se pudo enviar el comando al demonio");
+                }
+                break;
+
+            case "Exportar Datos":
+                exportarDatos();
+                break;
+
+            default:
+                ventana.getPanelLog().appendMensaje(comando + ": no disponible en modo cliente", Color.ORANGE);
+                break;
+        }
+    }
+
+    /*
+     * Exporta a CSV el historial local (la instantánea y lo recibido desde entonces).
+     */
+    private void exportarDatos() {
+        if (almacen.isEmpty()) {
+            ventana.getPanelLog().appendError(FUENTE_EXPORTACION, "No hay datos suficientes para exportar");
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Guardar datos de sensores");
+        fileChooser.setSelectedFile(new File("datos_sensores_" +
+            new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + ".csv"));
+        if (fileChooser.showSaveDialog(ventana) != JFileChooser.APPROVE_OPTION) {
+            ventana.getPanelLog().appendMensaje(FUENTE_EXPORTACION, "Exportación cancelada", Color.ORANGE);
+            return;
+        }
+        File archivo = fileChooser.getSelectedFile();
+        new Thread(() -> {
+            try (PrintWriter writer = new PrintWriter(archivo)) {
+                AlmacenMuestras.Bloque bloque = almacen.copiar(0, almacen.getTamano());
+                ExportadorCsv exportador = new ExportadorCsv(registroCanales);
+                exportador.escribirEncabezado(writer, bloque);
+                exportador.escribirFilas(writer, bloque);
+                SwingUtilities.invokeLater(() -> ventana.getPanelLog().appendMensaje(FUENTE_EXPORTACION,
+                    "Datos exportados correctamente a: " + archivo.getAbsolutePath(), new Color(0, 100, 0)));
+            } catch (IOException ex) {
+                SwingUtilities.invokeLater(() ->
+                    ventana.getPanelLog().appendError(FUENTE_EXPORTACION, "Error al exportar: " + ex.getMessage()));
+            }
+        }, "exportacion-cliente").start();
+    }
+
+    /**
+     * Cierra la conexión con el demonio (que sigue en marcha).
+     */
+    public void cerrarAplicacion() {
+        cliente.detener();
+    }
+}
@@ -0,0 +1,349 @@
+package com.untels.hito2labo;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Demonio de monitoreo sin interfaz: sobre el mismo núcleo que la
+ * aplicación ({@link NucleoMonitor}: puerto serial e ingesta de red,
+ * historial en memoria y en disco con la recuperación de las últimas horas,
+ * reglas, salud, sumideros, exportación) difunde el resultado a los clientes
+ * gráficos por un socket local ({@link DifusionClientes}). Así varios
+ * operadores ven la misma placa, que solo admite un proceso en su puerto,
+ * y el trabajo de ingesta se hace una sola vez.
+ * Cada fila se codifica una vez en el flujo común; un cliente que se
+ * conecta recibe antes una instantánea con los canales, el estado, las
+ * alertas activas y las últimas filas, completadas con el historial en
+ * disco de antes del arranque ({@link ProtocoloMonitor}).
+ * El monitoreo está siempre activo y el demonio reintenta la conexión con
+ * la placa indefinidamente. Los mensajes del registro van a la salida
+ * estándar y a los clientes.
+ * Uso: {@code java -cp Hito2LAbo.jar com.untels.hito2labo.DemonioMonitor}
+ * (claves demonio.* además de las de la aplicación).
+ */
+public class DemonioMonitor implements NucleoMonitor.Oyente {
+    private static final String FUENTE_COMANDOS = NucleoMonitor.FUENTE_COMANDOS;
+    private static final String FUENTE_CLIENTES = "clientes";
+
+    /*
+     * Hilo de entrega del núcleo. Cada tarea corre con el cerrojo del
+     * demonio tomado: una instantánea nunca ve una fila en el historial
+     * que aún no esté en el flujo.
+     */
+    private final ExecutorService eventos = Executors.newSingleThreadExecutor(r -> {
+        Thread hilo = new Thread(r, "demonio-eventos");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+    private final Executor entrega = tarea -> eventos.execute(() -> {
+        synchronized (this) {
+            tarea.run();
+        }
+    });
+    private final NucleoMonitor nucleo;
+    private final RegistroCanales registroCanales;
+    private final AlmacenMuestras almacen;
+    private final MotorReglas motorReglas;
+    private final ProcesadorMuestras procesador;
+    private final DifusionClientes difusion;
+    private final int filasInstantanea;
+
+    /*
+     * Estado del flujo, protegido por el cerrojo del demonio: todo lo que
+     * se publica pasa por aquí y en este orden.
+     */
+    private final ProtocoloMonitor.Escritor flujo = new ProtocoloMonitor.Escritor(4096);
+    private final ProtocoloMonitor.EstadoFilas estadoFlujo = new ProtocoloMonitor.EstadoFilas();
+    private int canalesAnunciados;
+    private boolean conectado;
+    private int intervaloMs;
+    private HistorialReciente previo;
+
+    /**
+     * Arma los componentes según la configuración; no abre nada hasta {@link #iniciar}.
+     * La conexión con la placa se reintenta sin límite.
+     */
+    public DemonioMonitor(Configuracion configuracion) {
+        this.nucleo = new NucleoMonitor(configuracion, entrega, 0);
+        nucleo.setRegistroFilas(false);
+        this.registroCanales = nucleo.getRegistroCanales();
+        this.almacen = nucleo.getAlmacen();
+        this.motorReglas = nucleo.getMotorReglas();
+        this.procesador = nucleo.getProcesador();
+        this.filasInstantanea = configuracion.getEntero("demonio.instantanea.filas", 1800);
+        this.difusion = new DifusionClientes(
+            new InetSocketAddress(configuracion.getTexto("demonio.direccion", "127.0.0.1"),
+                                  configuracion.getEntero("demonio.puerto", 7870)),
+            configuracion.getEntero("demonio.clientes", 32),
+            configuracion.getEntero("demonio.buffer.kb", 1024) * 1024,
+            this::capturar, this::comandoDeCliente);
+    }
+
+    public static void main(String[] args) {
+        DemonioMonitor demonio = new DemonioMonitor(Configuracion.cargar());
+        try {
+            demonio.iniciar();
+        } catch (IOException e) {
+            System.err.println("No se pudo abrir el socket de clientes: " + e.getMessage());
+            demonio.cerrar();
+            System.exit(1);
+        }
+        CountDownLatch fin = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            demonio.cerrar();
+            fin.countDown();
+        }, "cierre-demonio"));
+        try {
+            fin.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Abre el socket de los clientes y arranca el núcleo con el monitoreo activo.
+     *
+     * @throws IOException Si no se puede escuchar en demonio.puerto.
+     */
+    public void iniciar() throws IOException {
+        difusion.iniciar();
+        registrar(FUENTE_CLIENTES, "Clientes en el puerto " + difusion.getPuerto(), Color.BLUE);
+        nucleo.iniciarMonitoreo();
+        nucleo.iniciar(this);
+    }
+
+    /*
+     * Notificaciones del núcleo, en su hilo de entrega y con el cerrojo del
+     * demonio tomado: cada una se escribe en el flujo y se publica.
+     */
+
+    @Override
+    public void onMensaje(String fuente, String mensaje, Color color, long tiempoMs) {
+        registrar(fuente, mensaje, color, tiempoMs);
+    }
+
+    /*
+     * Una fila nueva: se añade al flujo tras anunciar los canales nuevos.
+     */
+    @Override
+    public synchronized void onFila(long llegadaNanos) {
+        anunciarCanales();
+        ProtocoloMonitor.escribirFila(flujo, estadoFlujo, procesador.getTiempoFila(), procesador.getFilaCanales(),
+            procesador.getFilaCruda(), procesador.getFilaFiltrada(), procesador.getColumnas(),
+            procesador.getPerdidas());
+        publicar();
+    }
+
+    @Override
+    public synchronized void onConexion(boolean conectado) {
+        this.conectado = conectado;
+        escribirEstado();
+        publicar();
+    }
+
+    @Override
+    public void onConectando(boolean enCurso) {
+    }
+
+    /*
+     * Las placas de red tienen su propio historial y sumideros; el flujo
+     * difunde solo las filas del puerto serial.
+     */
+    @Override
+    public void onNodoRed(NodoRed nodo) {
+    }
+
+    @Override
+    public synchronized void onIntervaloMuestreo(int intervaloMs) {
+        this.intervaloMs = intervaloMs;
+        escribirEstado();
+        publicar();
+    }
+
+    @Override
+    public synchronized void onAlerta(ReglaAlerta regla, boolean activa, float valor) {
+        int canal = regla.getCanal();
+        ProtocoloMonitor.escribirAlerta(flujo, canal, motorReglas.getSeveridadActiva(canal),
+                                        motorReglas.isActivaPorEncima(canal));
+        publicar();
+    }
+
+    @Override
+    public synchronized void onSalud(MonitorSalud monitor, int estado, String detalle) {
+        escribirEstado();
+        publicar();
+    }
+
+    /*
+     * El núcleo ya lo puso delante del historial de la sesión; aquí se
+     * guarda para las instantáneas de los clientes.
+     */
+    @Override
+    public synchronized void onHistorialRecuperado(HistorialReciente previo) {
+        this.previo = previo;
+    }
+
+    @Override
+    public void onEstadisticas(EstadisticasStreaming estadisticas, long ahoraMs) {
+    }
+
+    private void anunciarCanales() {
+        while (canalesAnunciados < registroCanales.getCantidad()) {
+            ProtocoloMonitor.escribirCanal(flujo, canalesAnunciados, registroCanales.getClave(canalesAnunciados),
+                                           registroCanales.getNombre(canalesAnunciados));
+            canalesAnunciados++;
+        }
+    }
+
+    private void escribirEstado() {
+        ProtocoloMonitor.escribirEstado(flujo, nucleo.getPuerto(), conectado, nucleo.getMonitorSalud().getEstado(),
+                                        intervaloMs);
+    }
+
+    /*
+     * Pasa lo escrito en el flujo a la difusión de una vez.
+     */
+    private void publicar() {
+        if (flujo.getLongitud() > 0) {
+            difusion.publicar(flujo.getDatos(), flujo.getLongitud());
+            flujo.reiniciar();
+        }
+    }
+
+    private void registrar(String fuente, String mensaje, Color color) {
+        registrar(fuente, mensaje, color, System.currentTimeMillis());
+    }
+
+    /*
+     * Un mensaje del registro: a la salida estándar (los errores a la de
+     * error) y a los clientes como EVENTO.
+     */
+    private synchronized void registrar(String fuente, String mensaje, Color color, long tiempoMs) {
+        String linea = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(tiempoMs))
+            + " [" + fuente + "] " + mensaje;
+        if (Color.RED.equals(color)) {
+            System.err.println(linea);
+        } else {
+            System.out.println(linea);
+        }
+        ProtocoloMonitor.escribirEvento(flujo, tiempoMs, color.getRGB(), fuente, mensaje);
+        publicar();
+    }
+
+    /*
+     * Instantánea de un cliente nuevo, en el hilo de la difusión. Con el
+     * cerrojo del demonio tomado no se publica nada entre la instantánea y
+     * la posición del flujo que se devuelve.
+     */
+    private synchronized long capturar(ProtocoloMonitor.Escritor escritor) {
+        escritor.empezar(ProtocoloMonitor.HOLA);
+        escritor.varint(ProtocoloMonitor.MAGIA);
+        escritor.varint(ProtocoloMonitor.VERSION);
+        escritor.terminar();
+        int cantidad = registroCanales.getCantidad();
+        for (int canal = 0; canal < cantidad; canal++) {
+            ProtocoloMonitor.escribirCanal(escritor, canal, registroCanales.getClave(canal),
+                                           registroCanales.getNombre(canal));
+        }
+        ProtocoloMonitor.escribirEstado(escritor, nucleo.getPuerto(), conectado,
+                                        nucleo.getMonitorSalud().getEstado(), intervaloMs);
+        for (int canal = 0; canal < cantidad; canal++) {
+            int severidad = motorReglas.getSeveridadActiva(canal);
+            if (severidad != ReglaAlerta.SEVERIDAD_NINGUNA) {
+                ProtocoloMonitor.escribirAlerta(escritor, canal, severidad, motorReglas.isActivaPorEncima(canal));
+            }
+        }
+
+        /*
+         * Últimas filas del historial, con su propio estado de diferencias;
+         * si las de la sesión no bastan, se completan por delante con las
+         * recuperadas del disco. Después SINCRONIA fija el del flujo en este punto.
+         */
+        ProtocoloMonitor.EstadoFilas estado = new ProtocoloMonitor.EstadoFilas();
+        int hasta = almacen.getTamano();
+        int desde = Math.max(0, hasta - filasInstantanea);
+        if (previo != null && hasta - desde < filasInstantanea) {
+            long primerTiempo = hasta > 0 ? almacen.getTiempo(0) : Long.MAX_VALUE;
+            escribirFilas(escritor, estado, previo.copiarUltimas(filasInstantanea - (hasta - desde), primerTiempo));
+        }
+        escribirFilas(escritor, estado, almacen.copiar(desde, hasta));
+        ProtocoloMonitor.escribirSincronia(escritor, estadoFlujo);
+        escritor.empezar(ProtocoloMonitor.FIN_INSTANTANEA);
+        escritor.terminar();
+        return difusion.getPosicion();
+    }
+
+    private void escribirFilas(ProtocoloMonitor.Escritor escritor, ProtocoloMonitor.EstadoFilas estado,
+                               AlmacenMuestras.Bloque bloque) {
+        int cantidad = registroCanales.getCantidad();
+        int[] canales = new int[RegistroCanales.MAX_CANALES];
+        float[] crudos = new float[RegistroCanales.MAX_CANALES];
+        float[] filtrados = new float[RegistroCanales.MAX_CANALES];
+        for (int fila = 0; fila < bloque.filas; fila++) {
+            int n = 0;
+            for (int canal = 0; canal < cantidad; canal++) {
+                if (bloque.filtrados[canal] == null) continue;
+                float filtrado = bloque.filtrados[canal][fila];
+                float crudo = bloque.crudos[canal][fila];
+                if (Float.isNaN(filtrado) && Float.isNaN(crudo)) continue;
+                canales[n] = canal;
+                crudos[n] = crudo;
+                filtrados[n] = filtrado;
+                n++;
+            }
+            ProtocoloMonitor.escribirFila(escritor, estado, bloque.tiempos[fila], canales, crudos, filtrados, n,
+                                          bloque.perdidas[fila]);
+        }
+    }
+
+    /*
+     * Comando de un cliente, en el hilo de la difusión: solo los del LED.
+     */
+    private void comandoDeCliente(String comando) {
+        if (!comando.equals("ON") && !comando.equals("OFF")) {
+            registrar(FUENTE_COMANDOS, "Comando de cliente no admitido: " + comando, Color.ORANGE);
+            return;
+        }
+        if (!nucleo.isConectado()) {
+            registrar(FUENTE_COMANDOS, "Comando " + comando + " no enviado: dispositivo desconectado", Color.RED);
+            return;
+        }
+        nucleo.getSerialReader().sendCommand(comando, "LED", new CanalComandos.ComandoListener() {
+            @Override
+            public void onComandoConfirmado(String comando, long latenciaNanos) {
+                /* Sin el protocolo de confirmación no hay latencia que mostrar */
+                String detalle = nucleo.getSerialReader().getCanalComandos().isConfirmacion()
+                    ? " (" + latenciaNanos / 1_000_000 + " ms)" : " (enviado, sin confirmación)";
+                registrar(FUENTE_COMANDOS, (comando.equals("ON") ? "LED encendido" : "LED apagado") + detalle,
+                          Color.DARK_GRAY);
+            }
+
+            @Override
+            public void onComandoFallido(String comando, String motivo) {
+                registrar(FUENTE_COMANDOS, "Comando " + comando + " no aplicado: " + motivo, Color.RED);
+            }
+
+            @Override
+            public void onComandoReemplazado(String comando, String nuevo) {
+                registrar(FUENTE_COMANDOS, "Comando " + comando + " reemplazado por " + nuevo, Color.DARK_GRAY);
+            }
+        });
+    }
+
+    /**
+     * Cierra la conexión con la placa, los clientes y los procesos de fondo.
+     */
+    public void cerrar() {
+        nucleo.cerrar();
+        System.out.println(difusion.resumen());
+        difusion.detener();
+        eventos.shutdownNow();
+    }
+}
@@ -0,0 +1,115 @@
+package com.untels.hito2labo;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Frame;
+import java.awt.Graphics;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import javax.swing.JDialog;
+import javax.swing.JPanel;
+
+/**
+ * Ventana con la gráfica de las métricas derivadas (punto de rocío, índice
+ * de calor y humedad absoluta) de todo el historial de la sesión.
+ * Cada columna de píxeles dibuja el mínimo y el máximo de las filas que le
+ * corresponden, así que el coste de pintar no depende de la longitud del
+ * historial más allá de un recorrido.
+ */
+public class DialogoDerivadas extends JDialog {
+    private static final String[] NOMBRES = {"Punto de rocío (°C)", "Índice de calor (°C)", "Humedad absoluta (g/m³)"};
+    private static final Color[] COLORES = {new Color(0, 120, 160), Color.RED, new Color(0, 140, 0)};
+
+    /**
+     * @param propietario La ventana principal.
+     * @param tiempos     Instantes de las filas.
+     * @param series      Las series derivadas calculadas.
+     */
+    public DialogoDerivadas(Frame propietario, long[] tiempos, MetricasDerivadas.Series series) {
+        super(propietario, "Métricas derivadas", false);
+        setLayout(new BorderLayout());
+        add(new Grafico(tiempos, new float[][] {series.puntoRocio, series.indiceCalor, series.humedadAbsoluta},
+                        series.filas), BorderLayout.CENTER);
+        setSize(new Dimension(800, 400));
+        setLocationRelativeTo(propietario);
+    }
+
+    private static class Grafico extends JPanel {
+        private final long[] tiempos;
+        private final float[][] series;
+        private final int filas;
+
+        Grafico(long[] tiempos, float[][] series, int filas) {
+            this.tiempos = tiempos;
+            this.series = series;
+            this.filas = filas;
+            setBackground(Color.WHITE);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            int margen = 40;
+            int ancho = getWidth() - 2 * margen;
+            int alto = getHeight() - 2 * margen;
+            if (filas < 2 || ancho < 2 || alto < 2) return;
+
+            /*
+             * Escala común a las tres series.
+             */
+            float minimo = Float.POSITIVE_INFINITY;
+            float maximo = Float.NEGATIVE_INFINITY;
+            for (float[] serie : series) {
+                for (int i = 0; i < filas; i++) {
+                    float v = serie[i];
+                    if (Float.isNaN(v) || Float.isInfinite(v)) continue;
+                    if (v < minimo) minimo = v;
+                    if (v > maximo) maximo = v;
+                }
+            }
+            if (minimo > maximo) return;
+            float rango = Math.max(1e-3f, maximo - minimo);
+
+            g.setColor(Color.BLACK);
+            g.drawLine(margen, margen, margen, margen + alto);
+            g.drawLine(margen, margen + alto, margen + ancho, margen + alto);
+            g.drawString(String.format("%.1f", maximo), 2, margen + 5);
+            g.drawString(String.format("%.1f", minimo), 2, margen + alto);
+            SimpleDateFormat formato = new SimpleDateFormat("dd/MM HH:mm");
+            g.drawString(formato.format(new Date(tiempos[0])), margen, margen + alto + 15);
+            String fin = formato.format(new Date(tiempos[filas - 1]));
+            g.drawString(fin, margen + ancho - g.getFontMetrics().stringWidth(fin), margen + alto + 15);
+
+            for (int s = 0; s < series.length; s++) {
+                g.setColor(COLORES[s]);
+                g.drawString(NOMBRES[s], margen + 10 + s * 180, margen - 10);
+                int yAnterior = -1;
+                for (int x = 0; x < ancho; x++) {
+                    int desde = (int) ((long) x * filas / ancho);
+                    int hasta = Math.max(desde + 1, (int) ((long) (x + 1) * filas / ancho));
+                    float bajo = Float.POSITIVE_INFINITY;
+                    float altoValor = Float.NEGATIVE_INFINITY;
+                    for (int i = desde; i < hasta; i++) {
+                        float v = series[s][i];
+                        if (Float.isNaN(v) || Float.isInfinite(v)) continue;
+                        if (v < bajo) bajo = v;
+                        if (v > altoValor) altoValor = v;
+                    }
+                    if (bajo > altoValor) {
+                        yAnterior = -1;
+                        continue;
+                    }
+                    int y1 = margen + (int) (alto * (1 - (altoValor - minimo) / rango));
+                    int y2 = margen + (int) (alto * (1 - (bajo - minimo) / rango));
+                    g.drawLine(margen + x, y1, margen + x, y2);
+                    if (yAnterior >= 0) {
+                        g.drawLine(margen + x - 1, yAnterior, margen + x, (y1 + y2) / 2);
+                    }
+                    yAnterior = (y1 + y2) / 2;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.untels.hito2labo;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Frame;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Ventana de diagnóstico con las latencias por etapa de {@link TrazaLatencia}:
+ * muestras, media, percentiles y máximo en milisegundos, y el porcentaje de
+ * muestras pintadas dentro del objetivo. Se refresca cada segundo mientras
+ * está visible y permite exportar la tabla a CSV.
+ */
+public class DialogoLatencias extends JDialog {
+    private static final int PERIODO_REFRESCO_MS = 1000;
+
+    private final TrazaLatencia traza;
+    private final DefaultTableModel modelo;
+    private final JLabel lblObjetivo = new JLabel(" ");
+    private final Timer refresco;
+
+    /**
+     * @param propietario La ventana principal.
+     * @param traza       Las latencias a mostrar.
+     */
+    public DialogoLatencias(Frame propietario, TrazaLatencia traza) {
+        super(propietario, "Latencias por etapa", false);
+        this.traza = traza;
+
+        String[] columnas = new String[4 + TrazaLatencia.PERCENTILES.length];
+        columnas[0] = "Etapa";
+        columnas[1] = "Muestras";
+        columnas[2] = "Media (ms)";
+        for (int i = 0; i < TrazaLatencia.PERCENTILES.length; i++) {
+            columnas[3 + i] = "p" + TrazaLatencia.formatoPercentil(TrazaLatencia.PERCENTILES[i]);
+        }
+        columnas[columnas.length - 1] = "Máximo (ms)";
+        modelo = new DefaultTableModel(columnas, TrazaLatencia.NOMBRES.length) {
+            @Override
+            public boolean isCellEditable(int fila, int columna) {
+                return false;
+            }
+        };
+        JTable tabla = new JTable(modelo);
+        tabla.setFillsViewportHeight(true);
+
+        JButton btnExportar = new JButton("Exportar");
+        btnExportar.addActionListener(e -> exportar());
+        JButton btnReiniciar = new JButton("Reiniciar");
+        btnReiniciar.addActionListener(e -> {
+            traza.reset();
+            refrescar();
+        });
+        JPanel botones = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        botones.add(btnExportar);
+        botones.add(btnReiniciar);
+
+        JPanel pie = new JPanel(new BorderLayout());
+        pie.add(lblObjetivo, BorderLayout.CENTER);
+        pie.add(botones, BorderLayout.EAST);
+
+        setLayout(new BorderLayout());
+        add(new JScrollPane(tabla), BorderLayout.CENTER);
+        add(pie, BorderLayout.SOUTH);
+        setSize(new Dimension(720, 220));
+        setLocationRelativeTo(propietario);
+
+        /* Solo se refresca mientras la ventana está abierta */
+        refresco = new Timer(PERIODO_REFRESCO_MS, e -> refrescar());
+        refrescar();
+    }
+
+    @Override
+    public void setVisible(boolean visible) {
+        if (visible) {
+            refrescar();
+            refresco.start();
+        } else {
+            refresco.stop();
+        }
+        super.setVisible(visible);
+    }
+
+    @Override
+    public void dispose() {
+        refresco.stop();
+        super.dispose();
+    }
+
+    private void refrescar() {
+        for (int etapa = 0; etapa < TrazaLatencia.NOMBRES.length; etapa++) {
+            Histograma h = traza.getHistograma(etapa);
+            modelo.setValueAt(TrazaLatencia.NOMBRES[etapa], etapa, 0);
+            modelo.setValueAt(h.getTotal(), etapa, 1);
+            boolean vacio = h.getTotal() == 0;
+            modelo.setValueAt(vacio ? "-" : TrazaLatencia.ms(h.getMedia()), etapa, 2);
+            for (int i = 0; i < TrazaLatencia.PERCENTILES.length; i++) {
+                modelo.setValueAt(vacio ? "-" : TrazaLatencia.ms(h.getPercentil(TrazaLatencia.PERCENTILES[i])),
+                                  etapa, 3 + i);
+            }
+            modelo.setValueAt(vacio ? "-" : TrazaLatencia.ms(h.getMaximo()), etapa, modelo.getColumnCount() - 1);
+        }
+        long total = traza.getHistograma(TrazaLatencia.TOTAL).getTotal();
+        lblObjetivo.setText(total == 0 ? "Sin muestras pintadas todavía"
+            : String.format(Locale.ROOT, "Dentro de %d ms: %.3f%% de %d muestras",
+                            TrazaLatencia.OBJETIVO_MS, traza.getFraccionDentroDelObjetivo() * 100, total));
+    }
+
+    /*
+     * Escribe la tabla en el CSV elegido por el usuario.
+     */
+    private void exportar() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Guardar latencias");
+        fileChooser.setSelectedFile(new File("latencias_" +
+            new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + ".csv"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try (PrintWriter writer = new PrintWriter(fileChooser.getSelectedFile(), StandardCharsets.UTF_8)) {
+            traza.exportarCsv(writer);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "No se pudo exportar: " + e.getMessage(),
+                                          "Latencias", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
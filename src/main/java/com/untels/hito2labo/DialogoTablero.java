@@ -0,0 +1,33 @@
+package com.untels.hito2labo;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Frame;
+
+import javax.swing.JDialog;
+import javax.swing.JScrollPane;
+
+/**
+ * Ventana con el tablero de dispositivos: el de la ventana principal y los
+ * adicionales de la configuración (claves tablero.*).
+ */
+public class DialogoTablero extends JDialog {
+    private final TableroDispositivos tablero = new TableroDispositivos();
+
+    /**
+     * @param propietario La ventana principal.
+     */
+    public DialogoTablero(Frame propietario) {
+        super(propietario, "Tablero de dispositivos", false);
+        setLayout(new BorderLayout());
+        JScrollPane scroll = new JScrollPane(tablero);
+        scroll.getVerticalScrollBar().setUnitIncrement(16);
+        add(scroll, BorderLayout.CENTER);
+        setSize(new Dimension(840, 480));
+        setLocationRelativeTo(propietario);
+    }
+
+    public TableroDispositivos getTablero() {
+        return tablero;
+    }
+}
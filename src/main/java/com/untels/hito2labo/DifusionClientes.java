@@ -0,0 +1,349 @@
+package com.untels.hito2labo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Difusión del flujo del demonio a los clientes conectados por un socket
+ * local. Los mensajes se codifican una sola vez y se añaden a un anillo de
+ * bytes común; cada cliente es solo una posición en ese anillo, y un único
+ * hilo con un selector NIO escribe a cada socket los bytes que le faltan
+ * directamente desde el anillo. Así un cliente más cuesta una escritura al
+ * socket por ráfaga de mensajes, no otra codificación.
+ * Un cliente nuevo recibe primero la instantánea que prepara la
+ * {@link FuenteInstantanea} y sigue en la posición del flujo donde se tomó.
+ * Un cliente que se retrasa más de medio anillo se desconecta (al
+ * reconectar recibe otra instantánea) para no frenar a los demás.
+ * Los clientes pueden enviar comandos para la placa (mensaje COMANDO).
+ */
+public class DifusionClientes {
+    /**
+     * Prepara la instantánea de un cliente nuevo.
+     */
+    public interface FuenteInstantanea {
+        /**
+         * Escribe la instantánea y devuelve la posición del flujo en la que
+         * empieza el cliente, tomadas ambas a la vez.
+         */
+        long capturar(ProtocoloMonitor.Escritor escritor);
+    }
+
+    /**
+     * Receptor de los comandos de los clientes, llamado desde el hilo de la difusión.
+     */
+    public interface ReceptorComandos {
+        void comando(String comando);
+    }
+
+    private static final int TAMANO_ENTRADA = 1024;
+
+    /*
+     * Estado de un cliente: la instantánea pendiente de enviar, su posición
+     * en el flujo y lo recibido de él a medio mensaje.
+     */
+    private static class Cliente {
+        final SocketChannel canal;
+        final SelectionKey clave;
+        ByteBuffer instantanea;
+        long posicion;
+        final ByteBuffer entrada = ByteBuffer.allocate(TAMANO_ENTRADA);
+
+        Cliente(SocketChannel canal, SelectionKey clave) {
+            this.canal = canal;
+            this.clave = clave;
+        }
+    }
+
+    private final InetSocketAddress direccion;
+    private final int maxClientes;
+    private final FuenteInstantanea fuente;
+    private final ReceptorComandos receptor;
+    private final byte[] anillo;
+    private final ByteBuffer vista;
+    private final Object cerrojo = new Object();
+    /* Bytes añadidos al flujo desde el arranque (protegido por el cerrojo) */
+    private long escritos;
+    private final AtomicBoolean avisado = new AtomicBoolean();
+    private final List<Cliente> clientes = new ArrayList<>();
+    private final ProtocoloMonitor.Escritor escritorInstantanea = new ProtocoloMonitor.Escritor(64 * 1024);
+
+    private Selector selector;
+    private ServerSocketChannel canalEscucha;
+    private Thread hilo;
+    private volatile boolean activo;
+
+    /* Contadores escritos solo por el hilo de la difusión */
+    private volatile int conectados;
+    private volatile long aceptados;
+    private volatile long retrasados;
+    private volatile long bytesEnviados;
+
+    /**
+     * @param direccion    Dirección y puerto de escucha.
+     * @param maxClientes  Número máximo de clientes simultáneos.
+     * @param capacidad    Bytes del anillo del flujo.
+     * @param fuente       Prepara la instantánea de cada cliente nuevo.
+     * @param receptor     Recibe los comandos de los clientes.
+     */
+    public DifusionClientes(InetSocketAddress direccion, int maxClientes, int capacidad,
+                            FuenteInstantanea fuente, ReceptorComandos receptor) {
+        this.direccion = direccion;
+        this.maxClientes = maxClientes;
+        this.fuente = fuente;
+        this.receptor = receptor;
+        this.anillo = new byte[Math.max(64 * 1024, capacidad)];
+        this.vista = ByteBuffer.wrap(anillo);
+    }
+
+    /**
+     * Abre el socket de escucha y arranca el hilo de la difusión.
+     *
+     * @throws IOException Si no se puede escuchar en la dirección.
+     */
+    public void iniciar() throws IOException {
+        selector = Selector.open();
+        try {
+            canalEscucha = ServerSocketChannel.open();
+            canalEscucha.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            canalEscucha.bind(direccion, 64);
+            canalEscucha.configureBlocking(false);
+            canalEscucha.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            cerrarCanales();
+            throw e;
+        }
+        activo = true;
+        hilo = new Thread(this::bucle, "difusion-clientes");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Puerto de escucha (el asignado por el sistema si se pidió el 0).
+     */
+    public int getPuerto() {
+        return canalEscucha != null ? canalEscucha.socket().getLocalPort() : direccion.getPort();
+    }
+
+    /**
+     * Añade mensajes completos al flujo de todos los clientes. No espera a
+     * ninguno: solo copia los bytes al anillo y despierta al selector.
+     */
+    public void publicar(byte[] datos, int longitud) {
+        synchronized (cerrojo) {
+            int desde = (int) (escritos % anillo.length);
+            int primera = Math.min(longitud, anillo.length - desde);
+            System.arraycopy(datos, 0, anillo, desde, primera);
+            System.arraycopy(datos, primera, anillo, 0, longitud - primera);
+            escritos += longitud;
+        }
+        if (conectados > 0 && avisado.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Posición actual del flujo (bytes publicados desde el arranque).
+     */
+    public long getPosicion() {
+        synchronized (cerrojo) {
+            return escritos;
+        }
+    }
+
+    public void detener() {
+        activo = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (hilo != null) {
+            try {
+                hilo.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public int getConectados() {
+        return conectados;
+    }
+
+    /**
+     * Resumen de una línea para el registro.
+     */
+    public String resumen() {
+        return "Clientes: " + conectados + " conectados, " + aceptados + " aceptados, "
+            + retrasados + " desconectados por retraso, " + bytesEnviados / 1024 + " KB enviados";
+    }
+
+    /*
+     * Bucle del hilo de la difusión: acepta clientes, lee sus comandos y,
+     * en cada vuelta, envía a cada uno lo que le falta del flujo.
+     */
+    private void bucle() {
+        try {
+            while (activo) {
+                selector.select(1000);
+                avisado.set(false);
+                Iterator<SelectionKey> claves = selector.selectedKeys().iterator();
+                while (claves.hasNext()) {
+                    SelectionKey clave = claves.next();
+                    claves.remove();
+                    if (!clave.isValid()) continue;
+                    if (clave.isAcceptable()) {
+                        aceptar();
+                    } else if (clave.isReadable()) {
+                        leer((Cliente) clave.attachment());
+                    }
+                }
+                long fin = getPosicion();
+                for (int i = clientes.size() - 1; i >= 0; i--) {
+                    enviar(clientes.get(i), fin);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Difusión a clientes detenida: " + e.getMessage());
+        } finally {
+            for (int i = clientes.size() - 1; i >= 0; i--) {
+                cerrar(clientes.get(i));
+            }
+            cerrarCanales();
+        }
+    }
+
+    private void aceptar() throws IOException {
+        SocketChannel canal;
+        while ((canal = canalEscucha.accept()) != null) {
+            if (clientes.size() >= maxClientes) {
+                canal.close();
+                continue;
+            }
+            canal.configureBlocking(false);
+            canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey clave = canal.register(selector, SelectionKey.OP_READ);
+            Cliente cliente = new Cliente(canal, clave);
+            clave.attach(cliente);
+            /* La instantánea y la posición se toman juntas */
+            escritorInstantanea.reiniciar();
+            cliente.posicion = fuente.capturar(escritorInstantanea);
+            cliente.instantanea = ByteBuffer.wrap(
+                Arrays.copyOf(escritorInstantanea.getDatos(), escritorInstantanea.getLongitud()));
+            clientes.add(cliente);
+            conectados = clientes.size();
+            aceptados++;
+        }
+    }
+
+    /*
+     * Envía la instantánea pendiente y después el flujo desde la posición
+     * del cliente hasta el final. Si el socket no admite más, se espera a
+     * que vuelva a admitir (OP_WRITE).
+     */
+    private void enviar(Cliente cliente, long fin) {
+        try {
+            if (cliente.instantanea != null) {
+                bytesEnviados += cliente.canal.write(cliente.instantanea);
+                if (cliente.instantanea.hasRemaining()) {
+                    cliente.clave.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                cliente.instantanea = null;
+            }
+            if (fin - cliente.posicion > anillo.length / 2) {
+                retrasados++;
+                cerrar(cliente);
+                return;
+            }
+            long inicio = cliente.posicion;
+            while (cliente.posicion < fin) {
+                int desde = (int) (cliente.posicion % anillo.length);
+                int n = (int) Math.min(fin - cliente.posicion, anillo.length - desde);
+                vista.limit(desde + n).position(desde);
+                int escritosSocket = cliente.canal.write(vista);
+                cliente.posicion += escritosSocket;
+                bytesEnviados += escritosSocket;
+                if (escritosSocket < n) break;
+            }
+            /* Si mientras tanto el anillo dio la vuelta, lo enviado pudo mezclarse */
+            if (getPosicion() - anillo.length > inicio) {
+                retrasados++;
+                cerrar(cliente);
+                return;
+            }
+            cliente.clave.interestOps(cliente.posicion < fin
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        } catch (IOException e) {
+            cerrar(cliente);
+        }
+    }
+
+    /*
+     * Lee los mensajes del cliente; solo se atienden los COMANDO.
+     */
+    private void leer(Cliente cliente) {
+        try {
+            if (cliente.canal.read(cliente.entrada) < 0) {
+                cerrar(cliente);
+                return;
+            }
+            ByteBuffer entrada = cliente.entrada;
+            entrada.flip();
+            while (entrada.remaining() >= 3) {
+                int tipo = entrada.get(entrada.position()) & 0xFF;
+                int longitud = entrada.getShort(entrada.position() + 1) & 0xFFFF;
+                if (longitud > TAMANO_ENTRADA - 3) {
+                    cerrar(cliente);
+                    return;
+                }
+                if (entrada.remaining() < 3 + longitud) break;
+                entrada.position(entrada.position() + 3);
+                if (tipo == ProtocoloMonitor.COMANDO && longitud > 0) {
+                    /* Texto corto: longitud de un byte y UTF-8 */
+                    int n = Math.min(entrada.get() & 0x7F, longitud - 1);
+                    byte[] texto = new byte[n];
+                    entrada.get(texto);
+                    entrada.position(entrada.position() + longitud - 1 - n);
+                    receptor.comando(new String(texto, StandardCharsets.UTF_8));
+                } else {
+                    entrada.position(entrada.position() + longitud);
+                }
+            }
+            entrada.compact();
+        } catch (IOException e) {
+            cerrar(cliente);
+        }
+    }
+
+    private void cerrar(Cliente cliente) {
+        cliente.clave.cancel();
+        try {
+            cliente.canal.close();
+        } catch (IOException e) {
+            // El cliente ya no está
+        }
+        clientes.remove(cliente);
+        conectados = clientes.size();
+    }
+
+    private void cerrarCanales() {
+        try {
+            if (canalEscucha != null) canalEscucha.close();
+            if (selector != null) selector.close();
+        } catch (IOException e) {
+            // Nada más que cerrar
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.untels.hito2labo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Dispositivo adicional mostrado en el tablero: una conexión propia (puerto
+ * serial o placa simulada) cuyas tramas se analizan en el hilo lector y se
+ * entregan directamente a su tesela, sin pasar por la cola de eventos de
+ * Swing, y a su propio {@link MonitorSalud}. Si se pierde la conexión se
+ * reintenta periódicamente.
+ */
+public class DispositivoTablero {
+    private static final int PERIODO_RECONEXION_MS = 5000;
+
+    private final String puerto;
+    private final TeselaDispositivo tesela;
+    private final SerialReader lector = new SerialReader();
+    private final ParserTramas parser;
+    private final MonitorSalud monitorSalud;
+    private final int[] canales = new int[RegistroCanales.MAX_CANALES];
+    private final float[] valores = new float[RegistroCanales.MAX_CANALES];
+    private volatile boolean activo;
+    private Thread conexion;
+
+    /**
+     * @param puerto       El puerto serial, o "SIMULADOR[:factor]".
+     * @param tesela       La tesela que muestra el dispositivo.
+     * @param registro     Registro de canales propio del dispositivo.
+     * @param monitorSalud El monitor de salud de su sensor, creado con ese registro.
+     */
+    public DispositivoTablero(String puerto, TeselaDispositivo tesela, RegistroCanales registro,
+                              MonitorSalud monitorSalud) {
+        this.puerto = puerto;
+        this.tesela = tesela;
+        this.parser = new ParserTramas(registro);
+        this.monitorSalud = monitorSalud;
+        lector.setDataListener(this::procesar);
+        lector.setConnectionListener(new SerialReader.ConnectionListener() {
+            @Override
+            public void onDisconnected() {
+                tesela.setConectado(false);
+                monitorSalud.detener();
+                tesela.setSalud(MonitorSalud.SANO);
+                conectarEnSegundoPlano();
+            }
+
+            @Override
+            public void onReconnected() {
+                tesela.setConectado(true);
+                monitorSalud.iniciar(System.currentTimeMillis());
+            }
+
+            @Override
+            public void onConnectionFailed(String error) {
+                tesela.setConectado(false);
+            }
+        });
+    }
+
+    /**
+     * Crea los dispositivos adicionales de la configuración: la clave
+     * tablero.dispositivos admite una lista "nombre=puerto" separada por
+     * comas y tablero.simulados añade ese número de placas simuladas.
+     *
+     * @param configuracion La configuración de la aplicación.
+     * @param tablero       El tablero donde se añaden sus teselas.
+     * @return Los dispositivos creados (sin conectar).
+     */
+    public static List<DispositivoTablero> desdeConfiguracion(Configuracion configuracion,
+                                                            TableroDispositivos tablero) {
+        List<DispositivoTablero> dispositivos = new ArrayList<>();
+        String lista = configuracion.getTexto("tablero.dispositivos", "");
+        for (String entrada : lista.split(",")) {
+            entrada = entrada.trim();
+            if (entrada.isEmpty()) continue;
+            int igual = entrada.indexOf('=');
+            String nombre = igual > 0 ? entrada.substring(0, igual).trim() : entrada;
+            String puerto = igual > 0 ? entrada.substring(igual + 1).trim() : entrada;
+            dispositivos.add(crear(nombre, puerto, configuracion, tablero));
+        }
+        int simulados = configuracion.getEntero("tablero.simulados", 0);
+        for (int i = 1; i <= simulados; i++) {
+            String nombre = "Simulado " + i;
+            dispositivos.add(crear(nombre, TransporteSimulado.NOMBRE_PUERTO, configuracion, tablero));
+        }
+        return dispositivos;
+    }
+
+    /*
+     * Cada dispositivo tiene su registro de canales; el monitor de salud
+     * resuelve sus claves salud.salto.<canal> en ese mismo registro.
+     */
+    private static DispositivoTablero crear(String nombre, String puerto, Configuracion configuracion,
+                                            TableroDispositivos tablero) {
+        RegistroCanales registro = new RegistroCanales();
+        return new DispositivoTablero(puerto, tablero.agregar(nombre), registro,
+            MonitorSalud.desdeConfiguracion(nombre, configuracion, registro, SwingUtilities::invokeLater));
+    }
+
+    /*
+     * En el hilo lector: solo se analiza la trama, se guarda en la tesela y
+     * se pasa al monitor de salud ("ERROR" y las tramas inválidas cuentan
+     * como errores).
+     */
+    private void procesar(String trama, long llegadaNanos) {
+        int n = parser.parsear(trama);
+        long ahora = System.currentTimeMillis();
+        if (n <= 0) {
+            monitorSalud.registrarError(ahora);
+            return;
+        }
+        tesela.actualizar(parser.getValorDeCanal(RegistroCanales.TEMPERATURA),
+                          parser.getValorDeCanal(RegistroCanales.HUMEDAD));
+        int columnas = 0;
+        for (int i = 0; i < n; i++) {
+            if (parser.getCanal(i) == RegistroCanales.SECUENCIA) continue;
+            canales[columnas] = parser.getCanal(i);
+            valores[columnas++] = parser.getValor(i);
+        }
+        monitorSalud.registrarMuestra(canales, valores, columnas, ahora);
+    }
+
+    public TeselaDispositivo getTesela() {
+        return tesela;
+    }
+
+    public MonitorSalud getMonitorSalud() {
+        return monitorSalud;
+    }
+
+    /**
+     * Empieza a conectar en segundo plano.
+     */
+    public void iniciar() {
+        activo = true;
+        conectarEnSegundoPlano();
+    }
+
+    private synchronized void conectarEnSegundoPlano() {
+        if (!activo || (conexion != null && conexion.isAlive())) {
+            return;
+        }
+        conexion = new Thread(() -> {
+            while (activo) {
+                try {
+                    lector.connect(puerto);
+                    return;
+                } catch (Exception e) {
+                    tesela.setConectado(false);
+                }
+                try {
+                    Thread.sleep(PERIODO_RECONEXION_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "tablero-" + tesela.getNombre());
+        conexion.setDaemon(true);
+        conexion.start();
+    }
+
+    /**
+     * Cierra la conexión y deja de reintentar.
+     */
+    public void detener() {
+        synchronized (this) {
+            activo = false;
+            if (conexion != null) {
+                conexion.interrupt();
+            }
+        }
+        lector.disconnect();
+    }
+}
@@ -0,0 +1,135 @@
+package com.untels.hito2labo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.function.Consumer;
+
+/**
+ * Reparte las muestras y los eventos de conexión entre los sumideros
+ * activos, cada uno con su {@link ColaSumidero}. Publicar recorre un
+ * arreglo fijo de colas y copia el evento en cada una: no crea objetos ni
+ * espera a ningún sumidero, así que se puede llamar desde el hilo lector
+ * y desde el camino de cada muestra.
+ */
+public class DistribuidorSumideros {
+    private final Configuracion configuracion;
+    private final RegistroCanales registro;
+    private volatile ColaSumidero[] colas = new ColaSumidero[0];
+
+    public DistribuidorSumideros(Configuracion configuracion, RegistroCanales registro) {
+        this.configuracion = configuracion;
+        this.registro = registro;
+    }
+
+    /**
+     * Activa los sumideros nombrados en la clave "sumideros" (separados por
+     * comas) entre los descubiertos con ServiceLoader, con su cola según
+     * sumidero.&lt;nombre&gt;.cola, .lote, .espera (ms) y .desborde
+     * ("descartar-nuevos" o "descartar-antiguos"). Devuelve null si no se
+     * activa ninguno.
+     *
+     * @throws IllegalArgumentException Si un nombre no corresponde a ningún
+     *         sumidero o la política de desborde no existe.
+     */
+    public static DistribuidorSumideros desdeConfiguracion(Configuracion configuracion, RegistroCanales registro) {
+        String lista = configuracion.getTexto("sumideros", "").trim();
+        if (lista.isEmpty()) {
+            return null;
+        }
+        Map<String, SumideroMuestras> disponibles = new HashMap<>();
+        for (SumideroMuestras sumidero : ServiceLoader.load(SumideroMuestras.class)) {
+            disponibles.putIfAbsent(sumidero.getNombre().toLowerCase(), sumidero);
+        }
+        DistribuidorSumideros distribuidor = new DistribuidorSumideros(configuracion, registro);
+        for (String nombre : lista.split(",")) {
+            nombre = nombre.trim().toLowerCase();
+            if (nombre.isEmpty()) continue;
+            SumideroMuestras sumidero = disponibles.remove(nombre);
+            if (sumidero == null) {
+                throw new IllegalArgumentException("Sumidero desconocido o repetido: " + nombre);
+            }
+            String prefijo = "sumidero." + nombre + ".";
+            String desborde = configuracion.getTexto(prefijo + "desborde", ColaSumidero.DESCARTAR_NUEVOS).trim();
+            if (!desborde.equalsIgnoreCase(ColaSumidero.DESCARTAR_NUEVOS)
+                    && !desborde.equalsIgnoreCase(ColaSumidero.DESCARTAR_ANTIGUOS)) {
+                throw new IllegalArgumentException("Política de desborde desconocida: " + desborde);
+            }
+            distribuidor.agregar(new ColaSumidero(sumidero,
+                configuracion.getEntero(prefijo + "cola", 2048),
+                configuracion.getEntero(prefijo + "lote", 256),
+                configuracion.getEntero(prefijo + "espera", 500),
+                desborde.equalsIgnoreCase(ColaSumidero.DESCARTAR_ANTIGUOS)));
+        }
+        return distribuidor.colas.length == 0 ? null : distribuidor;
+    }
+
+    /**
+     * Añade una cola antes de {@link #iniciar}.
+     */
+    public synchronized void agregar(ColaSumidero cola) {
+        ColaSumidero[] nuevas = new ColaSumidero[colas.length + 1];
+        System.arraycopy(colas, 0, nuevas, 0, colas.length);
+        nuevas[colas.length] = cola;
+        colas = nuevas;
+    }
+
+    /**
+     * Abre los sumideros en sus hilos y publica sus métricas por JMX.
+     *
+     * @param avisos Recibe los errores de los sumideros (desde sus hilos).
+     */
+    public void iniciar(Consumer<String> avisos) {
+        for (ColaSumidero cola : colas) {
+            cola.registrarJmx();
+            cola.iniciar(configuracion, registro, avisos);
+        }
+    }
+
+    /**
+     * Publica una fila de muestras en todos los sumideros.
+     *
+     * @param dispositivo La placa de red que envió la fila, o null si viene del puerto serial.
+     */
+    public void publicarMuestra(long tiempoMs, int[] canales, float[] crudos, float[] filtrados,
+                                int n, int perdidas, String dispositivo) {
+        ColaSumidero[] colas = this.colas;
+        for (int i = 0; i < colas.length; i++) {
+            colas[i].publicar(SumideroMuestras.MUESTRA, tiempoMs, canales, crudos, filtrados, n, perdidas,
+                              dispositivo);
+        }
+    }
+
+    /**
+     * Publica un evento de conexión en todos los sumideros.
+     *
+     * @param tipo    {@link SumideroMuestras#CONECTADO}, DESCONECTADO o FALLO_CONEXION.
+     * @param detalle Dispositivo o motivo del fallo.
+     */
+    public void publicarConexion(int tipo, String detalle) {
+        ColaSumidero[] colas = this.colas;
+        long ahora = System.currentTimeMillis();
+        for (int i = 0; i < colas.length; i++) {
+            colas[i].publicar(tipo, ahora, null, null, null, 0, 0, detalle);
+        }
+    }
+
+    /**
+     * Entrega lo pendiente y cierra los sumideros, con un plazo por sumidero.
+     */
+    public void detener(long esperaMs) {
+        for (ColaSumidero cola : colas) {
+            cola.detener(esperaMs);
+        }
+    }
+
+    public List<ColaSumidero> getColas() {
+        List<ColaSumidero> lista = new ArrayList<>();
+        for (ColaSumidero cola : colas) {
+            lista.add(cola);
+        }
+        return lista;
+    }
+}
@@ -0,0 +1,63 @@
+package com.untels.hito2labo;
+
+/**
+ * Media y varianza de una serie en una sola pasada (algoritmo de Welford),
+ * con memoria constante y numéricamente estable. Dos estadísticas se
+ * pueden combinar (fórmula de Chan et al.), lo que permite sumar cubetas
+ * de una ventana o series de varios dispositivos.
+ */
+public class EstadisticaWelford {
+    private long cantidad;
+    private double media;
+    private double m2;
+
+    public void agregar(double valor) {
+        cantidad++;
+        double delta = valor - media;
+        media += delta / cantidad;
+        m2 += delta * (valor - media);
+    }
+
+    /**
+     * Suma a esta estadística las muestras resumidas en otra.
+     */
+    public void combinar(EstadisticaWelford otra) {
+        if (otra.cantidad == 0) return;
+        if (cantidad == 0) {
+            cantidad = otra.cantidad;
+            media = otra.media;
+            m2 = otra.m2;
+            return;
+        }
+        long total = cantidad + otra.cantidad;
+        double delta = otra.media - media;
+        media += delta * otra.cantidad / total;
+        m2 += otra.m2 + delta * delta * cantidad * otra.cantidad / total;
+        cantidad = total;
+    }
+
+    public long getCantidad() {
+        return cantidad;
+    }
+
+    public double getMedia() {
+        return cantidad == 0 ? Double.NaN : media;
+    }
+
+    /**
+     * Varianza muestral (n - 1), o 0 con menos de dos muestras.
+     */
+    public double getVarianza() {
+        return cantidad < 2 ? 0 : m2 / (cantidad - 1);
+    }
+
+    public double getDesviacion() {
+        return Math.sqrt(getVarianza());
+    }
+
+    public void reset() {
+        cantidad = 0;
+        media = 0;
+        m2 = 0;
+    }
+}
@@ -0,0 +1,247 @@
+package com.untels.hito2labo;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Contabilidad del enlace con un dispositivo: tramas recibidas, errores del
+ * sensor y de parseo, huecos y muestras perdidas, y la distribución del
+ * jitter entre llegadas respecto a la cadencia esperada (el intervalo de
+ * muestreo negociado).
+ * Si la placa numera sus tramas (canal SEQ, contador de 16 bits) las
+ * pérdidas se cuentan exactamente con la secuencia; si no, se estiman
+ * por el tiempo entre llegadas. Registrar una trama no reserva memoria.
+ */
+public class EstadisticasEnlace implements EstadisticasEnlaceMXBean {
+    private static final int MODULO_SECUENCIA = 1 << 16;
+
+    /*
+     * Una llegada se considera hueco cuando tarda más de 1,5 intervalos.
+     */
+    private static final double FACTOR_HUECO = 1.5;
+
+    private final String dispositivo;
+    private final Histograma desviaciones = new Histograma();
+
+    private int intervaloEsperadoMs = 2000;
+    private long tramas;
+    private long muestras;
+    private long erroresSensor;
+    private long erroresParseo;
+    private long huecos;
+    private long muestrasPerdidas;
+    private long ultimaLlegadaNanos = -1;
+    private int ultimaSecuencia = -1;
+    private boolean conSecuencia;
+    /* Jitter suavizado al estilo RFC 3550, en microsegundos */
+    private double jitterMicros;
+
+    public EstadisticasEnlace(String dispositivo) {
+        this.dispositivo = dispositivo;
+    }
+
+    /**
+     * Publica las métricas en el servidor JMX de la plataforma.
+     * Un fallo al registrar no impide seguir contabilizando.
+     */
+    public void registrarJmx() {
+        try {
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            ObjectName nombre = new ObjectName("com.untels.hito2labo:type=Enlace,dispositivo="
+                + ObjectName.quote(dispositivo));
+            if (!servidor.isRegistered(nombre)) {
+                servidor.registerMBean(this, nombre);
+            }
+        } catch (Exception e) {
+            System.err.println("No se pudieron publicar las métricas del enlace: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fija la cadencia esperada (intervalo de muestreo confirmado por la placa).
+     */
+    public synchronized void setIntervaloEsperado(int intervaloMs) {
+        this.intervaloEsperadoMs = Math.max(1, intervaloMs);
+        ultimaLlegadaNanos = -1;
+    }
+
+    /**
+     * Olvida la última llegada, para que una pausa voluntaria (monitoreo
+     * detenido) no se cuente como hueco.
+     */
+    public synchronized void reiniciarCadencia() {
+        ultimaLlegadaNanos = -1;
+        ultimaSecuencia = -1;
+    }
+
+    /**
+     * Registra una trama de datos válida.
+     *
+     * @param llegadaNanos Instante de llegada (System.nanoTime()).
+     * @param secuencia    Número de secuencia de la trama, o -1 si no lo trae.
+     * @return El número de muestras perdidas justo antes de esta.
+     */
+    public synchronized int registrarMuestra(long llegadaNanos, int secuencia) {
+        muestras++;
+        return registrarLlegada(llegadaNanos, secuencia);
+    }
+
+    /**
+     * Registra una trama "ERROR" de la placa (lectura fallida del sensor).
+     */
+    public synchronized void registrarErrorSensor(long llegadaNanos) {
+        erroresSensor++;
+        registrarLlegada(llegadaNanos, -1);
+    }
+
+    /**
+     * Registra una trama que no se pudo interpretar.
+     */
+    public synchronized void registrarErrorParseo(long llegadaNanos) {
+        erroresParseo++;
+        registrarLlegada(llegadaNanos, -1);
+    }
+
+    /*
+     * Toda trama ocupa un hueco de la cadencia: actualiza el jitter y
+     * devuelve las muestras perdidas desde la llegada anterior.
+     */
+    private int registrarLlegada(long llegadaNanos, int secuencia) {
+        tramas++;
+        long esperadoMicros = intervaloEsperadoMs * 1000L;
+        int perdidas = 0;
+
+        if (ultimaLlegadaNanos >= 0) {
+            long entreLlegadasMicros = (llegadaNanos - ultimaLlegadaNanos) / 1000;
+            if (secuencia >= 0 && ultimaSecuencia >= 0) {
+                int salto = (secuencia - ultimaSecuencia) & (MODULO_SECUENCIA - 1);
+                /* Un salto hacia atrás es un reinicio de la placa, no una pérdida */
+                if (salto > 1 && salto < MODULO_SECUENCIA / 2) {
+                    perdidas = salto - 1;
+                }
+            } else if (!conSecuencia && entreLlegadasMicros > esperadoMicros * FACTOR_HUECO) {
+                perdidas = (int) Math.min(Integer.MAX_VALUE,
+                    Math.round((double) entreLlegadasMicros / esperadoMicros) - 1);
+            }
+            /*
+             * La desviación se mide respecto al múltiplo de la cadencia más
+             * cercano, para que un hueco no cuente como un jitter enorme.
+             */
+            long intervalos = Math.max(1, Math.round((double) entreLlegadasMicros / esperadoMicros));
+            long desviacion = Math.abs(entreLlegadasMicros - esperadoMicros * intervalos);
+            desviaciones.registrar(desviacion);
+            jitterMicros += (desviacion - jitterMicros) / 16.0;
+        }
+        if (perdidas > 0) {
+            huecos++;
+            muestrasPerdidas += perdidas;
+        }
+        if (secuencia >= 0) {
+            conSecuencia = true;
+            ultimaSecuencia = secuencia;
+        }
+        ultimaLlegadaNanos = llegadaNanos;
+        return perdidas;
+    }
+
+    @Override
+    public String getDispositivo() {
+        return dispositivo;
+    }
+
+    @Override
+    public synchronized int getIntervaloEsperadoMs() {
+        return intervaloEsperadoMs;
+    }
+
+    @Override
+    public synchronized long getTramas() {
+        return tramas;
+    }
+
+    @Override
+    public synchronized long getMuestras() {
+        return muestras;
+    }
+
+    @Override
+    public synchronized long getErroresSensor() {
+        return erroresSensor;
+    }
+
+    @Override
+    public synchronized long getErroresParseo() {
+        return erroresParseo;
+    }
+
+    @Override
+    public synchronized long getHuecos() {
+        return huecos;
+    }
+
+    @Override
+    public synchronized long getMuestrasPerdidas() {
+        return muestrasPerdidas;
+    }
+
+    @Override
+    public synchronized boolean isConSecuencia() {
+        return conSecuencia;
+    }
+
+    @Override
+    public synchronized double getTasaErrorSensor() {
+        return tramas == 0 ? 0 : (double) erroresSensor / tramas;
+    }
+
+    @Override
+    public synchronized double getTasaErrorParseo() {
+        return tramas == 0 ? 0 : (double) erroresParseo / tramas;
+    }
+
+    /**
+     * Fracción de muestras esperadas que no llegaron.
+     */
+    @Override
+    public synchronized double getTasaPerdida() {
+        long esperadas = tramas + muestrasPerdidas;
+        return esperadas == 0 ? 0 : (double) muestrasPerdidas / esperadas;
+    }
+
+    @Override
+    public synchronized double getJitterMs() {
+        return jitterMicros / 1000.0;
+    }
+
+    @Override
+    public double getJitterP50Ms() {
+        return desviaciones.getPercentil(50) / 1000.0;
+    }
+
+    @Override
+    public double getJitterP99Ms() {
+        return desviaciones.getPercentil(99) / 1000.0;
+    }
+
+    @Override
+    public double getJitterMaximoMs() {
+        return desviaciones.getMaximo() / 1000.0;
+    }
+
+    /**
+     * Resumen de una línea para el registro de eventos.
+     */
+    public String resumen() {
+        synchronized (this) {
+            return String.format(Locale.ROOT,
+                "Enlace %s: %d tramas, %d perdidas en %d huecos (%.2f %%), errores sensor %.2f %%, "
+                    + "parseo %.2f %%, jitter p50 %.1f ms p99 %.1f ms%s",
+                dispositivo, tramas, muestrasPerdidas, huecos, getTasaPerdida() * 100,
+                getTasaErrorSensor() * 100, getTasaErrorParseo() * 100,
+                getJitterP50Ms(), getJitterP99Ms(), conSecuencia ? "" : " (sin secuencia)");
+        }
+    }
+}
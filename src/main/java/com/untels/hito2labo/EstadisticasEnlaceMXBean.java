@@ -0,0 +1,39 @@
+package com.untels.hito2labo;
+
+/**
+ * Métricas del enlace con un dispositivo, publicadas por JMX
+ * (visibles con JConsole o VisualVM bajo com.untels.hito2labo:type=Enlace).
+ */
+public interface EstadisticasEnlaceMXBean {
+    String getDispositivo();
+
+    int getIntervaloEsperadoMs();
+
+    long getTramas();
+
+    long getMuestras();
+
+    long getErroresSensor();
+
+    long getErroresParseo();
+
+    long getHuecos();
+
+    long getMuestrasPerdidas();
+
+    boolean isConSecuencia();
+
+    double getTasaErrorSensor();
+
+    double getTasaErrorParseo();
+
+    double getTasaPerdida();
+
+    double getJitterMs();
+
+    double getJitterP50Ms();
+
+    double getJitterP99Ms();
+
+    double getJitterMaximoMs();
+}
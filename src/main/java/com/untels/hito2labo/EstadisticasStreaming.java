@@ -0,0 +1,75 @@
+package com.untels.hito2labo;
+
+import java.util.List;
+
+/**
+ * Estadísticas continuas de los canales de un dispositivo en las ventanas
+ * de la última hora (60 cubetas de un minuto) y de las últimas 24 horas
+ * (96 cubetas de 15 minutos). Cada muestra cuesta O(1) y la memoria no
+ * depende del número de muestras; las ventanas de un canal se crean la
+ * primera vez que llega.
+ * Los métodos están sincronizados: escribe el hilo de procesamiento y se
+ * puede consultar desde otros hilos o combinar con otros dispositivos.
+ */
+public class EstadisticasStreaming {
+    public static final int VENTANA_HORA = 0;
+    public static final int VENTANA_DIA = 1;
+
+    private static final long[] DURACIONES_MS = {3_600_000L, 86_400_000L};
+    private static final int[] CUBETAS = {60, 96};
+
+    private final VentanaEstadistica[][] ventanas =
+        new VentanaEstadistica[RegistroCanales.MAX_CANALES][];
+
+    public synchronized void agregar(int canal, long tiempoMs, float valor) {
+        VentanaEstadistica[] v = ventanas[canal];
+        if (v == null) {
+            v = new VentanaEstadistica[DURACIONES_MS.length];
+            for (int i = 0; i < v.length; i++) {
+                v[i] = new VentanaEstadistica(DURACIONES_MS[i], CUBETAS[i]);
+            }
+            ventanas[canal] = v;
+        }
+        for (VentanaEstadistica ventana : v) {
+            ventana.agregar(tiempoMs, valor);
+        }
+    }
+
+    /**
+     * Estadísticas del canal en la ventana indicada (VENTANA_HORA o VENTANA_DIA).
+     */
+    public synchronized ResumenEstadistico consultar(int canal, int ventana, long ahoraMs) {
+        VentanaEstadistica[] v = ventanas[canal];
+        return v == null ? ResumenEstadistico.VACIO : v[ventana].consultar(ahoraMs);
+    }
+
+    public synchronized void acumular(int canal, int ventana, long ahoraMs,
+                                      EstadisticaWelford welford, SketchKll sketch) {
+        VentanaEstadistica[] v = ventanas[canal];
+        if (v != null) {
+            v[ventana].acumular(ahoraMs, welford, sketch);
+        }
+    }
+
+    /**
+     * Estadísticas de un canal combinando varios dispositivos.
+     */
+    public static ResumenEstadistico combinar(List<EstadisticasStreaming> dispositivos, int canal,
+                                              int ventana, long ahoraMs) {
+        EstadisticaWelford welford = new EstadisticaWelford();
+        SketchKll sketch = new SketchKll(200);
+        for (EstadisticasStreaming dispositivo : dispositivos) {
+            dispositivo.acumular(canal, ventana, ahoraMs, welford, sketch);
+        }
+        return ResumenEstadistico.de(welford, sketch);
+    }
+
+    public synchronized void reset() {
+        for (VentanaEstadistica[] v : ventanas) {
+            if (v == null) continue;
+            for (VentanaEstadistica ventana : v) {
+                ventana.reset();
+            }
+        }
+    }
+}
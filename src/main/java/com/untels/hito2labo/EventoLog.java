@@ -0,0 +1,56 @@
+package com.untels.hito2labo;
+
+import java.awt.Color;
+
+/**
+ * Entrada inmutable del registro de eventos: instante, nivel, fuente
+ * (enlace, datos, alertas...), mensaje y el color con el que se muestra.
+ * El identificador es un número de secuencia creciente que asigna
+ * {@link IndiceEventos}.
+ */
+public class EventoLog {
+    public static final int NIVEL_INFO = 0;
+    public static final int NIVEL_AVISO = 1;
+    public static final int NIVEL_ERROR = 2;
+    public static final String[] NOMBRES_NIVEL = {"Info", "Aviso", "Error"};
+
+    private final long id;
+    private final long tiempoMs;
+    private final int nivel;
+    private final String fuente;
+    private final String mensaje;
+    private final Color color;
+
+    public EventoLog(long id, long tiempoMs, int nivel, String fuente, String mensaje, Color color) {
+        this.id = id;
+        this.tiempoMs = tiempoMs;
+        this.nivel = nivel;
+        this.fuente = fuente;
+        this.mensaje = mensaje;
+        this.color = color;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTiempoMs() {
+        return tiempoMs;
+    }
+
+    public int getNivel() {
+        return nivel;
+    }
+
+    public String getFuente() {
+        return fuente;
+    }
+
+    public String getMensaje() {
+        return mensaje;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+}
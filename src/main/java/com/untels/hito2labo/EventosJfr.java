@@ -0,0 +1,215 @@
+package com.untels.hito2labo;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Eventos propios para Java Flight Recorder, en la categoría "Hito2LAbo":
+ * con ellos una grabación muestra qué hace la aplicación (lecturas del
+ * puerto, tramas, parseo, entregas al hilo de eventos, reconexiones y
+ * exportaciones) y no solo la actividad genérica de los hilos.
+ * No guardan la pila y solo tienen campos primitivos o cadenas ya
+ * existentes. Los del camino de cada trama se crean con los métodos
+ * iniciar*, que devuelven null si el evento está desactivado (o JFR
+ * apagado): entonces no se crea ningún objeto y el coste es una lectura.
+ * El perfil monitor.jfc (en la raíz del jar y en src/main/resources) los
+ * activa con umbrales pensados para dejarlo encendido en producción:
+ * {@code java -XX:StartFlightRecording:settings=default,settings=monitor.jfc ...}
+ */
+public final class EventosJfr {
+    /*
+     * Instancias que nunca se confirman: solo sirven para preguntar si su
+     * tipo de evento está activo sin crear un objeto por trama.
+     */
+    private static final LecturaSerial SONDA_LECTURA = new LecturaSerial();
+    private static final Trama SONDA_TRAMA = new Trama();
+    private static final Parseo SONDA_PARSEO = new Parseo();
+    private static final EntregaEdt SONDA_ENTREGA = new EntregaEdt();
+
+    private EventosJfr() {
+    }
+
+    /**
+     * Empieza a medir una lectura serial, o devuelve null si el evento está desactivado.
+     */
+    public static LecturaSerial iniciarLectura() {
+        if (!SONDA_LECTURA.isEnabled()) return null;
+        LecturaSerial evento = new LecturaSerial();
+        evento.begin();
+        return evento;
+    }
+
+    /**
+     * True si se registran las tramas.
+     */
+    public static boolean tramaActiva() {
+        return SONDA_TRAMA.isEnabled();
+    }
+
+    /**
+     * Empieza a medir un parseo, o devuelve null si el evento está desactivado.
+     */
+    public static Parseo iniciarParseo() {
+        if (!SONDA_PARSEO.isEnabled()) return null;
+        Parseo evento = new Parseo();
+        evento.begin();
+        return evento;
+    }
+
+    /**
+     * Empieza a medir un paso por el hilo de eventos, o devuelve null si el
+     * evento está desactivado.
+     */
+    public static EntregaEdt iniciarEntregaEdt() {
+        if (!SONDA_ENTREGA.isEnabled()) return null;
+        EntregaEdt evento = new EntregaEdt();
+        evento.begin();
+        return evento;
+    }
+
+    /**
+     * Una lectura del puerto serial: desde que hay bytes disponibles hasta
+     * entregar las tramas que completó.
+     */
+    @Name("com.untels.hito2labo.LecturaSerial")
+    @Label("Lectura serial")
+    @Category({"Hito2LAbo", "Serial"})
+    @Description("Bytes leídos del puerto de una vez y tramas completadas")
+    @StackTrace(false)
+    public static class LecturaSerial extends Event {
+        @Label("Dispositivo")
+        public String dispositivo;
+
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+
+        @Label("Tramas")
+        public int tramas;
+    }
+
+    /**
+     * Una trama completa (terminada en ';') entregada al listener.
+     */
+    @Name("com.untels.hito2labo.Trama")
+    @Label("Trama")
+    @Category({"Hito2LAbo", "Serial"})
+    @Description("Trama completa del puerto serial, con el tiempo desde su primer byte")
+    @StackTrace(false)
+    public static class Trama extends Event {
+        @Label("Dispositivo")
+        public String dispositivo;
+
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+
+        @Label("Entramado")
+        @Description("Desde la llegada del primer byte hasta el terminador")
+        @Timespan(Timespan.NANOSECONDS)
+        public long entramado;
+    }
+
+    /**
+     * El parseo de una trama en ProcesadorMuestras.
+     */
+    @Name("com.untels.hito2labo.Parseo")
+    @Label("Parseo de trama")
+    @Category({"Hito2LAbo", "Procesado"})
+    @Description("Interpretación de una trama: canales obtenidos o motivo del fallo")
+    @StackTrace(false)
+    public static class Parseo extends Event {
+        @Label("Serial")
+        @Description("La trama viene del puerto serial (si no, de la ingesta de red)")
+        public boolean serial;
+
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+
+        @Label("Correcta")
+        public boolean correcta;
+
+        @Label("Error del sensor")
+        @Description("La placa informó ERROR")
+        public boolean errorSensor;
+
+        @Label("Canales")
+        public int canales;
+    }
+
+    /**
+     * Un paso por el hilo de eventos de Swing con una o varias tramas.
+     */
+    @Name("com.untels.hito2labo.EntregaEdt")
+    @Label("Entrega al hilo de eventos")
+    @Category({"Hito2LAbo", "Procesado"})
+    @Description("Tramas procesadas en un paso por el EDT y su espera en la cola")
+    @StackTrace(false)
+    public static class EntregaEdt extends Event {
+        @Label("Origen")
+        @Description("serial, red o mixto")
+        public String origen;
+
+        @Label("Tramas")
+        public int tramas;
+
+        @Label("Espera en la cola")
+        @Timespan(Timespan.NANOSECONDS)
+        public long espera;
+    }
+
+    /**
+     * Un intento de reconexión con el dispositivo.
+     */
+    @Name("com.untels.hito2labo.Reconexion")
+    @Label("Intento de reconexión")
+    @Category({"Hito2LAbo", "Serial"})
+    @StackTrace(false)
+    public static class Reconexion extends Event {
+        @Label("Dispositivo")
+        public String dispositivo;
+
+        @Label("Intento")
+        public int intento;
+
+        @Label("Conectado")
+        public boolean conectado;
+
+        @Label("Motivo")
+        @Description("Motivo del fallo, si no se conectó")
+        public String motivo;
+    }
+
+    /**
+     * Una exportación de datos, manual o incremental.
+     */
+    @Name("com.untels.hito2labo.Exportacion")
+    @Label("Exportación")
+    @Category({"Hito2LAbo", "Exportación"})
+    @StackTrace(false)
+    public static class Exportacion extends Event {
+        @Label("Tipo")
+        @Description("manual o incremental")
+        public String tipo;
+
+        @Label("Archivo")
+        public String archivo;
+
+        @Label("Filas")
+        public int filas;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+
+        @Label("Correcta")
+        public boolean correcta;
+    }
+}
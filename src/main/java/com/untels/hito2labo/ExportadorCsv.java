@@ -0,0 +1,125 @@
+package com.untels.hito2labo;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Escritura de filas del historial en formato CSV.
+ * Columnas: fecha, hora, el valor filtrado de cada canal, las métricas
+ * derivadas (punto de rocío, índice de calor y humedad absoluta, si hay
+ * temperatura y humedad), después el valor crudo de cada canal, y al final
+ * las muestras perdidas justo antes de la fila (vacía si no hubo hueco).
+ * Las celdas sin dato (NaN) quedan vacías y los decimales usan siempre
+ * punto, independientemente del idioma del sistema.
+ */
+public class ExportadorCsv {
+    private final RegistroCanales registro;
+    private final SimpleDateFormat formatoFecha = new SimpleDateFormat("yyyy-MM-dd");
+    private final SimpleDateFormat formatoHora = new SimpleDateFormat("HH:mm:ss");
+    private final Date fecha = new Date();
+
+    public ExportadorCsv(RegistroCanales registro) {
+        this.registro = registro;
+    }
+
+    /**
+     * Escribe la fila de encabezado para los canales presentes en el bloque.
+     */
+    public void escribirEncabezado(PrintWriter writer, AlmacenMuestras.Bloque bloque) {
+        StringBuilder sb = new StringBuilder("Fecha,Hora");
+        for (int canal = 0; canal < registro.getCantidad(); canal++) {
+            if (bloque.filtrados[canal] != null) {
+                sb.append(',').append(titulo(registro, canal, false));
+            }
+        }
+        if (tieneDerivadas(bloque)) {
+            sb.append(",Punto de rocio (C),Indice de calor (C),Humedad absoluta (g/m3)");
+        }
+        for (int canal = 0; canal < registro.getCantidad(); canal++) {
+            if (bloque.crudos[canal] != null) {
+                sb.append(',').append(titulo(registro, canal, true));
+            }
+        }
+        sb.append(",Muestras perdidas");
+        writer.println(sb);
+    }
+
+    /**
+     * Escribe todas las filas del bloque.
+     */
+    public void escribirFilas(PrintWriter writer, AlmacenMuestras.Bloque bloque) {
+        /* Las métricas derivadas se calculan de una pasada para todo el bloque */
+        MetricasDerivadas.Series derivadas = tieneDerivadas(bloque)
+            ? MetricasDerivadas.obtener().calcular(bloque)
+            : null;
+        StringBuilder sb = new StringBuilder(64);
+        for (int i = 0; i < bloque.filas; i++) {
+            sb.setLength(0);
+            fecha.setTime(bloque.tiempos[i]);
+            sb.append(formatoFecha.format(fecha)).append(',').append(formatoHora.format(fecha));
+            for (int canal = 0; canal < registro.getCantidad(); canal++) {
+                if (bloque.filtrados[canal] != null) {
+                    agregarValor(sb.append(','), canal, bloque.filtrados[canal][i]);
+                }
+            }
+            if (derivadas != null) {
+                agregarDecimal(sb.append(','), derivadas.puntoRocio[i]);
+                agregarDecimal(sb.append(','), derivadas.indiceCalor[i]);
+                agregarDecimal(sb.append(','), derivadas.humedadAbsoluta[i]);
+            }
+            for (int canal = 0; canal < registro.getCantidad(); canal++) {
+                if (bloque.crudos[canal] != null) {
+                    agregarValor(sb.append(','), canal, bloque.crudos[canal][i]);
+                }
+            }
+            sb.append(',');
+            if (bloque.perdidas[i] > 0) {
+                sb.append(bloque.perdidas[i]);
+            }
+            writer.println(sb);
+        }
+    }
+
+    private static boolean tieneDerivadas(AlmacenMuestras.Bloque bloque) {
+        return bloque.filtrados[RegistroCanales.TEMPERATURA] != null
+            && bloque.filtrados[RegistroCanales.HUMEDAD] != null;
+    }
+
+    /*
+     * Título de la columna de un canal; el análisis fuera de línea lo usa
+     * también para nombrar los canales de los segmentos del historial.
+     */
+    static String titulo(RegistroCanales registro, int canal, boolean crudo) {
+        switch (canal) {
+            case RegistroCanales.TEMPERATURA:
+                return crudo ? "Temperatura cruda (C)" : "Temperatura (C)";
+            case RegistroCanales.HUMEDAD:
+                return crudo ? "Humedad cruda (%)" : "Humedad (%)";
+            default:
+                return registro.getNombre(canal) + (crudo ? " crudo" : "");
+        }
+    }
+
+    /*
+     * Temperatura y humedad con un decimal (resolución del sensor); el resto
+     * de canales con su valor completo.
+     */
+    private static void agregarValor(StringBuilder sb, int canal, float valor) {
+        if (Float.isNaN(valor)) {
+            return;
+        }
+        if (canal == RegistroCanales.TEMPERATURA || canal == RegistroCanales.HUMEDAD) {
+            sb.append(String.format(Locale.ROOT, "%.1f", valor));
+        } else {
+            sb.append(valor);
+        }
+    }
+
+    private static void agregarDecimal(StringBuilder sb, float valor) {
+        if (!Float.isNaN(valor) && !Float.isInfinite(valor)) {
+            sb.append(String.format(Locale.ROOT, "%.1f", valor));
+        }
+    }
+}
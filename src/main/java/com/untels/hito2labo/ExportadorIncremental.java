@@ -0,0 +1,470 @@
+package com.untels.hito2labo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Exportación periódica e incremental del historial persistido para un
+ * sistema de ingesta: en cada pasada se añaden a archivos CSV o JSON Lines
+ * solo las filas de los segmentos de {@link ArchivoHistorial} posteriores
+ * al punto de control, que es el instante de la última fila exportada (y
+ * cuántas filas con ese mismo instante se exportaron ya). Se guarda el
+ * instante y no la posición en un segmento porque {@link CompactadorHistorial}
+ * sustituye los segmentos antiguos por resúmenes que empiezan antes.
+ * La pasada proyecta únicamente los segmentos desde ese instante y busca
+ * en ellos la primera fila nueva: su coste depende de los datos nuevos,
+ * no del historial completo.
+ * El punto de control se guarda en el directorio de exportación junto con
+ * el archivo en curso y los bytes confirmados de éste. Se escribe (de forma
+ * atómica) después de forzar al disco las filas, y también al crear cada
+ * archivo nuevo, antes de escribir en él. Al reanudar se trunca el archivo
+ * en curso a los bytes confirmados: tras un cierre abrupto las filas sin
+ * confirmar se vuelven a escribir una sola vez, sin duplicados ni huecos.
+ * Los archivos ("datos-&lt;fecha&gt;-&lt;hora&gt;.csv" o ".jsonl") rotan al
+ * cambiar de día, al superar el tamaño máximo y, en CSV, al cambiar los
+ * canales (cada archivo lleva su encabezado); los anteriores al más reciente
+ * ya no se modifican.
+ * Las pasadas se ejecutan en un hilo propio de baja prioridad, fuera del
+ * hilo de eventos de Swing.
+ */
+public class ExportadorIncremental {
+    /** Nombre del archivo del punto de control en el directorio de exportación */
+    public static final String ARCHIVO_PUNTO_CONTROL = "punto-control.properties";
+    private static final String PREFIJO = "datos-";
+    private static final int FILAS_POR_LOTE = 4096;
+
+    private final ArchivoHistorial historial;
+    private final RegistroCanales registro;
+    private final Path directorio;
+    private final boolean jsonLines;
+    private final long maxBytes;
+    private final ExportadorCsv exportadorCsv;
+    private final SimpleDateFormat formatoNombre = new SimpleDateFormat("yyyyMMdd-HHmmss");
+    private final SimpleDateFormat formatoDia = new SimpleDateFormat("yyyyMMdd");
+    private final SimpleDateFormat formatoIso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+    private final Date fecha = new Date();
+    private final StringBuilder linea = new StringBuilder(128);
+
+    /* Punto de control confirmado (o avanzado durante la pasada en curso) */
+    private boolean cargado;
+    private long tiempo = Long.MIN_VALUE;
+    private int repetidas;
+    private String archivo;
+    private long bytes;
+    private int mascaraArchivo;
+    /* Bytes escritos en la pasada en curso, para el evento JFR */
+    private long bytesPasada;
+
+    /* Archivo abierto durante una pasada */
+    private FileChannel salida;
+    private PrintWriter writer;
+
+    private ScheduledExecutorService planificador;
+
+    /**
+     * @param historial  El historial persistido que se exporta.
+     * @param registro   El registro de canales de la aplicación.
+     * @param directorio Directorio de los archivos exportados y del punto de control.
+     * @param jsonLines  True para JSON Lines, false para CSV.
+     * @param maxBytes   Tamaño a partir del cual se empieza otro archivo.
+     */
+    public ExportadorIncremental(ArchivoHistorial historial, RegistroCanales registro, Path directorio,
+                                 boolean jsonLines, long maxBytes) {
+        this.historial = historial;
+        this.registro = registro;
+        this.directorio = directorio;
+        this.jsonLines = jsonLines;
+        this.maxBytes = Math.max(1, maxBytes);
+        this.exportadorCsv = new ExportadorCsv(registro);
+    }
+
+    /**
+     * Crea el exportador según la configuración (claves exportacion.*), o
+     * devuelve null si está desactivado (exportacion.periodo = 0).
+     *
+     * @throws IllegalStateException Si está activado sin historial persistido.
+     */
+    public static ExportadorIncremental desdeConfiguracion(Configuracion configuracion, RegistroCanales registro,
+                                                         ArchivoHistorial historial) {
+        if (configuracion.getEntero("exportacion.periodo", 0) <= 0) {
+            return null;
+        }
+        if (historial == null) {
+            throw new IllegalStateException("La exportación incremental requiere historial.persistir=true");
+        }
+        String formato = configuracion.getTexto("exportacion.formato", "csv");
+        if (!formato.equalsIgnoreCase("csv") && !formato.equalsIgnoreCase("jsonl")) {
+            throw new IllegalArgumentException("Formato de exportación desconocido: " + formato);
+        }
+        return new ExportadorIncremental(historial, registro,
+            Paths.get(configuracion.getTexto("exportacion.directorio", "exportacion")),
+            formato.equalsIgnoreCase("jsonl"),
+            configuracion.getEntero("exportacion.archivo.mb", 64) * 1024L * 1024L);
+    }
+
+    /**
+     * Programa una pasada cada periodo, la primera de inmediato.
+     *
+     * @param periodoSegundos Segundos entre el final de una pasada y la siguiente.
+     * @param avisos          Recibe los errores de las pasadas (desde el hilo de exportación).
+     */
+    public synchronized void iniciar(int periodoSegundos, Consumer<String> avisos) {
+        if (planificador != null) return;
+        planificador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "exportacion-incremental");
+            hilo.setDaemon(true);
+            hilo.setPriority(Thread.MIN_PRIORITY);
+            return hilo;
+        });
+        planificador.scheduleWithFixedDelay(() -> {
+            try {
+                exportar();
+            } catch (IOException | RuntimeException e) {
+                avisos.accept("Error en la exportación incremental: " + e.getMessage());
+            }
+        }, 0, Math.max(1, periodoSegundos), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Detiene las pasadas programadas, esperando a que termine la que esté
+     * en curso. Lo que quede se exporta en la primera pasada del próximo
+     * arranque.
+     */
+    public void detener() {
+        ScheduledExecutorService planificador;
+        synchronized (this) {
+            planificador = this.planificador;
+            this.planificador = null;
+        }
+        if (planificador == null) return;
+        planificador.shutdown();
+        try {
+            planificador.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Exporta las filas posteriores al punto de control y lo avanza.
+     * Si falla, el punto de control confirmado no cambia y la siguiente
+     * pasada repite las filas sin confirmar.
+     *
+     * @return El número de filas exportadas.
+     * @throws IOException Si no se pudo escribir la exportación.
+     */
+    public synchronized int exportar() throws IOException {
+        if (!cargado) {
+            cargarPuntoControl();
+            cargado = true;
+        }
+        EventosJfr.Exportacion evento = new EventosJfr.Exportacion();
+        evento.begin();
+        bytesPasada = 0;
+        historial.vaciar();
+        List<SegmentoHistorial> segmentos =
+            ArchivoHistorial.abrirRecientes(historial.getDirectorio(), registro, tiempo);
+        /*
+         * Ya exportadas: las filas anteriores al instante del punto de
+         * control y las primeras "repetidas" con ese mismo instante. Cada
+         * segmento se recorre una sola vez, así que basta con el punto de
+         * control del principio de la pasada.
+         */
+        long tiempoInicial = tiempo;
+        int saltar = repetidas;
+        int exportadas = 0;
+        try {
+            for (SegmentoHistorial actual : segmentos) {
+                int desde = actual.buscarFila(tiempoInicial);
+                while (saltar > 0 && desde < actual.getFilas() && actual.getTiempo(desde) == tiempoInicial) {
+                    desde++;
+                    saltar--;
+                }
+                for (int i = desde; i < actual.getFilas(); i += FILAS_POR_LOTE) {
+                    AlmacenMuestras.Bloque bloque = leer(actual, i, Math.min(actual.getFilas(), i + FILAS_POR_LOTE));
+                    prepararSalida(bloque);
+                    escribir(bloque);
+                    exportadas += bloque.filas;
+                    avanzar(bloque);
+                }
+            }
+            confirmar();
+            evento.correcta = true;
+        } catch (IOException | RuntimeException e) {
+            /* Se vuelve al punto de control confirmado */
+            cargado = false;
+            throw e;
+        } finally {
+            cerrarSalida();
+            if (evento.shouldCommit()) {
+                evento.tipo = "incremental";
+                evento.archivo = archivo;
+                evento.filas = exportadas;
+                evento.bytes = bytesPasada;
+                evento.commit();
+            }
+        }
+        return exportadas;
+    }
+
+    /*
+     * Avanza el punto de control hasta la última fila del bloque, contando
+     * las filas con su mismo instante.
+     */
+    private void avanzar(AlmacenMuestras.Bloque bloque) {
+        long ultimo = bloque.tiempos[bloque.filas - 1];
+        int iguales = 0;
+        for (int i = bloque.filas - 1; i >= 0 && bloque.tiempos[i] == ultimo; i--) {
+            iguales++;
+        }
+        repetidas = iguales == bloque.filas && ultimo == tiempo ? repetidas + iguales : iguales;
+        tiempo = ultimo;
+    }
+
+    /*
+     * Lee las filas [desde, hasta) del segmento en un bloque con las columnas
+     * de sus canales.
+     */
+    private AlmacenMuestras.Bloque leer(SegmentoHistorial segmentoHistorial, int desde, int hasta) {
+        AlmacenMuestras.Bloque bloque = new AlmacenMuestras.Bloque(hasta - desde);
+        for (int canal = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+            if (segmentoHistorial.tieneCanal(canal)) {
+                bloque.crudos[canal] = new float[bloque.filas];
+                bloque.filtrados[canal] = new float[bloque.filas];
+            }
+        }
+        for (int i = 0; i < bloque.filas; i++) {
+            int f = desde + i;
+            bloque.tiempos[i] = segmentoHistorial.getTiempo(f);
+            bloque.perdidas[i] = segmentoHistorial.getPerdidas(f);
+            for (int canal = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+                if (bloque.crudos[canal] != null) {
+                    bloque.crudos[canal][i] = segmentoHistorial.getCrudo(canal, f);
+                    bloque.filtrados[canal][i] = segmentoHistorial.getFiltrado(canal, f);
+                }
+            }
+        }
+        return bloque;
+    }
+
+    /*
+     * Deja abierto el archivo donde va el bloque: el en curso (truncado a
+     * lo confirmado) o uno nuevo si toca rotar, confirmando antes lo escrito.
+     * El archivo nuevo queda en el punto de control con 0 bytes antes de
+     * escribir nada en él: si la aplicación se corta, al reanudar se sigue
+     * en ese archivo en lugar de dejarlo huérfano y repetir sus filas en otro.
+     */
+    private void prepararSalida(AlmacenMuestras.Bloque bloque) throws IOException {
+        int mascara = 0;
+        for (int canal = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+            if (bloque.filtrados[canal] != null) mascara |= 1 << canal;
+        }
+        fecha.setTime(bloque.tiempos[0]);
+        boolean rotar = archivo == null
+            || bytes >= maxBytes
+            || !archivo.startsWith(PREFIJO + formatoDia.format(fecha))
+            || (!jsonLines && mascara != mascaraArchivo);
+        if (!rotar && salida == null) {
+            Path ruta = directorio.resolve(archivo);
+            if (Files.exists(ruta) && Files.size(ruta) >= bytes) {
+                salida = FileChannel.open(ruta, StandardOpenOption.WRITE);
+                salida.truncate(bytes);
+                salida.position(bytes);
+                writer = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(salida), StandardCharsets.UTF_8));
+                if (bytes == 0 && !jsonLines) {
+                    /* Archivo creado sin llegar a confirmar nada: falta su encabezado */
+                    exportadorCsv.escribirEncabezado(writer, bloque);
+                }
+                return;
+            }
+            /* El archivo en curso se movió o se recortó fuera de la aplicación */
+            rotar = true;
+        }
+        if (!rotar) return;
+
+        if (salida != null) {
+            confirmar();
+            cerrarSalida();
+        }
+        Files.createDirectories(directorio);
+        String extension = jsonLines ? ".jsonl" : ".csv";
+        String nombre = PREFIJO + formatoNombre.format(fecha);
+        Path ruta = directorio.resolve(nombre + extension);
+        for (int n = 1; Files.exists(ruta); n++) {
+            ruta = directorio.resolve(nombre + "-" + n + extension);
+        }
+        salida = FileChannel.open(ruta, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writer = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(salida), StandardCharsets.UTF_8));
+        archivo = ruta.getFileName().toString();
+        bytes = 0;
+        mascaraArchivo = mascara;
+        guardarPuntoControl();
+        if (!jsonLines) {
+            exportadorCsv.escribirEncabezado(writer, bloque);
+        }
+    }
+
+    private void escribir(AlmacenMuestras.Bloque bloque) throws IOException {
+        if (!jsonLines) {
+            exportadorCsv.escribirFilas(writer, bloque);
+        } else {
+            for (int i = 0; i < bloque.filas; i++) {
+                escribirJson(bloque, i);
+                writer.append(linea).append('\n');
+            }
+        }
+        writer.flush();
+        if (writer.checkError()) {
+            throw new IOException("No se pudo escribir " + archivo);
+        }
+        bytesPasada += salida.position() - bytes;
+        bytes = salida.position();
+    }
+
+    /*
+     * Una fila como objeto JSON: instante en milisegundos y en ISO 8601,
+     * muestras perdidas y, por canal con dato, el valor filtrado con el
+     * nombre del canal y el crudo con el sufijo "_crudo".
+     */
+    private void escribirJson(AlmacenMuestras.Bloque bloque, int i) {
+        linea.setLength(0);
+        fecha.setTime(bloque.tiempos[i]);
+        linea.append("{\"tiempo\":").append(bloque.tiempos[i])
+             .append(",\"fecha\":\"").append(formatoIso.format(fecha)).append('"')
+             .append(",\"perdidas\":").append(bloque.perdidas[i]);
+        for (int canal = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+            if (bloque.filtrados[canal] == null) continue;
+            String nombre = registro.getNombre(canal);
+            agregarCampo(nombre, "", bloque.filtrados[canal][i]);
+            agregarCampo(nombre, "_crudo", bloque.crudos[canal][i]);
+        }
+        linea.append('}');
+    }
+
+    private void agregarCampo(String nombre, String sufijo, float valor) {
+        if (Float.isNaN(valor) || Float.isInfinite(valor)) return;
+        linea.append(",\"");
+        for (int c = 0; c < nombre.length(); c++) {
+            char ch = nombre.charAt(c);
+            if (ch == '"' || ch == '\\') linea.append('\\');
+            linea.append(ch < ' ' ? ' ' : ch);
+        }
+        linea.append(sufijo).append("\":").append(valor);
+    }
+
+    /*
+     * Fuerza al disco lo escrito y guarda el punto de control.
+     */
+    private void confirmar() throws IOException {
+        if (salida == null) return;
+        writer.flush();
+        salida.force(false);
+        bytes = salida.position();
+        guardarPuntoControl();
+    }
+
+    private void cerrarSalida() {
+        if (salida != null) {
+            try {
+                salida.close();
+            } catch (IOException e) {
+                // Lo escrito sin confirmar se repite en la siguiente pasada
+            }
+            salida = null;
+            writer = null;
+        }
+    }
+
+    private void cargarPuntoControl() throws IOException {
+        tiempo = Long.MIN_VALUE;
+        repetidas = 0;
+        archivo = null;
+        bytes = 0;
+        mascaraArchivo = 0;
+        Path ruta = directorio.resolve(ARCHIVO_PUNTO_CONTROL);
+        if (!Files.exists(ruta)) return;
+        Properties propiedades = new Properties();
+        try (InputStream in = Files.newInputStream(ruta)) {
+            propiedades.load(in);
+        }
+        try {
+            if (propiedades.getProperty("tiempo") != null) {
+                tiempo = Long.parseLong(propiedades.getProperty("tiempo"));
+                repetidas = Integer.parseInt(propiedades.getProperty("repetidas", "0"));
+            } else {
+                convertirPuntoControl(Long.parseLong(propiedades.getProperty("segmento")),
+                                      Integer.parseInt(propiedades.getProperty("fila")));
+            }
+            archivo = propiedades.getProperty("archivo");
+            bytes = Long.parseLong(propiedades.getProperty("bytes", "0"));
+            mascaraArchivo = Integer.parseInt(propiedades.getProperty("canales", "0"));
+        } catch (RuntimeException e) {
+            throw new IOException("Punto de control dañado: " + ruta);
+        }
+    }
+
+    /*
+     * Punto de control de versiones anteriores (segmento y fila): se pasa
+     * al instante de esa fila, si el segmento sigue existiendo.
+     */
+    private void convertirPuntoControl(long segmento, int fila) {
+        if (fila <= 0) {
+            tiempo = segmento - 1;
+            return;
+        }
+        for (SegmentoHistorial actual : ArchivoHistorial.abrirRecientes(historial.getDirectorio(), registro, segmento)) {
+            if (actual.getInicioMs() == segmento && fila <= actual.getFilas()) {
+                tiempo = actual.getTiempo(fila - 1);
+                repetidas = fila - actual.buscarFila(tiempo);
+                return;
+            }
+        }
+        tiempo = segmento - 1;
+    }
+
+    /*
+     * Escribe el punto de control en un temporal y lo renombra encima del
+     * anterior, para que un corte nunca deje uno a medias.
+     */
+    private void guardarPuntoControl() throws IOException {
+        Properties propiedades = new Properties();
+        propiedades.setProperty("tiempo", String.valueOf(tiempo));
+        propiedades.setProperty("repetidas", String.valueOf(repetidas));
+        propiedades.setProperty("archivo", archivo);
+        propiedades.setProperty("bytes", String.valueOf(bytes));
+        propiedades.setProperty("canales", String.valueOf(mascaraArchivo));
+        StringWriter texto = new StringWriter();
+        propiedades.store(texto, "Exportacion incremental: ultima fila exportada");
+        Path temporal = directorio.resolve(ARCHIVO_PUNTO_CONTROL + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                  StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer contenido = ByteBuffer.wrap(texto.toString().getBytes(StandardCharsets.ISO_8859_1));
+            while (contenido.hasRemaining()) {
+                canal.write(contenido);
+            }
+            canal.force(true);
+        }
+        Files.move(temporal, directorio.resolve(ARCHIVO_PUNTO_CONTROL),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,27 @@
+package com.untels.hito2labo;
+
+/**
+ * Aplica varios filtros en secuencia; una cadena vacía no modifica el valor.
+ */
+public class FiltroCadena implements FiltroSenal {
+    private final FiltroSenal[] etapas;
+
+    public FiltroCadena(FiltroSenal[] etapas) {
+        this.etapas = etapas.clone();
+    }
+
+    @Override
+    public float filtrar(float valor) {
+        for (FiltroSenal etapa : etapas) {
+            valor = etapa.filtrar(valor);
+        }
+        return valor;
+    }
+
+    @Override
+    public void reset() {
+        for (FiltroSenal etapa : etapas) {
+            etapa.reset();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.untels.hito2labo;
+
+/**
+ * Media móvil exponencial: salida = salida + alfa * (valor - salida).
+ * La primera muestra inicializa la salida para evitar el arranque desde cero.
+ */
+public class FiltroEMA implements FiltroSenal {
+    private final float alfa;
+    private float salida;
+    private boolean inicializado;
+
+    /**
+     * @param alfa Factor de suavizado en (0, 1]; valores pequeños suavizan más.
+     */
+    public FiltroEMA(float alfa) {
+        if (!(alfa > 0f && alfa <= 1f)) {
+            throw new IllegalArgumentException("Factor EMA fuera de rango: " + alfa);
+        }
+        this.alfa = alfa;
+    }
+
+    @Override
+    public float filtrar(float valor) {
+        if (!inicializado) {
+            salida = valor;
+            inicializado = true;
+        } else {
+            salida += alfa * (valor - salida);
+        }
+        return salida;
+    }
+
+    @Override
+    public void reset() {
+        inicializado = false;
+    }
+}
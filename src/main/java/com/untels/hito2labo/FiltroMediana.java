@@ -0,0 +1,76 @@
+package com.untels.hito2labo;
+
+/**
+ * Mediana móvil sobre las últimas N muestras.
+ * Mantiene un buffer circular con el orden de llegada y una copia ordenada;
+ * cada muestra desplaza la más antigua por inserción, con coste O(N) fijo.
+ */
+public class FiltroMediana implements FiltroSenal {
+    private final float[] ventana;
+    private final float[] ordenados;
+    private int posicion;
+    private int cantidad;
+
+    /**
+     * @param tamano Número de muestras de la ventana (entre 1 y 63).
+     */
+    public FiltroMediana(int tamano) {
+        if (tamano < 1 || tamano > 63) {
+            throw new IllegalArgumentException("Tamaño de mediana fuera de rango: " + tamano);
+        }
+        this.ventana = new float[tamano];
+        this.ordenados = new float[tamano];
+    }
+
+    @Override
+    public float filtrar(float valor) {
+        if (cantidad == ventana.length) {
+            /*
+             * Ventana llena: se quita la muestra más antigua de la copia ordenada.
+             */
+            eliminarOrdenado(ventana[posicion]);
+        } else {
+            cantidad++;
+        }
+        ventana[posicion] = valor;
+        posicion = (posicion + 1) % ventana.length;
+        insertarOrdenado(valor);
+
+        int mitad = cantidad >> 1;
+        if ((cantidad & 1) == 1) {
+            return ordenados[mitad];
+        }
+        return (ordenados[mitad - 1] + ordenados[mitad]) * 0.5f;
+    }
+
+    /*
+     * Inserta el valor en la copia ordenada. Los primeros (cantidad - 1)
+     * elementos están ordenados antes de la llamada.
+     */
+    private void insertarOrdenado(float valor) {
+        int i = cantidad - 1;
+        while (i > 0 && ordenados[i - 1] > valor) {
+            ordenados[i] = ordenados[i - 1];
+            i--;
+        }
+        ordenados[i] = valor;
+    }
+
+    /*
+     * Quita una aparición del valor de la copia ordenada (con la ventana llena).
+     */
+    private void eliminarOrdenado(float valor) {
+        int n = ventana.length;
+        int i = 0;
+        while (i < n - 1 && Float.compare(ordenados[i], valor) != 0) {
+            i++;
+        }
+        System.arraycopy(ordenados, i + 1, ordenados, i, n - 1 - i);
+    }
+
+    @Override
+    public void reset() {
+        posicion = 0;
+        cantidad = 0;
+    }
+}
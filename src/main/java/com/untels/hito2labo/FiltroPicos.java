@@ -0,0 +1,44 @@
+package com.untels.hito2labo;
+
+/**
+ * Rechazo de picos: descarta las lecturas que se alejan más de un umbral del
+ * último valor aceptado y repite ese valor en su lugar.
+ * Si los rechazos se repiten N veces seguidas se interpreta como un cambio
+ * real de nivel y se acepta la lectura actual.
+ */
+public class FiltroPicos implements FiltroSenal {
+    private final float umbral;
+    private final int maxRechazos;
+    private float ultimoAceptado;
+    private boolean inicializado;
+    private int rechazosSeguidos;
+
+    /**
+     * @param umbral       Salto máximo admitido entre muestras consecutivas.
+     * @param maxRechazos  Rechazos consecutivos tras los que se acepta el nuevo nivel.
+     */
+    public FiltroPicos(float umbral, int maxRechazos) {
+        if (!(umbral > 0f) || maxRechazos < 1) {
+            throw new IllegalArgumentException("Parámetros de rechazo de picos inválidos");
+        }
+        this.umbral = umbral;
+        this.maxRechazos = maxRechazos;
+    }
+
+    @Override
+    public float filtrar(float valor) {
+        if (!inicializado || Math.abs(valor - ultimoAceptado) <= umbral
+                || ++rechazosSeguidos >= maxRechazos) {
+            ultimoAceptado = valor;
+            inicializado = true;
+            rechazosSeguidos = 0;
+        }
+        return ultimoAceptado;
+    }
+
+    @Override
+    public void reset() {
+        inicializado = false;
+        rechazosSeguidos = 0;
+    }
+}
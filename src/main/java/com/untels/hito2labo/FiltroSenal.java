@@ -0,0 +1,68 @@
+package com.untels.hito2labo;
+
+/**
+ * Filtro de señal aplicado muestra a muestra a las lecturas del sensor.
+ * Las implementaciones mantienen su estado en campos primitivos: el coste por
+ * muestra es constante y {@link #filtrar(float)} no reserva memoria.
+ */
+public interface FiltroSenal {
+
+    /**
+     * Procesa una lectura cruda y devuelve el valor filtrado.
+     *
+     * @param valor La lectura cruda del sensor.
+     * @return El valor filtrado.
+     */
+    float filtrar(float valor);
+
+    /**
+     * Descarta el estado acumulado (por ejemplo, tras una desconexión).
+     */
+    void reset();
+
+    /**
+     * Crea un filtro a partir de su especificación textual.
+     * Formatos admitidos (se pueden encadenar con '+', aplicándose en orden):
+     * <ul>
+     *   <li>{@code ninguno} - deja pasar el valor sin cambios.</li>
+     *   <li>{@code mediana:N} - mediana móvil de N muestras.</li>
+     *   <li>{@code ema:A} - media móvil exponencial con factor A (0..1].</li>
+     *   <li>{@code picos:U[:N]} - rechaza saltos mayores que U, aceptando el
+     *       nuevo nivel tras N rechazos consecutivos (3 por defecto).</li>
+     * </ul>
+     *
+     * @param especificacion La especificación, p. ej. "picos:5+mediana:5".
+     * @return El filtro construido.
+     * @throws IllegalArgumentException Si la especificación no es válida.
+     */
+    static FiltroSenal crear(String especificacion) {
+        String[] etapas = especificacion.trim().split("\\+");
+        if (etapas.length > 1) {
+            FiltroSenal[] filtros = new FiltroSenal[etapas.length];
+            for (int i = 0; i < etapas.length; i++) {
+                filtros[i] = crear(etapas[i]);
+            }
+            return new FiltroCadena(filtros);
+        }
+
+        String[] partes = especificacion.trim().toLowerCase().split(":");
+        try {
+            switch (partes[0]) {
+                case "":
+                case "ninguno":
+                    return new FiltroCadena(new FiltroSenal[0]);
+                case "mediana":
+                    return new FiltroMediana(Integer.parseInt(partes[1]));
+                case "ema":
+                    return new FiltroEMA(Float.parseFloat(partes[1]));
+                case "picos":
+                    int rechazos = partes.length > 2 ? Integer.parseInt(partes[2]) : 3;
+                    return new FiltroPicos(Float.parseFloat(partes[1]), rechazos);
+                default:
+                    throw new IllegalArgumentException("Filtro desconocido: " + partes[0]);
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Especificación de filtro inválida: " + especificacion);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.untels.hito2labo;
+
+/**
+ * Histograma de valores enteros no negativos con memoria fija, al estilo HDR:
+ * los valores menores que 64 tienen una cubeta propia y, por encima, cada
+ * potencia de dos se divide en 32 cubetas, con un error relativo máximo de
+ * aproximadamente un 3 %. Registrar un valor no reserva memoria.
+ * Los métodos están sincronizados para poder registrar desde varios hilos.
+ */
+public class Histograma {
+    private static final int BITS = 6;
+    private static final int SUB = 1 << BITS;
+    private static final int MITAD = SUB / 2;
+    private static final int CUBETAS = SUB + (64 - BITS) * MITAD;
+
+    private final long[] cuentas = new long[CUBETAS];
+    private long total;
+    private long suma;
+    private long minimo = Long.MAX_VALUE;
+    private long maximo;
+
+    /**
+     * Registra un valor (los negativos se cuentan como 0).
+     */
+    public synchronized void registrar(long valor) {
+        if (valor < 0) valor = 0;
+        cuentas[indice(valor)]++;
+        total++;
+        suma += valor;
+        if (valor < minimo) minimo = valor;
+        if (valor > maximo) maximo = valor;
+    }
+
+    private static int indice(long valor) {
+        if (valor < SUB) {
+            return (int) valor;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int grupo = exponente - BITS + 1;
+        int sub = (int) (valor >>> grupo) - MITAD;
+        return SUB + (grupo - 1) * MITAD + sub;
+    }
+
+    /*
+     * Mayor valor que cae en la cubeta indicada.
+     */
+    private static long limiteSuperior(int indice) {
+        if (indice < SUB) {
+            return indice;
+        }
+        int grupo = (indice - SUB) / MITAD + 1;
+        int sub = (indice - SUB) % MITAD;
+        return ((long) (sub + MITAD) << grupo) + (1L << grupo) - 1;
+    }
+
+    /**
+     * Valor bajo el que queda el porcentaje indicado de las muestras.
+     *
+     * @param percentil Percentil entre 0 y 100.
+     * @return El valor del percentil (límite superior de su cubeta), o 0 sin datos.
+     */
+    public synchronized long getPercentil(double percentil) {
+        if (total == 0) return 0;
+        long objetivo = Math.max(1, (long) Math.ceil(percentil / 100.0 * total));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += cuentas[i];
+            if (acumulado >= objetivo) {
+                return Math.min(limiteSuperior(i), maximo);
+            }
+        }
+        return maximo;
+    }
+
+    /**
+     * Fracción de las muestras que no superan el valor indicado, con la
+     * resolución de las cubetas (se cuentan las cubetas cuyo límite superior
+     * no lo supera).
+     *
+     * @return Fracción entre 0 y 1, o 1 sin datos.
+     */
+    public synchronized double getFraccionHasta(long valor) {
+        if (total == 0) return 1;
+        if (valor >= maximo) return 1;
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS && limiteSuperior(i) <= valor; i++) {
+            acumulado += cuentas[i];
+        }
+        return (double) acumulado / total;
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    public synchronized long getMinimo() {
+        return total == 0 ? 0 : minimo;
+    }
+
+    public synchronized long getMaximo() {
+        return maximo;
+    }
+
+    public synchronized double getMedia() {
+        return total == 0 ? 0 : (double) suma / total;
+    }
+
+    /**
+     * Suma las cuentas de otro histograma a este.
+     */
+    public void combinar(Histograma otro) {
+        long[] copia;
+        long otroTotal;
+        long otraSuma;
+        long otroMinimo;
+        long otroMaximo;
+        synchronized (otro) {
+            copia = otro.cuentas.clone();
+            otroTotal = otro.total;
+            otraSuma = otro.suma;
+            otroMinimo = otro.minimo;
+            otroMaximo = otro.maximo;
+        }
+        synchronized (this) {
+            for (int i = 0; i < CUBETAS; i++) {
+                cuentas[i] += copia[i];
+            }
+            total += otroTotal;
+            suma += otraSuma;
+            minimo = Math.min(minimo, otroMinimo);
+            maximo = Math.max(maximo, otroMaximo);
+        }
+    }
+
+    public synchronized void reset() {
+        java.util.Arrays.fill(cuentas, 0);
+        total = 0;
+        suma = 0;
+        minimo = Long.MAX_VALUE;
+        maximo = 0;
+    }
+}
@@ -0,0 +1,135 @@
+package com.untels.hito2labo;
+
+import java.util.List;
+
+/**
+ * Vista de solo lectura sobre el historial persistido de las últimas horas,
+ * usada en el arranque para que los indicadores muestren datos antes de
+ * que llegue la primera muestra. Los segmentos están proyectados en
+ * memoria y solo se decodifican las filas que se piden (las que caben en
+ * la ventana visible), así que el coste no depende del tamaño del archivo.
+ */
+public class HistorialReciente {
+    private final SegmentoHistorial[] segmentos;
+    /* Primera fila de cada segmento dentro de la ventana */
+    private final int[] primeraFila;
+    private final int filas;
+
+    /**
+     * @param segmentos Segmentos en orden cronológico (ArchivoHistorial.abrirRecientes).
+     * @param desdeMs   Instante más antiguo de la ventana.
+     */
+    public HistorialReciente(List<SegmentoHistorial> segmentos, long desdeMs) {
+        this.segmentos = segmentos.toArray(new SegmentoHistorial[0]);
+        this.primeraFila = new int[this.segmentos.length];
+        int total = 0;
+        for (int s = 0; s < this.segmentos.length; s++) {
+            primeraFila[s] = this.segmentos[s].buscarFila(desdeMs);
+            total += this.segmentos[s].getFilas() - primeraFila[s];
+        }
+        this.filas = total;
+    }
+
+    public int getFilas() {
+        return filas;
+    }
+
+    public boolean isEmpty() {
+        return filas == 0;
+    }
+
+    /**
+     * Instante de la última fila, o -1 si no hay ninguna.
+     */
+    public long getUltimoTiempo() {
+        for (int s = segmentos.length - 1; s >= 0; s--) {
+            if (segmentos[s].getFilas() > primeraFila[s]) {
+                return segmentos[s].getTiempo(segmentos[s].getFilas() - 1);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Último valor filtrado del canal con dato, o NaN si no hay ninguno.
+     */
+    public float getUltimoFiltrado(int canal) {
+        for (int s = segmentos.length - 1; s >= 0; s--) {
+            SegmentoHistorial segmento = segmentos[s];
+            if (!segmento.tieneCanal(canal)) continue;
+            for (int fila = segmento.getFilas() - 1; fila >= primeraFila[s]; fila--) {
+                float valor = segmento.getFiltrado(canal, fila);
+                if (!Float.isNaN(valor)) return valor;
+            }
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Decodifica las últimas filas del canal (valores filtrados) en destino[0, cantidad).
+     *
+     * @param canal    El canal a copiar.
+     * @param destino  El arreglo destino.
+     * @param cantidad Número de filas a copiar (como máximo getFilas()).
+     */
+    public void copiarUltimos(int canal, float[] destino, int cantidad) {
+        int posicion = cantidad;
+        for (int s = segmentos.length - 1; s >= 0 && posicion > 0; s--) {
+            SegmentoHistorial segmento = segmentos[s];
+            for (int fila = segmento.getFilas() - 1; fila >= primeraFila[s] && posicion > 0; fila--) {
+                destino[--posicion] = segmento.getFiltrado(canal, fila);
+            }
+        }
+    }
+
+    /**
+     * Copia las últimas filas anteriores a un instante (tiempos, pérdidas y
+     * valores de los canales presentes), en orden cronológico. El demonio
+     * la usa para completar la instantánea de un cliente con el historial
+     * de antes de su arranque; el instante excluye las filas de la sesión
+     * que ya estuvieran en el segmento abierto.
+     *
+     * @param cantidad  Número máximo de filas.
+     * @param antesDeMs Las filas copiadas son anteriores a este instante.
+     * @return La copia de las filas.
+     */
+    public AlmacenMuestras.Bloque copiarUltimas(int cantidad, long antesDeMs) {
+        /* Hacia atrás: cuántas filas entran y desde qué segmento */
+        int[] fin = new int[segmentos.length];
+        int[] inicio = new int[segmentos.length];
+        int total = 0;
+        int primerSegmento = segmentos.length;
+        for (int s = segmentos.length - 1; s >= 0 && total < cantidad; s--) {
+            fin[s] = segmentos[s].buscarFila(antesDeMs);
+            inicio[s] = Math.max(primeraFila[s], fin[s] - (cantidad - total));
+            if (fin[s] > inicio[s]) {
+                total += fin[s] - inicio[s];
+                primerSegmento = s;
+            }
+        }
+        AlmacenMuestras.Bloque copia = new AlmacenMuestras.Bloque(total);
+        for (int canal = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+            for (int s = primerSegmento; s < segmentos.length; s++) {
+                if (fin[s] > inicio[s] && segmentos[s].tieneCanal(canal)) {
+                    copia.crudos[canal] = new float[total];
+                    copia.filtrados[canal] = new float[total];
+                    break;
+                }
+            }
+        }
+        int posicion = 0;
+        for (int s = primerSegmento; s < segmentos.length; s++) {
+            SegmentoHistorial segmento = segmentos[s];
+            for (int fila = inicio[s]; fila < fin[s]; fila++, posicion++) {
+                copia.tiempos[posicion] = segmento.getTiempo(fila);
+                copia.perdidas[posicion] = segmento.getPerdidas(fila);
+                for (int canal = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+                    if (copia.filtrados[canal] == null) continue;
+                    copia.crudos[canal][posicion] = segmento.getCrudo(canal, fila);
+                    copia.filtrados[canal][posicion] = segmento.getFiltrado(canal, fila);
+                }
+            }
+        }
+        return copia;
+    }
+}
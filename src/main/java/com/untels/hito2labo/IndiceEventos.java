@@ -0,0 +1,375 @@
+package com.untels.hito2labo;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Almacén acotado de eventos del registro con un índice invertido por
+ * nivel, fuente y palabra del mensaje. Los eventos se guardan en un anillo
+ * de capacidad fija: al llenarse se desaloja el más antiguo, y las listas
+ * del índice (identificadores crecientes) se recortan por delante, así que
+ * la memoria no crece con el tiempo de ejecución.
+ * Una búsqueda intersecta las listas de los criterios empezando por la más
+ * corta, de modo que su coste depende del número de coincidencias y no del
+ * número de eventos guardados. Las palabras se comparan sin mayúsculas ni
+ * tildes, y la última palabra buscada se toma como prefijo para poder
+ * filtrar mientras se escribe.
+ */
+public class IndiceEventos {
+    private static final int LONGITUD_MAXIMA_PALABRA = 32;
+
+    /**
+     * Criterios de una búsqueda; los vacíos no filtran.
+     */
+    public static class Consulta {
+        final String[] palabras;
+        final int nivel;
+        final String fuente;
+        final long desdeMs;
+
+        /**
+         * @param texto   Palabras que deben aparecer en el mensaje (vacío: cualquiera).
+         * @param nivel   Nivel exacto, o -1 para todos.
+         * @param fuente  Fuente exacta, o null para todas.
+         * @param desdeMs Instante más antiguo, o Long.MIN_VALUE para todo.
+         */
+        public Consulta(String texto, int nivel, String fuente, long desdeMs) {
+            this.palabras = separarPalabras(texto).toArray(new String[0]);
+            this.nivel = nivel;
+            this.fuente = fuente;
+            this.desdeMs = desdeMs;
+        }
+
+        /**
+         * Indica si la consulta no filtra nada.
+         */
+        public boolean esVacia() {
+            return palabras.length == 0 && nivel < 0 && fuente == null && desdeMs == Long.MIN_VALUE;
+        }
+
+        /**
+         * Comprueba un evento suelto contra la consulta (para los que llegan
+         * mientras hay un filtro activo).
+         */
+        public boolean coincide(EventoLog evento) {
+            if (nivel >= 0 && evento.getNivel() != nivel) return false;
+            if (fuente != null && !fuente.equals(evento.getFuente())) return false;
+            if (evento.getTiempoMs() < desdeMs) return false;
+            if (palabras.length == 0) return true;
+            List<String> delMensaje = separarPalabras(evento.getMensaje());
+            for (int i = 0; i < palabras.length; i++) {
+                boolean prefijo = i == palabras.length - 1;
+                boolean encontrada = false;
+                for (String palabra : delMensaje) {
+                    if (prefijo ? palabra.startsWith(palabras[i]) : palabra.equals(palabras[i])) {
+                        encontrada = true;
+                        break;
+                    }
+                }
+                if (!encontrada) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Eventos que cumplen una consulta: los más recientes (como mucho el
+     * límite pedido) en orden cronológico, y el total de coincidencias.
+     */
+    public static class Resultado {
+        public final List<EventoLog> eventos;
+        public final int coincidencias;
+
+        Resultado(List<EventoLog> eventos, int coincidencias) {
+            this.eventos = eventos;
+            this.coincidencias = coincidencias;
+        }
+    }
+
+    /*
+     * Lista creciente de identificadores; los desalojados se saltan
+     * avanzando el inicio y el arreglo se compacta al crecer.
+     */
+    private static class ListaIds {
+        long[] ids = new long[4];
+        int inicio;
+        int fin;
+
+        void agregar(long id) {
+            if (fin > inicio && ids[fin - 1] == id) return;
+            if (fin == ids.length) {
+                int tamano = fin - inicio;
+                long[] destino = tamano * 2 < ids.length ? ids : new long[ids.length * 2];
+                System.arraycopy(ids, inicio, destino, 0, tamano);
+                ids = destino;
+                inicio = 0;
+                fin = tamano;
+            }
+            ids[fin++] = id;
+        }
+
+        void podar(long minimo) {
+            if (inicio < fin && ids[inicio] < minimo) {
+                inicio = buscarDesde(minimo);
+            }
+            if (inicio == fin) {
+                inicio = 0;
+                fin = 0;
+            }
+        }
+
+        /* Primera posición con un identificador mayor o igual que id */
+        int buscarDesde(long id) {
+            int i = Arrays.binarySearch(ids, inicio, fin, id);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        int tamano() {
+            return fin - inicio;
+        }
+    }
+
+    private final EventoLog[] anillo;
+    private long siguienteId;
+    private final ListaIds[] porNivel = new ListaIds[EventoLog.NOMBRES_NIVEL.length];
+    private final Map<String, ListaIds> porFuente = new HashMap<>();
+    private final TreeMap<String, ListaIds> porPalabra = new TreeMap<>();
+    private int desalojosSinLimpiar;
+
+    /**
+     * @param capacidad Número máximo de eventos guardados.
+     */
+    public IndiceEventos(int capacidad) {
+        this.anillo = new EventoLog[capacidad];
+        for (int n = 0; n < porNivel.length; n++) {
+            porNivel[n] = new ListaIds();
+        }
+    }
+
+    /**
+     * Guarda un evento y lo indexa, desalojando el más antiguo si está lleno.
+     *
+     * @return El evento guardado.
+     */
+    public synchronized EventoLog agregar(long tiempoMs, int nivel, String fuente, String mensaje, Color color) {
+        long id = siguienteId++;
+        EventoLog evento = new EventoLog(id, tiempoMs, nivel, fuente, mensaje, color);
+        int posicion = (int) (id % anillo.length);
+        if (anillo[posicion] != null) {
+            desalojosSinLimpiar++;
+        }
+        anillo[posicion] = evento;
+
+        porNivel[nivel].agregar(id);
+        porFuente.computeIfAbsent(fuente, f -> new ListaIds()).agregar(id);
+        for (String palabra : separarPalabras(mensaje)) {
+            porPalabra.computeIfAbsent(palabra, p -> new ListaIds()).agregar(id);
+        }
+
+        /* Cada cuarto de anillo desalojado se quitan las palabras que ya no aparecen */
+        if (desalojosSinLimpiar >= anillo.length / 4 && desalojosSinLimpiar > 0) {
+            limpiar();
+        }
+        return evento;
+    }
+
+    private long getPrimerId() {
+        return Math.max(0, siguienteId - anillo.length);
+    }
+
+    private void limpiar() {
+        long primerId = getPrimerId();
+        for (ListaIds lista : porNivel) {
+            lista.podar(primerId);
+        }
+        porFuente.values().removeIf(lista -> {
+            lista.podar(primerId);
+            return lista.tamano() == 0;
+        });
+        porPalabra.values().removeIf(lista -> {
+            lista.podar(primerId);
+            return lista.tamano() == 0;
+        });
+        desalojosSinLimpiar = 0;
+    }
+
+    /**
+     * Número de eventos guardados.
+     */
+    public synchronized int getCantidad() {
+        return (int) (siguienteId - getPrimerId());
+    }
+
+    /**
+     * Fuentes con eventos guardados, en orden alfabético.
+     */
+    public synchronized List<String> getFuentes() {
+        long primerId = getPrimerId();
+        List<String> fuentes = new ArrayList<>();
+        for (Map.Entry<String, ListaIds> e : porFuente.entrySet()) {
+            e.getValue().podar(primerId);
+            if (e.getValue().tamano() > 0) {
+                fuentes.add(e.getKey());
+            }
+        }
+        fuentes.sort(null);
+        return fuentes;
+    }
+
+    /**
+     * Busca los eventos que cumplen la consulta.
+     *
+     * @param consulta Los criterios.
+     * @param limite   Número máximo de eventos devueltos (los más recientes).
+     */
+    public synchronized Resultado buscar(Consulta consulta, int limite) {
+        long minimo = Math.max(getPrimerId(), primerIdDesde(consulta.desdeMs));
+        List<ListaIds> listas = new ArrayList<>();
+        if (consulta.nivel >= 0) {
+            listas.add(porNivel[consulta.nivel]);
+        }
+        if (consulta.fuente != null) {
+            ListaIds lista = porFuente.get(consulta.fuente);
+            if (lista == null) return new Resultado(new ArrayList<>(), 0);
+            listas.add(lista);
+        }
+        for (int i = 0; i < consulta.palabras.length; i++) {
+            ListaIds lista = i == consulta.palabras.length - 1
+                ? listaPrefijo(consulta.palabras[i], minimo)
+                : porPalabra.get(consulta.palabras[i]);
+            if (lista == null) return new Resultado(new ArrayList<>(), 0);
+            listas.add(lista);
+        }
+
+        long[] ultimos = new long[Math.max(1, limite)];
+        int coincidencias = 0;
+        if (listas.isEmpty()) {
+            for (long id = minimo; id < siguienteId; id++) {
+                ultimos[coincidencias++ % ultimos.length] = id;
+            }
+        } else {
+            for (ListaIds lista : listas) {
+                lista.podar(getPrimerId());
+            }
+            listas.sort((a, b) -> Integer.compare(a.tamano(), b.tamano()));
+            ListaIds menor = listas.get(0);
+            int[] cursores = new int[listas.size()];
+            for (int l = 1; l < listas.size(); l++) {
+                cursores[l] = listas.get(l).inicio;
+            }
+            candidatos:
+            for (int i = menor.buscarDesde(minimo); i < menor.fin; i++) {
+                long id = menor.ids[i];
+                for (int l = 1; l < listas.size(); l++) {
+                    ListaIds otra = listas.get(l);
+                    int j = Arrays.binarySearch(otra.ids, cursores[l], otra.fin, id);
+                    if (j < 0) {
+                        cursores[l] = -j - 1;
+                        if (cursores[l] == otra.fin) break candidatos;
+                        continue candidatos;
+                    }
+                    cursores[l] = j;
+                }
+                ultimos[coincidencias++ % ultimos.length] = id;
+            }
+        }
+
+        int devueltos = Math.min(coincidencias, limite);
+        List<EventoLog> eventos = new ArrayList<>(devueltos);
+        for (int k = coincidencias - devueltos; k < coincidencias; k++) {
+            eventos.add(anillo[(int) (ultimos[k % ultimos.length] % anillo.length)]);
+        }
+        return new Resultado(eventos, coincidencias);
+    }
+
+    /*
+     * Unión de las listas de todas las palabras que empiezan por el prefijo.
+     */
+    private ListaIds listaPrefijo(String prefijo, long minimo) {
+        NavigableMap<String, ListaIds> rango = porPalabra.subMap(prefijo, true, prefijo + Character.MAX_VALUE, false);
+        if (rango.isEmpty()) return null;
+        if (rango.size() == 1) return rango.firstEntry().getValue();
+        int total = 0;
+        for (ListaIds lista : rango.values()) {
+            total += lista.tamano();
+        }
+        long[] ids = new long[total];
+        int n = 0;
+        for (ListaIds lista : rango.values()) {
+            int desde = lista.buscarDesde(minimo);
+            System.arraycopy(lista.ids, desde, ids, n, lista.fin - desde);
+            n += lista.fin - desde;
+        }
+        Arrays.sort(ids, 0, n);
+        ListaIds union = new ListaIds();
+        union.ids = ids;
+        int unicos = 0;
+        for (int i = 0; i < n; i++) {
+            if (unicos == 0 || ids[unicos - 1] != ids[i]) {
+                ids[unicos++] = ids[i];
+            }
+        }
+        union.fin = unicos;
+        return union;
+    }
+
+    /*
+     * Primer identificador con instante mayor o igual que desdeMs (los
+     * eventos se guardan en orden de llegada).
+     */
+    private long primerIdDesde(long desdeMs) {
+        long bajo = getPrimerId();
+        long alto = siguienteId;
+        if (desdeMs == Long.MIN_VALUE) return bajo;
+        while (bajo < alto) {
+            long medio = (bajo + alto) >>> 1;
+            if (anillo[(int) (medio % anillo.length)].getTiempoMs() < desdeMs) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return bajo;
+    }
+
+    /**
+     * Separa un texto en palabras normalizadas (minúsculas, sin tildes),
+     * formadas por letras y dígitos.
+     */
+    static List<String> separarPalabras(String texto) {
+        List<String> palabras = new ArrayList<>();
+        StringBuilder actual = new StringBuilder();
+        for (int i = 0, n = texto.length(); i <= n; i++) {
+            char c = i < n ? normalizar(texto.charAt(i)) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (actual.length() < LONGITUD_MAXIMA_PALABRA) {
+                    actual.append(c);
+                }
+            } else if (actual.length() > 0) {
+                palabras.add(actual.toString());
+                actual.setLength(0);
+            }
+        }
+        return palabras;
+    }
+
+    private static char normalizar(char c) {
+        c = Character.toLowerCase(c);
+        switch (c) {
+            case 'á': return 'a';
+            case 'é': return 'e';
+            case 'í': return 'i';
+            case 'ó': return 'o';
+            case 'ú':
+            case 'ü': return 'u';
+            case 'ñ': return 'n';
+            default: return c;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.untels.hito2labo;
+
+/**
+ * Eventos para un {@link SumideroMuestras} en arreglos paralelos
+ * preasignados: el mismo formato sirve de anillo de la cola del sumidero y
+ * de lote entregado, así que publicar y entregar eventos no crea objetos.
+ * Cada evento guarda su tipo, su instante y, si es una muestra, los canales
+ * presentes con sus valores crudos y filtrados, las muestras perdidas
+ * antes de ella y la placa de red que la envió.
+ */
+public final class LoteEventos {
+    private static final int COLUMNAS = RegistroCanales.MAX_CANALES;
+
+    private final byte[] tipos;
+    private final long[] tiempos;
+    private final byte[] columnas;
+    private final int[] perdidas;
+    private final String[] detalles;
+    private final byte[] canales;
+    private final float[] crudos;
+    private final float[] filtrados;
+    private int cantidad;
+
+    LoteEventos(int capacidad) {
+        tipos = new byte[capacidad];
+        tiempos = new long[capacidad];
+        columnas = new byte[capacidad];
+        perdidas = new int[capacidad];
+        detalles = new String[capacidad];
+        canales = new byte[capacidad * COLUMNAS];
+        crudos = new float[capacidad * COLUMNAS];
+        filtrados = new float[capacidad * COLUMNAS];
+    }
+
+    /** Número de eventos del lote */
+    public int getCantidad() {
+        return cantidad;
+    }
+
+    /** Tipo del evento: {@link SumideroMuestras#MUESTRA}, CONECTADO, DESCONECTADO o FALLO_CONEXION */
+    public int getTipo(int i) {
+        return tipos[i];
+    }
+
+    /** Instante del evento en milisegundos */
+    public long getTiempo(int i) {
+        return tiempos[i];
+    }
+
+    /** Número de canales de la muestra (0 en los eventos de conexión) */
+    public int getColumnas(int i) {
+        return columnas[i];
+    }
+
+    /** Identificador del canal de la columna indicada */
+    public int getCanal(int i, int columna) {
+        return canales[i * COLUMNAS + columna];
+    }
+
+    public float getCrudo(int i, int columna) {
+        return crudos[i * COLUMNAS + columna];
+    }
+
+    public float getFiltrado(int i, int columna) {
+        return filtrados[i * COLUMNAS + columna];
+    }
+
+    /** Muestras perdidas antes de la muestra */
+    public int getPerdidas(int i) {
+        return perdidas[i];
+    }
+
+    /**
+     * Dispositivo o motivo de un evento de conexión; en una muestra, la placa
+     * de red que la envió (null en las del puerto serial).
+     */
+    public String getDetalle(int i) {
+        return detalles[i];
+    }
+
+    int getCapacidad() {
+        return tipos.length;
+    }
+
+    void setCantidad(int cantidad) {
+        this.cantidad = cantidad;
+    }
+
+    /*
+     * Escribe el evento en la posición indicada.
+     */
+    void poner(int i, int tipo, long tiempoMs, int[] canalesFila, float[] crudosFila, float[] filtradosFila,
+               int n, int perdidasFila, String detalle) {
+        tipos[i] = (byte) tipo;
+        tiempos[i] = tiempoMs;
+        columnas[i] = (byte) n;
+        perdidas[i] = perdidasFila;
+        detalles[i] = detalle;
+        int base = i * COLUMNAS;
+        for (int j = 0; j < n; j++) {
+            canales[base + j] = (byte) canalesFila[j];
+        }
+        if (n > 0) {
+            System.arraycopy(crudosFila, 0, crudos, base, n);
+            System.arraycopy(filtradosFila, 0, filtrados, base, n);
+        }
+    }
+
+    /*
+     * Copia el evento i de otro lote (el anillo) a la posición destino.
+     */
+    void copiar(LoteEventos origen, int i, int destino) {
+        int n = origen.columnas[i];
+        tipos[destino] = origen.tipos[i];
+        tiempos[destino] = origen.tiempos[i];
+        columnas[destino] = (byte) n;
+        perdidas[destino] = origen.perdidas[i];
+        detalles[destino] = origen.detalles[i];
+        if (n > 0) {
+            System.arraycopy(origen.canales, i * COLUMNAS, canales, destino * COLUMNAS, n);
+            System.arraycopy(origen.crudos, i * COLUMNAS, crudos, destino * COLUMNAS, n);
+            System.arraycopy(origen.filtrados, i * COLUMNAS, filtrados, destino * COLUMNAS, n);
+        }
+    }
+
+    /*
+     * Suelta las referencias a los textos de las posiciones ya entregadas.
+     */
+    void olvidarDetalle(int i) {
+        detalles[i] = null;
+    }
+}
@@ -1,15 +1,56 @@
 package com.untels.hito2labo;
 
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
 public class Main {
+    /*
+     * Tiempo máximo que permanece abierta la aplicación en una ejecución de
+     * entrenamiento (generación del archivo CDS).
+     */
+    private static final int DURACION_ENTRENAMIENTO_MS = 10000;
+
     /**
      * Punto de entrada principal de la aplicación.
-     * Inicializa la vista principal (VentanaPrincipal),
-     * crea el controlador para manejar la lógica de negocio
-     * y hace visible la ventana para el usuario.
+     * Crea y muestra la vista principal (VentanaPrincipal) en el hilo de
+     * eventos de Swing y, cuando ya se pintó, crea el controlador: el núcleo
+     * (configuración, reglas, JMX, sumideros, historial reciente, ingesta)
+     * se arma después del primer frame y abre la conexión serial en segundo
+     * plano, para no retrasar la aparición de la ventana.
+     * Con el argumento "--entrenamiento" la aplicación se cierra sola tras
+     * recorrer el arranque, lo que sirve para generar el archivo AppCDS.
+     * Con la clave cliente.demonio ("host:puerto") la ventana no abre el
+     * puerto serial: se conecta al DemonioMonitor que lo tiene abierto.
      */
     public static void main(String[] args) {
-        VentanaPrincipal ventana = new VentanaPrincipal();
-        Controlador controlador = new Controlador(ventana);
-        ventana.setVisible(true);
+        boolean entrenamiento = args.length > 0 && args[0].equals("--entrenamiento");
+        MedicionArranque.iniciar(entrenamiento);
+        if (entrenamiento && System.getProperty("puerto") == null) {
+            /* El entrenamiento recorre también el camino de datos con la placa simulada */
+            System.setProperty("puerto", TransporteSimulado.NOMBRE_PUERTO + ":4");
+        }
+
+        String demonio = entrenamiento ? null : Configuracion.cargar().getTexto("cliente.demonio", null);
+
+        SwingUtilities.invokeLater(() -> {
+            VentanaPrincipal ventana = new VentanaPrincipal();
+            ventana.setVisible(true);
+            ventana.trasPrimerFrame(() -> {
+                if (demonio != null && !demonio.isEmpty()) {
+                    new ControladorCliente(ventana, demonio);
+                    return;
+                }
+                Controlador controlador = new Controlador(ventana);
+
+                if (entrenamiento) {
+                    Timer salida = new Timer(DURACION_ENTRENAMIENTO_MS, e -> {
+                        controlador.cerrarAplicacion();
+                        System.exit(0);
+                    });
+                    salida.setRepeats(false);
+                    salida.start();
+                }
+            });
+        });
     }
-}
\ No newline at end of file
+}
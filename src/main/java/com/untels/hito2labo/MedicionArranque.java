@@ -0,0 +1,65 @@
+package com.untels.hito2labo;
+
+/**
+ * Mide los tiempos de arranque de la aplicación: desde la entrada a main
+ * hasta el primer frame pintado y hasta la primera muestra recibida.
+ * La aplicación los muestra en el registro de eventos; solo en una
+ * ejecución de entrenamiento se imprimen además en la salida estándar.
+ */
+public final class MedicionArranque {
+    private static volatile long inicio;
+    private static volatile long primerFrame;
+    private static volatile long primeraMuestra;
+    private static volatile boolean imprimir;
+
+    private MedicionArranque() {
+    }
+
+    /**
+     * Marca el inicio del arranque; se llama al entrar en main.
+     *
+     * @param salidaEstandar True para imprimir los tiempos (ejecución de entrenamiento).
+     */
+    public static void iniciar(boolean salidaEstandar) {
+        inicio = System.nanoTime();
+        imprimir = salidaEstandar;
+    }
+
+    /**
+     * Marca el primer frame pintado de la ventana (solo cuenta la primera llamada).
+     */
+    public static void marcarPrimerFrame() {
+        if (primerFrame == 0 && inicio != 0) {
+            primerFrame = System.nanoTime();
+            if (imprimir) System.out.println("Arranque: primer frame en " + getMsPrimerFrame() + " ms");
+        }
+    }
+
+    /**
+     * Marca la primera muestra procesada (solo cuenta la primera llamada).
+     */
+    public static void marcarPrimeraMuestra() {
+        if (primeraMuestra == 0 && inicio != 0) {
+            primeraMuestra = System.nanoTime();
+            if (imprimir) System.out.println("Arranque: primera muestra en " + getMsPrimeraMuestra() + " ms");
+        }
+    }
+
+    public static boolean hayPrimerFrame() {
+        return primerFrame != 0;
+    }
+
+    /**
+     * @return Milisegundos hasta el primer frame, o -1 si aún no se pintó.
+     */
+    public static long getMsPrimerFrame() {
+        return primerFrame == 0 ? -1 : (primerFrame - inicio) / 1_000_000;
+    }
+
+    /**
+     * @return Milisegundos hasta la primera muestra, o -1 si aún no llegó.
+     */
+    public static long getMsPrimeraMuestra() {
+        return primeraMuestra == 0 ? -1 : (primeraMuestra - inicio) / 1_000_000;
+    }
+}
@@ -0,0 +1,209 @@
+package com.untels.hito2labo;
+
+/**
+ * Métricas derivadas de temperatura y humedad relativa: punto de rocío
+ * (fórmula de Magnus), índice de calor (regresión de Rothfusz del NOAA,
+ * con sus ajustes) y humedad absoluta.
+ * Las series se calculan en bloque sobre las columnas del historial, de modo
+ * que un cambio de fórmula se aplica recalculando todo el historial de una
+ * pasada. Esta clase es la implementación escalar y la referencia; si el
+ * módulo jdk.incubator.vector está disponible (se ejecuta con
+ * {@code --add-modules jdk.incubator.vector}) {@link #obtener()} devuelve la
+ * versión vectorial, después de comprobar que coincide con esta.
+ */
+public class MetricasDerivadas {
+    /* Constantes de Magnus para el punto de rocío (Sonntag, 1990) */
+    static final float MAGNUS_A = 17.62f;
+    static final float MAGNUS_B = 243.12f;
+
+    private static final float TOLERANCIA_ABSOLUTA = 1e-3f;
+    private static final float TOLERANCIA_RELATIVA = 1e-4f;
+
+    private static MetricasDerivadas instancia;
+
+    /**
+     * Series derivadas de un bloque de filas (NaN donde falta algún dato).
+     */
+    public static class Series {
+        public final int filas;
+        public final float[] puntoRocio;
+        public final float[] indiceCalor;
+        public final float[] humedadAbsoluta;
+
+        public Series(int filas) {
+            this.filas = filas;
+            this.puntoRocio = new float[filas];
+            this.indiceCalor = new float[filas];
+            this.humedadAbsoluta = new float[filas];
+        }
+    }
+
+    /**
+     * Devuelve la implementación más rápida disponible: la vectorial si el
+     * módulo está presente y supera la comprobación, o la escalar.
+     */
+    public static synchronized MetricasDerivadas obtener() {
+        if (instancia == null) {
+            instancia = new MetricasDerivadas();
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                try {
+                    MetricasDerivadas vectorial = (MetricasDerivadas) Class
+                        .forName("com.untels.hito2labo.MetricasDerivadasVectoriales")
+                        .getDeclaredConstructor().newInstance();
+                    if (coincideConReferencia(vectorial)) {
+                        instancia = vectorial;
+                    } else {
+                        System.err.println("Métricas derivadas: la versión vectorial no coincide con la escalar; se usa la escalar");
+                    }
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    System.err.println("Métricas derivadas: versión vectorial no disponible (" + e + ")");
+                }
+            }
+        }
+        return instancia;
+    }
+
+    /**
+     * Nombre de la implementación, para el registro de eventos.
+     */
+    public String getNombre() {
+        return "escalar";
+    }
+
+    /**
+     * Calcula las series derivadas de un bloque del historial.
+     *
+     * @return Las series, o null si el bloque no tiene temperatura y humedad.
+     */
+    public Series calcular(AlmacenMuestras.Bloque bloque) {
+        float[] temperatura = bloque.filtrados[RegistroCanales.TEMPERATURA];
+        float[] humedad = bloque.filtrados[RegistroCanales.HUMEDAD];
+        if (temperatura == null || humedad == null) {
+            return null;
+        }
+        Series series = new Series(bloque.filas);
+        calcular(temperatura, humedad, 0, bloque.filas,
+                 series.puntoRocio, series.indiceCalor, series.humedadAbsoluta);
+        return series;
+    }
+
+    /**
+     * Calcula las tres métricas para las filas [desde, desde + n) de las
+     * columnas de temperatura (°C) y humedad relativa (%). Los destinos se
+     * escriben desde la posición 0.
+     */
+    public void calcular(float[] temperatura, float[] humedad, int desde, int n,
+                         float[] puntoRocio, float[] indiceCalor, float[] humedadAbsoluta) {
+        calcularEscalar(temperatura, humedad, desde, n, puntoRocio, indiceCalor, humedadAbsoluta, 0);
+    }
+
+    /*
+     * Bucle escalar; escribe los destinos a partir de la posición indicada.
+     */
+    static void calcularEscalar(float[] temperatura, float[] humedad, int desde, int n,
+                                float[] puntoRocio, float[] indiceCalor, float[] humedadAbsoluta,
+                                int destino) {
+        for (int i = 0; i < n; i++) {
+            float t = temperatura[desde + i];
+            float h = humedad[desde + i];
+            puntoRocio[destino + i] = puntoRocio(t, h);
+            indiceCalor[destino + i] = indiceCalor(t, h);
+            humedadAbsoluta[destino + i] = humedadAbsoluta(t, h);
+        }
+    }
+
+    /**
+     * Punto de rocío en °C.
+     */
+    public static float puntoRocio(float t, float h) {
+        float gamma = (float) Math.log(h / 100f) + MAGNUS_A * t / (MAGNUS_B + t);
+        return MAGNUS_B * gamma / (MAGNUS_A - gamma);
+    }
+
+    /**
+     * Humedad absoluta en g/m³.
+     */
+    public static float humedadAbsoluta(float t, float h) {
+        float presionSaturacion = 6.112f * (float) Math.exp(17.67f * t / (t + 243.5f));
+        return presionSaturacion * h * 2.1674f / (t + 273.15f);
+    }
+
+    /**
+     * Índice de calor en °C. Se calcula en °F como el NOAA: fórmula simple
+     * por debajo de 80 °F y regresión de Rothfusz (con ajustes por humedad
+     * muy baja o muy alta) por encima.
+     */
+    public static float indiceCalor(float t, float h) {
+        float f = t * 1.8f + 32f;
+        float simple = (f + 61f + (f - 68f) * 1.2f + h * 0.094f) * 0.5f;
+        float resultado = simple;
+        if ((simple + f) * 0.5f >= 80f) {
+            resultado = rothfusz(f, h);
+            if (h < 13f && f >= 80f && f <= 112f) {
+                resultado -= (13f - h) * 0.25f * (float) Math.sqrt((17f - Math.abs(f - 95f)) / 17f);
+            } else if (h > 85f && f >= 80f && f <= 87f) {
+                resultado += (h - 85f) * 0.1f * ((87f - f) * 0.2f);
+            }
+        }
+        return (resultado - 32f) * (5f / 9f);
+    }
+
+    static float rothfusz(float f, float h) {
+        return -42.379f + 2.04901523f * f + 10.14333127f * h
+            - 0.22475541f * f * h - 0.00683783f * f * f - 0.05481717f * h * h
+            + 0.00122874f * f * f * h + 0.00085282f * f * h * h
+            - 0.00000199f * f * f * h * h;
+    }
+
+    /*
+     * Compara la implementación indicada con la escalar sobre una rejilla
+     * que cubre el rango del sensor, los casos de ajuste del índice de calor,
+     * longitudes que no son múltiplo del ancho vectorial y valores NaN.
+     */
+    static boolean coincideConReferencia(MetricasDerivadas candidata) {
+        int n = 0;
+        float[] t = new float[91 * 101 + 3];
+        float[] h = new float[t.length];
+        for (int ti = -400; ti <= 500; ti += 10) {
+            for (int hi = 0; hi <= 100; hi++) {
+                t[n] = ti / 10f;
+                h[n] = hi;
+                n++;
+            }
+        }
+        t[n] = Float.NaN; h[n++] = 50f;
+        t[n] = 25f; h[n++] = Float.NaN;
+        t[n] = 33.3f; h[n++] = 90.5f;
+
+        MetricasDerivadas referencia = new MetricasDerivadas();
+        float[][] esperado = {new float[n], new float[n], new float[n]};
+        float[][] obtenido = {new float[n], new float[n], new float[n]};
+        referencia.calcular(t, h, 0, n, esperado[0], esperado[1], esperado[2]);
+        candidata.calcular(t, h, 0, n, obtenido[0], obtenido[1], obtenido[2]);
+        for (int serie = 0; serie < 3; serie++) {
+            for (int i = 0; i < n; i++) {
+                if (!casiIguales(esperado[serie][i], obtenido[serie][i])) {
+                    return false;
+                }
+            }
+        }
+        /* Un desplazamiento de inicio y una longitud impar ejercitan el resto escalar */
+        candidata.calcular(t, h, 7, 37, obtenido[0], obtenido[1], obtenido[2]);
+        for (int i = 0; i < 37; i++) {
+            if (!casiIguales(esperado[0][7 + i], obtenido[0][i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean casiIguales(float a, float b) {
+        if (Float.isNaN(a) || Float.isNaN(b)) {
+            return Float.isNaN(a) && Float.isNaN(b);
+        }
+        if (Float.isInfinite(a) || Float.isInfinite(b)) {
+            return a == b;
+        }
+        return Math.abs(a - b) <= TOLERANCIA_ABSOLUTA + TOLERANCIA_RELATIVA * Math.abs(a);
+    }
+}
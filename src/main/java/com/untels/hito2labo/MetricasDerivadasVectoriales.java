@@ -0,0 +1,85 @@
+package com.untels.hito2labo;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Versión vectorial de {@link MetricasDerivadas} con jdk.incubator.vector:
+ * procesa tantas filas por instrucción como permita el procesador y las
+ * filas sobrantes con la versión escalar. Las ramas del índice de calor se
+ * resuelven con máscaras. Solo se carga si el módulo está presente.
+ */
+class MetricasDerivadasVectoriales extends MetricasDerivadas {
+    private static final VectorSpecies<Float> ESPECIE = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public String getNombre() {
+        return "vectorial (" + ESPECIE.length() + " x float)";
+    }
+
+    @Override
+    public void calcular(float[] temperatura, float[] humedad, int desde, int n,
+                         float[] puntoRocio, float[] indiceCalor, float[] humedadAbsoluta) {
+        int i = 0;
+        int limite = ESPECIE.loopBound(n);
+        for (; i < limite; i += ESPECIE.length()) {
+            FloatVector t = FloatVector.fromArray(ESPECIE, temperatura, desde + i);
+            FloatVector h = FloatVector.fromArray(ESPECIE, humedad, desde + i);
+
+            /* Punto de rocío */
+            FloatVector gamma = h.div(100f).lanewise(VectorOperators.LOG)
+                .add(t.mul(MAGNUS_A).div(t.add(MAGNUS_B)));
+            gamma.mul(MAGNUS_B).div(gamma.neg().add(MAGNUS_A)).intoArray(puntoRocio, i);
+
+            /* Humedad absoluta */
+            FloatVector presion = t.mul(17.67f).div(t.add(243.5f)).lanewise(VectorOperators.EXP).mul(6.112f);
+            presion.mul(h).mul(2.1674f).div(t.add(273.15f)).intoArray(humedadAbsoluta, i);
+
+            /* Índice de calor en °F */
+            FloatVector f = t.mul(1.8f).add(32f);
+            FloatVector simple = f.add(61f).add(f.sub(68f).mul(1.2f)).add(h.mul(0.094f)).mul(0.5f);
+            VectorMask<Float> usarRegresion = simple.add(f).mul(0.5f).compare(VectorOperators.GE, 80f);
+            FloatVector resultado = simple;
+            if (usarRegresion.anyTrue()) {
+                FloatVector regresion = rothfusz(f, h);
+
+                VectorMask<Float> enRango = f.compare(VectorOperators.GE, 80f);
+                VectorMask<Float> seco = h.compare(VectorOperators.LT, 13f)
+                    .and(enRango).and(f.compare(VectorOperators.LE, 112f));
+                FloatVector raiz = f.sub(95f).abs().neg().add(17f).div(17f)
+                    .max(0f).lanewise(VectorOperators.SQRT);
+                FloatVector ajusteSeco = h.neg().add(13f).mul(0.25f).mul(raiz);
+                regresion = regresion.sub(ajusteSeco, seco);
+
+                VectorMask<Float> humedo = h.compare(VectorOperators.GT, 85f)
+                    .and(enRango).and(f.compare(VectorOperators.LE, 87f));
+                FloatVector ajusteHumedo = h.sub(85f).mul(0.1f).mul(f.neg().add(87f).mul(0.2f));
+                regresion = regresion.add(ajusteHumedo, humedo);
+
+                resultado = simple.blend(regresion, usarRegresion);
+            }
+            resultado.sub(32f).mul(5f / 9f).intoArray(indiceCalor, i);
+        }
+        /* Filas sobrantes con la versión escalar */
+        calcularEscalar(temperatura, humedad, desde + i, n - i,
+                        puntoRocio, indiceCalor, humedadAbsoluta, i);
+    }
+
+    /*
+     * Mismos términos y mismo orden que MetricasDerivadas.rothfusz.
+     */
+    private static FloatVector rothfusz(FloatVector f, FloatVector h) {
+        FloatVector ff = f.mul(f);
+        FloatVector hh = h.mul(h);
+        return f.mul(2.04901523f).add(-42.379f)
+            .add(h.mul(10.14333127f))
+            .sub(f.mul(h).mul(0.22475541f))
+            .sub(ff.mul(0.00683783f))
+            .sub(hh.mul(0.05481717f))
+            .add(ff.mul(h).mul(0.00122874f))
+            .add(f.mul(hh).mul(0.00085282f))
+            .sub(ff.mul(hh).mul(0.00000199f));
+    }
+}
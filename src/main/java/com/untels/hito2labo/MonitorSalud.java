@@ -0,0 +1,288 @@
+package com.untels.hito2labo;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Salud del sensor de un dispositivo, evaluada trama a trama con memoria y
+ * trabajo constantes. Detecta:
+ * <ul>
+ *   <li>lectura congelada: los valores crudos de todos los canales no cambian
+ *       durante N tramas seguidas (diez veces más mientras el sensor solo
+ *       haya dado valores enteros, como el DHT11, que en una sala estable
+ *       repite la misma lectura durante horas);</li>
+ *   <li>ráfaga de errores: la fracción de tramas "ERROR" o inválidas entre
+ *       las últimas de la ventana supera el máximo;</li>
+ *   <li>saltos implausibles: cambios entre tramas seguidas mayores que el
+ *       salto máximo del canal, varias veces dentro de la ventana;</li>
+ *   <li>conexión en silencio: conectado pero sin tramas durante un tiempo
+ *       (lo comprueba {@link #comprobar} periódicamente).</li>
+ * </ul>
+ * La ventana es un par de anillos de bits con sus recuentos, así que cada
+ * trama solo actualiza una posición. El estado es la condición más grave
+ * presente y solo se notifica cuando cambia (con histéresis en los
+ * recuentos), en lugar de una vez por trama errónea.
+ * Las notificaciones se entregan a través del Executor indicado. Los
+ * métodos están sincronizados: los llaman el hilo de datos y el reloj.
+ */
+public class MonitorSalud {
+    public static final int SANO = 0;
+    public static final int SALTOS = 1;
+    public static final int CONGELADO = 2;
+    public static final int ERRORES = 3;
+    public static final int SILENCIO = 4;
+    /** Factor de salud.repetidas para sensores de resolución entera */
+    static final int FACTOR_RESOLUCION_ENTERA = 10;
+    public static final String[] NOMBRES = {
+        "Sensor sano", "Saltos implausibles", "Lectura congelada", "Ráfaga de errores", "Conexión en silencio"
+    };
+
+    /**
+     * Listener notificado cuando cambia el estado de salud.
+     */
+    public interface SaludListener {
+        void onCambioSalud(MonitorSalud monitor, int estado, String detalle);
+    }
+
+    private final String dispositivo;
+    private final int repetidasMax;
+    private final int ventana;
+    private final int erroresMax;
+    private final int saltosMax;
+    private final long silencioMs;
+    private final float[] saltoMaximo;
+    private final Executor entrega;
+    private SaludListener listener;
+
+    /* Anillos de la ventana: un bit por trama */
+    private final long[] bitsError;
+    private final long[] bitsSalto;
+    private int posicion;
+    private int errores;
+    private int saltos;
+
+    /* Última fila válida, para detectar valores repetidos y saltos */
+    private final float[] anterior = new float[RegistroCanales.MAX_CANALES];
+    private int mascaraAnterior;
+    private int repetidas;
+    private boolean soloEnteros = true;
+
+    private boolean activo;
+    private long ultimaTramaMs;
+    private boolean enErrores;
+    private boolean enSaltos;
+    private int estado = SANO;
+
+    /**
+     * @param dispositivo  Nombre del dispositivo en los mensajes.
+     * @param repetidasMax Tramas seguidas sin cambios para considerar la lectura congelada.
+     * @param ventana      Número de tramas de la ventana de errores y saltos.
+     * @param fraccionErrores Fracción de tramas erróneas de la ventana que activa la ráfaga.
+     * @param saltosMax    Saltos implausibles dentro de la ventana que activan el aviso.
+     * @param silencioMs   Tiempo sin tramas, conectado, para considerar la conexión en silencio.
+     * @param saltoMaximo  Cambio máximo plausible entre tramas por canal (infinito si no se comprueba).
+     * @param entrega      El Executor por el que se notifican los cambios.
+     */
+    public MonitorSalud(String dispositivo, int repetidasMax, int ventana, float fraccionErrores, int saltosMax,
+                        long silencioMs, float[] saltoMaximo, Executor entrega) {
+        this.dispositivo = dispositivo;
+        this.repetidasMax = Math.max(2, repetidasMax);
+        this.ventana = Math.max(8, ventana);
+        this.erroresMax = Math.max(1, (int) Math.ceil(fraccionErrores * this.ventana));
+        this.saltosMax = Math.max(1, saltosMax);
+        this.silencioMs = silencioMs;
+        this.saltoMaximo = saltoMaximo.clone();
+        this.entrega = entrega;
+        this.bitsError = new long[(this.ventana + 63) / 64];
+        this.bitsSalto = new long[bitsError.length];
+    }
+
+    /**
+     * Crea el monitor con las claves salud.* de la configuración: salud.repetidas,
+     * salud.ventana, salud.errores (fracción), salud.saltos, salud.silencio
+     * (segundos) y salud.salto.&lt;canal&gt; (cambio máximo entre tramas; por
+     * defecto 5 para la temperatura y 20 para la humedad).
+     *
+     * @param dispositivo   Nombre del dispositivo en los mensajes.
+     * @param configuracion La configuración de la aplicación.
+     * @param registro      El registro donde se resuelven los canales.
+     * @param entrega       El Executor por el que se notifican los cambios.
+     */
+    public static MonitorSalud desdeConfiguracion(String dispositivo, Configuracion configuracion,
+                                                  RegistroCanales registro, Executor entrega) {
+        float[] saltoMaximo = new float[RegistroCanales.MAX_CANALES];
+        Arrays.fill(saltoMaximo, Float.POSITIVE_INFINITY);
+        saltoMaximo[RegistroCanales.TEMPERATURA] = 5f;
+        saltoMaximo[RegistroCanales.HUMEDAD] = 20f;
+        for (String clave : configuracion.getClaves("salud.salto.")) {
+            int canal = registro.resolverNombre(clave.substring("salud.salto.".length()));
+            float maximo = Float.parseFloat(configuracion.getTexto(clave, "").trim());
+            saltoMaximo[canal] = maximo > 0 ? maximo : Float.POSITIVE_INFINITY;
+        }
+        return new MonitorSalud(dispositivo,
+            configuracion.getEntero("salud.repetidas", 1800),
+            configuracion.getEntero("salud.ventana", 50),
+            Float.parseFloat(configuracion.getTexto("salud.errores", "0.2")),
+            configuracion.getEntero("salud.saltos", 3),
+            configuracion.getEntero("salud.silencio", 30) * 1000L,
+            saltoMaximo, entrega);
+    }
+
+    public void setSaludListener(SaludListener listener) {
+        this.listener = listener;
+    }
+
+    public String getDispositivo() {
+        return dispositivo;
+    }
+
+    public synchronized int getEstado() {
+        return estado;
+    }
+
+    /**
+     * Registra una trama válida con los valores crudos de sus canales.
+     *
+     * @param canales  Identificadores de los canales presentes.
+     * @param crudos   Valores crudos, en el mismo orden que los canales.
+     * @param n        Número de canales presentes.
+     * @param tiempoMs Instante de la trama.
+     */
+    public synchronized void registrarMuestra(int[] canales, float[] crudos, int n, long tiempoMs) {
+        ultimaTramaMs = tiempoMs;
+        int mascara = 0;
+        boolean iguales = true;
+        boolean salto = false;
+        for (int i = 0; i < n; i++) {
+            int canal = canales[i];
+            float valor = crudos[i];
+            mascara |= 1 << canal;
+            if ((mascaraAnterior & (1 << canal)) != 0) {
+                float previo = anterior[canal];
+                iguales &= Float.compare(valor, previo) == 0;
+                salto |= Math.abs(valor - previo) > saltoMaximo[canal];
+            } else {
+                iguales = false;
+            }
+            anterior[canal] = valor;
+            soloEnteros &= valor == Math.rint(valor) || Float.isNaN(valor);
+        }
+        repetidas = iguales && mascara == mascaraAnterior && n > 0 ? repetidas + 1 : 0;
+        mascaraAnterior = mascara;
+        avanzarVentana(false, salto);
+        evaluar(tiempoMs);
+    }
+
+    /**
+     * Registra una trama "ERROR" del sensor o una trama que no se pudo
+     * interpretar.
+     *
+     * @param tiempoMs Instante de la trama.
+     */
+    public synchronized void registrarError(long tiempoMs) {
+        ultimaTramaMs = tiempoMs;
+        avanzarVentana(true, false);
+        evaluar(tiempoMs);
+    }
+
+    /**
+     * Comprueba el silencio de la conexión; se llama periódicamente.
+     *
+     * @param ahoraMs Instante actual.
+     */
+    public synchronized void comprobar(long ahoraMs) {
+        if (activo) {
+            evaluar(ahoraMs);
+        }
+    }
+
+    /**
+     * Empieza (o reanuda tras una reconexión) la vigilancia: el silencio se
+     * cuenta desde este instante.
+     */
+    public synchronized void iniciar(long ahoraMs) {
+        activo = true;
+        ultimaTramaMs = ahoraMs;
+    }
+
+    /**
+     * Deja de vigilar (dispositivo desconectado, que ya se informa aparte)
+     * y olvida las tramas anteriores, sin notificar.
+     */
+    public synchronized void detener() {
+        activo = false;
+        Arrays.fill(bitsError, 0);
+        Arrays.fill(bitsSalto, 0);
+        posicion = 0;
+        errores = 0;
+        saltos = 0;
+        repetidas = 0;
+        mascaraAnterior = 0;
+        enErrores = false;
+        enSaltos = false;
+        estado = SANO;
+    }
+
+    /*
+     * Sustituye la trama más antigua de la ventana por la nueva,
+     * actualizando los recuentos.
+     */
+    private void avanzarVentana(boolean error, boolean salto) {
+        int palabra = posicion >>> 6;
+        long bit = 1L << (posicion & 63);
+        if ((bitsError[palabra] & bit) != 0) errores--;
+        if ((bitsSalto[palabra] & bit) != 0) saltos--;
+        if (error) {
+            bitsError[palabra] |= bit;
+            errores++;
+        } else {
+            bitsError[palabra] &= ~bit;
+        }
+        if (salto) {
+            bitsSalto[palabra] |= bit;
+            saltos++;
+        } else {
+            bitsSalto[palabra] &= ~bit;
+        }
+        posicion = posicion + 1 == ventana ? 0 : posicion + 1;
+    }
+
+    /*
+     * Calcula el estado (la condición más grave) y notifica si cambió. Las
+     * ráfagas se desactivan con la mitad del umbral, o sin saltos en la
+     * ventana, para no alternar en el límite.
+     */
+    private void evaluar(long ahoraMs) {
+        enErrores = enErrores ? errores > erroresMax / 2 : errores >= erroresMax;
+        enSaltos = enSaltos ? saltos > 0 : saltos >= saltosMax;
+        boolean silencio = activo && silencioMs > 0 && ahoraMs - ultimaTramaMs > silencioMs;
+        int nuevo = silencio ? SILENCIO
+            : enErrores ? ERRORES
+            : repetidas >= (soloEnteros ? repetidasMax * FACTOR_RESOLUCION_ENTERA : repetidasMax) ? CONGELADO
+            : enSaltos ? SALTOS
+            : SANO;
+        if (nuevo == estado) return;
+        estado = nuevo;
+        SaludListener l = listener;
+        if (l != null) {
+            String detalle = detalle(nuevo, ahoraMs);
+            entrega.execute(() -> l.onCambioSalud(this, nuevo, detalle));
+        }
+    }
+
+    private String detalle(int estado, long ahoraMs) {
+        switch (estado) {
+            case SILENCIO:
+                return String.format(Locale.ROOT, "sin tramas desde hace %d s", (ahoraMs - ultimaTramaMs) / 1000);
+            case ERRORES:
+                return errores + " tramas erróneas de las últimas " + ventana;
+            case CONGELADO:
+                return "sin cambios en " + repetidas + " tramas";
+            case SALTOS:
+                return saltos + " saltos implausibles en las últimas " + ventana + " tramas";
+            default:
+                return "lecturas normales";
+        }
+    }
+}
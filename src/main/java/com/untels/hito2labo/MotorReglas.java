@@ -0,0 +1,249 @@
+package com.untels.hito2labo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Motor de reglas de alerta.
+ * Las reglas se leen una sola vez de la configuración (claves "alerta.*") y se
+ * compilan en arreglos primitivos paralelos; la evaluación de cada muestra
+ * recorre solo las reglas de su canal y no reserva memoria.
+ * Los cambios de estado (alerta activada/desactivada) se entregan al listener
+ * a través del Executor indicado, fuera del camino de evaluación.
+ */
+public class MotorReglas {
+    private static final int NUM_CANALES = RegistroCanales.MAX_CANALES;
+
+    /**
+     * Listener notificado cuando una regla se activa o se desactiva.
+     */
+    public interface AlertaListener {
+        void onAlerta(ReglaAlerta regla, boolean activa, float valor);
+    }
+
+    private final ReglaAlerta[] reglas;
+    private final Executor entrega;
+    private final List<String> erroresConfiguracion = new ArrayList<>();
+    private AlertaListener listener;
+
+    /*
+     * Reglas compiladas: un elemento por regla en cada arreglo.
+     */
+    private final boolean[] usaTasa;
+    private final boolean[] mayorQue;
+    private final float[] umbralActivar;
+    private final float[] umbralDesactivar;
+    private final long[] duracionMs;
+
+    /*
+     * Estado de evaluación por regla.
+     */
+    private final boolean[] activa;
+    private final long[] cumpleDesde;
+
+    /*
+     * Índices de las reglas de cada canal y última muestra por canal (para la tasa).
+     */
+    private final int[][] reglasPorCanal;
+    private final float[] valorAnterior = new float[NUM_CANALES];
+    private final long[] tiempoAnterior = new long[NUM_CANALES];
+
+    /**
+     * Compila el conjunto de reglas indicado.
+     *
+     * @param reglas  Las reglas a evaluar.
+     * @param entrega El Executor por el que se notifican las alertas.
+     */
+    public MotorReglas(List<ReglaAlerta> reglas, Executor entrega) {
+        this.reglas = reglas.toArray(new ReglaAlerta[0]);
+        this.entrega = entrega;
+
+        int n = this.reglas.length;
+        usaTasa = new boolean[n];
+        mayorQue = new boolean[n];
+        umbralActivar = new float[n];
+        umbralDesactivar = new float[n];
+        duracionMs = new long[n];
+        activa = new boolean[n];
+        cumpleDesde = new long[n];
+
+        int[] porCanal = new int[NUM_CANALES];
+        for (int r = 0; r < n; r++) {
+            ReglaAlerta regla = this.reglas[r];
+            usaTasa[r] = regla.isTasa();
+            mayorQue[r] = regla.isMayorQue();
+            umbralActivar[r] = regla.getUmbral();
+            /*
+             * La histéresis desplaza el umbral de desactivación hacia el lado normal.
+             */
+            umbralDesactivar[r] = regla.isMayorQue()
+                ? regla.getUmbral() - regla.getHisteresis()
+                : regla.getUmbral() + regla.getHisteresis();
+            duracionMs[r] = regla.getDuracionMs();
+            porCanal[regla.getCanal()]++;
+        }
+
+        reglasPorCanal = new int[NUM_CANALES][];
+        for (int c = 0; c < NUM_CANALES; c++) {
+            reglasPorCanal[c] = new int[porCanal[c]];
+            porCanal[c] = 0;
+        }
+        for (int r = 0; r < n; r++) {
+            int c = this.reglas[r].getCanal();
+            reglasPorCanal[c][porCanal[c]++] = r;
+        }
+        reset();
+    }
+
+    /**
+     * Crea el motor con las reglas "alerta.&lt;nombre&gt;" de la configuración.
+     * Una regla que no se puede analizar se descarta y se anota como error
+     * de configuración (ver {@link #getErroresConfiguracion}). Si no queda
+     * ninguna se usan los límites históricos de la aplicación.
+     *
+     * @param configuracion La configuración de la aplicación.
+     * @param registro      El registro donde se resuelven los canales de las reglas.
+     * @param entrega       El Executor por el que se notifican las alertas.
+     * @return El motor de reglas compilado.
+     */
+    public static MotorReglas desdeConfiguracion(Configuracion configuracion, RegistroCanales registro,
+                                                 Executor entrega) {
+        List<ReglaAlerta> reglas = new ArrayList<>();
+        List<String> errores = new ArrayList<>();
+        for (String clave : configuracion.getClaves("alerta.")) {
+            String nombre = clave.substring("alerta.".length());
+            try {
+                reglas.add(ReglaAlerta.parsear(nombre, configuracion.getTexto(clave, ""), registro));
+            } catch (RuntimeException e) {
+                errores.add(clave + ": " + e.getMessage() + "; la regla no se aplica");
+            }
+        }
+        if (reglas.isEmpty()) {
+            reglas.add(ReglaAlerta.parsear("temperatura_alta", "temperatura > 30 histeresis 0.5", registro));
+            reglas.add(ReglaAlerta.parsear("temperatura_baja", "temperatura < 10 histeresis 0.5", registro));
+            reglas.add(ReglaAlerta.parsear("humedad_alta", "humedad > 80 histeresis 1", registro));
+            reglas.add(ReglaAlerta.parsear("humedad_baja", "humedad < 20 histeresis 1", registro));
+        }
+        MotorReglas motor = new MotorReglas(reglas, entrega);
+        motor.erroresConfiguracion.addAll(errores);
+        return motor;
+    }
+
+    public void setAlertaListener(AlertaListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Evalúa las reglas del canal con una nueva muestra.
+     *
+     * @param canal    El identificador del canal (RegistroCanales).
+     * @param valor    El valor de la muestra.
+     * @param tiempoMs El instante de la muestra en milisegundos.
+     */
+    public void evaluar(int canal, float valor, long tiempoMs) {
+        /*
+         * Velocidad de cambio en unidades por minuto respecto a la muestra anterior.
+         */
+        boolean hayTasa = tiempoAnterior[canal] >= 0 && tiempoMs > tiempoAnterior[canal];
+        float tasa = hayTasa
+            ? (valor - valorAnterior[canal]) * 60000f / (tiempoMs - tiempoAnterior[canal])
+            : 0f;
+        valorAnterior[canal] = valor;
+        tiempoAnterior[canal] = tiempoMs;
+
+        int[] indices = reglasPorCanal[canal];
+        for (int k = 0; k < indices.length; k++) {
+            int r = indices[k];
+            if (usaTasa[r] && !hayTasa) continue;
+            float x = usaTasa[r] ? tasa : valor;
+
+            if (!activa[r]) {
+                boolean cumple = mayorQue[r] ? x > umbralActivar[r] : x < umbralActivar[r];
+                if (!cumple) {
+                    cumpleDesde[r] = -1;
+                    continue;
+                }
+                if (cumpleDesde[r] < 0) {
+                    cumpleDesde[r] = tiempoMs;
+                }
+                if (tiempoMs - cumpleDesde[r] >= duracionMs[r]) {
+                    activa[r] = true;
+                    notificar(r, true, x);
+                }
+            } else {
+                boolean normal = mayorQue[r] ? x < umbralDesactivar[r] : x > umbralDesactivar[r];
+                if (normal) {
+                    activa[r] = false;
+                    cumpleDesde[r] = -1;
+                    notificar(r, false, x);
+                }
+            }
+        }
+    }
+
+    private void notificar(int r, boolean estado, float valor) {
+        AlertaListener l = listener;
+        if (l != null) {
+            ReglaAlerta regla = reglas[r];
+            entrega.execute(() -> l.onAlerta(regla, estado, valor));
+        }
+    }
+
+    /**
+     * Devuelve la severidad más alta entre las reglas activas del canal.
+     *
+     * @param canal El índice del canal.
+     * @return Una de las severidades de {@link ReglaAlerta}
+     *         ({@link ReglaAlerta#SEVERIDAD_NINGUNA} si no hay ninguna activa).
+     */
+    public int getSeveridadActiva(int canal) {
+        int severidad = ReglaAlerta.SEVERIDAD_NINGUNA;
+        for (int r : reglasPorCanal[canal]) {
+            if (activa[r]) {
+                severidad = Math.max(severidad, reglas[r].getSeveridad());
+            }
+        }
+        return severidad;
+    }
+
+    /**
+     * Sentido de la regla activa más severa del canal: true si el valor (o
+     * su tasa) está por encima del umbral. Sin reglas activas devuelve true.
+     */
+    public boolean isActivaPorEncima(int canal) {
+        int severidad = ReglaAlerta.SEVERIDAD_NINGUNA;
+        boolean porEncima = true;
+        for (int r : reglasPorCanal[canal]) {
+            if (activa[r] && reglas[r].getSeveridad() > severidad) {
+                severidad = reglas[r].getSeveridad();
+                porEncima = mayorQue[r];
+            }
+        }
+        return porEncima;
+    }
+
+    /**
+     * Desactiva todas las reglas sin notificar y olvida las muestras anteriores.
+     */
+    public void reset() {
+        for (int r = 0; r < reglas.length; r++) {
+            activa[r] = false;
+            cumpleDesde[r] = -1;
+        }
+        for (int c = 0; c < NUM_CANALES; c++) {
+            tiempoAnterior[c] = -1;
+        }
+    }
+
+    /**
+     * Errores de las claves alerta.* encontrados al crearlo, uno por regla descartada.
+     */
+    public List<String> getErroresConfiguracion() {
+        return erroresConfiguracion;
+    }
+
+    public ReglaAlerta[] getReglas() {
+        return reglas.clone();
+    }
+}
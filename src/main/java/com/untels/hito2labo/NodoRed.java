@@ -0,0 +1,177 @@
+package com.untels.hito2labo;
+
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+/**
+ * Placa de red atendida por la ingesta, identificada por su dirección IP,
+ * con su propio camino de muestras: filtros, reglas de alerta, estadísticas
+ * continuas, contabilidad del enlace (pérdidas, huecos y jitter, publicada
+ * por JMX con la dirección como dispositivo), historial en memoria e
+ * historial en disco en un subdirectorio propio. Así las series de dos
+ * placas no se mezclan entre sí ni con las del puerto serial, y las reglas
+ * de una placa solo ven sus datos. Las filas llegan a los sumideros con el
+ * nombre de la placa.
+ * Cada placa puede dar de alta un número limitado de canales nuevos en el
+ * registro compartido; el resto de claves desconocidas se ignoran.
+ * Se usa solo desde el hilo de entrega de {@link NucleoMonitor}.
+ */
+public class NodoRed {
+    private final int numero;
+    private final String nombre;
+    private final AlmacenMuestras almacen = new AlmacenMuestras();
+    private final EstadisticasEnlace estadisticasEnlace;
+    private final EstadisticasStreaming estadisticas = new EstadisticasStreaming();
+    private final MotorReglas motorReglas;
+    private final ArchivoHistorial archivoHistorial;
+    private final ProcesadorMuestras procesador;
+    private volatile TeselaDispositivo tesela;
+    private long filas;
+    private long invalidas;
+    private long invalidasAvisadas;
+    private long ignoradasAvisadas;
+
+    /**
+     * @param numero             Número de la placa en la cola de entrega (desde 1).
+     * @param nombre             Dirección IP de la placa.
+     * @param configuracion      Configuración (claves filtro.*, alerta.* e ingesta.*).
+     * @param registro           Registro de canales compartido con el puerto serial.
+     * @param directorio         Directorio de su historial en disco, o null si no se persiste.
+     * @param entrega            Hilo de entrega, por el que se notifican sus alertas.
+     */
+    public NodoRed(int numero, String nombre, Configuracion configuracion, RegistroCanales registro,
+                   Path directorio, Executor entrega) {
+        this.numero = numero;
+        this.nombre = nombre;
+        /*
+         * Las placas de red no negocian el intervalo: sin número de secuencia
+         * las pérdidas se estiman con el de muestreo.intervalo.
+         */
+        this.estadisticasEnlace = new EstadisticasEnlace(nombre);
+        estadisticasEnlace.setIntervaloEsperado(configuracion.getEntero("muestreo.intervalo", 2000));
+        estadisticasEnlace.registrarJmx();
+        almacen.setMaxFilas(configuracion.getEntero("ingesta.memoria.filas", 100_000));
+        this.motorReglas = MotorReglas.desdeConfiguracion(configuracion, registro, entrega);
+        this.archivoHistorial = directorio != null ? new ArchivoHistorial(directorio, registro) : null;
+        this.procesador = new ProcesadorMuestras(configuracion, registro, almacen, motorReglas,
+                                                 estadisticasEnlace, archivoHistorial, estadisticas);
+        procesador.setDispositivo(nombre);
+        procesador.setAltasPermitidas(configuracion.getEntero("ingesta.canales.nuevos", 4));
+    }
+
+    /**
+     * Directorio del historial de una placa dentro del historial principal
+     * ("red/&lt;dirección&gt;", con ':' cambiado por '_' en IPv6).
+     */
+    public static Path directorioHistorial(Path principal, String nombre) {
+        return principal.resolve("red").resolve(nombre.replace(':', '_').replace('%', '_'));
+    }
+
+    /**
+     * Procesa una trama de la placa; las que no se pueden procesar se
+     * cuentan como inválidas.
+     *
+     * @return Lo mismo que {@link ProcesadorMuestras#procesar}.
+     */
+    public int procesar(String trama, long llegadaNanos) {
+        int n;
+        try {
+            n = procesador.procesar(trama, llegadaNanos, false);
+        } catch (RuntimeException e) {
+            n = ProcesadorMuestras.TRAMA_INVALIDA;
+        }
+        if (n < 0) {
+            invalidas++;
+            return n;
+        }
+        filas++;
+        TeselaDispositivo tesela = this.tesela;
+        if (tesela != null) {
+            tesela.actualizar(procesador.getValorFiltrado(RegistroCanales.TEMPERATURA),
+                              procesador.getValorFiltrado(RegistroCanales.HUMEDAD));
+        }
+        return n;
+    }
+
+    /**
+     * Lleva a la tesela la alerta más grave activa en la temperatura o la humedad.
+     */
+    void refrescarAlerta() {
+        TeselaDispositivo tesela = this.tesela;
+        if (tesela != null) {
+            tesela.setSeveridadAlerta(Math.max(motorReglas.getSeveridadActiva(RegistroCanales.TEMPERATURA),
+                                               motorReglas.getSeveridadActiva(RegistroCanales.HUMEDAD)));
+        }
+    }
+
+    /**
+     * Tramas inválidas desde la última llamada, para avisarlas agrupadas.
+     */
+    long tomarInvalidas() {
+        long nuevas = invalidas - invalidasAvisadas;
+        invalidasAvisadas = invalidas;
+        return nuevas;
+    }
+
+    /**
+     * Claves ignoradas desde la última llamada, para avisarlas agrupadas.
+     */
+    long tomarClavesIgnoradas() {
+        long ignoradas = procesador.getClavesIgnoradas();
+        long nuevas = ignoradas - ignoradasAvisadas;
+        ignoradasAvisadas = ignoradas;
+        return nuevas;
+    }
+
+    /**
+     * Fija la tesela del tablero que muestra la placa (o null).
+     */
+    public void setTesela(TeselaDispositivo tesela) {
+        this.tesela = tesela;
+        if (tesela != null) {
+            tesela.setConectado(true);
+            refrescarAlerta();
+        }
+    }
+
+    public int getNumero() {
+        return numero;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    public long getFilas() {
+        return filas;
+    }
+
+    public AlmacenMuestras getAlmacen() {
+        return almacen;
+    }
+
+    public EstadisticasEnlace getEstadisticasEnlace() {
+        return estadisticasEnlace;
+    }
+
+    public EstadisticasStreaming getEstadisticas() {
+        return estadisticas;
+    }
+
+    public MotorReglas getMotorReglas() {
+        return motorReglas;
+    }
+
+    public ProcesadorMuestras getProcesador() {
+        return procesador;
+    }
+
+    /**
+     * Vacía su historial en disco.
+     */
+    public void cerrar() {
+        if (archivoHistorial != null) {
+            archivoHistorial.cerrar();
+        }
+    }
+}
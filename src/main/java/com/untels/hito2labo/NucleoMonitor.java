@@ -0,0 +1,887 @@
+package com.untels.hito2labo;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Núcleo del monitoreo sin interfaz, común a la aplicación (Controlador),
+ * al demonio ({@link DemonioMonitor}) y a las pruebas sin ventana: la
+ * conexión con la placa y su reconexión, la ingesta de red, el camino de
+ * cada trama ({@link ProcesadorMuestras}), el historial en memoria y en
+ * disco (con la recuperación de las últimas horas), las placas de red con
+ * su propio camino de muestras ({@link NodoRed}), la retención por
+ * niveles, la exportación incremental, los sumideros, las reglas de
+ * alerta, la salud del sensor y los relojes de las estadísticas y de la
+ * salud.
+ * Todo el procesamiento y todas las notificaciones al {@link Oyente}
+ * ocurren en un único hilo de entrega, el ejecutor que se pasa al crearlo:
+ * el hilo de eventos de Swing en la aplicación o un hilo propio en el
+ * demonio. Las tramas llegan a ese hilo por una {@link ColaTramas} acotada.
+ */
+public class NucleoMonitor {
+    /*
+     * Fuentes de los eventos del registro, para poder filtrarlos en PanelLog.
+     */
+    public static final String FUENTE_GENERAL = PanelLog.FUENTE_GENERAL;
+    public static final String FUENTE_ENLACE = "enlace";
+    public static final String FUENTE_DATOS = "datos";
+    public static final String FUENTE_ALERTAS = "alertas";
+    public static final String FUENTE_COMANDOS = "comandos";
+    public static final String FUENTE_EXPORTACION = "exportacion";
+    public static final String FUENTE_SALUD = "salud";
+    public static final String FUENTE_SUMIDEROS = "sumideros";
+
+    /** Origen de una trama en la cola: el puerto serial; n &gt; 0 es la placa de red n */
+    public static final int ORIGEN_SERIAL = 0;
+
+    private static final int PERIODO_ESTADISTICAS_MS = 5000;
+    private static final int PERIODO_SALUD_MS = 1000;
+    private static final int ESPERA_RECONEXION_MS = 3000;
+    private static final long ESPERA_CIERRE_SUMIDERO_MS = 2000;
+    private static final Color VERDE = new Color(0, 100, 0);
+
+    /**
+     * Receptor de lo que ocurre en el núcleo, llamado siempre en el hilo de entrega.
+     */
+    public interface Oyente {
+        /**
+         * Un mensaje para el registro de eventos. El color indica el nivel
+         * como en PanelLog: rojo para los errores, naranja para los avisos.
+         */
+        void onMensaje(String fuente, String mensaje, Color color, long tiempoMs);
+
+        /**
+         * Fila del puerto serial guardada en el historial; sus valores se
+         * consultan en {@link NucleoMonitor#getProcesador} hasta la siguiente.
+         */
+        void onFila(long llegadaNanos);
+
+        /**
+         * Una placa de red envió su primera trama. Sus filas y sus alertas
+         * siguen su propio camino y no pasan por onFila ni onAlerta.
+         */
+        void onNodoRed(NodoRed nodo);
+
+        void onConexion(boolean conectado);
+
+        /**
+         * Empieza o termina un intento de conexión (con sus reintentos);
+         * mientras dura no se admite otro.
+         */
+        void onConectando(boolean enCurso);
+
+        void onIntervaloMuestreo(int intervaloMs);
+
+        /**
+         * Cambio de una regla; el estado por canal está en {@link NucleoMonitor#getMotorReglas}.
+         */
+        void onAlerta(ReglaAlerta regla, boolean activa, float valor);
+
+        void onSalud(MonitorSalud monitor, int estado, String detalle);
+
+        /**
+         * Las últimas horas del historial en disco ya están delante del de la sesión.
+         */
+        void onHistorialRecuperado(HistorialReciente previo);
+
+        /**
+         * Llamado cada pocos segundos para refrescar las vistas de estadísticas.
+         */
+        void onEstadisticas(EstadisticasStreaming estadisticas, long ahoraMs);
+    }
+
+    private final Configuracion configuracion;
+    private final Executor entrega;
+    private final String puerto;
+    private final int maxIntentosReconexion;
+    private final SerialReader serialReader = new SerialReader();
+    private final RegistroCanales registroCanales = new RegistroCanales();
+    private final AlmacenMuestras almacen = new AlmacenMuestras();
+    private final EstadisticasStreaming estadisticas = new EstadisticasStreaming();
+    private final EstadisticasEnlace estadisticasEnlace;
+    private final MotorReglas motorReglas;
+    private final MonitorSalud monitorSalud;
+    private final ArchivoHistorial archivoHistorial;
+    private final ProcesadorMuestras procesador;
+    private final ColaTramas cola;
+    /*
+     * Latencias por etapa de las tramas seriales, desde el primer byte hasta
+     * el indicador pintado.
+     */
+    private final TrazaLatencia trazaLatencia = new TrazaLatencia();
+    private final ScheduledExecutorService reloj = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread hilo = new Thread(r, "nucleo-reloj");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+    private CompactadorHistorial compactadorHistorial;
+    private ExportadorIncremental exportadorIncremental;
+    private DistribuidorSumideros sumideros;
+    private ServidorIngesta servidorIngesta;
+    private Oyente oyente;
+
+    /*
+     * Placas de red: el hilo del servidor les asigna un número (su origen
+     * en la cola) la primera vez que aparecen, hasta maxNodos, y el hilo de
+     * entrega crea su camino de muestras con la primera trama que procesa.
+     * Las tramas de red solo ocupan tres cuartos de la cola, para que una
+     * placa rápida no deje fuera a las del puerto serial.
+     */
+    private final int maxNodos;
+    private final int limiteColaRed;
+    private final Map<String, Integer> numerosNodos = new HashMap<>();
+    private final String[] nombresNodos;
+    private final NodoRed[] nodos;
+    private volatile long tramasSinNodo;
+    private long sinNodoAvisadas;
+    private long ignoradasAvisadas;
+
+    /* Estado del hilo de entrega */
+    private volatile boolean monitoreando;
+    private boolean primeraConexion = true;
+    private boolean registroFilas = true;
+    private int muestrasPorLog = 1;
+    private int muestrasSinLog;
+    private int serialesLote;
+    private int deRedLote;
+    private long descartadasAvisadas;
+
+    /* Conexión y reconexión: un solo hilo de conexión a la vez */
+    private volatile boolean activo = true;
+    private final AtomicBoolean conectando = new AtomicBoolean();
+    private volatile Thread conexionThread;
+
+    /**
+     * Arma los componentes según la configuración; no abre nada hasta {@link #iniciar}.
+     *
+     * @param configuracion         Configuración de la aplicación.
+     * @param entrega               Hilo de entrega del procesamiento y de las notificaciones.
+     * @param maxIntentosReconexion Intentos de reconexión tras un corte, o 0 para reintentar siempre.
+     */
+    public NucleoMonitor(Configuracion configuracion, Executor entrega, int maxIntentosReconexion) {
+        this.configuracion = configuracion;
+        this.entrega = entrega;
+        this.maxIntentosReconexion = maxIntentosReconexion;
+        /*
+         * Puerto de la placa; "SIMULADOR" usa la placa simulada.
+         */
+        this.puerto = configuracion.getTexto("puerto", "COM5");
+        /*
+         * Contabilidad de pérdidas, huecos y jitter del dispositivo, publicada por JMX.
+         */
+        this.estadisticasEnlace = new EstadisticasEnlace(puerto);
+        /*
+         * Intervalo de muestreo pedido a la placa al conectar (comando RATE) y
+         * protocolo de confirmación de comandos (requiere el sketch con ACK).
+         */
+        serialReader.setRequestedSampleInterval(configuracion.getEntero("muestreo.intervalo", 2000));
+        serialReader.setConfirmacionComandos(configuracion.getBooleano("comandos.confirmacion", true));
+        serialReader.setTrazaLatencia(trazaLatencia);
+        almacen.setMaxFilas(configuracion.getEntero("historial.memoria.filas", 4_000_000));
+        /*
+         * Reglas de alerta (claves alerta.*) y salud del sensor (claves
+         * salud.*), notificadas en el hilo de entrega.
+         */
+        this.motorReglas = MotorReglas.desdeConfiguracion(configuracion, registroCanales, entrega);
+        this.monitorSalud = MonitorSalud.desdeConfiguracion(puerto, configuracion, registroCanales, entrega);
+        /*
+         * Historial persistido en disco (claves historial.*).
+         */
+        this.archivoHistorial = ArchivoHistorial.desdeConfiguracion(configuracion, registroCanales);
+        this.procesador = new ProcesadorMuestras(configuracion, registroCanales, almacen, motorReglas,
+                                                 estadisticasEnlace, archivoHistorial, estadisticas);
+        procesador.setMonitorSalud(monitorSalud);
+        this.maxNodos = Math.max(0, configuracion.getEntero("ingesta.dispositivos", 64));
+        this.nombresNodos = new String[maxNodos];
+        this.nodos = new NodoRed[maxNodos];
+        this.cola = new ColaTramas(configuracion.getEntero("entrega.cola", 4096), entrega,
+                                   new ColaTramas.Consumidor() {
+            @Override
+            public void procesar(String trama, long llegadaNanos, long esperaNanos, int origen) {
+                procesarTrama(trama, llegadaNanos, esperaNanos, origen);
+            }
+
+            @Override
+            public void finLote(int tramas, long esperaNanos) {
+                registrarEntrega(tramas, esperaNanos);
+            }
+        });
+        this.limiteColaRed = Math.max(1, cola.getCapacidad() * 3 / 4);
+    }
+
+    /**
+     * Arranca los procesos de fondo, la ingesta de red, los relojes y la
+     * conexión con la placa.
+     *
+     * @param oyente Receptor de las notificaciones, en el hilo de entrega.
+     */
+    public void iniciar(Oyente oyente) {
+        this.oyente = oyente;
+        estadisticasEnlace.registrarJmx();
+        serialReader.getCanalComandos().registrarJmx(puerto);
+        configurarListeners();
+        for (String error : motorReglas.getErroresConfiguracion()) {
+            avisar(FUENTE_ALERTAS, "Configuración: " + error, Color.RED);
+        }
+        for (String error : procesador.getErroresConfiguracion()) {
+            avisar(FUENTE_GENERAL, "Configuración: " + error, Color.RED);
+        }
+        if (archivoHistorial != null) {
+            cargarHistorialReciente(configuracion.getEntero("historial.horas", 24));
+        }
+        /*
+         * Retención por niveles (claves historial.retencion.*): los segmentos
+         * antiguos se resumen por minutos y por horas en un hilo propio.
+         */
+        this.compactadorHistorial = CompactadorHistorial.desdeConfiguracion(configuracion, registroCanales,
+                                                                            archivoHistorial);
+        if (compactadorHistorial != null) {
+            compactadorHistorial.iniciar(configuracion.getEntero("historial.compactacion.periodo", 60),
+                error -> avisar(FUENTE_GENERAL, error, Color.RED));
+        }
+        /*
+         * Sumideros (claves sumideros y sumidero.*): cada uno recibe las filas
+         * y los eventos de conexión por su propia cola y su propio hilo.
+         */
+        try {
+            this.sumideros = DistribuidorSumideros.desdeConfiguracion(configuracion, registroCanales);
+            if (sumideros != null) {
+                sumideros.iniciar(error -> avisar(FUENTE_SUMIDEROS, error, Color.RED));
+                procesador.setSumideros(sumideros);
+            }
+        } catch (RuntimeException e) {
+            avisar(FUENTE_SUMIDEROS, e.getMessage(), Color.RED);
+        }
+        /*
+         * Exportación incremental para otros sistemas (claves exportacion.*).
+         */
+        try {
+            this.exportadorIncremental = ExportadorIncremental.desdeConfiguracion(configuracion, registroCanales,
+                                                                                  archivoHistorial);
+            if (exportadorIncremental != null) {
+                exportadorIncremental.iniciar(configuracion.getEntero("exportacion.periodo", 0),
+                    error -> avisar(FUENTE_EXPORTACION, error, Color.RED));
+            }
+        } catch (RuntimeException e) {
+            avisar(FUENTE_EXPORTACION, e.getMessage(), Color.RED);
+        }
+        /*
+         * Ingesta por red (claves ingesta.*): las tramas de las placas Wi-Fi
+         * entran por la misma cola que las del puerto y cada placa las
+         * procesa con su propio NodoRed.
+         */
+        this.servidorIngesta = ServidorIngesta.desdeConfiguracion(configuracion, this::tramasDeRed);
+        if (servidorIngesta != null) {
+            try {
+                servidorIngesta.iniciar();
+                avisar(FUENTE_ENLACE, "Ingesta de red TCP/UDP en el puerto " + servidorIngesta.getPuerto(),
+                       Color.BLUE);
+            } catch (IOException e) {
+                avisar(FUENTE_ENLACE, "No se pudo abrir la ingesta de red: " + e.getMessage(), Color.RED);
+                servidorIngesta = null;
+            }
+        }
+        /*
+         * Reloj de la salud (silencio de la conexión) y de la vista de
+         * estadísticas, que se refresca desde los acumuladores continuos.
+         */
+        Runnable salud = () -> monitorSalud.comprobar(System.currentTimeMillis());
+        Runnable refresco = this::refrescarEstadisticas;
+        reloj.scheduleAtFixedRate(() -> entrega.execute(salud),
+                                  PERIODO_SALUD_MS, PERIODO_SALUD_MS, TimeUnit.MILLISECONDS);
+        reloj.scheduleAtFixedRate(() -> entrega.execute(refresco),
+                                  PERIODO_ESTADISTICAS_MS, PERIODO_ESTADISTICAS_MS, TimeUnit.MILLISECONDS);
+        conectar();
+    }
+
+    /*
+     * Listeners del lector serial, de las reglas y de la salud. Los eventos
+     * de conexión se pasan a los sumideros desde el hilo que los detecta (solo
+     * se copian a sus colas) y el resto se atiende en el hilo de entrega.
+     */
+    private void configurarListeners() {
+        serialReader.setDataListener((data, llegadaNanos) -> cola.ofrecer(data, llegadaNanos, ORIGEN_SERIAL));
+        serialReader.setSampleRateListener(intervalo -> entrega.execute(() -> aplicarIntervaloMuestreo(intervalo)));
+        serialReader.setConnectionListener(new SerialReader.ConnectionListener() {
+            @Override
+            public void onDisconnected() {
+                publicarConexion(SumideroMuestras.DESCONECTADO, puerto);
+                entrega.execute(() -> desconectado());
+            }
+
+            @Override
+            public void onReconnected() {
+                publicarConexion(SumideroMuestras.CONECTADO, puerto);
+                entrega.execute(() -> conectado());
+            }
+
+            @Override
+            public void onConnectionFailed(String error) {
+                publicarConexion(SumideroMuestras.FALLO_CONEXION, error);
+                avisar(FUENTE_ENLACE, "Reconexión fallida: " + error, Color.ORANGE);
+            }
+        });
+        motorReglas.setAlertaListener((regla, activa, valor) -> {
+            oyente.onAlerta(regla, activa, valor);
+            registrarAlerta(regla, activa, valor, "");
+        });
+        /*
+         * Un mensaje por cambio de estado de salud.
+         */
+        monitorSalud.setSaludListener((monitor, estado, detalle) -> {
+            oyente.onSalud(monitor, estado, detalle);
+            registrarCambioSalud(monitor, estado, detalle);
+        });
+    }
+
+    /*
+     * Un mensaje por activación o fin de una regla; el sufijo indica la placa de red.
+     */
+    private void registrarAlerta(ReglaAlerta regla, boolean activa, float valor, String sufijo) {
+        if (activa) {
+            registrar(FUENTE_ALERTAS,
+                "ALERTA " + regla.getNombre() + sufijo + ": " + regla.getExpresion() + " (valor " + valor + ")",
+                regla.getSeveridad() == ReglaAlerta.SEVERIDAD_AVISO ? Color.ORANGE : Color.RED);
+        } else {
+            registrar(FUENTE_ALERTAS, "Fin de alerta " + regla.getNombre() + sufijo, VERDE);
+        }
+    }
+
+    /**
+     * Un mensaje por cambio de estado de salud de un dispositivo, en el hilo de entrega.
+     */
+    public void registrarCambioSalud(MonitorSalud monitor, int estado, String detalle) {
+        if (estado == MonitorSalud.SANO) {
+            registrar(FUENTE_SALUD, monitor.getDispositivo() + ": " + MonitorSalud.NOMBRES[estado], VERDE);
+        } else {
+            registrar(FUENTE_SALUD,
+                monitor.getDispositivo() + ": " + MonitorSalud.NOMBRES[estado] + " (" + detalle + ")", Color.RED);
+        }
+    }
+
+    private void publicarConexion(int tipo, String detalle) {
+        if (sumideros != null) {
+            sumideros.publicarConexion(tipo, detalle);
+        }
+    }
+
+    /*
+     * Desconexión de la placa, en el hilo de entrega.
+     */
+    private void desconectado() {
+        procesador.reiniciarFiltros();
+        motorReglas.reset();
+        monitorSalud.detener();
+        if (!conectando.get()) {
+            registrar(FUENTE_ENLACE, "¡Dispositivo desconectado!", Color.RED);
+            registrar(FUENTE_ENLACE, estadisticasEnlace.resumen(), Color.GRAY);
+            iniciarConexion(true);
+        }
+        oyente.onConexion(false);
+    }
+
+    /*
+     * Conexión o reconexión de la placa, en el hilo de entrega.
+     */
+    private void conectado() {
+        oyente.onConexion(true);
+        boolean reconexion = !primeraConexion;
+        if (reconexion) {
+            registrar(FUENTE_ENLACE, "¡Dispositivo reconectado!", new Color(0, 150, 0));
+        }
+        primeraConexion = false;
+        if (monitoreando) {
+            estadisticasEnlace.reiniciarCadencia();
+            monitorSalud.iniciar(System.currentTimeMillis());
+            if (reconexion) {
+                registrar(FUENTE_ENLACE, "Monitoreo reanudado", VERDE);
+            }
+        }
+    }
+
+    /**
+     * Intenta la conexión con la placa en un hilo aparte, de modo que ni el
+     * arranque ni el hilo de entrega esperen a la apertura del puerto; si
+     * falla se pasa a la reconexión automática.
+     *
+     * @return False si ya hay un intento de conexión en curso (no se empieza otro).
+     */
+    public boolean conectar() {
+        return iniciarConexion(false);
+    }
+
+    /*
+     * Arranca el hilo de conexión salvo que ya haya uno: la conexión
+     * inicial, la manual y la automática tras un corte nunca abren el
+     * puerto a la vez.
+     */
+    private boolean iniciarConexion(boolean reconexion) {
+        if (!activo || !conectando.compareAndSet(false, true)) {
+            return false;
+        }
+        entrega.execute(() -> oyente.onConectando(true));
+        Thread hilo = new Thread(() -> {
+            boolean conectada = false;
+            try {
+                conectada = bucleConexion(reconexion);
+            } finally {
+                conectando.set(false);
+                boolean reintentar = conectada;
+                entrega.execute(() -> {
+                    oyente.onConectando(false);
+                    /* Un corte justo tras conectar, mientras el hilo terminaba */
+                    if (reintentar && activo && !serialReader.isConnected()) {
+                        iniciarConexion(true);
+                    }
+                });
+            }
+        }, reconexion ? "reconexion-serial" : "conexion-serial");
+        hilo.setDaemon(true);
+        conexionThread = hilo;
+        hilo.start();
+        return true;
+    }
+
+    /*
+     * Un primer intento inmediato (salvo tras un corte) y después reintentos
+     * cada pocos segundos, hasta conseguirlo o agotar los intentos.
+     */
+    private boolean bucleConexion(boolean reconexion) {
+        if (!reconexion) {
+            try {
+                serialReader.connect(puerto);
+                avisar(FUENTE_ENLACE, "Conectado a " + puerto, Color.BLUE);
+                return true;
+            } catch (Exception e) {
+                avisar(FUENTE_ENLACE, "Error de conexión: " + e.getMessage(), Color.RED);
+            }
+        }
+        int intentos = 0;
+        while (activo && (maxIntentosReconexion <= 0 || intentos < maxIntentosReconexion)) {
+            try {
+                Thread.sleep(ESPERA_RECONEXION_MS);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            EventosJfr.Reconexion intento = new EventosJfr.Reconexion();
+            intento.begin();
+            intento.dispositivo = puerto;
+            intento.intento = ++intentos;
+            try {
+                serialReader.connect(puerto);
+                intento.conectado = true;
+                intento.commit();
+                return true;
+            } catch (Exception e) {
+                intento.motivo = e.getMessage();
+                intento.commit();
+                publicarConexion(SumideroMuestras.FALLO_CONEXION, e.getMessage());
+                if (maxIntentosReconexion > 0) {
+                    avisar(FUENTE_ENLACE, "Intento " + intentos + "/" + maxIntentosReconexion
+                        + ": " + e.getMessage(), Color.ORANGE);
+                } else if (intentos == 1) {
+                    avisar(FUENTE_ENLACE, "Reconexión fallida: " + e.getMessage()
+                        + "; se reintenta cada " + ESPERA_RECONEXION_MS / 1000 + " s", Color.ORANGE);
+                }
+            }
+        }
+        if (activo) {
+            avisar(FUENTE_ENLACE, "No se pudo reconectar. Intente manualmente.", Color.RED);
+        }
+        return false;
+    }
+
+    /*
+     * Proyecta en memoria los segmentos de las últimas horas en un hilo
+     * aparte y los pone delante del historial de la sesión: los indicadores
+     * muestran el último valor y la gráfica reciente sin esperar a la placa.
+     * Solo se decodifican las filas que se dibujan.
+     */
+    private void cargarHistorialReciente(int horas) {
+        Thread cargaThread = new Thread(() -> {
+            long desdeMs = System.currentTimeMillis() - horas * 3_600_000L;
+            HistorialReciente previo = new HistorialReciente(
+                ArchivoHistorial.abrirRecientes(archivoHistorial.getDirectorio(), registroCanales, desdeMs),
+                desdeMs);
+            if (previo.isEmpty()) {
+                return;
+            }
+            entrega.execute(() -> {
+                almacen.setPrevio(previo);
+                oyente.onHistorialRecuperado(previo);
+                registrar(FUENTE_GENERAL,
+                    "Historial recuperado: " + previo.getFilas() + " muestras hasta "
+                        + new SimpleDateFormat("dd/MM HH:mm:ss").format(new Date(previo.getUltimoTiempo())),
+                    Color.GRAY);
+            });
+        }, "historial-reciente");
+        cargaThread.setDaemon(true);
+        cargaThread.start();
+    }
+
+    /*
+     * Adapta el núcleo al intervalo de muestreo negociado con la placa:
+     * reserva el historial para una hora de muestras y ajusta la frecuencia
+     * con la que las lecturas se escriben en el registro de eventos
+     * (equivalente a una línea cada 2 s, la cadencia original del sketch).
+     */
+    private void aplicarIntervaloMuestreo(int intervaloMs) {
+        almacen.reservar((int) (3_600_000L / Math.max(1, intervaloMs)));
+        muestrasPorLog = Math.max(1, 2000 / Math.max(1, intervaloMs));
+        muestrasSinLog = 0;
+        estadisticasEnlace.setIntervaloEsperado(intervaloMs);
+        oyente.onIntervaloMuestreo(intervaloMs);
+        registrar(FUENTE_COMANDOS, "Intervalo de muestreo: " + intervaloMs + " ms", Color.BLUE);
+    }
+
+    /*
+     * Llamado desde el hilo del servidor de ingesta con las tramas de una
+     * vuelta del selector: pasan a la cola junto a las del puerto serial,
+     * con el número de su placa como origen. Las de placas por encima del
+     * máximo se descartan.
+     */
+    private void tramasDeRed(String[] tramas, long[] llegadasNanos, String[] dispositivos, int cantidad) {
+        for (int i = 0; i < cantidad; i++) {
+            int numero = numeroNodo(dispositivos[i]);
+            if (numero == 0) {
+                tramasSinNodo++;
+                continue;
+            }
+            cola.ofrecer(tramas[i], llegadasNanos[i], numero, limiteColaRed);
+        }
+    }
+
+    /*
+     * Número de la placa (desde 1), asignado en el hilo del servidor, o 0
+     * si ya no caben más. El nombre se escribe antes de encolar la trama,
+     * así que el hilo de entrega lo ve al sacarla.
+     */
+    private int numeroNodo(String dispositivo) {
+        Integer numero = numerosNodos.get(dispositivo);
+        if (numero != null) {
+            return numero;
+        }
+        if (numerosNodos.size() == maxNodos) {
+            return 0;
+        }
+        int nuevo = numerosNodos.size() + 1;
+        nombresNodos[nuevo - 1] = dispositivo;
+        numerosNodos.put(dispositivo, nuevo);
+        return nuevo;
+    }
+
+    /*
+     * Camino de muestras de la placa, creado con su primera trama en el hilo de entrega.
+     */
+    private NodoRed nodo(int numero) {
+        NodoRed nodo = nodos[numero - 1];
+        if (nodo != null) {
+            return nodo;
+        }
+        String nombre = nombresNodos[numero - 1];
+        NodoRed nuevo = new NodoRed(numero, nombre, configuracion, registroCanales,
+            archivoHistorial != null ? NodoRed.directorioHistorial(archivoHistorial.getDirectorio(), nombre) : null,
+            entrega);
+        nuevo.getProcesador().setSumideros(sumideros);
+        String sufijo = " (" + nombre + ")";
+        nuevo.getMotorReglas().setAlertaListener((regla, activa, valor) -> {
+            nuevo.refrescarAlerta();
+            registrarAlerta(regla, activa, valor, sufijo);
+        });
+        synchronized (nodos) {
+            nodos[numero - 1] = nuevo;
+        }
+        registrar(FUENTE_ENLACE, "Placa de red nueva: " + nombre, Color.BLUE);
+        oyente.onNodoRed(nuevo);
+        return nuevo;
+    }
+
+    /*
+     * Procesa una trama de la cola en el hilo de entrega. Las del puerto
+     * serial pasan al historial en ProcesadorMuestras y se notifican al
+     * oyente; las de red van al camino de su placa, cuyas tramas inválidas
+     * se avisan agrupadas en el refresco de las estadísticas.
+     */
+    private void procesarTrama(String data, long llegadaNanos, long esperaNanos, int origen) {
+        boolean serial = origen == ORIGEN_SERIAL;
+        if (serial) {
+            serialesLote++;
+            trazaLatencia.registrar(TrazaLatencia.ENTREGA_EDT, esperaNanos);
+        } else {
+            deRedLote++;
+        }
+        if (!monitoreando) {
+            return;
+        }
+        if (!serial) {
+            nodo(origen).procesar(data, llegadaNanos);
+            return;
+        }
+        long inicioNanos = System.nanoTime();
+        try {
+            int n = procesador.procesar(data, llegadaNanos, true);
+            if (n < 0) {
+                /*
+                 * Durante una ráfaga de errores ya avisada por el monitor de
+                 * salud no se registra cada trama errónea.
+                 */
+                if (monitorSalud.getEstado() != MonitorSalud.ERRORES) {
+                    registrar(FUENTE_DATOS, n == ProcesadorMuestras.ERROR_SENSOR
+                        ? "Error en sensor DHT11" : "Datos inválidos: " + data, Color.RED);
+                }
+                return;
+            }
+            int perdidas = procesador.getPerdidas();
+            if (perdidas > 0) {
+                registrar(FUENTE_ENLACE,
+                    "Hueco: " + perdidas + (perdidas == 1 ? " muestra perdida" : " muestras perdidas"),
+                    Color.ORANGE);
+            }
+            oyente.onFila(llegadaNanos);
+
+            /*
+             * A intervalos de muestreo cortos se registra solo una de cada
+             * muestrasPorLog lecturas para no saturar el registro.
+             */
+            if (registroFilas && ++muestrasSinLog >= muestrasPorLog) {
+                muestrasSinLog = 0;
+                oyente.onMensaje(FUENTE_DATOS, procesador.describirFila(), Color.DARK_GRAY,
+                                 procesador.getTiempoFila());
+            }
+            trazaLatencia.registrar(TrazaLatencia.PROCESADO, System.nanoTime() - inicioNanos);
+        } catch (RuntimeException e) {
+            registrar(FUENTE_DATOS, "Datos inválidos: " + data, Color.RED);
+        }
+    }
+
+    /*
+     * Evento JFR de un paso por el hilo de entrega con tramas.
+     */
+    private void registrarEntrega(int tramas, long esperaNanos) {
+        EventosJfr.EntregaEdt entrega = EventosJfr.iniciarEntregaEdt();
+        if (entrega != null && entrega.shouldCommit()) {
+            entrega.origen = deRedLote == 0 ? "serial" : serialesLote == 0 ? "red" : "mixto";
+            entrega.tramas = tramas;
+            entrega.espera = esperaNanos;
+            entrega.commit();
+        }
+        serialesLote = 0;
+        deRedLote = 0;
+    }
+
+    /*
+     * Refresco de las estadísticas, en el hilo de entrega. También avisa,
+     * agrupado desde el último refresco, de las tramas descartadas por la
+     * cola o por sobrar placas, de las claves que no se pudieron registrar
+     * como canales y de las tramas inválidas de cada placa de red.
+     */
+    private void refrescarEstadisticas() {
+        long ahora = System.currentTimeMillis();
+        oyente.onEstadisticas(estadisticas, ahora);
+        long descartadas = cola.getDescartadas();
+        if (descartadas > descartadasAvisadas) {
+            registrar(FUENTE_ENLACE, "Cola de entrega llena: " + (descartadas - descartadasAvisadas)
+                + " tramas descartadas", Color.ORANGE);
+            descartadasAvisadas = descartadas;
+        }
+        long sinNodo = tramasSinNodo;
+        if (sinNodo > sinNodoAvisadas) {
+            registrar(FUENTE_ENLACE, "Ingesta de red: " + (sinNodo - sinNodoAvisadas)
+                + " tramas descartadas de placas por encima del máximo (" + maxNodos + ")", Color.ORANGE);
+            sinNodoAvisadas = sinNodo;
+        }
+        long ignoradas = procesador.getClavesIgnoradas();
+        if (ignoradas > ignoradasAvisadas) {
+            registrar(FUENTE_DATOS, (ignoradas - ignoradasAvisadas)
+                + " claves ignoradas: no caben más canales", Color.ORANGE);
+            ignoradasAvisadas = ignoradas;
+        }
+        for (NodoRed nodo : nodos) {
+            if (nodo == null) continue;
+            long invalidas = nodo.tomarInvalidas();
+            if (invalidas > 0) {
+                registrar(FUENTE_DATOS, "Placa de red " + nodo.getNombre() + ": " + invalidas
+                    + " tramas inválidas", Color.RED);
+            }
+            long claves = nodo.tomarClavesIgnoradas();
+            if (claves > 0) {
+                registrar(FUENTE_DATOS, "Placa de red " + nodo.getNombre() + ": " + claves
+                    + " claves desconocidas ignoradas", Color.ORANGE);
+            }
+        }
+    }
+
+    /*
+     * Un mensaje del registro desde el hilo de entrega.
+     */
+    private void registrar(String fuente, String mensaje, Color color) {
+        oyente.onMensaje(fuente, mensaje, color, System.currentTimeMillis());
+    }
+
+    /*
+     * Un mensaje del registro desde cualquier hilo: se pasa al de entrega.
+     */
+    private void avisar(String fuente, String mensaje, Color color) {
+        long ahora = System.currentTimeMillis();
+        entrega.execute(() -> oyente.onMensaje(fuente, mensaje, color, ahora));
+    }
+
+    /**
+     * Empieza a procesar las tramas, en el hilo de entrega.
+     */
+    public void iniciarMonitoreo() {
+        monitoreando = true;
+        estadisticasEnlace.reiniciarCadencia();
+        if (serialReader.isConnected()) {
+            monitorSalud.iniciar(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Deja de procesar las tramas (se siguen recibiendo), en el hilo de entrega.
+     */
+    public void detenerMonitoreo() {
+        monitoreando = false;
+        monitorSalud.detener();
+    }
+
+    /**
+     * Indica si las lecturas del puerto serial se escriben en el registro
+     * de eventos (por defecto sí); el demonio no las difunde.
+     */
+    public void setRegistroFilas(boolean registroFilas) {
+        this.registroFilas = registroFilas;
+    }
+
+    public boolean isMonitoreando() {
+        return monitoreando;
+    }
+
+    public boolean isConectado() {
+        return serialReader.isConnected();
+    }
+
+    /**
+     * True mientras hay un intento de conexión (o de reconexión) en curso.
+     */
+    public boolean isConectando() {
+        return conectando.get();
+    }
+
+    public String getPuerto() {
+        return puerto;
+    }
+
+    public Configuracion getConfiguracion() {
+        return configuracion;
+    }
+
+    public SerialReader getSerialReader() {
+        return serialReader;
+    }
+
+    public RegistroCanales getRegistroCanales() {
+        return registroCanales;
+    }
+
+    public AlmacenMuestras getAlmacen() {
+        return almacen;
+    }
+
+    public ProcesadorMuestras getProcesador() {
+        return procesador;
+    }
+
+    public MotorReglas getMotorReglas() {
+        return motorReglas;
+    }
+
+    public MonitorSalud getMonitorSalud() {
+        return monitorSalud;
+    }
+
+    public EstadisticasEnlace getEstadisticasEnlace() {
+        return estadisticasEnlace;
+    }
+
+    public TrazaLatencia getTrazaLatencia() {
+        return trazaLatencia;
+    }
+
+    public ColaTramas getCola() {
+        return cola;
+    }
+
+    /**
+     * @return El servidor de ingesta de red, o null si no está activo.
+     */
+    public ServidorIngesta getServidorIngesta() {
+        return servidorIngesta;
+    }
+
+    /**
+     * Placas de red vistas hasta ahora, en orden de aparición.
+     */
+    public List<NodoRed> getNodosRed() {
+        List<NodoRed> lista = new ArrayList<>();
+        synchronized (nodos) {
+            for (NodoRed nodo : nodos) {
+                if (nodo != null) lista.add(nodo);
+            }
+        }
+        return lista;
+    }
+
+    /**
+     * @return Los sumideros configurados, o null si no hay ninguno.
+     */
+    public DistribuidorSumideros getSumideros() {
+        return sumideros;
+    }
+
+    /**
+     * Cierra la conexión con la placa, la ingesta y los procesos de fondo,
+     * y vacía el historial en disco.
+     */
+    public void cerrar() {
+        activo = false;
+        monitoreando = false;
+        Thread hilo = conexionThread;
+        if (hilo != null) {
+            hilo.interrupt();
+        }
+        serialReader.disconnect();
+        if (servidorIngesta != null) {
+            servidorIngesta.detener();
+        }
+        reloj.shutdownNow();
+        if (sumideros != null) {
+            sumideros.detener(ESPERA_CIERRE_SUMIDERO_MS);
+        }
+        if (exportadorIncremental != null) {
+            exportadorIncremental.detener();
+        }
+        if (compactadorHistorial != null) {
+            compactadorHistorial.detener();
+        }
+        if (archivoHistorial != null) {
+            archivoHistorial.cerrar();
+        }
+        synchronized (nodos) {
+            for (NodoRed nodo : nodos) {
+                if (nodo != null) nodo.cerrar();
+            }
+        }
+    }
+}
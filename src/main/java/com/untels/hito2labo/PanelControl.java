@@ -13,6 +13,10 @@ public class PanelControl extends JPanel {
     private JButton btnDetener;
     private JButton btnExportar;
     private JButton btnLedControl;
+    private JButton btnDerivadas;
+    private JButton btnTablero;
+    private JButton btnLatencias;
+    private JButton btnReconectar;
 
     /**
      * Constructor de PanelControl.
@@ -26,6 +30,12 @@ public class PanelControl extends JPanel {
         btnDetener = new JButton("Detener");
         btnExportar = new JButton("Exportar Datos");
         btnLedControl = new JButton("Encender LED");
+        btnDerivadas = new JButton("Métricas Derivadas");
+        btnTablero = new JButton("Tablero");
+        btnLatencias = new JButton("Latencias");
+        btnReconectar = new JButton("Reconectar");
+        /* Se habilita cuando no hay conexión ni un intento en curso */
+        btnReconectar.setEnabled(false);
 
         /*
          * Añadir los botones al panel.
@@ -34,6 +44,10 @@ public class PanelControl extends JPanel {
         add(btnDetener);
         add(btnExportar);
         add(btnLedControl);
+        add(btnDerivadas);
+        add(btnTablero);
+        add(btnLatencias);
+        add(btnReconectar);
     }
 
     /**
@@ -49,5 +63,16 @@ public class PanelControl extends JPanel {
         btnDetener.addActionListener(listener);
         btnExportar.addActionListener(listener);
         btnLedControl.addActionListener(listener);
+        btnDerivadas.addActionListener(listener);
+        btnTablero.addActionListener(listener);
+        btnLatencias.addActionListener(listener);
+        btnReconectar.addActionListener(listener);
+    }
+
+    /**
+     * Habilita o deshabilita el botón de reconexión manual.
+     */
+    public void setReconectarHabilitado(boolean habilitado) {
+        btnReconectar.setEnabled(habilitado);
     }
 }
@@ -72,7 +72,7 @@ public class PanelDatos extends JPanel {
 
     /**
      * Se actualiza los datos de temperatura y humedad mostrados en las etiquetas
-     * y añade una entrada al log con color según los valores.
+     * y añade una entrada al log.
      *
      * @param temperatura El valor de temperatura a mostrar.
      * @param humedad     El valor de humedad a mostrar.
@@ -91,16 +91,7 @@ public class PanelDatos extends JPanel {
         String logEntry = String.format("[%s] Temp: %s°C, Hum: %s%%\n",
                                         timestamp, tempStr, humStr);
 
-        /*
-         * Determinar el color del texto del log según los rangos de valores y añadirlo.
-         */
-        if (temperatura > 30 || humedad > 80) {
-            appendColoredText(logEntry, Color.RED); // Valores altos (Alerta)
-        } else if (temperatura < 10 || humedad < 20) {
-            appendColoredText(logEntry, Color.ORANGE); // Valores bajos (Advertencia)
-        } else {
-            appendColoredText(logEntry, Color.BLUE); // Valores normales
-        }
+        appendColoredText(logEntry, Color.BLUE);
     }
 
     /**
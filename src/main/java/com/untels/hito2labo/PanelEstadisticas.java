@@ -0,0 +1,74 @@
+package com.untels.hito2labo;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GridLayout;
+
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+
+/**
+ * Vista compacta de estadísticas: una fila por canal (temperatura y humedad)
+ * y una columna por ventana (última hora, últimas 24 horas), con la media,
+ * la desviación típica y los percentiles 5/50/95.
+ */
+public class PanelEstadisticas extends JPanel {
+    public static final int FILA_TEMPERATURA = 0;
+    public static final int FILA_HUMEDAD = 1;
+
+    private static final String[] TITULOS_FILAS = {"Temperatura", "Humedad"};
+    private static final String[] UNIDADES = {"°C", "%"};
+    private static final String[] TITULOS_COLUMNAS = {"Última hora", "Últimas 24 h"};
+
+    private final JLabel[][] celdas = new JLabel[TITULOS_FILAS.length][TITULOS_COLUMNAS.length];
+
+    /**
+     * Constructor de PanelEstadisticas.
+     * Crea la rejilla de etiquetas con los títulos de filas y columnas.
+     */
+    public PanelEstadisticas() {
+        setLayout(new GridLayout(TITULOS_FILAS.length + 1, TITULOS_COLUMNAS.length + 1, 10, 2));
+        setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 10));
+
+        Font titulo = new Font("Arial", Font.BOLD, 11);
+        Font valor = new Font("Arial", Font.PLAIN, 11);
+
+        add(new JLabel());
+        for (String columna : TITULOS_COLUMNAS) {
+            JLabel etiqueta = new JLabel(columna);
+            etiqueta.setFont(titulo);
+            add(etiqueta);
+        }
+        for (int fila = 0; fila < TITULOS_FILAS.length; fila++) {
+            JLabel etiqueta = new JLabel(TITULOS_FILAS[fila]);
+            etiqueta.setFont(titulo);
+            add(etiqueta);
+            for (int columna = 0; columna < TITULOS_COLUMNAS.length; columna++) {
+                celdas[fila][columna] = new JLabel("Sin datos");
+                celdas[fila][columna].setFont(valor);
+                celdas[fila][columna].setForeground(Color.DARK_GRAY);
+                add(celdas[fila][columna]);
+            }
+        }
+    }
+
+    /**
+     * Muestra el resumen en la celda indicada; la etiqueta solo se
+     * actualiza si el texto cambia.
+     *
+     * @param fila    FILA_TEMPERATURA o FILA_HUMEDAD.
+     * @param columna EstadisticasStreaming.VENTANA_HORA o VENTANA_DIA.
+     * @param resumen Las estadísticas a mostrar.
+     */
+    public void mostrar(int fila, int columna, ResumenEstadistico resumen) {
+        String texto = resumen.getCantidad() == 0 ? "Sin datos"
+            : String.format("%.1f ± %.1f %s  (p5 %.1f · p50 %.1f · p95 %.1f)",
+                            resumen.getMedia(), resumen.getDesviacion(), UNIDADES[fila],
+                            resumen.getP5(), resumen.getP50(), resumen.getP95());
+        JLabel celda = celdas[fila][columna];
+        if (!texto.equals(celda.getText())) {
+            celda.setText(texto);
+        }
+    }
+}
@@ -3,12 +3,25 @@ package com.untels.hito2labo;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.GridLayout;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import javax.swing.BorderFactory;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTextField;
 import javax.swing.JTextPane;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyleContext;
@@ -16,13 +29,44 @@ import javax.swing.text.StyledDocument;
 
 /**
  * Panel para mostrar un registro de eventos (log) con mensajes de diferentes colores.
+ * Cada mensaje se guarda como un evento estructurado (instante, nivel,
+ * fuente y texto) en un {@link IndiceEventos} acotado, y los controles de la
+ * parte superior filtran por texto, nivel, fuente y periodo sobre el índice.
+ * El área de texto solo contiene las últimas líneas de la vista actual.
  */
 public class PanelLog extends JPanel {
+    /** Fuente de los mensajes que no indican otra */
+    public static final String FUENTE_GENERAL = "monitor";
+
+    private static final int CAPACIDAD_EVENTOS = 200_000;
+    private static final int LINEAS_VISIBLES = 1000;
+    private static final int RETARDO_FILTRO_MS = 150;
+    private static final String TODAS_FUENTES = "Todas las fuentes";
+    private static final String[] PERIODOS = {"Todo", "Última hora", "Últimas 24 h"};
+    private static final long[] DURACION_PERIODOS_MS = {0, 3_600_000L, 86_400_000L};
+
+    private IndiceEventos indice = new IndiceEventos(CAPACIDAD_EVENTOS);
+    private final Set<String> fuentes = new HashSet<>();
+    private final SimpleDateFormat formatoHora = new SimpleDateFormat("HH:mm:ss");
+    private final SimpleDateFormat formatoFechaHora = new SimpleDateFormat("dd/MM HH:mm:ss");
+    private final Date fecha = new Date();
+
     private JTextPane areaLog;
+    private JTextField campoBusqueda;
+    private JComboBox<String> comboNivel;
+    private JComboBox<String> comboFuente;
+    private JComboBox<String> comboPeriodo;
+    private JLabel lblCoincidencias;
+    private Timer temporizadorFiltro;
+
+    /* Consulta activa, o null si se muestran todos los eventos */
+    private IndiceEventos.Consulta consulta;
+    private int coincidencias;
 
     /**
      * Constructor de PanelLog.
-     * Se configura el JTextPane y se añade a un JScrollPane.
+     * Se configura el JTextPane y se añade a un JScrollPane, con los
+     * controles de búsqueda y filtrado encima.
      */
     public PanelLog() {
         setLayout(new BorderLayout());
@@ -43,6 +87,77 @@ public class PanelLog extends JPanel {
          */
         JScrollPane scroll = new JScrollPane(areaLog);
         add(scroll, BorderLayout.CENTER);
+
+        /*
+         * Controles de filtrado: texto a buscar y, debajo, nivel, fuente y
+         * periodo. El texto se aplica con un pequeño retardo para no buscar
+         * en cada pulsación.
+         */
+        temporizadorFiltro = new Timer(RETARDO_FILTRO_MS, e -> aplicarFiltro());
+        temporizadorFiltro.setRepeats(false);
+
+        campoBusqueda = new JTextField();
+        campoBusqueda.setToolTipText("Buscar palabras en los mensajes");
+        campoBusqueda.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                temporizadorFiltro.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                temporizadorFiltro.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                temporizadorFiltro.restart();
+            }
+        });
+
+        comboNivel = new JComboBox<>();
+        comboNivel.addItem("Todos los niveles");
+        for (String nivel : EventoLog.NOMBRES_NIVEL) {
+            comboNivel.addItem(nivel);
+        }
+        comboFuente = new JComboBox<>(new String[]{TODAS_FUENTES});
+        comboPeriodo = new JComboBox<>(PERIODOS);
+        comboNivel.addActionListener(e -> aplicarFiltro());
+        comboFuente.addActionListener(e -> aplicarFiltro());
+        comboPeriodo.addActionListener(e -> aplicarFiltro());
+
+        JPanel combos = new JPanel(new GridLayout(1, 3, 2, 0));
+        combos.add(comboNivel);
+        combos.add(comboFuente);
+        combos.add(comboPeriodo);
+
+        lblCoincidencias = new JLabel(" ");
+        lblCoincidencias.setFont(new Font("Arial", Font.PLAIN, 11));
+
+        JPanel filtros = new JPanel(new BorderLayout(0, 2));
+        filtros.setBorder(BorderFactory.createEmptyBorder(0, 0, 4, 0));
+        filtros.add(campoBusqueda, BorderLayout.NORTH);
+        filtros.add(combos, BorderLayout.CENTER);
+        filtros.add(lblCoincidencias, BorderLayout.SOUTH);
+        add(filtros, BorderLayout.NORTH);
+    }
+
+    /**
+     * Cambia el número máximo de eventos guardados (por defecto 200 000),
+     * conservando los más recientes.
+     *
+     * @param capacidad El nuevo máximo.
+     */
+    public void setCapacidad(int capacidad) {
+        capacidad = Math.max(LINEAS_VISIBLES, capacidad);
+        IndiceEventos nuevo = new IndiceEventos(capacidad);
+        IndiceEventos.Resultado actuales =
+            indice.buscar(new IndiceEventos.Consulta("", -1, null, Long.MIN_VALUE), capacidad);
+        for (EventoLog evento : actuales.eventos) {
+            nuevo.agregar(evento.getTiempoMs(), evento.getNivel(), evento.getFuente(),
+                          evento.getMensaje(), evento.getColor());
+        }
+        indice = nuevo;
     }
 
     /**
@@ -53,18 +168,35 @@ public class PanelLog extends JPanel {
      * @param color   El color del texto del mensaje.
      */
     public void appendMensaje(String mensaje, Color color) {
-        try {
-            StyledDocument doc = areaLog.getStyledDocument();
-            StyleContext sc = StyleContext.getDefaultStyleContext();
-            AttributeSet aset = sc.addAttribute(SimpleAttributeSet.EMPTY,
-                                             StyleConstants.Foreground, color);
-            String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
-            doc.insertString(doc.getLength(), "[" + timestamp + "] " + mensaje + "\n", aset);
-            // Desplaza automáticamente al final del log
-            areaLog.setCaretPosition(doc.getLength());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        appendMensaje(FUENTE_GENERAL, mensaje, color);
+    }
+
+    /**
+     * Añade un mensaje de una fuente concreta. El nivel se deduce del color:
+     * rojo es un error, naranja un aviso y el resto información.
+     *
+     * @param fuente  La fuente del evento (enlace, datos, alertas...).
+     * @param mensaje El mensaje a añadir.
+     * @param color   El color del texto del mensaje.
+     */
+    public void appendMensaje(String fuente, String mensaje, Color color) {
+        appendMensaje(fuente, mensaje, color, System.currentTimeMillis());
+    }
+
+    /**
+     * Añade un mensaje con una marca de tiempo dada, por ejemplo la de
+     * llegada de la trama que describe en lugar de la de su visualización.
+     *
+     * @param fuente   La fuente del evento.
+     * @param mensaje  El mensaje a añadir.
+     * @param color    El color del texto del mensaje.
+     * @param tiempoMs Instante del evento (milisegundos desde la época).
+     */
+    public void appendMensaje(String fuente, String mensaje, Color color, long tiempoMs) {
+        int nivel = Color.RED.equals(color) ? EventoLog.NIVEL_ERROR
+            : Color.ORANGE.equals(color) ? EventoLog.NIVEL_AVISO
+            : EventoLog.NIVEL_INFO;
+        registrar(tiempoMs, nivel, fuente, mensaje, color);
     }
 
     /**
@@ -73,6 +205,99 @@ public class PanelLog extends JPanel {
      * @param mensaje El mensaje de error a añadir.
      */
     public void appendError(String mensaje) {
-        appendMensaje("ERROR: " + mensaje, Color.RED);
+        appendError(FUENTE_GENERAL, mensaje);
+    }
+
+    /**
+     * Añade un mensaje de error de una fuente concreta.
+     *
+     * @param fuente  La fuente del evento.
+     * @param mensaje El mensaje de error a añadir.
+     */
+    public void appendError(String fuente, String mensaje) {
+        registrar(System.currentTimeMillis(), EventoLog.NIVEL_ERROR, fuente, mensaje, Color.RED);
+    }
+
+    private void registrar(long tiempoMs, int nivel, String fuente, String mensaje, Color color) {
+        EventoLog evento = indice.agregar(tiempoMs, nivel, fuente, mensaje, color);
+        if (fuentes.add(fuente)) {
+            comboFuente.addItem(fuente);
+        }
+        if (consulta == null || consulta.coincide(evento)) {
+            coincidencias++;
+            StyledDocument doc = areaLog.getStyledDocument();
+            escribir(doc, evento, consulta != null);
+            recortar(doc);
+            // Desplaza automáticamente al final del log
+            areaLog.setCaretPosition(doc.getLength());
+            if (consulta != null) {
+                actualizarCoincidencias();
+            }
+        }
+    }
+
+    /*
+     * Vuelve a llenar el área con los últimos eventos que cumplen los filtros.
+     */
+    private void aplicarFiltro() {
+        int nivel = comboNivel.getSelectedIndex() - 1;
+        String fuente = comboFuente.getSelectedIndex() <= 0 ? null : (String) comboFuente.getSelectedItem();
+        int periodo = comboPeriodo.getSelectedIndex();
+        long desdeMs = periodo <= 0 ? Long.MIN_VALUE : System.currentTimeMillis() - DURACION_PERIODOS_MS[periodo];
+        IndiceEventos.Consulta nueva = new IndiceEventos.Consulta(campoBusqueda.getText(), nivel, fuente, desdeMs);
+        consulta = nueva.esVacia() ? null : nueva;
+
+        IndiceEventos.Resultado resultado = indice.buscar(nueva, LINEAS_VISIBLES);
+        coincidencias = resultado.coincidencias;
+        StyledDocument doc = new DefaultStyledDocument();
+        for (EventoLog evento : resultado.eventos) {
+            escribir(doc, evento, consulta != null);
+        }
+        areaLog.setDocument(doc);
+        areaLog.setCaretPosition(doc.getLength());
+        if (consulta == null) {
+            lblCoincidencias.setText(" ");
+        } else {
+            actualizarCoincidencias();
+        }
+    }
+
+    private void actualizarCoincidencias() {
+        lblCoincidencias.setText(coincidencias + (coincidencias == 1 ? " coincidencia" : " coincidencias")
+            + " de " + indice.getCantidad() + " eventos");
+    }
+
+    /*
+     * Los resultados de una búsqueda pueden ser de otros días, así que
+     * llevan la fecha además de la hora.
+     */
+    private void escribir(StyledDocument doc, EventoLog evento, boolean conFecha) {
+        try {
+            StyleContext sc = StyleContext.getDefaultStyleContext();
+            AttributeSet aset = sc.addAttribute(SimpleAttributeSet.EMPTY,
+                                             StyleConstants.Foreground, evento.getColor());
+            fecha.setTime(evento.getTiempoMs());
+            String timestamp = (conFecha ? formatoFechaHora : formatoHora).format(fecha);
+            String prefijo = evento.getNivel() == EventoLog.NIVEL_ERROR ? "ERROR: " : "";
+            doc.insertString(doc.getLength(), "[" + timestamp + "] " + prefijo + evento.getMensaje() + "\n", aset);
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Quita las líneas más antiguas del área para que no crezca sin límite;
+     * los eventos siguen en el índice.
+     */
+    private void recortar(StyledDocument doc) {
+        Element raiz = doc.getDefaultRootElement();
+        /* La última línea está vacía (después del salto final) */
+        int sobrantes = raiz.getElementCount() - 1 - LINEAS_VISIBLES;
+        if (sobrantes <= 0) return;
+        try {
+            doc.remove(0, raiz.getElement(sobrantes - 1).getEndOffset());
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
     }
 }
@@ -0,0 +1,332 @@
+package com.untels.hito2labo;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Insets;
+import java.awt.RenderingHints;
+import javax.swing.JPanel;
+
+/**
+ * Indicador de una magnitud (temperatura, humedad...) dibujado a mano.
+ * Muestra el valor, la unidad, el estado de alerta y, opcionalmente, una
+ * pequeña gráfica (sparkline) con el historial reciente del canal, leído
+ * del AlmacenMuestras.
+ * El texto de cada valor posible (pasos de 0.1 dentro del rango del sensor)
+ * se genera una sola vez; si el valor mostrado no cambia no se repinta, y
+ * si cambia solo se repinta la franja afectada.
+ */
+public class PanelMetrica extends JPanel {
+    private static final Font FUENTE_VALOR = new Font("Arial", Font.BOLD, 48);
+    private static final Font FUENTE_UNIDAD = new Font("Arial", Font.PLAIN, 24);
+    private static final Font FUENTE_ESTADO = new Font("Arial", Font.PLAIN, 14);
+    private static final int ALTO_SPARKLINE = 40;
+    private static final int SIN_VALOR = Integer.MIN_VALUE;
+
+    private final String unidad;
+    private final String textoAlto;
+    private final String textoBajo;
+
+    /*
+     * Caché de textos: textos[d - minimoDecimas] es el texto de d décimas.
+     */
+    private final int minimoDecimas;
+    private final String[] textos;
+
+    private AlmacenMuestras almacen;
+    private int canal;
+    private float[] recientes = new float[0];
+    private float ultimoValor;
+    private int decimasMostradas = SIN_VALOR;
+    private int severidadAlerta = ReglaAlerta.SEVERIDAD_NINGUNA;
+    private boolean alertaPorEncima = true;
+    private boolean sparkline = true;
+
+    /* Traza de latencia: llegada de la muestra pendiente de pintar */
+    private TrazaLatencia trazaLatencia;
+    private long llegadaPendiente;
+    private long actualizacionPendiente;
+
+    /**
+     * Constructor de PanelMetrica.
+     *
+     * @param unidad     Texto de la unidad (p. ej. "°C").
+     * @param textoAlto  Texto de estado de una alerta por encima del umbral.
+     * @param textoBajo  Texto de estado de una alerta por debajo del umbral.
+     * @param minimo     Valor mínimo que puede entregar el sensor.
+     * @param maximo     Valor máximo que puede entregar el sensor.
+     */
+    public PanelMetrica(String unidad, String textoAlto, String textoBajo, float minimo, float maximo) {
+        this.unidad = unidad;
+        this.textoAlto = textoAlto;
+        this.textoBajo = textoBajo;
+        this.minimoDecimas = Math.round(minimo * 10);
+        this.textos = new String[Math.round(maximo * 10) - minimoDecimas + 1];
+
+        setBackground(Color.WHITE);
+        setOpaque(true);
+        setPreferredSize(new Dimension(200, 200));
+    }
+
+    /**
+     * Indica de dónde se lee el historial del canal para la gráfica.
+     *
+     * @param almacen El historial de muestras.
+     * @param canal   El identificador del canal mostrado.
+     */
+    public void setFuente(AlmacenMuestras almacen, int canal) {
+        this.almacen = almacen;
+        this.canal = canal;
+    }
+
+    /**
+     * Muestra u oculta la gráfica del historial reciente.
+     */
+    public void setSparkline(boolean sparkline) {
+        this.sparkline = sparkline;
+        repaint();
+    }
+
+    /**
+     * Actualiza el indicador con una nueva muestra (ya guardada en el historial).
+     * El color y el estado dependen de la alerta establecida por el motor
+     * de reglas.
+     *
+     * @param valor El valor filtrado a mostrar.
+     */
+    public void actualizarDatos(float valor) {
+        actualizar(valor);
+    }
+
+    /**
+     * Como {@link #actualizarDatos(float)}, anotando cuándo llegaron los
+     * bytes de la muestra: si se pide un repintado, al pintarse se registran
+     * en la traza la latencia de repintado y la total.
+     *
+     * @param valor        El valor filtrado a mostrar.
+     * @param llegadaNanos Instante (System.nanoTime) de llegada de la trama.
+     */
+    public void actualizarDatos(float valor, long llegadaNanos) {
+        if (actualizar(valor) && trazaLatencia != null && llegadaPendiente == 0) {
+            /* Si ya había un repintado pendiente, cuenta la muestra más antigua */
+            llegadaPendiente = llegadaNanos;
+            actualizacionPendiente = System.nanoTime();
+        }
+    }
+
+    /*
+     * Devuelve true si se pidió algún repintado.
+     */
+    private boolean actualizar(float valor) {
+        this.ultimoValor = valor;
+
+        int decimas = Math.round(valor * 10);
+        boolean repintar = false;
+        if (decimas != decimasMostradas) {
+            boolean primera = decimasMostradas == SIN_VALOR;
+            decimasMostradas = decimas;
+            if (primera) {
+                /* La primera muestra cambia también el estado ("Sin datos") */
+                repaint();
+                return true;
+            }
+            repintarFila(0);
+            repintar = true;
+        }
+        if (sparkline) {
+            repintarFila(3);
+            repintar = true;
+        }
+        return repintar;
+    }
+
+    /**
+     * Indica dónde registrar la latencia hasta pantalla de las muestras de
+     * este panel (null para no registrarla).
+     */
+    public void setTrazaLatencia(TrazaLatencia traza) {
+        this.trazaLatencia = traza;
+        llegadaPendiente = 0;
+    }
+
+    /**
+     * Establece la alerta del canal, según las reglas activas: el color
+     * sale de la severidad y el texto del sentido.
+     *
+     * @param severidad Una de las severidades definidas en ReglaAlerta.
+     * @param porEncima True si el valor está por encima del umbral.
+     */
+    public void setAlerta(int severidad, boolean porEncima) {
+        if (severidad == severidadAlerta && porEncima == alertaPorEncima) return;
+        this.severidadAlerta = severidad;
+        this.alertaPorEncima = porEncima;
+        if (decimasMostradas != SIN_VALOR) {
+            repintarFila(0);
+            repintarFila(2);
+        }
+    }
+
+    /*
+     * Repinta solo la franja indicada: 0 valor, 1 unidad, 2 estado, 3 sparkline.
+     */
+    private void repintarFila(int fila) {
+        Insets in = getInsets();
+        int ancho = getWidth() - in.left - in.right;
+        int alto = getHeight() - in.top - in.bottom;
+        if (fila == 3) {
+            repaint(in.left, in.top + alto - ALTO_SPARKLINE, ancho, ALTO_SPARKLINE);
+            return;
+        }
+        int altoFila = altoFilas(alto) / 3;
+        repaint(in.left, in.top + fila * altoFila, ancho, altoFila);
+    }
+
+    private int altoFilas(int alto) {
+        return sparkline ? alto - ALTO_SPARKLINE : alto;
+    }
+
+    /*
+     * Texto de un valor en décimas, tomado de la caché (se crea la primera vez).
+     */
+    private String texto(int decimas) {
+        int i = decimas - minimoDecimas;
+        if (i < 0 || i >= textos.length) {
+            return formatear(decimas);
+        }
+        String t = textos[i];
+        if (t == null) {
+            t = formatear(decimas);
+            textos[i] = t;
+        }
+        return t;
+    }
+
+    private static String formatear(int decimas) {
+        return (decimas < 0 ? "-" : "") + (Math.abs(decimas) / 10) + "." + (Math.abs(decimas) % 10);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                            RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        Insets in = getInsets();
+        int ancho = getWidth() - in.left - in.right;
+        int alto = getHeight() - in.top - in.bottom;
+        int altoFila = altoFilas(alto) / 3;
+
+        /*
+         * Color del valor y del estado según la severidad de la alerta;
+         * el texto del estado según su sentido.
+         */
+        boolean conDatos = decimasMostradas != SIN_VALOR;
+        Color colorValor = Color.BLACK;
+        String estado = "Sin datos";
+        Color colorEstado = Color.GRAY;
+        if (conDatos) {
+            if (severidadAlerta != ReglaAlerta.SEVERIDAD_NINGUNA) {
+                colorValor = severidadAlerta == ReglaAlerta.SEVERIDAD_ALARMA ? Color.RED : Color.ORANGE;
+                estado = alertaPorEncima ? textoAlto : textoBajo;
+                colorEstado = colorValor;
+            } else {
+                estado = "NORMAL";
+                colorEstado = Color.DARK_GRAY;
+            }
+        }
+
+        dibujarCentrado(g2, conDatos ? texto(decimasMostradas) : "--", FUENTE_VALOR,
+                        colorValor, in.left, in.top, ancho, altoFila);
+        dibujarCentrado(g2, unidad, FUENTE_UNIDAD, Color.BLACK,
+                        in.left, in.top + altoFila, ancho, altoFila);
+        dibujarCentrado(g2, estado, FUENTE_ESTADO, colorEstado,
+                        in.left, in.top + 2 * altoFila, ancho, altoFila);
+
+        if (sparkline) {
+            dibujarSparkline(g2, in.left + 10, in.top + alto - ALTO_SPARKLINE + 5,
+                             ancho - 20, ALTO_SPARKLINE - 10);
+        }
+
+        if (llegadaPendiente != 0) {
+            long ahora = System.nanoTime();
+            trazaLatencia.registrar(TrazaLatencia.REPINTADO, ahora - actualizacionPendiente);
+            trazaLatencia.registrar(TrazaLatencia.TOTAL, ahora - llegadaPendiente);
+            llegadaPendiente = 0;
+        }
+    }
+
+    private void dibujarCentrado(Graphics2D g, String texto, Font fuente, Color color,
+                                 int x, int y, int ancho, int alto) {
+        g.setFont(fuente);
+        g.setColor(color);
+        FontMetrics fm = g.getFontMetrics();
+        int tx = x + (ancho - fm.stringWidth(texto)) / 2;
+        int ty = y + (alto - fm.getHeight()) / 2 + fm.getAscent();
+        g.drawString(texto, tx, ty);
+    }
+
+    /*
+     * Dibuja los últimos valores del historial (uno por píxel de ancho),
+     * escalados entre su mínimo y su máximo. Los huecos (NaN) cortan la línea.
+     */
+    private void dibujarSparkline(Graphics2D g, int x, int y, int ancho, int alto) {
+        if (almacen == null || ancho < 2 || alto <= 0) return;
+        if (recientes.length != ancho) {
+            recientes = new float[ancho];
+        }
+        int n = almacen.copiarUltimos(canal, recientes);
+        if (n < 2) return;
+
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            float v = recientes[i];
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+        if (min > max) return;
+        float rango = max - min;
+        if (rango == 0) rango = 1;
+
+        g.setColor(Color.LIGHT_GRAY);
+        int base = x + ancho - n;
+        for (int i = 1; i < n; i++) {
+            float v0 = recientes[i - 1];
+            float v1 = recientes[i];
+            if (Float.isNaN(v0) || Float.isNaN(v1)) continue;
+            g.drawLine(base + i - 1, y + (int) (alto * (1 - (v0 - min) / rango)),
+                       base + i, y + (int) (alto * (1 - (v1 - min) / rango)));
+        }
+    }
+
+    /**
+     * Obtiene el último valor registrado.
+     *
+     * @return El último valor.
+     */
+    public float getUltimoValor() {
+        return ultimoValor;
+    }
+
+    /**
+     * Indica si el panel muestra algún valor (false mientras dice "Sin datos").
+     */
+    public boolean tieneValor() {
+        return decimasMostradas != SIN_VALOR;
+    }
+
+    /**
+     * Restablece el indicador a su estado inicial (el historial se conserva).
+     */
+    public void reset() {
+        severidadAlerta = ReglaAlerta.SEVERIDAD_NINGUNA;
+        alertaPorEncima = true;
+        decimasMostradas = SIN_VALOR;
+        llegadaPendiente = 0;
+        repaint();
+    }
+}
@@ -0,0 +1,161 @@
+package com.untels.hito2labo;
+
+/**
+ * Analizador de tramas "CLAVE:valor,CLAVE:valor,..." con cualquier número de canales.
+ * Las claves se resuelven a identificadores con el RegistroCanales y los
+ * valores se convierten directamente desde los caracteres; el resultado se
+ * deja en arreglos reutilizados, por lo que analizar una trama no crea objetos
+ * (salvo la primera aparición de un canal nuevo).
+ * Las claves que no se pueden registrar (registro lleno o agotadas las
+ * altas permitidas a esta fuente) se ignoran y se cuentan; una trama sin
+ * ninguna clave válida está mal formada.
+ * Una instancia no es segura entre hilos.
+ */
+public class ParserTramas {
+    private final RegistroCanales registro;
+    private final int[] canales = new int[RegistroCanales.MAX_CANALES];
+    private final float[] valores = new float[RegistroCanales.MAX_CANALES];
+    private int cantidad;
+    private int altasPermitidas = Integer.MAX_VALUE;
+    private long clavesIgnoradas;
+
+    public ParserTramas(RegistroCanales registro) {
+        this.registro = registro;
+    }
+
+    /**
+     * Analiza una trama completa (sin el terminador ';').
+     *
+     * @param trama La trama recibida.
+     * @return El número de canales leídos, o -1 si la trama está mal formada.
+     */
+    public int parsear(CharSequence trama) {
+        cantidad = 0;
+        int longitud = trama.length();
+        int inicio = 0;
+        while (inicio < longitud) {
+            int fin = inicio;
+            while (fin < longitud && trama.charAt(fin) != ',') fin++;
+
+            int dosPuntos = inicio;
+            while (dosPuntos < fin && trama.charAt(dosPuntos) != ':') dosPuntos++;
+            int claveInicio = saltarEspacios(trama, inicio, dosPuntos);
+            int claveFin = recortarEspacios(trama, claveInicio, dosPuntos);
+            if (dosPuntos == fin || claveInicio == claveFin || cantidad == canales.length) {
+                return -1;
+            }
+
+            float valor = parsearDecimal(trama, dosPuntos + 1, fin);
+            if (Float.isNaN(valor)) {
+                return -1;
+            }
+
+            int canal = registro.buscar(trama, claveInicio, claveFin);
+            if (canal < 0 && altasPermitidas > 0) {
+                canal = registro.resolver(trama, claveInicio, claveFin);
+                if (canal >= 0) altasPermitidas--;
+            }
+            if (canal >= 0) {
+                canales[cantidad] = canal;
+                valores[cantidad] = valor;
+                cantidad++;
+            } else {
+                clavesIgnoradas++;
+            }
+            inicio = fin + 1;
+        }
+        return cantidad > 0 ? cantidad : -1;
+    }
+
+    /**
+     * Limita los canales nuevos que pueden dar de alta las tramas de esta
+     * fuente; las claves desconocidas que lleguen después se ignoran.
+     * Por defecto no hay límite (salvo el del registro).
+     */
+    public void setAltasPermitidas(int altasPermitidas) {
+        this.altasPermitidas = Math.max(0, altasPermitidas);
+    }
+
+    /**
+     * Claves ignoradas desde que se creó, por no poder registrarse.
+     */
+    public long getClavesIgnoradas() {
+        return clavesIgnoradas;
+    }
+
+    public int getCantidad() {
+        return cantidad;
+    }
+
+    public int getCanal(int i) {
+        return canales[i];
+    }
+
+    public float getValor(int i) {
+        return valores[i];
+    }
+
+    /**
+     * Valor del canal en la última trama analizada, o NaN si no venía.
+     */
+    public float getValorDeCanal(int canal) {
+        for (int i = 0; i < cantidad; i++) {
+            if (canales[i] == canal) return valores[i];
+        }
+        return Float.NaN;
+    }
+
+    /*
+     * Convierte texto[inicio, fin) en un número decimal ("-12.5").
+     * Devuelve NaN si el texto no es un número.
+     */
+    static float parsearDecimal(CharSequence texto, int inicio, int fin) {
+        inicio = saltarEspacios(texto, inicio, fin);
+        fin = recortarEspacios(texto, inicio, fin);
+        if (inicio == fin) return Float.NaN;
+
+        boolean negativo = false;
+        char c = texto.charAt(inicio);
+        if (c == '-' || c == '+') {
+            negativo = c == '-';
+            inicio++;
+        }
+        long mantisa = 0;
+        int decimales = 0;
+        boolean punto = false;
+        boolean digitos = false;
+        for (int i = inicio; i < fin; i++) {
+            c = texto.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (mantisa < 100_000_000_000L) {
+                    mantisa = mantisa * 10 + (c - '0');
+                    if (punto) decimales++;
+                } else if (!punto) {
+                    return Float.NaN;
+                }
+                digitos = true;
+            } else if (c == '.' && !punto) {
+                punto = true;
+            } else {
+                return Float.NaN;
+            }
+        }
+        if (!digitos) return Float.NaN;
+
+        double valor = mantisa;
+        for (int i = 0; i < decimales; i++) {
+            valor /= 10;
+        }
+        return (float) (negativo ? -valor : valor);
+    }
+
+    private static int saltarEspacios(CharSequence texto, int inicio, int fin) {
+        while (inicio < fin && texto.charAt(inicio) <= ' ') inicio++;
+        return inicio;
+    }
+
+    private static int recortarEspacios(CharSequence texto, int inicio, int fin) {
+        while (fin > inicio && texto.charAt(fin - 1) <= ' ') fin--;
+        return fin;
+    }
+}
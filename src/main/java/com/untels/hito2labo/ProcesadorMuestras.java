@@ -0,0 +1,333 @@
+package com.untels.hito2labo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Camino de cada trama desde el texto hasta el historial, sin interfaz:
+ * parseo, contabilidad del enlace, salud del sensor, filtrado, reglas de
+ * alerta, estadísticas continuas, almacenamiento (en memoria y en disco) y
+ * publicación en los sumideros. Lo usa {@link NucleoMonitor} (el
+ * Controlador, el demonio y la prueba de resistencia) en su hilo de
+ * entrega, con una instancia para el puerto serial y otra por cada placa
+ * de red ({@link NodoRed}), y {@link PruebaAsignaciones} sin ventana.
+ * No crea objetos por trama: la fila se arma en arreglos reutilizados que
+ * se pueden consultar hasta la siguiente llamada.
+ */
+public class ProcesadorMuestras {
+    /** Resultado de {@link #procesar}: la placa informó un error del sensor */
+    public static final int ERROR_SENSOR = -1;
+    /** Resultado de {@link #procesar}: la trama no se pudo interpretar */
+    public static final int TRAMA_INVALIDA = -2;
+
+    private final RegistroCanales registroCanales;
+    private final ParserTramas parser;
+    private final AlmacenMuestras almacen;
+    private final MotorReglas motorReglas;
+    private final EstadisticasEnlace estadisticasEnlace;
+    private final ArchivoHistorial archivoHistorial;
+    private final EstadisticasStreaming estadisticas;
+    private MonitorSalud monitorSalud;
+    private DistribuidorSumideros sumideros;
+    private String dispositivo;
+
+    private final FiltroSenal[] filtros = new FiltroSenal[RegistroCanales.MAX_CANALES];
+    private final List<String> erroresConfiguracion = new ArrayList<>();
+    private final int[] filaCanales = new int[RegistroCanales.MAX_CANALES];
+    private final float[] filaCruda = new float[RegistroCanales.MAX_CANALES];
+    private final float[] filaFiltrada = new float[RegistroCanales.MAX_CANALES];
+    private final StringBuilder descripcion = new StringBuilder(64);
+    private int columnas;
+    private int perdidas;
+    private long ultimoTiempoFila;
+
+    /**
+     * @param configuracion      Configuración (claves filtro.*).
+     * @param registroCanales    Registro de canales compartido.
+     * @param almacen            Historial en memoria.
+     * @param motorReglas        Reglas de alerta a evaluar.
+     * @param estadisticasEnlace Contabilidad del enlace con el dispositivo.
+     * @param archivoHistorial   Historial en disco, o null si no se persiste.
+     * @param estadisticas       Estadísticas continuas por canal.
+     */
+    public ProcesadorMuestras(Configuracion configuracion, RegistroCanales registroCanales,
+                              AlmacenMuestras almacen, MotorReglas motorReglas,
+                              EstadisticasEnlace estadisticasEnlace, ArchivoHistorial archivoHistorial,
+                              EstadisticasStreaming estadisticas) {
+        this.registroCanales = registroCanales;
+        this.parser = new ParserTramas(registroCanales);
+        this.almacen = almacen;
+        this.motorReglas = motorReglas;
+        this.estadisticasEnlace = estadisticasEnlace;
+        this.archivoHistorial = archivoHistorial;
+        this.estadisticas = estadisticas;
+        configurarFiltros(configuracion);
+    }
+
+    /*
+     * Filtros de las claves filtro.<canal>, creados al arrancar: una
+     * especificación inválida se anota como error de configuración y su
+     * canal se queda con el filtro por defecto, en lugar de fallar en cada
+     * trama.
+     */
+    private void configurarFiltros(Configuracion configuracion) {
+        for (String clave : configuracion.getClaves("filtro.")) {
+            String especificacion = configuracion.getTexto(clave, "");
+            try {
+                FiltroSenal filtro = FiltroSenal.crear(especificacion);
+                filtros[registroCanales.resolverNombre(clave.substring("filtro.".length()))] = filtro;
+            } catch (RuntimeException e) {
+                erroresConfiguracion.add(clave + ": " + e.getMessage() + "; se usa el filtro por defecto");
+            }
+        }
+    }
+
+    /**
+     * Procesa una trama y guarda su fila en el historial. La contabilidad
+     * del enlace se lleva siempre, en la del dispositivo de este
+     * procesador; la salud del sensor, solo para el puerto serial.
+     *
+     * @param data         La trama sin el terminador.
+     * @param llegadaNanos Instante (System.nanoTime) de llegada de la trama.
+     * @param serial       True si la trama viene del puerto serial.
+     * @return Número de canales de la fila guardada, o {@link #ERROR_SENSOR}
+     *         o {@link #TRAMA_INVALIDA}.
+     */
+    public int procesar(String data, long llegadaNanos, boolean serial) {
+        long inicioNanos = System.nanoTime();
+        columnas = 0;
+        perdidas = 0;
+        EventosJfr.Parseo parseo = EventosJfr.iniciarParseo();
+
+        /*
+         * Verificación de mensajes de error del sensor.
+         */
+        if (data.equals("ERROR")) {
+            registrarParseo(parseo, data, serial, ERROR_SENSOR);
+            estadisticasEnlace.registrarErrorSensor(llegadaNanos);
+            if (serial && monitorSalud != null) monitorSalud.registrarError(System.currentTimeMillis());
+            return ERROR_SENSOR;
+        }
+
+        /*
+         * Parseo de la trama "CLAVE:valor,..."; las claves se resuelven a
+         * identificadores de canal sin búsquedas por nombre.
+         */
+        int n = parser.parsear(data);
+        registrarParseo(parseo, data, serial, n < 0 ? TRAMA_INVALIDA : n);
+        if (n < 0) {
+            estadisticasEnlace.registrarErrorParseo(llegadaNanos);
+            if (serial && monitorSalud != null) monitorSalud.registrarError(System.currentTimeMillis());
+            return TRAMA_INVALIDA;
+        }
+
+        /*
+         * Contabilidad del enlace: con número de secuencia (canal SEQ) las
+         * pérdidas son exactas; sin él se estiman por la cadencia.
+         */
+        float secuencia = parser.getValorDeCanal(RegistroCanales.SECUENCIA);
+        perdidas = estadisticasEnlace.registrarMuestra(
+            llegadaNanos, Float.isNaN(secuencia) ? -1 : (int) secuencia);
+
+        /*
+         * Filtrado y evaluación de reglas por canal; la fila se guarda en el
+         * historial con los valores crudos y los filtrados, marcando el hueco
+         * si lo hubo. Su instante es el de llegada de la trama, no el de
+         * este paso por el hilo de eventos (sin retroceder respecto a la
+         * fila anterior, que el historial se busca por tiempo).
+         */
+        long ahora = Math.max(ultimoTiempoFila,
+            System.currentTimeMillis() - (inicioNanos - llegadaNanos) / 1_000_000);
+        ultimoTiempoFila = ahora;
+        for (int i = 0; i < n; i++) {
+            int canal = parser.getCanal(i);
+            if (canal == RegistroCanales.SECUENCIA) continue;
+            float crudo = parser.getValor(i);
+            float filtrado = filtroPara(canal).filtrar(crudo);
+            filaCanales[columnas] = canal;
+            filaCruda[columnas] = crudo;
+            filaFiltrada[columnas] = filtrado;
+            columnas++;
+            motorReglas.evaluar(canal, filtrado, ahora);
+            estadisticas.agregar(canal, ahora, filtrado);
+        }
+        if (serial && monitorSalud != null) {
+            monitorSalud.registrarMuestra(filaCanales, filaCruda, columnas, ahora);
+        }
+        almacen.agregar(ahora, filaCanales, filaCruda, filaFiltrada, columnas, perdidas);
+        if (archivoHistorial != null) {
+            archivoHistorial.agregar(ahora, filaCanales, filaCruda, filaFiltrada, columnas, perdidas);
+        }
+        if (sumideros != null) {
+            sumideros.publicarMuestra(ahora, filaCanales, filaCruda, filaFiltrada, columnas, perdidas, dispositivo);
+        }
+        return columnas;
+    }
+
+    /*
+     * Evento JFR del parseo: su duración va hasta aquí, sin el filtrado ni
+     * el almacenamiento.
+     */
+    private static void registrarParseo(EventosJfr.Parseo parseo, String data, boolean serial, int resultado) {
+        if (parseo == null || !parseo.shouldCommit()) return;
+        parseo.serial = serial;
+        parseo.bytes = data.length();
+        parseo.correcta = resultado >= 0;
+        parseo.errorSensor = resultado == ERROR_SENSOR;
+        parseo.canales = Math.max(0, resultado);
+        parseo.commit();
+    }
+
+    /**
+     * Fija el monitor de salud del sensor, alimentado con las tramas del
+     * puerto serial (o null para no vigilarlo).
+     */
+    public void setMonitorSalud(MonitorSalud monitorSalud) {
+        this.monitorSalud = monitorSalud;
+    }
+
+    /**
+     * Fija los sumideros que reciben cada fila guardada (o null para ninguno).
+     */
+    public void setSumideros(DistribuidorSumideros sumideros) {
+        this.sumideros = sumideros;
+    }
+
+    /**
+     * Fija el dispositivo con el que se publican las filas en los sumideros
+     * (null, por defecto, para el puerto serial).
+     */
+    public void setDispositivo(String dispositivo) {
+        this.dispositivo = dispositivo;
+    }
+
+    /**
+     * Limita los canales nuevos que pueden dar de alta las tramas de este
+     * procesador (ver {@link ParserTramas#setAltasPermitidas}).
+     */
+    public void setAltasPermitidas(int altasPermitidas) {
+        parser.setAltasPermitidas(altasPermitidas);
+    }
+
+    /**
+     * Claves de las tramas ignoradas por no poder registrarse como canales.
+     */
+    public long getClavesIgnoradas() {
+        return parser.getClavesIgnoradas();
+    }
+
+    /**
+     * Errores de las claves filtro.* encontrados al crearlo, uno por clave.
+     */
+    public List<String> getErroresConfiguracion() {
+        return erroresConfiguracion;
+    }
+
+    /**
+     * Muestras perdidas antes de la última trama procesada.
+     */
+    public int getPerdidas() {
+        return perdidas;
+    }
+
+    /**
+     * Instante asignado a la última fila guardada.
+     */
+    public long getTiempoFila() {
+        return ultimoTiempoFila;
+    }
+
+    /**
+     * Número de columnas de la última fila guardada; sus canales y valores
+     * están en los arreglos de {@link #getFilaCanales}, {@link #getFilaCruda}
+     * y {@link #getFilaFiltrada}, válidos hasta la siguiente trama.
+     */
+    public int getColumnas() {
+        return columnas;
+    }
+
+    public int[] getFilaCanales() {
+        return filaCanales;
+    }
+
+    public float[] getFilaCruda() {
+        return filaCruda;
+    }
+
+    public float[] getFilaFiltrada() {
+        return filaFiltrada;
+    }
+
+    /**
+     * Valor filtrado del canal en la última fila, o NaN si no venía.
+     */
+    public float getValorFiltrado(int canal) {
+        for (int i = 0; i < columnas; i++) {
+            if (filaCanales[i] == canal) return filaFiltrada[i];
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Reinicia el estado de los filtros (tras una desconexión).
+     */
+    public void reiniciarFiltros() {
+        for (FiltroSenal filtro : filtros) {
+            if (filtro != null) filtro.reset();
+        }
+    }
+
+    /*
+     * Filtro del canal: el de la configuración o, si no tiene clave
+     * filtro.<nombre> válida, el filtro por defecto, creado la primera vez
+     * que aparece el canal.
+     */
+    private FiltroSenal filtroPara(int canal) {
+        FiltroSenal filtro = filtros[canal];
+        if (filtro == null) {
+            filtro = FiltroSenal.crear(canal == RegistroCanales.TEMPERATURA ? "picos:5+mediana:3"
+                : canal == RegistroCanales.HUMEDAD ? "picos:10+mediana:3"
+                : "ninguno");
+            filtros[canal] = filtro;
+        }
+        return filtro;
+    }
+
+    /**
+     * Texto de la última fila para el registro: temperatura y humedad con un
+     * decimal y el resto de canales como "CLAVE valor". Se arma en un
+     * StringBuilder reutilizado: solo se crea el texto devuelto.
+     */
+    public String describirFila() {
+        StringBuilder sb = descripcion;
+        sb.setLength(0);
+        sb.append(':');
+        for (int i = 0; i < columnas; i++) {
+            int canal = filaCanales[i];
+            sb.append(i == 0 ? " " : ", ");
+            if (canal == RegistroCanales.TEMPERATURA) {
+                agregarDecimal(sb.append("Temp "), filaFiltrada[i]).append("°C");
+            } else if (canal == RegistroCanales.HUMEDAD) {
+                agregarDecimal(sb.append("Hum "), filaFiltrada[i]).append('%');
+            } else {
+                sb.append(registroCanales.getClave(canal)).append(' ').append(filaFiltrada[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /*
+     * El valor redondeado a un decimal (como "%.1f" con el punto decimal),
+     * sin pasar por Formatter.
+     */
+    private static StringBuilder agregarDecimal(StringBuilder sb, float valor) {
+        if (Float.isNaN(valor) || Float.isInfinite(valor)) {
+            return sb.append(valor);
+        }
+        long decimas = Math.round(Math.abs((double) valor) * 10);
+        if (valor < 0 && decimas > 0) {
+            sb.append('-');
+        }
+        return sb.append(decimas / 10).append('.').append(decimas % 10);
+    }
+}
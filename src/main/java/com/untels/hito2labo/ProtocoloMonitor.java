@@ -0,0 +1,361 @@
+package com.untels.hito2labo;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Protocolo binario entre {@link DemonioMonitor} y sus clientes
+ * ({@link ClienteMonitor}). Cada mensaje es [tipo: 1 byte][longitud: 2
+ * bytes][contenido]; un lector ignora los tipos que no conoce.
+ * Al conectar, el cliente recibe una instantánea: HOLA, los canales, el
+ * estado del dispositivo, las alertas activas, las últimas filas del
+ * historial, SINCRONIA y FIN_INSTANTANEA. Después recibe el flujo común a
+ * todos los clientes, codificado una sola vez por el demonio.
+ * Las filas van como diferencias: el tiempo respecto a la fila anterior y,
+ * por canal, el valor filtrado en centésimas respecto al anterior del mismo
+ * canal y el crudo respecto al filtrado, en varints con signo (zigzag); una
+ * fila de temperatura y humedad ocupa unos 10 bytes. SINCRONIA lleva el
+ * estado de esas diferencias en el punto del flujo donde empieza el
+ * cliente.
+ */
+public final class ProtocoloMonitor {
+    /** "H2LM" */
+    public static final int MAGIA = 0x48324C4D;
+    public static final int VERSION = 2;
+
+    public static final int HOLA = 1;
+    public static final int CANAL = 2;
+    public static final int ESTADO = 3;
+    public static final int ALERTA = 4;
+    public static final int FILA = 5;
+    public static final int EVENTO = 6;
+    public static final int SINCRONIA = 7;
+    public static final int FIN_INSTANTANEA = 8;
+    /** Del cliente al demonio: comando para la placa ("ON" u "OFF") */
+    public static final int COMANDO = 20;
+
+    public static final int MAX_CONTENIDO = 0xFFFF;
+    /** Bytes máximos de un texto: dos caben siempre junto a los campos fijos */
+    public static final int MAX_TEXTO = MAX_CONTENIDO / 4;
+    /* Margen para los campos fijos (varints y octetos) de un mensaje con textos */
+    private static final int CAMPOS_FIJOS = 32;
+    private static final float ESCALA = 100f;
+    /* Marcas en el byte de canal de una columna de FILA */
+    private static final int SIN_FILTRADO = 0x80;
+    private static final int SIN_CRUDO = 0x40;
+
+    private ProtocoloMonitor() {
+    }
+
+    /**
+     * Estado de las diferencias entre filas: el instante de la anterior y
+     * el último valor filtrado (en centésimas) de cada canal. El codificador
+     * del demonio y el decodificador de cada cliente avanzan igual.
+     */
+    public static final class EstadoFilas {
+        long tiempo;
+        final int[] valores = new int[RegistroCanales.MAX_CANALES];
+
+        void copiarDe(EstadoFilas otro) {
+            tiempo = otro.tiempo;
+            System.arraycopy(otro.valores, 0, valores, 0, valores.length);
+        }
+
+        void reiniciar() {
+            tiempo = 0;
+            Arrays.fill(valores, 0);
+        }
+    }
+
+    /**
+     * Escribe mensajes en un arreglo que crece si hace falta (y se reutiliza).
+     */
+    public static final class Escritor {
+        private byte[] datos;
+        private int longitud;
+        private int inicioMensaje;
+
+        public Escritor(int capacidad) {
+            datos = new byte[capacidad];
+        }
+
+        public byte[] getDatos() {
+            return datos;
+        }
+
+        public int getLongitud() {
+            return longitud;
+        }
+
+        public void reiniciar() {
+            longitud = 0;
+        }
+
+        public void empezar(int tipo) {
+            asegurar(3);
+            inicioMensaje = longitud;
+            datos[longitud++] = (byte) tipo;
+            longitud += 2;
+        }
+
+        /**
+         * Cierra el mensaje empezado. Si no cabe en el formato se retira
+         * entero del arreglo antes de lanzar la excepción, para que nunca se
+         * publique a medias.
+         */
+        public void terminar() {
+            int contenido = longitud - inicioMensaje - 3;
+            if (contenido > MAX_CONTENIDO) {
+                longitud = inicioMensaje;
+                throw new IllegalStateException("Mensaje demasiado largo: " + contenido + " bytes");
+            }
+            datos[inicioMensaje + 1] = (byte) (contenido >>> 8);
+            datos[inicioMensaje + 2] = (byte) contenido;
+        }
+
+        public void octeto(int valor) {
+            asegurar(1);
+            datos[longitud++] = (byte) valor;
+        }
+
+        public void varint(long valor) {
+            asegurar(10);
+            while ((valor & ~0x7FL) != 0) {
+                datos[longitud++] = (byte) ((valor & 0x7F) | 0x80);
+                valor >>>= 7;
+            }
+            datos[longitud++] = (byte) valor;
+        }
+
+        public void zigzag(long valor) {
+            varint((valor << 1) ^ (valor >> 63));
+        }
+
+        /**
+         * Un texto de hasta {@link #MAX_TEXTO} bytes en UTF-8 (recortado si es más largo).
+         */
+        public void texto(String texto) {
+            bytes(recortar(texto, MAX_TEXTO));
+        }
+
+        /**
+         * Un texto ya codificado (con {@link ProtocoloMonitor#recortar}).
+         */
+        public void bytes(byte[] bytes) {
+            varint(bytes.length);
+            asegurar(bytes.length);
+            System.arraycopy(bytes, 0, datos, longitud, bytes.length);
+            longitud += bytes.length;
+        }
+
+        private void asegurar(int bytes) {
+            if (longitud + bytes > datos.length) {
+                datos = Arrays.copyOf(datos, Math.max(datos.length * 2, longitud + bytes));
+            }
+        }
+    }
+
+    /**
+     * Lee el contenido de un mensaje.
+     */
+    public static final class Lector {
+        private byte[] datos = new byte[256];
+        private int posicion;
+        private int longitud;
+
+        /**
+         * Lee el siguiente mensaje del flujo y devuelve su tipo.
+         *
+         * @throws EOFException Si el flujo terminó.
+         */
+        public int leer(DataInputStream entrada) throws IOException {
+            int tipo = entrada.read();
+            if (tipo < 0) throw new EOFException();
+            longitud = entrada.readUnsignedShort();
+            if (longitud > datos.length) {
+                datos = new byte[Math.max(longitud, datos.length * 2)];
+            }
+            entrada.readFully(datos, 0, longitud);
+            posicion = 0;
+            return tipo;
+        }
+
+        public int octeto() throws IOException {
+            if (posicion >= longitud) throw new EOFException("Mensaje truncado");
+            return datos[posicion++] & 0xFF;
+        }
+
+        public long varint() throws IOException {
+            long valor = 0;
+            for (int desplazamiento = 0; desplazamiento < 64; desplazamiento += 7) {
+                int b = octeto();
+                valor |= (long) (b & 0x7F) << desplazamiento;
+                if ((b & 0x80) == 0) return valor;
+            }
+            throw new IOException("Varint mal formado");
+        }
+
+        public long zigzag() throws IOException {
+            long valor = varint();
+            return (valor >>> 1) ^ -(valor & 1);
+        }
+
+        public String texto() throws IOException {
+            int n = (int) varint();
+            if (n < 0 || posicion + n > longitud) throw new EOFException("Mensaje truncado");
+            String texto = new String(datos, posicion, n, StandardCharsets.UTF_8);
+            posicion += n;
+            return texto;
+        }
+    }
+
+    /**
+     * Codifica una fila como diferencia respecto al estado, que avanza.
+     */
+    public static void escribirFila(Escritor escritor, EstadoFilas estado, long tiempoMs, int[] canales,
+                                    float[] crudos, float[] filtrados, int n, int perdidas) {
+        escritor.empezar(FILA);
+        escritor.zigzag(tiempoMs - estado.tiempo);
+        estado.tiempo = tiempoMs;
+        escritor.varint(perdidas);
+        escritor.varint(n);
+        for (int i = 0; i < n; i++) {
+            int canal = canales[i];
+            float filtrado = filtrados[i];
+            float crudo = crudos[i];
+            boolean sinFiltrado = Float.isNaN(filtrado) || Float.isInfinite(filtrado);
+            boolean sinCrudo = Float.isNaN(crudo) || Float.isInfinite(crudo);
+            escritor.octeto(canal | (sinFiltrado ? SIN_FILTRADO : 0) | (sinCrudo ? SIN_CRUDO : 0));
+            int base = estado.valores[canal];
+            if (!sinFiltrado) {
+                int q = cuantizar(filtrado);
+                escritor.zigzag((long) q - estado.valores[canal]);
+                estado.valores[canal] = q;
+                base = q;
+            }
+            if (!sinCrudo) {
+                escritor.zigzag((long) cuantizar(crudo) - base);
+            }
+        }
+        escritor.terminar();
+    }
+
+    /**
+     * Decodifica el contenido de una FILA en los arreglos indicados
+     * (canales del demonio) y avanza el estado.
+     *
+     * @return El número de canales de la fila.
+     */
+    public static int leerFila(Lector lector, EstadoFilas estado, long[] tiempo, int[] perdidas, int[] canales,
+                               float[] crudos, float[] filtrados) throws IOException {
+        estado.tiempo += lector.zigzag();
+        tiempo[0] = estado.tiempo;
+        perdidas[0] = (int) lector.varint();
+        int n = (int) lector.varint();
+        if (n > RegistroCanales.MAX_CANALES) throw new IOException("Fila con " + n + " canales");
+        for (int i = 0; i < n; i++) {
+            int marca = lector.octeto();
+            int canal = marca & 0x3F;
+            if (canal >= RegistroCanales.MAX_CANALES) throw new IOException("Canal fuera de rango: " + canal);
+            canales[i] = canal;
+            int base = estado.valores[canal];
+            if ((marca & SIN_FILTRADO) == 0) {
+                base = (int) (estado.valores[canal] + lector.zigzag());
+                estado.valores[canal] = base;
+                filtrados[i] = base / ESCALA;
+            } else {
+                filtrados[i] = Float.NaN;
+            }
+            crudos[i] = (marca & SIN_CRUDO) == 0 ? (int) (base + lector.zigzag()) / ESCALA : Float.NaN;
+        }
+        return n;
+    }
+
+    /**
+     * Escribe el estado de las diferencias en el punto actual del flujo.
+     */
+    public static void escribirSincronia(Escritor escritor, EstadoFilas estado) {
+        escritor.empezar(SINCRONIA);
+        escritor.zigzag(estado.tiempo);
+        for (int canal = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+            escritor.zigzag(estado.valores[canal]);
+        }
+        escritor.terminar();
+    }
+
+    public static void leerSincronia(Lector lector, EstadoFilas estado) throws IOException {
+        estado.tiempo = lector.zigzag();
+        for (int canal = 0; canal < RegistroCanales.MAX_CANALES; canal++) {
+            estado.valores[canal] = (int) lector.zigzag();
+        }
+    }
+
+    public static void escribirCanal(Escritor escritor, int canal, String clave, String nombre) {
+        escritor.empezar(CANAL);
+        escritor.octeto(canal);
+        escritor.texto(clave);
+        escritor.texto(nombre);
+        escritor.terminar();
+    }
+
+    public static void escribirEstado(Escritor escritor, String dispositivo, boolean conectado, int salud,
+                                      int intervaloMs) {
+        escritor.empezar(ESTADO);
+        escritor.texto(dispositivo);
+        escritor.octeto(conectado ? 1 : 0);
+        escritor.octeto(salud);
+        escritor.varint(intervaloMs);
+        escritor.terminar();
+    }
+
+    /**
+     * Alerta de un canal: su severidad (una de las de ReglaAlerta) y si el
+     * valor está por encima del umbral.
+     */
+    public static void escribirAlerta(Escritor escritor, int canal, int severidad, boolean porEncima) {
+        escritor.empezar(ALERTA);
+        escritor.octeto(canal);
+        escritor.octeto(severidad);
+        escritor.octeto(porEncima ? 1 : 0);
+        escritor.terminar();
+    }
+
+    /**
+     * Un mensaje del registro de eventos, con su color (que en PanelLog da el nivel).
+     */
+    public static void escribirEvento(Escritor escritor, long tiempoMs, int colorRgb, String fuente, String mensaje) {
+        /* Los textos se recortan antes de empezar: el mensaje siempre cabe */
+        byte[] bytesFuente = recortar(fuente, MAX_TEXTO);
+        byte[] bytesMensaje = recortar(mensaje, MAX_CONTENIDO - CAMPOS_FIJOS - bytesFuente.length);
+        escritor.empezar(EVENTO);
+        escritor.zigzag(tiempoMs);
+        escritor.varint(colorRgb & 0xFFFFFFFFL);
+        escritor.bytes(bytesFuente);
+        escritor.bytes(bytesMensaje);
+        escritor.terminar();
+    }
+
+    /**
+     * Codifica un texto en UTF-8 con a lo sumo maxBytes bytes, cortando
+     * entre caracteres.
+     */
+    public static byte[] recortar(String texto, int maxBytes) {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= maxBytes) {
+            return bytes;
+        }
+        int n = maxBytes;
+        while (n > 0 && (bytes[n] & 0xC0) == 0x80) {
+            n--;
+        }
+        return Arrays.copyOf(bytes, n);
+    }
+
+    private static int cuantizar(float valor) {
+        long q = Math.round((double) valor * ESCALA);
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, q));
+    }
+}
@@ -0,0 +1,421 @@
+package com.untels.hito2labo;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Prueba de regresión de asignaciones del camino de cada muestra, sin
+ * ventana ni placa: la placa simulada (acelerada) envía tramas al
+ * SerialReader de un {@link NucleoMonitor} armado como en la aplicación,
+ * que las pasa por su cola a su hilo de entrega y de ahí al procesado, al
+ * historial en memoria y en disco, al sumidero "archivo" y al registro de
+ * eventos. Tras un calentamiento se miden con
+ * ThreadMXBean.getThreadAllocatedBytes los bytes asignados por trama en el
+ * hilo lector (entramado y paso a la cola) y en el de entrega (todo lo que
+ * hace el núcleo con cada trama), y el programa termina con código 1 si
+ * alguno supera su presupuesto. Lo asignado entre dos filas en las que hubo
+ * un evento (hueco, error de la placa, alerta, cambio de salud o cualquier
+ * otro mensaje que no sea la línea de una fila) se cuenta aparte hasta
+ * MAXIMO_POR_EVENTO bytes por fila, y el exceso cuenta en el presupuesto;
+ * también falla si más de FRACCION_EVENTOS de las filas medidas tienen
+ * eventos. El calentamiento activa y termina una regla y provoca un hueco
+ * para que el enlazado de clases de sus primeros mensajes no caiga en la
+ * medida.
+ * La ejecuta el perfil Maven "asignaciones" (mvn -Pasignaciones verify).
+ * El hilo de entrega es uno propio de la prueba, como el del demonio, que
+ * espera sin asignar: el de eventos de Swing asigna por cada evento que
+ * despacha y taparía lo que hace el núcleo.
+ * Uso: {@code java -cp Hito2LAbo.jar com.untels.hito2labo.PruebaAsignaciones
+ * [--tramas 5000] [--calentamiento 1000] [--factor 400] [--presupuesto-lector bytes]
+ * [--presupuesto-procesado bytes] [--config archivo] [--sin-disco]}
+ */
+public class PruebaAsignaciones {
+    private static final String USO =
+        "Uso: PruebaAsignaciones [--tramas N] [--calentamiento N] [--factor F]\n"
+        + "                          [--presupuesto-lector bytes/trama] [--presupuesto-procesado bytes/trama]\n"
+        + "                          [--config archivo] [--sin-disco]";
+    /*
+     * Presupuestos por defecto. El lector asigna la trama como String y el
+     * paso de la tarea que vacía la cola al hilo de entrega; este solo
+     * asigna al abrir segmentos y la línea del registro de una de cada
+     * muestrasPorLog filas, que se mide aparte y no cuenta en el
+     * presupuesto. Un String.format, un split o el boxing de los valores de
+     * una trama los superan. Un evento asigna su mensaje, su línea en el
+     * sumidero y poco más; registrar algo en cada fila llena FRACCION_EVENTOS.
+     */
+    private static final long PRESUPUESTO_LECTOR = 512;
+    private static final long PRESUPUESTO_PROCESADO = 32;
+    private static final long MAXIMO_POR_EVENTO = 8 * 1024;
+    private static final double FRACCION_EVENTOS = 0.05;
+    private static final int INTERVALO_MS = 1000;
+
+    private static com.sun.management.ThreadMXBean hilos;
+    private static NucleoMonitor nucleo;
+    private static int procesadas;
+    private static long lectorInicio;
+    private static long lectorFin;
+    private static long entregaInicio;
+    private static long entregaFin;
+    private static long bytesRegistro;
+    private static long bytesEventos;
+    private static long excesoEventos;
+    private static int intervalosEvento;
+
+    public static void main(String[] args) throws Exception {
+        int tramas = 5000;
+        int calentamiento = 1000;
+        double factor = 400;
+        long presupuestoLector = PRESUPUESTO_LECTOR;
+        long presupuestoProcesado = PRESUPUESTO_PROCESADO;
+        String archivoConfig = null;
+        boolean disco = true;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--tramas": tramas = Integer.parseInt(args[++i]); break;
+                    case "--calentamiento": calentamiento = Integer.parseInt(args[++i]); break;
+                    case "--factor": factor = Double.parseDouble(args[++i]); break;
+                    case "--presupuesto-lector": presupuestoLector = Long.parseLong(args[++i]); break;
+                    case "--presupuesto-procesado": presupuestoProcesado = Long.parseLong(args[++i]); break;
+                    case "--config": archivoConfig = args[++i]; break;
+                    case "--sin-disco": disco = false; break;
+                    default: throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+                }
+            }
+            if (tramas <= 0 || calentamiento < 0 || factor <= 0) {
+                throw new IllegalArgumentException("Valores fuera de rango");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USO);
+            System.exit(2);
+            return;
+        }
+
+        System.setProperty("java.awt.headless", "true");
+        hilos = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!hilos.isThreadAllocatedMemorySupported()) {
+            System.err.println("La JVM no permite medir las asignaciones por hilo");
+            System.exit(2);
+            return;
+        }
+        hilos.setThreadAllocatedMemoryEnabled(true);
+
+        /*
+         * La configuración indicada (o ninguna) con la placa simulada, el
+         * historial y el sumidero en un directorio temporal y sin ingesta de red.
+         */
+        Path directorio = Files.createTempDirectory("prueba-asignaciones");
+        Properties propiedades = new Properties();
+        if (archivoConfig != null) {
+            try (InputStream entrada = Files.newInputStream(Paths.get(archivoConfig))) {
+                propiedades.load(entrada);
+            }
+        }
+        propiedades.setProperty("puerto", TransporteSimulado.NOMBRE_PUERTO + ":" + factor);
+        propiedades.setProperty("muestreo.intervalo", String.valueOf(INTERVALO_MS));
+        propiedades.setProperty("historial.persistir", String.valueOf(disco));
+        propiedades.setProperty("historial.directorio", directorio.resolve("historial").toString());
+        propiedades.setProperty("sumideros", "archivo");
+        propiedades.setProperty("sumidero.archivo.ruta", directorio.resolve("sumidero.jsonl").toString());
+        propiedades.setProperty("ingesta.puerto", "0");
+        File archivo = directorio.resolve(Configuracion.ARCHIVO).toFile();
+        try (OutputStream salida = Files.newOutputStream(archivo.toPath())) {
+            propiedades.store(salida, null);
+        }
+
+        int inicioMedida = calentamiento;
+        int finMedida = calentamiento + tramas;
+        CountDownLatch fin = new CountDownLatch(1);
+        HiloEntrega entrega = new HiloEntrega();
+        nucleo = new NucleoMonitor(Configuracion.cargar(archivo), entrega, 0);
+        /* El historial en memoria se reserva de antemano para no medir sus redimensionados */
+        nucleo.getAlmacen().reservar(finMedida + 1024);
+        Oyente oyente = new Oyente(inicioMedida, finMedida, fin, INTERVALO_MS / factor);
+        entrega.ejecutarYEsperar(() -> {
+            nucleo.iniciarMonitoreo();
+            nucleo.iniciar(oyente);
+        });
+
+        double tramasPorSegundo = factor * 1000.0 / INTERVALO_MS;
+        long esperaMaxima = (long) ((finMedida + 100) / tramasPorSegundo * 3000) + 10_000;
+        System.out.println(String.format(Locale.ROOT,
+            "Placa simulada a %.0f tramas/s: %d de calentamiento y %d medidas%s",
+            tramasPorSegundo, calentamiento, tramas, disco ? ", con historial en disco" : ""));
+        boolean completa;
+        try {
+            completa = fin.await(esperaMaxima, TimeUnit.MILLISECONDS);
+        } finally {
+            entrega.ejecutarYEsperar(nucleo::cerrar);
+            borrar(directorio);
+        }
+        if (!completa) {
+            System.err.println("Solo se procesaron " + procesadas + " de " + finMedida + " tramas");
+            System.exit(1);
+            return;
+        }
+        double porTramaLector = (double) (lectorFin - lectorInicio) / tramas;
+        double porTramaRegistro = (double) bytesRegistro / tramas;
+        double porTramaProcesado = (double) (entregaFin - entregaInicio - bytesRegistro - bytesEventos) / tramas;
+        int maximoIntervalosEvento = (int) (tramas * FRACCION_EVENTOS);
+        Histograma procesado = nucleo.getTrazaLatencia().getHistograma(TrazaLatencia.PROCESADO);
+        System.out.println(String.format(Locale.ROOT,
+            "Bytes por trama: lector %.1f (presupuesto %d), procesado %.1f (presupuesto %d)"
+                + " más %.1f de las líneas del registro; %d bytes en %d filas con eventos (máximo %d)"
+                + ", %d por encima de %d bytes por fila",
+            porTramaLector, presupuestoLector, porTramaProcesado, presupuestoProcesado, porTramaRegistro,
+            bytesEventos, intervalosEvento, maximoIntervalosEvento, excesoEventos, MAXIMO_POR_EVENTO));
+        System.out.println(String.format(Locale.ROOT,
+            "Procesado: p50 %s ms, p99 %s ms; %d muestras perdidas en el enlace",
+            TrazaLatencia.ms(procesado.getPercentil(50)), TrazaLatencia.ms(procesado.getPercentil(99)),
+            nucleo.getEstadisticasEnlace().getMuestrasPerdidas()));
+        if (porTramaLector > presupuestoLector || porTramaProcesado > presupuestoProcesado) {
+            System.err.println("Presupuesto de asignaciones superado: revisar el camino de cada muestra"
+                + " (String.format, split, boxing, colecciones por trama...)");
+            System.exit(1);
+        }
+        if (intervalosEvento > maximoIntervalosEvento) {
+            System.err.println("Demasiadas filas con eventos: revisar qué se registra por trama");
+            System.exit(1);
+        }
+        System.out.println("Dentro del presupuesto");
+        System.exit(0);
+    }
+
+    /*
+     * Oyente del núcleo en el hilo de entrega: toma las marcas de los dos
+     * hilos en la fila que empieza la medida y en la última, con el
+     * recuento exacto. La línea del registro se construye justo después
+     * de onFila, así que lo asignado desde el final de onFila hasta que
+     * llega es lo que cuesta. Entre fila y fila mira si hubo algún evento;
+     * si lo hubo, lo asignado desde la fila anterior va a bytesEventos
+     * hasta MAXIMO_POR_EVENTO. Los mensajes solo se muestran si son errores.
+     */
+    private static class Oyente implements NucleoMonitor.Oyente {
+        private final int inicioMedida;
+        private final int finMedida;
+        private final CountDownLatch fin;
+        private final int[] severidades = new int[RegistroCanales.MAX_CANALES];
+        private final int filaCalentamiento;
+        private final double intervaloRealMs;
+        private long marcaAnterior;
+        private long marcaFila;
+        private long registroIntervalo;
+        private long incidencias;
+        private boolean evento;
+
+        Oyente(int inicioMedida, int finMedida, CountDownLatch fin, double intervaloRealMs) {
+            this.inicioMedida = inicioMedida;
+            this.finMedida = finMedida;
+            this.fin = fin;
+            this.filaCalentamiento = inicioMedida / 2;
+            this.intervaloRealMs = intervaloRealMs;
+        }
+
+        @Override
+        public void onMensaje(String fuente, String mensaje, Color color, long tiempoMs) {
+            if (color == Color.RED) {
+                System.err.println(mensaje);
+                evento = true;
+            } else if (fuente.equals(NucleoMonitor.FUENTE_DATOS) && color == Color.DARK_GRAY) {
+                registroIntervalo += hilos.getCurrentThreadAllocatedBytes() - marcaFila;
+            } else {
+                evento = true;
+            }
+        }
+
+        @Override
+        public void onFila(long llegadaNanos) {
+            long ahora = hilos.getCurrentThreadAllocatedBytes();
+            boolean cambios = cambiosEstado();
+            if (procesadas == filaCalentamiento && filaCalentamiento > 0) {
+                calentarAlertas();
+                provocarHueco();
+            }
+            if (procesadas == inicioMedida) {
+                lectorInicio = asignados(nucleo.getSerialReader().getHiloLectura());
+                entregaInicio = ahora;
+            } else if (procesadas > inicioMedida) {
+                if (evento || cambios) {
+                    long asignadosEvento = ahora - marcaAnterior;
+                    bytesEventos += Math.min(asignadosEvento, MAXIMO_POR_EVENTO);
+                    excesoEventos += Math.max(0, asignadosEvento - MAXIMO_POR_EVENTO);
+                    intervalosEvento++;
+                } else {
+                    bytesRegistro += registroIntervalo;
+                }
+            }
+            marcaAnterior = ahora;
+            registroIntervalo = 0;
+            evento = false;
+            procesadas++;
+            if (procesadas == finMedida) {
+                lectorFin = asignados(nucleo.getSerialReader().getHiloLectura());
+                entregaFin = ahora;
+                fin.countDown();
+            }
+            marcaFila = hilos.getCurrentThreadAllocatedBytes();
+        }
+
+        /*
+         * Activa y termina la primera regla de valor sin duración mínima;
+         * los avisos llegan por el hilo de entrega antes de la medida.
+         */
+        private void calentarAlertas() {
+            MotorReglas motor = nucleo.getMotorReglas();
+            for (ReglaAlerta regla : motor.getReglas()) {
+                if (regla.isTasa() || regla.getDuracionMs() > 0) {
+                    continue;
+                }
+                float margen = regla.getHisteresis() + 1;
+                float fuera = regla.isMayorQue() ? regla.getUmbral() + margen : regla.getUmbral() - margen;
+                float dentro = regla.isMayorQue() ? regla.getUmbral() - margen : regla.getUmbral() + margen;
+                long ahoraMs = System.currentTimeMillis();
+                motor.evaluar(regla.getCanal(), fuera, ahoraMs);
+                motor.evaluar(regla.getCanal(), dentro, ahoraMs);
+                return;
+            }
+        }
+
+        /*
+         * Retiene el simulador el doble de lo que tolera de atraso: el lector
+         * queda bloqueado y, al soltarlo, la placa descarta muestras que
+         * llegan como un hueco en la secuencia.
+         */
+        private void provocarHueco() {
+            Transporte transporte = nucleo.getSerialReader().getTransporte();
+            if (!(transporte instanceof TransporteSimulado)) {
+                return;
+            }
+            synchronized (transporte) {
+                LockSupport.parkNanos((long) (intervaloRealMs * 20 * 1_000_000));
+            }
+        }
+
+        /*
+         * Si cambiaron los huecos o errores del enlace o la severidad activa
+         * de algún canal desde la fila anterior; no asigna.
+         */
+        private boolean cambiosEstado() {
+            EstadisticasEnlace enlace = nucleo.getEstadisticasEnlace();
+            long total = enlace.getHuecos() + enlace.getErroresSensor() + enlace.getErroresParseo();
+            boolean cambios = total != incidencias;
+            incidencias = total;
+            MotorReglas motor = nucleo.getMotorReglas();
+            for (int c = 0; c < severidades.length; c++) {
+                int severidad = motor.getSeveridadActiva(c);
+                cambios |= severidad != severidades[c];
+                severidades[c] = severidad;
+            }
+            return cambios;
+        }
+
+        @Override
+        public void onNodoRed(NodoRed nodo) {
+        }
+
+        @Override
+        public void onConexion(boolean conectado) {
+        }
+
+        @Override
+        public void onConectando(boolean enCurso) {
+        }
+
+        @Override
+        public void onIntervaloMuestreo(int intervaloMs) {
+        }
+
+        @Override
+        public void onAlerta(ReglaAlerta regla, boolean activa, float valor) {
+        }
+
+        @Override
+        public void onSalud(MonitorSalud monitor, int estado, String detalle) {
+        }
+
+        @Override
+        public void onHistorialRecuperado(HistorialReciente previo) {
+        }
+
+        @Override
+        public void onEstadisticas(EstadisticasStreaming estadisticas, long ahoraMs) {
+        }
+    }
+
+    /*
+     * Hilo de entrega de la prueba: ejecuta las tareas en orden y, sin
+     * tareas, sondea con pausas cortas en lugar de esperar en una
+     * condición, que asignaría un nodo por espera.
+     */
+    private static class HiloEntrega implements Executor {
+        private final ConcurrentLinkedQueue<Runnable> tareas = new ConcurrentLinkedQueue<>();
+        private final Thread hilo = new Thread(this::bucle, "prueba-entrega");
+
+        HiloEntrega() {
+            hilo.setDaemon(true);
+            hilo.start();
+        }
+
+        @Override
+        public void execute(Runnable tarea) {
+            tareas.add(tarea);
+            LockSupport.unpark(hilo);
+        }
+
+        void ejecutarYEsperar(Runnable tarea) throws InterruptedException {
+            CountDownLatch hecha = new CountDownLatch(1);
+            execute(() -> {
+                try {
+                    tarea.run();
+                } finally {
+                    hecha.countDown();
+                }
+            });
+            hecha.await();
+        }
+
+        private void bucle() {
+            while (true) {
+                Runnable tarea = tareas.poll();
+                if (tarea == null) {
+                    LockSupport.parkNanos(1_000_000);
+                    continue;
+                }
+                try {
+                    tarea.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static long asignados(Thread hilo) {
+        return hilo == null ? 0 : hilos.getThreadAllocatedBytes(hilo.threadId());
+    }
+
+    private static void borrar(Path directorio) {
+        try (Stream<Path> rutas = Files.walk(directorio)) {
+            rutas.sorted(Comparator.reverseOrder()).forEach(ruta -> ruta.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("No se pudo borrar " + directorio + ": " + e.getMessage());
+        }
+    }
+}
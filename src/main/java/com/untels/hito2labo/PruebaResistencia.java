@@ -0,0 +1,354 @@
+package com.untels.hito2labo;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.ActionEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Prueba de resistencia acelerada: reproduce semanas de monitoreo continuo
+ * en minutos con la placa simulada (reloj acelerado y cortes de conexión
+ * periódicos) y vigila, por ventanas de tiempo, el heap tras una recolección,
+ * el número de hilos y el percentil 99 de la latencia hasta pantalla.
+ * Termina con código 1 si alguno sube entre el primer y el último tercio de
+ * la ejecución (descontando el calentamiento). El historial en memoria y el
+ * registro de eventos se limitan a menos filas que por defecto para que
+ * alcancen su tamaño máximo al principio de la prueba.
+ * Con display (o Xvfb) maneja la aplicación completa: VentanaPrincipal y
+ * Controlador. Sin display usa el mismo núcleo que el Controlador
+ * ({@link NucleoMonitor}: conexión y reconexión, procesamiento, historial,
+ * procesos de fondo y relojes) con los indicadores y el registro de
+ * eventos, y pinta los paneles en una imagen fuera de pantalla.
+ * Uso: {@code java -cp Hito2LAbo.jar com.untels.hito2labo.PruebaResistencia
+ * [--dias 14] [--factor 10000] [--corte-horas 24] [--ventana 10] [--filas 50000]
+ * [--eventos 20000] [--sin-ventana]}
+ */
+public class PruebaResistencia {
+    private static final String USO =
+        "Uso: PruebaResistencia [--dias N] [--factor F] [--corte-horas H] [--ventana s]\n"
+        + "                         [--filas filas en memoria] [--eventos eventos del registro] [--sin-ventana]";
+    private static final int PERIODO_PINTADO_MS = 40;
+
+    /*
+     * Tolerancias entre el primer y el último tercio: el heap puede variar con
+     * la recolección y la latencia con la carga de la máquina, los hilos no.
+     */
+    private static final double TOLERANCIA_HEAP = 0.25;
+    private static final long MARGEN_HEAP_BYTES = 8L * 1024 * 1024;
+    private static final double TOLERANCIA_LATENCIA = 0.5;
+    private static final double MARGEN_LATENCIA_MS = 5;
+    private static final int MARGEN_HILOS = 2;
+
+    /**
+     * La aplicación bajo prueba: la completa o la versión sin ventana.
+     */
+    private interface Aplicacion {
+        TrazaLatencia getTraza();
+
+        void cerrar() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        double dias = 14;
+        double factor = 10000;
+        double corteHoras = 24;
+        int ventanaS = 10;
+        int filas = 50_000;
+        int eventos = 20_000;
+        boolean sinVentana = GraphicsEnvironment.isHeadless();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--dias": dias = Double.parseDouble(args[++i]); break;
+                    case "--factor": factor = Double.parseDouble(args[++i]); break;
+                    case "--corte-horas": corteHoras = Double.parseDouble(args[++i]); break;
+                    case "--ventana": ventanaS = Integer.parseInt(args[++i]); break;
+                    case "--filas": filas = Integer.parseInt(args[++i]); break;
+                    case "--eventos": eventos = Integer.parseInt(args[++i]); break;
+                    case "--sin-ventana": sinVentana = true; break;
+                    default: throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+                }
+            }
+            if (dias <= 0 || factor <= 0 || corteHoras < 0 || ventanaS <= 0) {
+                throw new IllegalArgumentException("Valores fuera de rango");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USO);
+            System.exit(2);
+            return;
+        }
+
+        /*
+         * La configuración se pasa por propiedades del sistema, que tienen
+         * prioridad sobre monitor.properties.
+         */
+        Path directorio = Files.createTempDirectory("prueba-resistencia");
+        String puerto = TransporteSimulado.NOMBRE_PUERTO + ":" + factor + ":" + corteHoras;
+        System.setProperty("puerto", puerto);
+        System.setProperty("historial.directorio", directorio.toString());
+        System.setProperty("historial.memoria.filas", String.valueOf(filas));
+        System.setProperty("registro.eventos", String.valueOf(eventos));
+        if (sinVentana) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        long duracionMs = (long) (dias * 86_400_000L / factor);
+        int ventanas = (int) Math.max(3, duracionMs / (ventanaS * 1000L));
+        System.out.println(String.format(Locale.ROOT,
+            "%.1f días simulados en %d s (%s, factor %.0f, corte cada %.1f h), %d ventanas de %d s",
+            dias, duracionMs / 1000, sinVentana ? "sin ventana" : "aplicación completa",
+            factor, corteHoras, ventanas, ventanaS));
+
+        Aplicacion aplicacion = sinVentana ? new SinVentana() : abrirCompleta();
+        List<double[]> medidas = new ArrayList<>();
+        try {
+            long inicio = System.nanoTime();
+            for (int v = 1; v <= ventanas; v++) {
+                long finVentana = inicio + v * (duracionMs / ventanas) * 1_000_000L;
+                long espera;
+                while ((espera = (finVentana - System.nanoTime()) / 1_000_000L) > 0) {
+                    Thread.sleep(Math.min(espera, 1000));
+                }
+                double[] medida = medir(aplicacion.getTraza());
+                medidas.add(medida);
+                System.out.println(String.format(Locale.ROOT,
+                    "Ventana %3d (%5.1f días): heap %6.1f MB, %3d hilos, p99 %s ms",
+                    v, dias * v / ventanas, medida[0] / (1024 * 1024), (int) medida[1],
+                    Double.isNaN(medida[2]) ? "-" : String.format(Locale.ROOT, "%.3f", medida[2])));
+            }
+        } finally {
+            aplicacion.cerrar();
+            borrar(directorio);
+        }
+
+        boolean estable = evaluar(medidas);
+        System.out.println(estable ? "Sin tendencias al alza" : "Tendencia al alza detectada");
+        System.exit(estable ? 0 : 1);
+    }
+
+    /*
+     * Heap tras una recolección completa, hilos vivos y p99 de la latencia
+     * total de la ventana (que se reinicia para la siguiente).
+     */
+    private static double[] medir(TrazaLatencia traza) {
+        System.gc();
+        double heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        double hilos = ManagementFactory.getThreadMXBean().getThreadCount();
+        Histograma total = traza.getHistograma(TrazaLatencia.TOTAL);
+        double p99 = total.getTotal() == 0 ? Double.NaN : total.getPercentil(99) / 1000.0;
+        traza.reset();
+        return new double[] {heap, hilos, p99};
+    }
+
+    /*
+     * Compara la mediana del primer tercio con la del último, descartando
+     * las primeras ventanas (el historial en memoria aún se está llenando).
+     */
+    private static boolean evaluar(List<double[]> medidas) {
+        int calentamiento = Math.max(1, medidas.size() / 5);
+        List<double[]> validas = medidas.subList(calentamiento, medidas.size());
+        int tercio = Math.max(1, validas.size() / 3);
+        List<double[]> primero = validas.subList(0, tercio);
+        List<double[]> ultimo = validas.subList(validas.size() - tercio, validas.size());
+
+        boolean estable = true;
+        double heapAntes = mediana(primero, 0);
+        double heapDespues = mediana(ultimo, 0);
+        System.out.println(String.format(Locale.ROOT, "Heap: %.1f MB -> %.1f MB",
+                                         heapAntes / (1024 * 1024), heapDespues / (1024 * 1024)));
+        if (heapDespues > heapAntes * (1 + TOLERANCIA_HEAP) + MARGEN_HEAP_BYTES) {
+            System.err.println("El heap tras la recolección crece");
+            estable = false;
+        }
+        double hilosAntes = maximo(primero, 1);
+        double hilosDespues = maximo(ultimo, 1);
+        System.out.println(String.format(Locale.ROOT, "Hilos: %.0f -> %.0f", hilosAntes, hilosDespues));
+        if (hilosDespues > hilosAntes + MARGEN_HILOS) {
+            System.err.println("El número de hilos crece");
+            estable = false;
+        }
+        double latenciaAntes = mediana(primero, 2);
+        double latenciaDespues = mediana(ultimo, 2);
+        System.out.println(String.format(Locale.ROOT, "p99 de latencia: %.3f ms -> %.3f ms",
+                                         latenciaAntes, latenciaDespues));
+        if (latenciaDespues > latenciaAntes * (1 + TOLERANCIA_LATENCIA) + MARGEN_LATENCIA_MS) {
+            System.err.println("La latencia crece");
+            estable = false;
+        }
+        return estable;
+    }
+
+    private static double mediana(List<double[]> medidas, int indice) {
+        double[] valores = medidas.stream().mapToDouble(m -> m[indice]).filter(v -> !Double.isNaN(v)).toArray();
+        if (valores.length == 0) return Double.NaN;
+        Arrays.sort(valores);
+        return valores[valores.length / 2];
+    }
+
+    private static double maximo(List<double[]> medidas, int indice) {
+        return medidas.stream().mapToDouble(m -> m[indice]).max().orElse(Double.NaN);
+    }
+
+    /*
+     * La aplicación completa, como la arranca Main; el monitoreo se inicia
+     * en cuanto la placa simulada está conectada.
+     */
+    private static Aplicacion abrirCompleta() throws Exception {
+        Controlador[] controlador = new Controlador[1];
+        SwingUtilities.invokeAndWait(() -> {
+            VentanaPrincipal ventana = new VentanaPrincipal();
+            ventana.setVisible(true);
+            controlador[0] = new Controlador(ventana);
+        });
+        Timer inicio = new Timer(1000, e -> {
+            if (controlador[0].isMonitoreando()) {
+                ((Timer) e.getSource()).stop();
+            } else {
+                controlador[0].actionPerformed(new ActionEvent(e.getSource(), ActionEvent.ACTION_PERFORMED, "Iniciar"));
+            }
+        });
+        inicio.start();
+        return new Aplicacion() {
+            @Override
+            public TrazaLatencia getTraza() {
+                return controlador[0].getTrazaLatencia();
+            }
+
+            @Override
+            public void cerrar() throws Exception {
+                SwingUtilities.invokeAndWait(controlador[0]::cerrarAplicacion);
+            }
+        };
+    }
+
+    /*
+     * La aplicación sin ventana: el núcleo del Controlador, en el hilo de
+     * eventos, con los paneles que actualiza el Controlador. Reconecta sin
+     * límite de intentos, como el demonio.
+     */
+    private static class SinVentana implements Aplicacion, NucleoMonitor.Oyente {
+        private final NucleoMonitor nucleo;
+        private final PanelTemperatura panelTemperatura = new PanelTemperatura();
+        private final PanelHumedad panelHumedad = new PanelHumedad();
+        private final PanelLog panelLog = new PanelLog();
+        private final BufferedImage lienzo = new BufferedImage(600, 400, BufferedImage.TYPE_INT_RGB);
+        private final Timer pintado;
+
+        SinVentana() throws Exception {
+            nucleo = new NucleoMonitor(Configuracion.cargar(), SwingUtilities::invokeLater, 0);
+            panelLog.setCapacidad(nucleo.getConfiguracion().getEntero("registro.eventos", 200_000));
+            panelTemperatura.setFuente(nucleo.getAlmacen(), RegistroCanales.TEMPERATURA);
+            panelHumedad.setFuente(nucleo.getAlmacen(), RegistroCanales.HUMEDAD);
+            panelTemperatura.setTrazaLatencia(nucleo.getTrazaLatencia());
+            for (JComponent panel : new JComponent[] {panelTemperatura, panelHumedad, panelLog}) {
+                panel.setSize(lienzo.getWidth(), lienzo.getHeight());
+            }
+
+            /* Sin pantalla nadie pinta los paneles: se pintan en una imagen */
+            pintado = new Timer(PERIODO_PINTADO_MS, e -> {
+                Graphics2D g = lienzo.createGraphics();
+                try {
+                    panelTemperatura.paint(g);
+                    panelHumedad.paint(g);
+                    panelLog.paint(g);
+                } finally {
+                    g.dispose();
+                }
+            });
+            SwingUtilities.invokeAndWait(() -> {
+                pintado.start();
+                nucleo.iniciarMonitoreo();
+                nucleo.iniciar(this);
+            });
+        }
+
+        @Override
+        public void onMensaje(String fuente, String mensaje, Color color, long tiempoMs) {
+            panelLog.appendMensaje(fuente, mensaje, color, tiempoMs);
+        }
+
+        @Override
+        public void onFila(long llegadaNanos) {
+            float temp = nucleo.getProcesador().getValorFiltrado(RegistroCanales.TEMPERATURA);
+            float hum = nucleo.getProcesador().getValorFiltrado(RegistroCanales.HUMEDAD);
+            if (!Float.isNaN(temp)) panelTemperatura.actualizarDatos(temp, llegadaNanos);
+            if (!Float.isNaN(hum)) panelHumedad.actualizarDatos(hum);
+        }
+
+        @Override
+        public void onConexion(boolean conectado) {
+            if (!conectado) {
+                panelTemperatura.reset();
+                panelHumedad.reset();
+            }
+        }
+
+        @Override
+        public void onConectando(boolean enCurso) {
+        }
+
+        @Override
+        public void onNodoRed(NodoRed nodo) {
+        }
+
+        @Override
+        public void onIntervaloMuestreo(int intervaloMs) {
+        }
+
+        @Override
+        public void onAlerta(ReglaAlerta regla, boolean activa, float valor) {
+            MotorReglas motorReglas = nucleo.getMotorReglas();
+            panelTemperatura.setAlerta(motorReglas.getSeveridadActiva(RegistroCanales.TEMPERATURA),
+                                       motorReglas.isActivaPorEncima(RegistroCanales.TEMPERATURA));
+            panelHumedad.setAlerta(motorReglas.getSeveridadActiva(RegistroCanales.HUMEDAD),
+                                   motorReglas.isActivaPorEncima(RegistroCanales.HUMEDAD));
+        }
+
+        @Override
+        public void onSalud(MonitorSalud monitor, int estado, String detalle) {
+        }
+
+        @Override
+        public void onHistorialRecuperado(HistorialReciente previo) {
+        }
+
+        @Override
+        public void onEstadisticas(EstadisticasStreaming estadisticas, long ahoraMs) {
+        }
+
+        @Override
+        public TrazaLatencia getTraza() {
+            return nucleo.getTrazaLatencia();
+        }
+
+        @Override
+        public void cerrar() throws Exception {
+            SwingUtilities.invokeAndWait(pintado::stop);
+            nucleo.cerrar();
+        }
+    }
+
+    private static void borrar(Path directorio) {
+        try (Stream<Path> rutas = Files.walk(directorio)) {
+            rutas.sorted(Comparator.reverseOrder()).forEach(ruta -> ruta.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("No se pudo borrar " + directorio + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.untels.hito2labo;
+
+/**
+ * Registro de canales de medida.
+ * Cada clave de trama ("TEMP", "HUM", "LUZ"...) se resuelve una sola vez a un
+ * identificador entero estable; a partir de ahí todo el procesamiento usa
+ * el identificador. La búsqueda trabaja directamente sobre los caracteres
+ * de la trama (sin crear subcadenas) mediante una tabla hash abierta.
+ * Las altas son raras y se sincronizan; las búsquedas no toman cerrojos.
+ */
+public class RegistroCanales {
+    public static final int MAX_CANALES = 32;
+    public static final int TEMPERATURA = 0;
+    public static final int HUMEDAD = 1;
+    /* Número de secuencia de la trama: lo consume EstadisticasEnlace, no es una medida */
+    public static final int SECUENCIA = 2;
+
+    private static final int TAMANO_TABLA = 128;
+
+    private final String[] claves = new String[MAX_CANALES];
+    private final String[] nombres = new String[MAX_CANALES];
+    /* Tabla hash: contiene id + 1, o 0 si la celda está libre */
+    private final int[] tabla = new int[TAMANO_TABLA];
+    private volatile int cantidad;
+
+    /**
+     * Crea el registro con los canales del sketch original ya dados de alta.
+     */
+    public RegistroCanales() {
+        registrar("TEMP", "temperatura");
+        registrar("HUM", "humedad");
+        registrar("SEQ", "secuencia");
+    }
+
+    /**
+     * Da de alta un canal, o devuelve su identificador si ya existía.
+     *
+     * @param clave  La clave tal como aparece en la trama (p. ej. "TEMP").
+     * @param nombre Nombre legible del canal (p. ej. "temperatura").
+     * @return El identificador del canal.
+     * @throws IllegalStateException Si se supera el máximo de canales.
+     */
+    public synchronized int registrar(String clave, String nombre) {
+        int existente = buscar(clave, 0, clave.length());
+        if (existente >= 0) {
+            return existente;
+        }
+        if (cantidad == MAX_CANALES) {
+            throw new IllegalStateException("Demasiados canales (máximo " + MAX_CANALES + ")");
+        }
+        int id = cantidad;
+        claves[id] = clave;
+        nombres[id] = nombre;
+        int celda = hash(clave, 0, clave.length()) & (TAMANO_TABLA - 1);
+        while (tabla[celda] != 0) {
+            celda = (celda + 1) & (TAMANO_TABLA - 1);
+        }
+        tabla[celda] = id + 1;
+        /* La escritura volátil publica la clave y la celda a los lectores */
+        cantidad = id + 1;
+        return id;
+    }
+
+    /**
+     * Busca la clave contenida en texto[inicio, fin) sin crear objetos.
+     *
+     * @return El identificador del canal, o -1 si no está registrado.
+     */
+    public int buscar(CharSequence texto, int inicio, int fin) {
+        int n = cantidad;
+        int celda = hash(texto, inicio, fin) & (TAMANO_TABLA - 1);
+        int valor;
+        while ((valor = tabla[celda]) != 0) {
+            int id = valor - 1;
+            if (id < n && coincide(claves[id], texto, inicio, fin)) {
+                return id;
+            }
+            celda = (celda + 1) & (TAMANO_TABLA - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Busca la clave y, si es nueva, la registra (solo la primera vez crea
+     * objetos). Con el registro lleno una clave nueva no se registra: la
+     * trama que la trae no puede hacer fallar al resto.
+     *
+     * @return El identificador del canal, o -1 si es nuevo y ya no caben más canales.
+     */
+    public int resolver(CharSequence texto, int inicio, int fin) {
+        int id = buscar(texto, inicio, fin);
+        if (id >= 0 || cantidad == MAX_CANALES) {
+            return id;
+        }
+        String clave = texto.subSequence(inicio, fin).toString();
+        synchronized (this) {
+            return cantidad == MAX_CANALES ? buscar(clave, 0, clave.length())
+                : registrar(clave, clave.toLowerCase());
+        }
+    }
+
+    /**
+     * Busca un canal por su nombre legible o por su clave, registrándolo si no existe.
+     * Pensado para la configuración (p. ej. reglas sobre "luz" o "LUZ").
+     */
+    public synchronized int resolverNombre(String nombreOClave) {
+        for (int id = 0; id < cantidad; id++) {
+            if (nombres[id].equalsIgnoreCase(nombreOClave) || claves[id].equalsIgnoreCase(nombreOClave)) {
+                return id;
+            }
+        }
+        return registrar(nombreOClave.toUpperCase(), nombreOClave.toLowerCase());
+    }
+
+    public int getCantidad() {
+        return cantidad;
+    }
+
+    public String getClave(int id) {
+        return claves[id];
+    }
+
+    public String getNombre(int id) {
+        return nombres[id];
+    }
+
+    private static int hash(CharSequence texto, int inicio, int fin) {
+        int h = 0;
+        for (int i = inicio; i < fin; i++) {
+            h = 31 * h + texto.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean coincide(String clave, CharSequence texto, int inicio, int fin) {
+        if (clave.length() != fin - inicio) return false;
+        for (int i = 0; i < clave.length(); i++) {
+            if (clave.charAt(i) != texto.charAt(inicio + i)) return false;
+        }
+        return true;
+    }
+}
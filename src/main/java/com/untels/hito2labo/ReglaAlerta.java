@@ -0,0 +1,168 @@
+package com.untels.hito2labo;
+
+/**
+ * Descripción inmutable de una regla de alerta leída de la configuración.
+ * La sintaxis de una regla es:
+ * <pre>
+ *   canal [tasa] (&gt;|&lt;) umbral [histeresis H] [durante Ns] [nivel alarma|aviso]
+ * </pre>
+ * Por ejemplo {@code temperatura > 30 histeresis 0.5 durante 10s nivel alarma}.
+ * Con {@code tasa} la condición se evalúa sobre la velocidad de cambio del
+ * canal en unidades por minuto en lugar de sobre el valor.
+ * El sentido de la regla (por encima o por debajo del umbral) y su
+ * severidad son independientes: el operador da el sentido y {@code nivel}
+ * la severidad ({@code alto} equivale a {@code alarma} y {@code bajo} a
+ * {@code aviso}). Por defecto las reglas de valor son alarmas y las de
+ * tasa, avisos.
+ * {@link MotorReglas} compila estas reglas a arreglos primitivos.
+ */
+public class ReglaAlerta {
+    /** Ninguna regla activa */
+    public static final int SEVERIDAD_NINGUNA = 0;
+    public static final int SEVERIDAD_AVISO = 1;
+    public static final int SEVERIDAD_ALARMA = 2;
+
+    private final String nombre;
+    private final String expresion;
+    private final int canal;
+    private final boolean tasa;
+    private final boolean mayorQue;
+    private final float umbral;
+    private final float histeresis;
+    private final long duracionMs;
+    private final int severidad;
+
+    private ReglaAlerta(String nombre, String expresion, int canal, boolean tasa,
+                        boolean mayorQue, float umbral, float histeresis,
+                        long duracionMs, int severidad) {
+        this.nombre = nombre;
+        this.expresion = expresion;
+        this.canal = canal;
+        this.tasa = tasa;
+        this.mayorQue = mayorQue;
+        this.umbral = umbral;
+        this.histeresis = histeresis;
+        this.duracionMs = duracionMs;
+        this.severidad = severidad;
+    }
+
+    /**
+     * Analiza la expresión textual de una regla.
+     *
+     * @param nombre    El nombre de la regla (clave de configuración).
+     * @param expresion El texto de la regla.
+     * @param registro  El registro donde se resuelve el nombre del canal.
+     * @return La regla analizada.
+     * @throws IllegalArgumentException Si la expresión no es válida.
+     */
+    public static ReglaAlerta parsear(String nombre, String expresion, RegistroCanales registro) {
+        String[] t = expresion.trim().toLowerCase().split("\\s+");
+        int i = 0;
+        try {
+            int canal = registro.resolverNombre(t[i++]);
+            boolean tasa = false;
+            if (t[i].equals("tasa")) {
+                tasa = true;
+                i++;
+            }
+
+            boolean mayorQue;
+            if (t[i].equals(">")) {
+                mayorQue = true;
+            } else if (t[i].equals("<")) {
+                mayorQue = false;
+            } else {
+                throw new IllegalArgumentException("Operador inválido en la regla " + nombre + ": " + t[i]);
+            }
+            i++;
+            float umbral = Float.parseFloat(t[i++]);
+
+            /*
+             * Modificadores opcionales en cualquier orden.
+             */
+            float histeresis = 0f;
+            long duracionMs = 0;
+            int severidad = tasa ? SEVERIDAD_AVISO : SEVERIDAD_ALARMA;
+            while (i < t.length) {
+                String palabra = t[i++];
+                String argumento = t[i++];
+                switch (palabra) {
+                    case "histeresis":
+                        histeresis = Math.abs(Float.parseFloat(argumento));
+                        break;
+                    case "durante":
+                        if (argumento.endsWith("s")) {
+                            argumento = argumento.substring(0, argumento.length() - 1);
+                        }
+                        duracionMs = Math.round(Double.parseDouble(argumento) * 1000);
+                        break;
+                    case "nivel":
+                        severidad = parsearSeveridad(argumento);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Modificador desconocido en la regla " + nombre + ": " + palabra);
+                }
+            }
+            return new ReglaAlerta(nombre, expresion.trim(), canal, tasa, mayorQue,
+                                   umbral, histeresis, duracionMs, severidad);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Regla inválida " + nombre + ": " + expresion);
+        }
+    }
+
+    private static int parsearSeveridad(String texto) {
+        switch (texto) {
+            case "alarma":
+            case "alto":
+                return SEVERIDAD_ALARMA;
+            case "aviso":
+            case "bajo":
+                return SEVERIDAD_AVISO;
+            default: throw new IllegalArgumentException("Nivel desconocido: " + texto);
+        }
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    public String getExpresion() {
+        return expresion;
+    }
+
+    public int getCanal() {
+        return canal;
+    }
+
+    public boolean isTasa() {
+        return tasa;
+    }
+
+    public boolean isMayorQue() {
+        return mayorQue;
+    }
+
+    public float getUmbral() {
+        return umbral;
+    }
+
+    public float getHisteresis() {
+        return histeresis;
+    }
+
+    public long getDuracionMs() {
+        return duracionMs;
+    }
+
+    /**
+     * Severidad de la regla: {@link #SEVERIDAD_AVISO} o {@link #SEVERIDAD_ALARMA}.
+     */
+    public int getSeveridad() {
+        return severidad;
+    }
+
+    @Override
+    public String toString() {
+        return nombre + " (" + expresion + ")";
+    }
+}
@@ -0,0 +1,276 @@
+package com.untels.hito2labo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resultado parcial del análisis fuera de línea de un trozo de datos de un
+ * dispositivo: acumulados por hora de cada columna y, para cada umbral,
+ * el tiempo total por encima (o por debajo) y el número de episodios.
+ * Los resultados de trozos consecutivos se combinan teniendo en cuenta el
+ * intervalo entre la última fila de uno y la primera del siguiente.
+ * Los tiempos son "locales": segundos de reloj de pared como si fueran UTC,
+ * de modo que la hora y el día coinciden con los del archivo exportado.
+ */
+public class ResultadoAnalisis {
+    /**
+     * Umbral de excedencia sobre una columna ("temperatura>30").
+     */
+    public static class Umbral {
+        public final String texto;
+        public final String columna;
+        public final boolean mayorQue;
+        public final float valor;
+
+        public Umbral(String texto, String columna, boolean mayorQue, float valor) {
+            this.texto = texto;
+            this.columna = columna;
+            this.mayorQue = mayorQue;
+            this.valor = valor;
+        }
+
+        /**
+         * Analiza un umbral con la forma "columna&gt;valor" o "columna&lt;valor".
+         *
+         * @throws IllegalArgumentException Si el texto no tiene esa forma.
+         */
+        public static Umbral parsear(String texto) {
+            int operador = Math.max(texto.indexOf('>'), texto.indexOf('<'));
+            if (operador <= 0) {
+                throw new IllegalArgumentException("Umbral inválido: " + texto);
+            }
+            try {
+                return new Umbral(texto, texto.substring(0, operador).trim().toLowerCase(),
+                                  texto.charAt(operador) == '>',
+                                  Float.parseFloat(texto.substring(operador + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Umbral inválido: " + texto);
+            }
+        }
+
+        boolean excede(float x) {
+            return mayorQue ? x > valor : x < valor;
+        }
+
+        /**
+         * Indica si el umbral se refiere a la columna con el título dado
+         * ("temperatura" corresponde a "Temperatura (C)").
+         */
+        public boolean correspondeA(String titulo) {
+            String t = titulo.toLowerCase();
+            return t.equals(columna) || t.startsWith(columna + " ");
+        }
+    }
+
+    /**
+     * Número de muestras, suma, mínimo y máximo de una columna en una hora.
+     */
+    public static class Acumulado {
+        public long muestras;
+        public double suma;
+        public float minimo = Float.POSITIVE_INFINITY;
+        public float maximo = Float.NEGATIVE_INFINITY;
+
+        void agregar(float valor) {
+            muestras++;
+            suma += valor;
+            if (valor < minimo) minimo = valor;
+            if (valor > maximo) maximo = valor;
+        }
+
+        public void combinar(Acumulado otro) {
+            muestras += otro.muestras;
+            suma += otro.suma;
+            minimo = Math.min(minimo, otro.minimo);
+            maximo = Math.max(maximo, otro.maximo);
+        }
+
+        public double getMedia() {
+            return muestras == 0 ? Double.NaN : suma / muestras;
+        }
+    }
+
+    private final int numColumnas;
+    private final int[] columnaDeUmbral;
+    private final Umbral[] umbrales;
+    private final long huecoMaximoMs;
+
+    /* Por columna: hora local (segundos / 3600) -> acumulado */
+    private final List<Map<Long, Acumulado>> porHora;
+
+    private final long[] excedenciaMs;
+    private final long[] episodios;
+    /* Por umbral: día local -> milisegundos por encima del umbral */
+    private final List<Map<Long, Long>> excedenciaPorDia;
+
+    private long filas;
+    private long filasInvalidas;
+    private long primerTiempo = Long.MIN_VALUE;
+    private long ultimoTiempo = Long.MIN_VALUE;
+    private final boolean[] primeraExcede;
+    private final boolean[] ultimaExcede;
+
+    /**
+     * @param numColumnas     Número de columnas analizadas.
+     * @param umbrales        Umbrales a evaluar.
+     * @param columnaDeUmbral Índice de columna de cada umbral (-1 si no existe en la entrada).
+     * @param huecoMaximoMs   Intervalo máximo entre filas que se cuenta como continuo.
+     */
+    public ResultadoAnalisis(int numColumnas, Umbral[] umbrales, int[] columnaDeUmbral, long huecoMaximoMs) {
+        this.numColumnas = numColumnas;
+        this.umbrales = umbrales;
+        this.columnaDeUmbral = columnaDeUmbral;
+        this.huecoMaximoMs = huecoMaximoMs;
+        this.porHora = new java.util.ArrayList<>(numColumnas);
+        for (int c = 0; c < numColumnas; c++) {
+            porHora.add(new HashMap<>());
+        }
+        this.excedenciaMs = new long[umbrales.length];
+        this.episodios = new long[umbrales.length];
+        this.excedenciaPorDia = new java.util.ArrayList<>(umbrales.length);
+        for (int u = 0; u < umbrales.length; u++) {
+            excedenciaPorDia.add(new HashMap<>());
+        }
+        this.primeraExcede = new boolean[umbrales.length];
+        this.ultimaExcede = new boolean[umbrales.length];
+    }
+
+    /**
+     * Crea un resultado vacío con la misma forma que este.
+     */
+    public ResultadoAnalisis vacio() {
+        return new ResultadoAnalisis(numColumnas, umbrales, columnaDeUmbral, huecoMaximoMs);
+    }
+
+    /**
+     * Procesa una fila; las filas deben llegar en orden de tiempo.
+     *
+     * @param tiempoLocalMs Instante local de la fila.
+     * @param valores       Valor de cada columna (NaN si falta).
+     */
+    public void agregarFila(long tiempoLocalMs, float[] valores) {
+        long hora = Math.floorDiv(tiempoLocalMs, 3_600_000L);
+        for (int c = 0; c < numColumnas; c++) {
+            float v = valores[c];
+            if (Float.isNaN(v)) continue;
+            Map<Long, Acumulado> mapa = porHora.get(c);
+            Acumulado acumulado = mapa.get(hora);
+            if (acumulado == null) {
+                acumulado = new Acumulado();
+                mapa.put(hora, acumulado);
+            }
+            acumulado.agregar(v);
+        }
+
+        boolean primeraFila = filas == 0;
+        /* Tras un hueco mayor que el máximo la excedencia empieza un episodio nuevo */
+        boolean hueco = !primeraFila && tiempoLocalMs - ultimoTiempo > huecoMaximoMs;
+        for (int u = 0; u < umbrales.length; u++) {
+            int c = columnaDeUmbral[u];
+            boolean excede = c >= 0 && umbrales[u].excede(valores[c]);
+            if (primeraFila) {
+                primeraExcede[u] = excede;
+            } else if (ultimaExcede[u]) {
+                sumarExcedencia(u, ultimoTiempo, tiempoLocalMs);
+            }
+            if (excede && (primeraFila || !ultimaExcede[u] || hueco)) {
+                episodios[u]++;
+            }
+            ultimaExcede[u] = excede;
+        }
+        if (primeraFila) {
+            primerTiempo = tiempoLocalMs;
+        }
+        ultimoTiempo = tiempoLocalMs;
+        filas++;
+    }
+
+    /*
+     * El intervalo entre dos filas cuenta como excedencia si la primera
+     * excedía; un hueco mayor que el máximo solo cuenta hasta ese máximo.
+     */
+    private void sumarExcedencia(int u, long desde, long hasta) {
+        long duracion = Math.min(Math.max(0, hasta - desde), huecoMaximoMs);
+        excedenciaMs[u] += duracion;
+        excedenciaPorDia.get(u).merge(Math.floorDiv(desde, 86_400_000L), duracion, Long::sum);
+    }
+
+    public void contarFilaInvalida() {
+        filasInvalidas++;
+    }
+
+    /**
+     * Combina con el resultado de otro trozo.
+     *
+     * @param otro      El otro resultado.
+     * @param siguiente True si el otro trozo va justo a continuación de este
+     *                  (mismo archivo), para unir el intervalo de la frontera.
+     */
+    public void combinar(ResultadoAnalisis otro, boolean siguiente) {
+        for (int c = 0; c < numColumnas; c++) {
+            Map<Long, Acumulado> mapa = porHora.get(c);
+            for (Map.Entry<Long, Acumulado> e : otro.porHora.get(c).entrySet()) {
+                Acumulado propio = mapa.get(e.getKey());
+                if (propio == null) {
+                    mapa.put(e.getKey(), e.getValue());
+                } else {
+                    propio.combinar(e.getValue());
+                }
+            }
+        }
+        for (int u = 0; u < umbrales.length; u++) {
+            excedenciaMs[u] += otro.excedenciaMs[u];
+            episodios[u] += otro.episodios[u];
+            Map<Long, Long> dias = excedenciaPorDia.get(u);
+            for (Map.Entry<Long, Long> e : otro.excedenciaPorDia.get(u).entrySet()) {
+                dias.merge(e.getKey(), e.getValue(), Long::sum);
+            }
+            if (siguiente && filas > 0 && otro.filas > 0 && ultimaExcede[u]) {
+                sumarExcedencia(u, ultimoTiempo, otro.primerTiempo);
+                if (otro.primeraExcede[u] && otro.primerTiempo - ultimoTiempo <= huecoMaximoMs) {
+                    /* El episodio continúa a través de la frontera (sin hueco) */
+                    episodios[u]--;
+                }
+            }
+        }
+        if (otro.filas > 0) {
+            if (filas == 0) {
+                primerTiempo = otro.primerTiempo;
+                System.arraycopy(otro.primeraExcede, 0, primeraExcede, 0, umbrales.length);
+            }
+            ultimoTiempo = otro.ultimoTiempo;
+            System.arraycopy(otro.ultimaExcede, 0, ultimaExcede, 0, umbrales.length);
+        }
+        filas += otro.filas;
+        filasInvalidas += otro.filasInvalidas;
+    }
+
+    public int getNumColumnas() {
+        return numColumnas;
+    }
+
+    public long getFilas() {
+        return filas;
+    }
+
+    public long getFilasInvalidas() {
+        return filasInvalidas;
+    }
+
+    public Map<Long, Acumulado> getPorHora(int columna) {
+        return porHora.get(columna);
+    }
+
+    public long getExcedenciaMs(int umbral) {
+        return excedenciaMs[umbral];
+    }
+
+    public long getEpisodios(int umbral) {
+        return episodios[umbral];
+    }
+
+    public Map<Long, Long> getExcedenciaPorDia(int umbral) {
+        return excedenciaPorDia.get(umbral);
+    }
+}
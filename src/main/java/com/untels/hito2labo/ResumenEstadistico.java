@@ -0,0 +1,73 @@
+package com.untels.hito2labo;
+
+/**
+ * Resultado inmutable de una consulta de estadísticas: número de muestras,
+ * media, desviación típica y percentiles 5, 50 y 95.
+ */
+public class ResumenEstadistico {
+    public static final ResumenEstadistico VACIO =
+        new ResumenEstadistico(0, Double.NaN, 0, Float.NaN, Float.NaN, Float.NaN);
+
+    private static final double[] CUANTILES = {0.05, 0.50, 0.95};
+
+    private final long cantidad;
+    private final double media;
+    private final double desviacion;
+    private final float p5;
+    private final float p50;
+    private final float p95;
+
+    public ResumenEstadistico(long cantidad, double media, double desviacion,
+                              float p5, float p50, float p95) {
+        this.cantidad = cantidad;
+        this.media = media;
+        this.desviacion = desviacion;
+        this.p5 = p5;
+        this.p50 = p50;
+        this.p95 = p95;
+    }
+
+    /**
+     * Construye el resumen a partir de los acumuladores de una consulta.
+     */
+    public static ResumenEstadistico de(EstadisticaWelford welford, SketchKll sketch) {
+        if (welford.getCantidad() == 0) {
+            return VACIO;
+        }
+        float[] percentiles = new float[CUANTILES.length];
+        sketch.getCuantiles(CUANTILES, percentiles);
+        return new ResumenEstadistico(welford.getCantidad(), welford.getMedia(), welford.getDesviacion(),
+                                      percentiles[0], percentiles[1], percentiles[2]);
+    }
+
+    public long getCantidad() {
+        return cantidad;
+    }
+
+    public double getMedia() {
+        return media;
+    }
+
+    public double getDesviacion() {
+        return desviacion;
+    }
+
+    public float getP5() {
+        return p5;
+    }
+
+    public float getP50() {
+        return p50;
+    }
+
+    public float getP95() {
+        return p95;
+    }
+
+    @Override
+    public String toString() {
+        if (cantidad == 0) return "sin datos";
+        return String.format("%.1f ± %.1f (p5 %.1f, p50 %.1f, p95 %.1f; n=%d)",
+                             media, desviacion, p5, p50, p95, cantidad);
+    }
+}
@@ -0,0 +1,144 @@
+package com.untels.hito2labo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Un segmento del historial persistido, proyectado en memoria en solo lectura.
+ * El archivo tiene una cabecera con los canales del segmento y después
+ * registros de tamaño fijo (tiempo, muestras perdidas y, por canal, valor
+ * crudo y filtrado), así que cualquier fila se lee directamente por su
+ * posición sin decodificar el resto. Un registro incompleto al final (cierre
+ * abrupto) se ignora.
+ * Formato: ver {@link ArchivoHistorial}.
+ */
+public class SegmentoHistorial {
+    static final int MAGIA = 0x44485431; // "DHT1"
+    static final int VERSION = 1;
+    static final int BYTES_FIJOS_REGISTRO = 8 + 4;
+
+    private final Path archivo;
+    private final long inicioMs;
+    private final int[] columnaDeCanal = new int[RegistroCanales.MAX_CANALES];
+    private final int tamanoRegistro;
+    private final int inicioDatos;
+    private final int filas;
+    private final ByteBuffer datos;
+
+    private SegmentoHistorial(Path archivo, long inicioMs, int numColumnas, int inicioDatos,
+                              ByteBuffer datos) {
+        this.archivo = archivo;
+        this.inicioMs = inicioMs;
+        this.tamanoRegistro = BYTES_FIJOS_REGISTRO + 8 * numColumnas;
+        this.inicioDatos = inicioDatos;
+        this.datos = datos;
+        this.filas = (datos.capacity() - inicioDatos) / tamanoRegistro;
+        Arrays.fill(columnaDeCanal, -1);
+    }
+
+    /**
+     * Proyecta el archivo en memoria y lee su cabecera; los canales del
+     * segmento se dan de alta en el registro si aún no existían.
+     *
+     * @param archivo  El archivo del segmento.
+     * @param registro El registro de canales de la aplicación.
+     * @return El segmento abierto.
+     * @throws IOException Si el archivo no se puede leer o no es un segmento válido.
+     */
+    public static SegmentoHistorial abrir(Path archivo, RegistroCanales registro) throws IOException {
+        MappedByteBuffer datos;
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            datos = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+        try {
+            if (datos.getInt(0) != MAGIA || datos.getInt(4) != VERSION) {
+                throw new IOException("No es un segmento de historial: " + archivo);
+            }
+            long inicioMs = datos.getLong(8);
+            int numColumnas = datos.getShort(16);
+            int posicion = 18;
+            int[] canales = new int[numColumnas];
+            for (int c = 0; c < numColumnas; c++) {
+                String clave = leerTexto(datos, posicion);
+                posicion += 2 + datos.getShort(posicion);
+                String nombre = leerTexto(datos, posicion);
+                posicion += 2 + datos.getShort(posicion);
+                canales[c] = registro.registrar(clave, nombre);
+            }
+            SegmentoHistorial segmento = new SegmentoHistorial(archivo, inicioMs, numColumnas, posicion, datos);
+            for (int c = 0; c < numColumnas; c++) {
+                segmento.columnaDeCanal[canales[c]] = c;
+            }
+            return segmento;
+        } catch (IndexOutOfBoundsException | IllegalStateException e) {
+            throw new IOException("Segmento de historial dañado: " + archivo);
+        }
+    }
+
+    private static String leerTexto(ByteBuffer datos, int posicion) {
+        byte[] bytes = new byte[datos.getShort(posicion)];
+        datos.get(posicion + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public Path getArchivo() {
+        return archivo;
+    }
+
+    public long getInicioMs() {
+        return inicioMs;
+    }
+
+    public int getFilas() {
+        return filas;
+    }
+
+    public boolean tieneCanal(int canal) {
+        return columnaDeCanal[canal] >= 0;
+    }
+
+    public long getTiempo(int fila) {
+        return datos.getLong(inicioDatos + fila * tamanoRegistro);
+    }
+
+    public int getPerdidas(int fila) {
+        return datos.getInt(inicioDatos + fila * tamanoRegistro + 8);
+    }
+
+    public float getCrudo(int canal, int fila) {
+        int columna = columnaDeCanal[canal];
+        if (columna < 0) return Float.NaN;
+        return datos.getFloat(inicioDatos + fila * tamanoRegistro + BYTES_FIJOS_REGISTRO + columna * 8);
+    }
+
+    public float getFiltrado(int canal, int fila) {
+        int columna = columnaDeCanal[canal];
+        if (columna < 0) return Float.NaN;
+        return datos.getFloat(inicioDatos + fila * tamanoRegistro + BYTES_FIJOS_REGISTRO + columna * 8 + 4);
+    }
+
+    /**
+     * Primera fila con tiempo mayor o igual al indicado (búsqueda binaria).
+     *
+     * @return El índice de la fila, o getFilas() si todas son anteriores.
+     */
+    public int buscarFila(long tiempoMs) {
+        int bajo = 0;
+        int alto = filas;
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (getTiempo(medio) < tiempoMs) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return bajo;
+    }
+}
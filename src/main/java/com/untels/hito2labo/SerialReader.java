@@ -5,16 +5,32 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import com.fazecast.jSerialComm.SerialPort;
 
 public class SerialReader {
-    private SerialPort serialPort;
+    private volatile Transporte serialPort;
     private final AtomicBoolean running = new AtomicBoolean(false);
-    private Thread readThread;
+    private volatile Thread readThread;
     private Thread reconnectThread;
     private String portName;
     private int baudRate = 9600;
     private int reconnectInterval = 5000; // 5 segundos
+    private volatile boolean conectado = false;
+    private int requestedSampleInterval = 0;
+    private static final int SKETCH_SAMPLE_INTERVAL = 2000; // intervalo del sketch por defecto
+    private volatile int sampleInterval = SKETCH_SAMPLE_INTERVAL;
+    /* Estado de la negociación desde el último reinicio de la placa (hilo lector) */
+    private boolean rateConfirmed;
+    private boolean rateRetried;
+    private boolean dataSinceReset;
+    private final CanalComandos canalComandos = new CanalComandos(this::escribirPuerto, true);
+    private volatile TrazaLatencia trazaLatencia;
+    /* Buffer de lectura reutilizado entre lecturas (solo lo usa el hilo lector) */
+    private byte[] readBuffer = new byte[256];
 
     public interface DataListener {
-        void onDataReceived(String data);
+        /**
+         * @param data        La trama completa, sin el terminador ';'.
+         * @param llegadaNanos Instante (System.nanoTime) en que llegó su primer byte.
+         */
+        void onDataReceived(String data, long llegadaNanos);
     }
 
     public interface ConnectionListener {
@@ -23,8 +39,13 @@ public class SerialReader {
         void onConnectionFailed(String error);
     }
 
+    public interface SampleRateListener {
+        void onSampleRateNegotiated(int intervalMs);
+    }
+
     private DataListener dataListener;
     private ConnectionListener connectionListener;
+    private SampleRateListener sampleRateListener;
 
     public void setDataListener(DataListener listener) {
         this.dataListener = listener;
@@ -34,6 +55,28 @@ public class SerialReader {
         this.connectionListener = listener;
     }
 
+    public void setSampleRateListener(SampleRateListener listener) {
+        this.sampleRateListener = listener;
+    }
+
+    /**
+     * Intervalo de muestreo (ms) que se pide a la placa con "RATE &lt;ms&gt;" al conectar.
+     * Se vuelve a pedir si la placa no lo confirma antes de su primera trama
+     * (al abrir el puerto la placa se reinicia y puede perder el comando) o
+     * si se reinicia con el puerto abierto (su secuencia vuelve a 0).
+     * Con 0 no se negocia y se mantiene el intervalo del sketch.
+     */
+    public void setRequestedSampleInterval(int milliseconds) {
+        this.requestedSampleInterval = milliseconds;
+    }
+
+    /**
+     * Intervalo de muestreo vigente: el confirmado por la placa o el del sketch por defecto.
+     */
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
     public void setBaudRate(int baudRate) {
         this.baudRate = baudRate;
     }
@@ -42,26 +85,62 @@ public class SerialReader {
         this.reconnectInterval = milliseconds;
     }
 
+    /**
+     * Activa el protocolo de confirmación de comandos (la placa responde "ACK:id;").
+     */
+    public void setConfirmacionComandos(boolean confirmacion) {
+        canalComandos.setConfirmacion(confirmacion);
+    }
+
+    /**
+     * Indica dónde registrar la latencia de entramado (primer byte de la
+     * trama hasta su terminador).
+     */
+    public void setTrazaLatencia(TrazaLatencia traza) {
+        this.trazaLatencia = traza;
+    }
+
+    /**
+     * Hilo que lee el puerto (null antes de conectar); PruebaAsignaciones mide sus asignaciones.
+     */
+    public Thread getHiloLectura() {
+        return readThread;
+    }
+
+    /**
+     * Transporte abierto (null si no hay); PruebaAsignaciones retiene el simulado para provocar un hueco.
+     */
+    public Transporte getTransporte() {
+        return serialPort;
+    }
+
+    public CanalComandos getCanalComandos() {
+        return canalComandos;
+    }
+
     public void connect(String portName) throws Exception {
         this.portName = portName;
         internalConnect();
     }
 
     private void internalConnect() throws Exception {
-        serialPort = SerialPort.getCommPort(portName);
-        serialPort.setBaudRate(baudRate);
-        serialPort.setComPortTimeouts(
-            SerialPort.TIMEOUT_READ_SEMI_BLOCKING, 
-            0, 
-            0
-        );
-
-        if (!serialPort.openPort()) {
+        // El nombre "SIMULADOR[:factor]" sustituye la placa por un simulador
+        serialPort = TransporteSimulado.esSimulador(portName)
+            ? TransporteSimulado.desdeNombre(portName)
+            : new TransporteSerial(portName, baudRate);
+
+        if (!serialPort.abrir()) {
             throw new Exception("No se pudo abrir el puerto " + portName);
         }
 
         running.set(true);
-        readThread = new Thread(this::readSerialData);
+        conectado = true;
+        canalComandos.iniciar();
+
+        // La placa recién abierta vuelve al intervalo del sketch
+        sampleInterval = SKETCH_SAMPLE_INTERVAL;
+        requestSampleRate();
+        readThread = new Thread(this::readSerialData, "lector-" + portName);
         readThread.setDaemon(true);
         readThread.start();
 
@@ -72,30 +151,41 @@ public class SerialReader {
 
     private void readSerialData() {
         StringBuilder buffer = new StringBuilder();
+        /* Instante de llegada del primer byte pendiente en el buffer */
+        long llegadaInicio = 0;
         
         while (running.get()) {
             try {
                 // Verificar si el puerto sigue conectado
-                if (!serialPort.isOpen() || !serialPort.isOpen()) {
+                if (!serialPort.estaAbierto()) {
                     handleDisconnection();
                     return;
                 }
 
                 // Esperar datos disponibles
-                while (serialPort.bytesAvailable() == 0) {
+                while (serialPort.bytesDisponibles() == 0) {
                     if (!running.get()) return;
                     Thread.sleep(20);
                     
                     // Verificar conexión periódicamente
-                    if (!serialPort.isOpen()) {
+                    if (!serialPort.estaAbierto()) {
                         handleDisconnection();
                         return;
                     }
                 }
 
                 // Leer datos disponibles
-                byte[] readBuffer = new byte[serialPort.bytesAvailable()];
-                int numRead = serialPort.readBytes(readBuffer, readBuffer.length);
+                int available = serialPort.bytesDisponibles();
+                if (available < 0) {
+                    handleDisconnection();
+                    return;
+                }
+                if (available > readBuffer.length) {
+                    readBuffer = new byte[Math.max(available, readBuffer.length * 2)];
+                }
+                EventosJfr.LecturaSerial lectura = EventosJfr.iniciarLectura();
+                int numRead = serialPort.leer(readBuffer, available);
+                long llegada = System.nanoTime();
                 
                 // Si hay error de lectura
                 if (numRead == -1) {
@@ -103,19 +193,75 @@ public class SerialReader {
                     return;
                 }
 
-                String chunk = new String(readBuffer, 0, numRead);
-                buffer.append(chunk);
+                // Las tramas son ASCII: se copian los bytes sin crear cadenas intermedias
+                if (buffer.length() == 0) {
+                    llegadaInicio = llegada;
+                }
+                for (int i = 0; i < numRead; i++) {
+                    buffer.append((char) (readBuffer[i] & 0xFF));
+                }
 
                 // Procesar mensajes completos (terminados en ;)
+                int tramas = 0;
                 int endIndex;
                 while ((endIndex = buffer.indexOf(";")) >= 0) {
                     String completeMessage = buffer.substring(0, endIndex).trim();
                     buffer.delete(0, endIndex + 1);
+                    long inicioTrama = llegadaInicio;
+                    // Lo que queda tras un ';' llegó en la última lectura
+                    llegadaInicio = llegada;
                     
+                    // Las confirmaciones de comandos no se entregan como datos
+                    if (canalComandos.procesarRespuesta(completeMessage)) {
+                        continue;
+                    }
+
+                    // Respuesta a la negociación del intervalo de muestreo
+                    if (completeMessage.startsWith("RATE:")) {
+                        handleSampleRate(completeMessage);
+                        continue;
+                    }
+
+                    // Placa reiniciada o que no recibió el RATE: se vuelve a pedir (una vez)
+                    if (requestedSampleInterval > 0) {
+                        if (dataSinceReset && completeMessage.startsWith("SEQ:0,")) {
+                            requestSampleRate();
+                        } else if (!rateConfirmed && !rateRetried) {
+                            rateRetried = true;
+                            canalComandos.enviar("RATE " + requestedSampleInterval, "RATE", null);
+                        }
+                        dataSinceReset = true;
+                    }
+
                     if (dataListener != null && !completeMessage.isEmpty()) {
-                        dataListener.onDataReceived(completeMessage);
+                        TrazaLatencia traza = trazaLatencia;
+                        if (traza != null) {
+                            traza.registrar(TrazaLatencia.ENTRAMADO, llegada - inicioTrama);
+                        }
+                        dataListener.onDataReceived(completeMessage, inicioTrama);
+                        tramas++;
+                        if (EventosJfr.tramaActiva()) {
+                            EventosJfr.Trama trama = new EventosJfr.Trama();
+                            trama.dispositivo = portName;
+                            trama.bytes = completeMessage.length();
+                            trama.entramado = llegada - inicioTrama;
+                            trama.commit();
+                        }
                     }
                 }
+                if (lectura != null && lectura.shouldCommit()) {
+                    lectura.dispositivo = portName;
+                    lectura.bytes = numRead;
+                    lectura.tramas = tramas;
+                    lectura.commit();
+                }
+
+                // El "\r\n" tras el ';' no cuenta como inicio de la siguiente trama
+                int espacios = 0;
+                while (espacios < buffer.length() && buffer.charAt(espacios) <= ' ') {
+                    espacios++;
+                }
+                buffer.delete(0, espacios);
             } catch (Exception e) {
                 if (running.get()) {
                     handleDisconnection();
@@ -124,12 +270,40 @@ public class SerialReader {
         }
     }
 
+    /*
+     * Negocia el intervalo de muestreo; la placa responde "RATE:<ms>;". Los
+     * RATE pendientes comparten agrupación, así que repetirlo no acumula
+     * comandos.
+     */
+    private void requestSampleRate() {
+        rateConfirmed = false;
+        rateRetried = false;
+        dataSinceReset = false;
+        if (requestedSampleInterval > 0) {
+            canalComandos.enviar("RATE " + requestedSampleInterval, "RATE", null);
+        }
+    }
+
+    private void handleSampleRate(String message) {
+        try {
+            sampleInterval = Integer.parseInt(message.substring(5).trim());
+            rateConfirmed = true;
+            if (sampleRateListener != null) {
+                sampleRateListener.onSampleRateNegotiated(sampleInterval);
+            }
+        } catch (NumberFormatException e) {
+            // Respuesta mal formada: se mantiene el intervalo actual
+        }
+    }
+
     private void handleDisconnection() {
         running.set(false);
+        conectado = false;
+        canalComandos.detener();
         
         // Cerrar puerto si está abierto
-        if (serialPort != null && serialPort.isOpen()) {
-            serialPort.closePort();
+        if (serialPort != null && serialPort.estaAbierto()) {
+            serialPort.cerrar();
         }
         
         // Notificar desconexión
@@ -172,6 +346,8 @@ public class SerialReader {
 
     public void disconnect() {
         running.set(false);
+        conectado = false;
+        canalComandos.detener();
         
         // Detener hilo de lectura
         if (readThread != null) {
@@ -188,13 +364,17 @@ public class SerialReader {
         }
         
         // Cerrar puerto
-        if (serialPort != null && serialPort.isOpen()) {
-            serialPort.closePort();
+        if (serialPort != null && serialPort.estaAbierto()) {
+            serialPort.cerrar();
         }
     }
 
+    /*
+     * Se consulta un indicador en lugar del puerto para que el hilo de eventos
+     * de Swing nunca acceda al puerto serial.
+     */
     public boolean isConnected() {
-        return serialPort != null && serialPort.isOpen() && running.get();
+        return conectado && running.get();
     }
 
     public static String[] getAvailablePorts() {
@@ -205,9 +385,29 @@ public class SerialReader {
         }
         return portNames;
     }
+    /**
+     * Encola un comando para la placa sin bloquear; lo escribe el hilo del canal de comandos.
+     */
     public void sendCommand(String command) {
-    if (serialPort != null && serialPort.isOpen()) {
-        serialPort.writeBytes((command + "\n").getBytes(), command.length() + 1);
+        canalComandos.enviar(command, command, null);
+    }
+
+    /**
+     * Encola un comando y notifica su confirmación o fallo al listener.
+     * Un comando pendiente con la misma clave de agrupación se reemplaza.
+     */
+    public void sendCommand(String command, String agrupacion, CanalComandos.ComandoListener listener) {
+        canalComandos.enviar(command, agrupacion, listener);
+    }
+
+    /*
+     * Escritura en el puerto, invocada solo desde el hilo del canal de comandos.
+     */
+    private int escribirPuerto(byte[] datos, int longitud) {
+        Transporte puerto = serialPort;
+        if (puerto == null || !puerto.estaAbierto()) {
+            return -1;
         }
+        return puerto.escribir(datos, longitud);
     }
 }
\ No newline at end of file
@@ -0,0 +1,354 @@
+package com.untels.hito2labo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Servidor de ingesta por red para placas con Wi-Fi/Ethernet que envían las
+ * mismas tramas "CLAVE:valor,...;" que el sketch por el puerto serial.
+ * Un único hilo atiende con un selector NIO el socket TCP de escucha, todas
+ * las conexiones aceptadas y un socket UDP en el mismo puerto (cada
+ * datagrama lleva una o varias tramas completas). Cada conexión tiene su
+ * propio buffer directo y un acumulador de bytes para la trama en curso,
+ * así que miles de conexiones caben en un hilo sin copias intermedias.
+ * Las tramas completas de una vuelta del selector se entregan juntas al
+ * receptor, con el instante de llegada de la vuelta y el dispositivo que
+ * las envió: la dirección IP del otro extremo, la misma para todas las
+ * conexiones y datagramas de una placa aunque se reconecte.
+ */
+public class ServidorIngesta {
+    /**
+     * Receptor de las tramas recibidas, llamado desde el hilo del servidor.
+     * Los arreglos se reutilizan: hay que copiar lo que se quiera conservar.
+     */
+    public interface ReceptorTramas {
+        void tramasRecibidas(String[] tramas, long[] llegadasNanos, String[] dispositivos, int cantidad);
+    }
+
+    private static final int TAMANO_BUFFER = 2048;
+    private static final int TAMANO_DATAGRAMA = 8192;
+    private static final int LONGITUD_MAXIMA_TRAMA = 256;
+    private static final int MAX_TRAMAS_POR_ENTREGA = 4096;
+    /* Lecturas seguidas de una conexión antes de pasar a la siguiente */
+    private static final int MAX_LECTURAS_POR_VUELTA = 8;
+
+    /*
+     * Estado de una conexión TCP (o del socket UDP): su buffer directo, la
+     * trama que se está acumulando y el dispositivo del otro extremo (en el
+     * socket UDP, el del último datagrama).
+     */
+    private static class Conexion {
+        final ByteBuffer buffer;
+        final byte[] trama = new byte[LONGITUD_MAXIMA_TRAMA];
+        int longitud;
+        boolean desbordada;
+        SocketAddress remitente;
+        String dispositivo;
+
+        Conexion(int tamano) {
+            buffer = ByteBuffer.allocateDirect(tamano);
+        }
+    }
+
+    private final InetSocketAddress direccion;
+    private final int maxConexiones;
+    private final ReceptorTramas receptor;
+    private final String[] tramas = new String[MAX_TRAMAS_POR_ENTREGA];
+    private final long[] llegadas = new long[MAX_TRAMAS_POR_ENTREGA];
+    private final String[] dispositivos = new String[MAX_TRAMAS_POR_ENTREGA];
+    private int pendientes;
+
+    private Selector selector;
+    private ServerSocketChannel canalTcp;
+    private DatagramChannel canalUdp;
+    private Thread hilo;
+    private volatile boolean activo;
+
+    /* Contadores escritos solo por el hilo del servidor */
+    private volatile int conexiones;
+    private volatile long conexionesAceptadas;
+    private volatile long conexionesRechazadas;
+    private volatile long tramasRecibidas;
+    private volatile long tramasDescartadas;
+    private volatile long bytesRecibidos;
+
+    /**
+     * @param direccion     Dirección y puerto de escucha (TCP y UDP).
+     * @param maxConexiones Número máximo de conexiones TCP simultáneas.
+     * @param receptor      Destino de las tramas.
+     */
+    public ServidorIngesta(InetSocketAddress direccion, int maxConexiones, ReceptorTramas receptor) {
+        this.direccion = direccion;
+        this.maxConexiones = maxConexiones;
+        this.receptor = receptor;
+    }
+
+    /**
+     * Crea el servidor según la configuración (claves ingesta.puerto,
+     * ingesta.direccion e ingesta.conexiones), o devuelve null si el puerto
+     * es 0 (desactivado, por defecto).
+     */
+    public static ServidorIngesta desdeConfiguracion(Configuracion configuracion, ReceptorTramas receptor) {
+        int puerto = configuracion.getEntero("ingesta.puerto", 0);
+        if (puerto <= 0) {
+            return null;
+        }
+        return new ServidorIngesta(
+            new InetSocketAddress(configuracion.getTexto("ingesta.direccion", "127.0.0.1"), puerto),
+            configuracion.getEntero("ingesta.conexiones", 10000), receptor);
+    }
+
+    /**
+     * Abre los sockets y arranca el hilo del servidor.
+     *
+     * @throws IOException Si no se puede escuchar en la dirección.
+     */
+    public void iniciar() throws IOException {
+        selector = Selector.open();
+        try {
+            canalTcp = ServerSocketChannel.open();
+            canalTcp.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            canalTcp.bind(direccion, 1024);
+            canalTcp.configureBlocking(false);
+            canalTcp.register(selector, SelectionKey.OP_ACCEPT);
+
+            canalUdp = DatagramChannel.open();
+            /* Margen para las ráfagas de datagramas mientras se atiende el resto */
+            canalUdp.setOption(StandardSocketOptions.SO_RCVBUF, 1024 * 1024);
+            canalUdp.bind(new InetSocketAddress(direccion.getAddress(), getPuerto()));
+            canalUdp.configureBlocking(false);
+            canalUdp.register(selector, SelectionKey.OP_READ, new Conexion(TAMANO_DATAGRAMA));
+        } catch (IOException e) {
+            cerrarCanales();
+            throw e;
+        }
+        activo = true;
+        hilo = new Thread(this::bucle, "servidor-ingesta");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Puerto de escucha (el asignado por el sistema si se pidió el 0).
+     */
+    public int getPuerto() {
+        return canalTcp != null ? canalTcp.socket().getLocalPort() : direccion.getPort();
+    }
+
+    private void bucle() {
+        while (activo) {
+            try {
+                selector.select();
+                long llegada = System.nanoTime();
+                Iterator<SelectionKey> claves = selector.selectedKeys().iterator();
+                while (claves.hasNext()) {
+                    SelectionKey clave = claves.next();
+                    claves.remove();
+                    if (!clave.isValid()) continue;
+                    if (clave.isAcceptable()) {
+                        aceptar();
+                    } else if (clave.channel() == canalUdp) {
+                        leerDatagramas((Conexion) clave.attachment(), llegada);
+                    } else {
+                        leer(clave, llegada);
+                    }
+                }
+                entregar();
+            } catch (IOException e) {
+                if (activo) {
+                    System.err.println("Error en la ingesta de red: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void aceptar() throws IOException {
+        SocketChannel canal;
+        while ((canal = canalTcp.accept()) != null) {
+            if (conexiones >= maxConexiones) {
+                conexionesRechazadas++;
+                canal.close();
+                continue;
+            }
+            canal.configureBlocking(false);
+            Conexion conexion = new Conexion(TAMANO_BUFFER);
+            conexion.dispositivo = dispositivo(canal.getRemoteAddress());
+            canal.register(selector, SelectionKey.OP_READ, conexion);
+            conexiones++;
+            conexionesAceptadas++;
+        }
+    }
+
+    private void leer(SelectionKey clave, long llegada) {
+        SocketChannel canal = (SocketChannel) clave.channel();
+        Conexion conexion = (Conexion) clave.attachment();
+        try {
+            for (int i = 0; i < MAX_LECTURAS_POR_VUELTA; i++) {
+                int leidos = canal.read(conexion.buffer);
+                if (leidos < 0) {
+                    cerrar(clave);
+                    return;
+                }
+                if (leidos == 0) return;
+                bytesRecibidos += leidos;
+                extraerTramas(conexion, llegada);
+            }
+        } catch (IOException e) {
+            cerrar(clave);
+        }
+    }
+
+    private void leerDatagramas(Conexion conexion, long llegada) throws IOException {
+        for (int i = 0; i < MAX_LECTURAS_POR_VUELTA; i++) {
+            SocketAddress remitente = canalUdp.receive(conexion.buffer);
+            if (remitente == null) return;
+            /* Los datagramas seguidos de una placa reutilizan su nombre */
+            if (!remitente.equals(conexion.remitente)) {
+                conexion.remitente = remitente;
+                conexion.dispositivo = dispositivo(remitente);
+            }
+            bytesRecibidos += conexion.buffer.position();
+            extraerTramas(conexion, llegada);
+            /* Un datagrama no continúa en el siguiente: lo incompleto se descarta */
+            if (conexion.longitud > 0 || conexion.desbordada) {
+                tramasDescartadas++;
+            }
+            conexion.longitud = 0;
+            conexion.desbordada = false;
+        }
+    }
+
+    /*
+     * Recorre los bytes recibidos: cada ';' cierra una trama. Las tramas que
+     * superan la longitud máxima se descartan enteras.
+     */
+    private void extraerTramas(Conexion conexion, long llegada) {
+        ByteBuffer buffer = conexion.buffer;
+        int fin = buffer.position();
+        for (int i = 0; i < fin; i++) {
+            byte b = buffer.get(i);
+            if (b == ';') {
+                if (conexion.desbordada) {
+                    tramasDescartadas++;
+                } else if (conexion.longitud > 0) {
+                    String trama = new String(conexion.trama, 0, conexion.longitud, StandardCharsets.US_ASCII).trim();
+                    if (!trama.isEmpty()) {
+                        agregar(trama, llegada, conexion.dispositivo);
+                    }
+                }
+                conexion.longitud = 0;
+                conexion.desbordada = false;
+            } else if (conexion.longitud < LONGITUD_MAXIMA_TRAMA) {
+                conexion.trama[conexion.longitud++] = b;
+            } else {
+                conexion.desbordada = true;
+            }
+        }
+        buffer.clear();
+    }
+
+    private void agregar(String trama, long llegada, String dispositivo) {
+        if (pendientes == MAX_TRAMAS_POR_ENTREGA) {
+            entregar();
+        }
+        tramas[pendientes] = trama;
+        llegadas[pendientes] = llegada;
+        dispositivos[pendientes] = dispositivo;
+        pendientes++;
+        tramasRecibidas++;
+    }
+
+    private void entregar() {
+        if (pendientes == 0) return;
+        receptor.tramasRecibidas(tramas, llegadas, dispositivos, pendientes);
+        Arrays.fill(tramas, 0, pendientes, null);
+        Arrays.fill(dispositivos, 0, pendientes, null);
+        pendientes = 0;
+    }
+
+    /*
+     * Nombre del dispositivo: la dirección IP del remitente, sin el puerto.
+     */
+    private static String dispositivo(SocketAddress remitente) {
+        return remitente instanceof InetSocketAddress
+            ? ((InetSocketAddress) remitente).getAddress().getHostAddress()
+            : String.valueOf(remitente);
+    }
+
+    private void cerrar(SelectionKey clave) {
+        clave.cancel();
+        try {
+            clave.channel().close();
+        } catch (IOException e) {
+            // La conexión ya está cerrada
+        }
+        conexiones--;
+    }
+
+    /**
+     * Detiene el hilo y cierra todas las conexiones.
+     */
+    public void detener() {
+        activo = false;
+        if (selector == null) return;
+        selector.wakeup();
+        if (hilo != null) {
+            try {
+                hilo.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (SelectionKey clave : selector.keys()) {
+            try {
+                clave.channel().close();
+            } catch (IOException e) {
+                // Se sigue cerrando el resto
+            }
+        }
+        cerrarCanales();
+        conexiones = 0;
+    }
+
+    private void cerrarCanales() {
+        try {
+            if (canalTcp != null) canalTcp.close();
+            if (canalUdp != null) canalUdp.close();
+            selector.close();
+        } catch (IOException e) {
+            // Nada más que cerrar
+        }
+    }
+
+    public int getConexiones() {
+        return conexiones;
+    }
+
+    public long getTramasRecibidas() {
+        return tramasRecibidas;
+    }
+
+    public long getTramasDescartadas() {
+        return tramasDescartadas;
+    }
+
+    /**
+     * Resumen de una línea para el registro de eventos.
+     */
+    public String resumen() {
+        return "Ingesta de red: " + tramasRecibidas + " tramas (" + tramasDescartadas + " descartadas), "
+            + bytesRecibidos + " bytes, " + conexionesAceptadas + " conexiones ("
+            + conexiones + " abiertas, " + conexionesRechazadas + " rechazadas)";
+    }
+}
@@ -0,0 +1,185 @@
+package com.untels.hito2labo;
+
+import java.util.Arrays;
+
+/**
+ * Resumen de cuantiles KLL (Karnin, Lang y Liberty) con memoria acotada.
+ * Las muestras se guardan en niveles; el nivel h representa cada elemento
+ * con peso 2^h. Cuando un nivel se llena se ordena y la mitad de sus
+ * elementos (pares o impares, al azar) sube al nivel siguiente. Las
+ * capacidades decrecen geométricamente hacia los niveles bajos, así que
+ * la memoria total es de unos 3k elementos y el error de rango es del
+ * orden de 1/k. Dos resúmenes se combinan concatenando sus niveles.
+ * Añadir una muestra no reserva memoria salvo al crecer un nivel.
+ */
+public class SketchKll {
+    private static final int MAX_NIVELES = 40;
+    private static final int CAPACIDAD_MINIMA = 8;
+
+    private final int k;
+    private final float[][] niveles = new float[MAX_NIVELES][];
+    private final int[] tamanos = new int[MAX_NIVELES];
+    private int numNiveles = 1;
+    private long cantidad;
+    private long aleatorio = 0x9E3779B97F4A7C15L;
+
+    /* Búfer reutilizado para las consultas: valor ordenable y nivel en un long */
+    private long[] claves = new long[0];
+
+    /**
+     * @param k Parámetro de precisión (200 da un error de rango de ~1,5 %).
+     */
+    public SketchKll(int k) {
+        this.k = Math.max(CAPACIDAD_MINIMA, k);
+    }
+
+    public void agregar(float valor) {
+        if (Float.isNaN(valor)) return;
+        insertar(0, valor);
+        cantidad++;
+        if (tamanos[0] >= capacidad(0)) {
+            compactar(0);
+        }
+    }
+
+    /**
+     * Suma a este resumen las muestras de otro.
+     */
+    public void combinar(SketchKll otro) {
+        if (otro.cantidad == 0) return;
+        for (int h = 0; h < otro.numNiveles; h++) {
+            for (int i = 0; i < otro.tamanos[h]; i++) {
+                insertar(h, otro.niveles[h][i]);
+            }
+        }
+        numNiveles = Math.max(numNiveles, otro.numNiveles);
+        cantidad += otro.cantidad;
+        for (int h = 0; h < numNiveles; h++) {
+            if (tamanos[h] >= capacidad(h)) {
+                compactar(h);
+            }
+        }
+    }
+
+    private int capacidad(int nivel) {
+        int profundidad = numNiveles - 1 - nivel;
+        return Math.max(CAPACIDAD_MINIMA, (int) Math.ceil(k * Math.pow(2.0 / 3.0, profundidad)));
+    }
+
+    private void insertar(int nivel, float valor) {
+        float[] datos = niveles[nivel];
+        if (datos == null) {
+            datos = new float[Math.max(CAPACIDAD_MINIMA, capacidad(nivel)) + 1];
+            niveles[nivel] = datos;
+        } else if (tamanos[nivel] == datos.length) {
+            datos = Arrays.copyOf(datos, datos.length * 2);
+            niveles[nivel] = datos;
+        }
+        datos[tamanos[nivel]++] = valor;
+    }
+
+    /*
+     * Ordena el nivel y promociona uno de cada dos elementos al siguiente.
+     * Con un número impar de elementos, el mayor se queda en el nivel.
+     */
+    private void compactar(int nivel) {
+        if (nivel + 1 >= MAX_NIVELES) return;
+        if (nivel == numNiveles - 1) {
+            numNiveles++;
+        }
+        float[] datos = niveles[nivel];
+        int n = tamanos[nivel];
+        Arrays.sort(datos, 0, n);
+        int pares = n & ~1;
+        int desplazamiento = siguienteBit();
+        for (int i = desplazamiento; i < pares; i += 2) {
+            insertar(nivel + 1, datos[i]);
+        }
+        if (pares < n) {
+            datos[0] = datos[n - 1];
+            tamanos[nivel] = 1;
+        } else {
+            tamanos[nivel] = 0;
+        }
+        if (tamanos[nivel + 1] >= capacidad(nivel + 1)) {
+            compactar(nivel + 1);
+        }
+    }
+
+    private int siguienteBit() {
+        aleatorio ^= aleatorio << 13;
+        aleatorio ^= aleatorio >>> 7;
+        aleatorio ^= aleatorio << 17;
+        return (int) (aleatorio & 1);
+    }
+
+    public long getCantidad() {
+        return cantidad;
+    }
+
+    public float getCuantil(double q) {
+        float[] resultado = new float[1];
+        getCuantiles(new double[] {q}, resultado);
+        return resultado[0];
+    }
+
+    /**
+     * Calcula varios cuantiles con una sola ordenación.
+     *
+     * @param q         Cuantiles pedidos entre 0 y 1, en orden creciente.
+     * @param resultado Destino de los valores (NaN si el resumen está vacío).
+     */
+    public void getCuantiles(double[] q, float[] resultado) {
+        int total = 0;
+        long pesoTotal = 0;
+        for (int h = 0; h < numNiveles; h++) {
+            total += tamanos[h];
+            pesoTotal += (long) tamanos[h] << h;
+        }
+        if (total == 0) {
+            Arrays.fill(resultado, 0, q.length, Float.NaN);
+            return;
+        }
+        if (claves.length < total) {
+            claves = new long[total];
+        }
+        int n = 0;
+        for (int h = 0; h < numNiveles; h++) {
+            for (int i = 0; i < tamanos[h]; i++) {
+                claves[n++] = ((long) ordenable(niveles[h][i]) << 32) | h;
+            }
+        }
+        Arrays.sort(claves, 0, n);
+
+        long acumulado = 0;
+        int j = 0;
+        for (int i = 0; i < n && j < q.length; i++) {
+            acumulado += 1L << (int) (claves[i] & 0xFF);
+            while (j < q.length && acumulado >= q[j] * pesoTotal) {
+                resultado[j++] = desdeOrdenable((int) (claves[i] >> 32));
+            }
+        }
+        while (j < q.length) {
+            resultado[j++] = desdeOrdenable((int) (claves[n - 1] >> 32));
+        }
+    }
+
+    /*
+     * Bits del float transformados para que el orden de los enteros con
+     * signo coincida con el de los valores (la transformación es su propia inversa).
+     */
+    private static int ordenable(float valor) {
+        int bits = Float.floatToIntBits(valor);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+
+    private static float desdeOrdenable(int clave) {
+        return Float.intBitsToFloat(clave ^ ((clave >> 31) & 0x7FFFFFFF));
+    }
+
+    public void reset() {
+        Arrays.fill(tamanos, 0);
+        numNiveles = 1;
+        cantidad = 0;
+    }
+}
@@ -0,0 +1,96 @@
+package com.untels.hito2labo;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sumidero "archivo": añade cada evento como una línea JSON al archivo de
+ * la clave sumidero.archivo.ruta (por defecto "sumidero-muestras.jsonl").
+ * Las muestras llevan el instante, las muestras perdidas y, por canal, el
+ * valor filtrado con el nombre del canal y el crudo con el sufijo "_crudo",
+ * como la exportación incremental, y "dispositivo" si vienen de una placa
+ * de red; los eventos de conexión llevan "evento" y "detalle". Cada lote se
+ * vacía al archivo al terminar.
+ */
+public class SumideroArchivo implements SumideroMuestras {
+    private static final String[] EVENTOS = {"muestra", "conectado", "desconectado", "fallo_conexion"};
+
+    private RegistroCanales registro;
+    private BufferedWriter writer;
+    private final StringBuilder linea = new StringBuilder(128);
+
+    @Override
+    public String getNombre() {
+        return "archivo";
+    }
+
+    @Override
+    public void abrir(Configuracion configuracion, RegistroCanales registro) throws IOException {
+        this.registro = registro;
+        Path ruta = Paths.get(configuracion.getTexto("sumidero.archivo.ruta", "sumidero-muestras.jsonl"));
+        if (ruta.getParent() != null) {
+            Files.createDirectories(ruta.getParent());
+        }
+        writer = Files.newBufferedWriter(ruta, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void escribir(LoteEventos lote) throws IOException {
+        for (int i = 0; i < lote.getCantidad(); i++) {
+            linea.setLength(0);
+            linea.append("{\"tiempo\":").append(lote.getTiempo(i));
+            int tipo = lote.getTipo(i);
+            if (tipo == MUESTRA) {
+                if (lote.getDetalle(i) != null) {
+                    linea.append(",\"dispositivo\":\"");
+                    agregarTexto(lote.getDetalle(i));
+                    linea.append('"');
+                }
+                linea.append(",\"perdidas\":").append(lote.getPerdidas(i));
+                for (int j = 0; j < lote.getColumnas(i); j++) {
+                    String nombre = registro.getNombre(lote.getCanal(i, j));
+                    agregarCampo(nombre, "", lote.getFiltrado(i, j));
+                    agregarCampo(nombre, "_crudo", lote.getCrudo(i, j));
+                }
+            } else {
+                linea.append(",\"evento\":\"").append(EVENTOS[tipo]).append('"');
+                if (lote.getDetalle(i) != null) {
+                    linea.append(",\"detalle\":\"");
+                    agregarTexto(lote.getDetalle(i));
+                    linea.append('"');
+                }
+            }
+            linea.append("}\n");
+            writer.append(linea);
+        }
+        writer.flush();
+    }
+
+    @Override
+    public void cerrar() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    private void agregarCampo(String nombre, String sufijo, float valor) {
+        if (Float.isNaN(valor) || Float.isInfinite(valor)) return;
+        linea.append(",\"");
+        agregarTexto(nombre);
+        linea.append(sufijo).append("\":").append(valor);
+    }
+
+    private void agregarTexto(String texto) {
+        for (int c = 0; c < texto.length(); c++) {
+            char ch = texto.charAt(c);
+            if (ch == '"' || ch == '\\') linea.append('\\');
+            linea.append(ch < ' ' ? ' ' : ch);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.untels.hito2labo;
+
+/**
+ * Punto de extensión para enviar las muestras y los eventos de conexión a
+ * otros destinos (archivos, red, bases de datos) sin tocar el Controlador.
+ * Las implementaciones se descubren con {@link java.util.ServiceLoader}
+ * (archivo META-INF/services/com.untels.hito2labo.SumideroMuestras en su
+ * jar) y se activan por nombre con la clave "sumideros".
+ * Cada sumidero activo tiene su propia cola acotada y su propio hilo
+ * ({@link ColaSumidero}): sus métodos se llaman siempre desde ese hilo, uno
+ * cada vez, y un sumidero lento solo retrasa (o pierde) sus propios eventos.
+ * Las implementaciones necesitan un constructor público sin argumentos.
+ */
+public interface SumideroMuestras {
+    /** Tipo de evento: una fila de muestras */
+    int MUESTRA = 0;
+    /** Tipo de evento: el dispositivo se conectó (o reconectó) */
+    int CONECTADO = 1;
+    /** Tipo de evento: el dispositivo se desconectó */
+    int DESCONECTADO = 2;
+    /** Tipo de evento: falló un intento de conexión; el detalle lleva el motivo */
+    int FALLO_CONEXION = 3;
+
+    /**
+     * Nombre con el que se activa y se configura (claves sumidero.&lt;nombre&gt;.*).
+     */
+    String getNombre();
+
+    /**
+     * Prepara el sumidero antes del primer lote.
+     *
+     * @param configuracion La configuración de la aplicación.
+     * @param registro      El registro de canales, para los nombres de los canales.
+     * @throws Exception Si no se puede abrir; el sumidero queda desactivado.
+     */
+    void abrir(Configuracion configuracion, RegistroCanales registro) throws Exception;
+
+    /**
+     * Entrega un lote de eventos en orden de llegada. El lote solo es válido
+     * durante la llamada.
+     *
+     * @throws Exception Si falla; el error se cuenta y el lote se da por entregado.
+     */
+    void escribir(LoteEventos lote) throws Exception;
+
+    /**
+     * Libera el sumidero tras entregar los eventos pendientes.
+     */
+    void cerrar() throws Exception;
+}
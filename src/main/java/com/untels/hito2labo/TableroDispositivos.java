@@ -0,0 +1,74 @@
+package com.untels.hito2labo;
+
+import java.awt.GridLayout;
+import java.awt.event.HierarchyEvent;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.BorderFactory;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+
+/**
+ * Rejilla de teselas, una por dispositivo. Un único reloj de pantalla
+ * recorre las teselas unas pocas veces por segundo y solo repinta las que
+ * recibieron datos desde la vuelta anterior; las muestras no generan
+ * eventos de Swing, así que el coste de la interfaz no crece con el número
+ * de dispositivos ni con su frecuencia de muestreo. El reloj solo corre
+ * mientras el tablero está en pantalla.
+ */
+public class TableroDispositivos extends JPanel {
+    private static final int COLUMNAS = 4;
+    private static final int PERIODO_REFRESCO_MS = 250;
+
+    private final List<TeselaDispositivo> teselas = new ArrayList<>();
+    private final Timer reloj = new Timer(PERIODO_REFRESCO_MS, e -> refrescar());
+    private long repintados;
+
+    public TableroDispositivos() {
+        setLayout(new GridLayout(0, COLUMNAS, 8, 8));
+        setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        reloj.setCoalesce(true);
+        addHierarchyListener(e -> {
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) == 0) return;
+            if (isShowing()) {
+                reloj.start();
+            } else {
+                reloj.stop();
+            }
+        });
+    }
+
+    /**
+     * Añade la tesela de un dispositivo (en el hilo de eventos).
+     *
+     * @param nombre El nombre mostrado.
+     * @return La tesela, que puede actualizarse desde cualquier hilo.
+     */
+    public TeselaDispositivo agregar(String nombre) {
+        TeselaDispositivo tesela = new TeselaDispositivo(nombre);
+        teselas.add(tesela);
+        add(tesela);
+        revalidate();
+        return tesela;
+    }
+
+    public int getCantidad() {
+        return teselas.size();
+    }
+
+    /**
+     * Número de teselas repintadas por el reloj desde que se creó el tablero.
+     */
+    public long getRepintados() {
+        return repintados;
+    }
+
+    private void refrescar() {
+        long ahora = System.currentTimeMillis();
+        for (int i = 0; i < teselas.size(); i++) {
+            if (teselas.get(i).refrescar(ahora)) {
+                repintados++;
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.untels.hito2labo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Tarea fork/join que analiza un rango de bytes de un CSV exportado.
+ * Los rangos grandes se parten por la mitad; cada hoja proyecta en memoria
+ * solo su trozo (más un margen para terminar la última línea) y lo recorre
+ * byte a byte, sin crear cadenas. Una hoja procesa las líneas que empiezan
+ * dentro de su rango, así que las fronteras no tienen que caer en un salto
+ * de línea.
+ */
+public class TareaAnalisisCsv extends RecursiveTask<ResultadoAnalisis> {
+    private static final long TAMANO_TROZO = 32L * 1024 * 1024;
+    private static final long MARGEN_LINEA = 1024 * 1024;
+
+    private final Path archivo;
+    private final long tamanoArchivo;
+    private final long inicio;
+    private final long fin;
+    /* Para cada campo del CSV, la columna global del análisis o -1 */
+    private final int[] columnaDeCampo;
+    private final ResultadoAnalisis plantilla;
+
+    /**
+     * @param archivo        El CSV a analizar.
+     * @param tamanoArchivo  Su tamaño en bytes.
+     * @param inicio         Primer byte del rango (después del encabezado).
+     * @param fin            Byte siguiente al último del rango.
+     * @param columnaDeCampo Columna global de cada campo (los dos primeros son fecha y hora).
+     * @param plantilla      Resultado vacío con la forma del análisis.
+     */
+    public TareaAnalisisCsv(Path archivo, long tamanoArchivo, long inicio, long fin,
+                            int[] columnaDeCampo, ResultadoAnalisis plantilla) {
+        this.archivo = archivo;
+        this.tamanoArchivo = tamanoArchivo;
+        this.inicio = inicio;
+        this.fin = fin;
+        this.columnaDeCampo = columnaDeCampo;
+        this.plantilla = plantilla;
+    }
+
+    @Override
+    protected ResultadoAnalisis compute() {
+        if (fin - inicio <= TAMANO_TROZO) {
+            try {
+                return analizarTrozo();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        long medio = inicio + (fin - inicio) / 2;
+        TareaAnalisisCsv izquierda = new TareaAnalisisCsv(archivo, tamanoArchivo, inicio, medio, columnaDeCampo, plantilla);
+        TareaAnalisisCsv derecha = new TareaAnalisisCsv(archivo, tamanoArchivo, medio, fin, columnaDeCampo, plantilla);
+        izquierda.fork();
+        ResultadoAnalisis resultadoDerecha = derecha.compute();
+        ResultadoAnalisis resultado = izquierda.join();
+        resultado.combinar(resultadoDerecha, true);
+        return resultado;
+    }
+
+    private ResultadoAnalisis analizarTrozo() throws IOException {
+        ResultadoAnalisis resultado = plantilla.vacio();
+        /* Se proyecta desde un byte antes para saber si el rango empieza en una línea */
+        long desde = Math.max(0, inicio - 1);
+        long hasta = Math.min(tamanoArchivo, fin + MARGEN_LINEA);
+        MappedByteBuffer datos;
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            datos = canal.map(FileChannel.MapMode.READ_ONLY, desde, hasta - desde);
+        }
+        int limite = datos.limit();
+        int finRango = (int) (fin - desde);
+        int posicion = (int) (inicio - desde);
+        if (inicio > 0 && datos.get(posicion - 1) != '\n') {
+            /* La línea empezó en el trozo anterior */
+            while (posicion < limite && datos.get(posicion) != '\n') posicion++;
+            posicion++;
+        }
+
+        float[] valores = new float[plantilla.getNumColumnas()];
+        while (posicion < finRango && posicion < limite) {
+            int finLinea = posicion;
+            while (finLinea < limite && datos.get(finLinea) != '\n') finLinea++;
+            int finContenido = finLinea;
+            if (finContenido > posicion && datos.get(finContenido - 1) == '\r') finContenido--;
+            if (finContenido > posicion) {
+                analizarLinea(datos, posicion, finContenido, valores, resultado);
+            }
+            posicion = finLinea + 1;
+        }
+        return resultado;
+    }
+
+    /*
+     * Línea "yyyy-MM-dd,HH:mm:ss,v1,v2,...": los campos vacíos son NaN.
+     */
+    private void analizarLinea(MappedByteBuffer datos, int inicioLinea, int finLinea,
+                               float[] valores, ResultadoAnalisis resultado) {
+        if (finLinea - inicioLinea < 19 || datos.get(inicioLinea + 10) != ',') {
+            resultado.contarFilaInvalida();
+            return;
+        }
+        int p = inicioLinea;
+        int anio = digitos(datos, p, 4);
+        int mes = digitos(datos, p + 5, 2);
+        int dia = digitos(datos, p + 8, 2);
+        int hora = digitos(datos, p + 11, 2);
+        int minuto = digitos(datos, p + 14, 2);
+        int segundo = digitos(datos, p + 17, 2);
+        if (anio < 0 || mes < 1 || mes > 12 || dia < 1 || dia > 31 || hora < 0 || minuto < 0 || segundo < 0) {
+            resultado.contarFilaInvalida();
+            return;
+        }
+        long tiempoLocalMs = (diasDesdeEpoca(anio, mes, dia) * 86_400L
+            + hora * 3600L + minuto * 60L + segundo) * 1000L;
+
+        Arrays.fill(valores, Float.NaN);
+        int campo = 2;
+        int inicioCampo = inicioLinea + 20;
+        while (inicioCampo <= finLinea && campo < columnaDeCampo.length) {
+            int finCampo = inicioCampo;
+            while (finCampo < finLinea && datos.get(finCampo) != ',') finCampo++;
+            int columna = columnaDeCampo[campo];
+            if (columna >= 0) {
+                valores[columna] = parsearDecimal(datos, inicioCampo, finCampo);
+            }
+            campo++;
+            inicioCampo = finCampo + 1;
+        }
+        resultado.agregarFila(tiempoLocalMs, valores);
+    }
+
+    private static int digitos(MappedByteBuffer datos, int posicion, int cantidad) {
+        int valor = 0;
+        for (int i = 0; i < cantidad; i++) {
+            int d = datos.get(posicion + i) - '0';
+            if (d < 0 || d > 9) return -1;
+            valor = valor * 10 + d;
+        }
+        return valor;
+    }
+
+    /*
+     * Días desde 1970-01-01 de una fecha del calendario gregoriano
+     * (algoritmo "days from civil" de H. Hinnant).
+     */
+    static long diasDesdeEpoca(int anio, int mes, int dia) {
+        int y = mes <= 2 ? anio - 1 : anio;
+        int era = Math.floorDiv(y, 400);
+        int anioEra = y - era * 400;
+        int diaAnio = (153 * (mes + (mes > 2 ? -3 : 9)) + 2) / 5 + dia - 1;
+        int diaEra = anioEra * 365 + anioEra / 4 - anioEra / 100 + diaAnio;
+        return era * 146097L + diaEra - 719468;
+    }
+
+    /*
+     * Número decimal con signo y exponente opcional ("-12.5", "3.0E-4");
+     * NaN si el campo está vacío o no es un número.
+     */
+    static float parsearDecimal(MappedByteBuffer datos, int inicio, int fin) {
+        if (inicio >= fin) return Float.NaN;
+        int i = inicio;
+        boolean negativo = false;
+        byte c = datos.get(i);
+        if (c == '-' || c == '+') {
+            negativo = c == '-';
+            i++;
+        }
+        long mantisa = 0;
+        int exponente = 0;
+        boolean digitos = false;
+        boolean punto = false;
+        for (; i < fin; i++) {
+            c = datos.get(i);
+            if (c >= '0' && c <= '9') {
+                if (mantisa < 100_000_000_000_000L) {
+                    mantisa = mantisa * 10 + (c - '0');
+                    if (punto) exponente--;
+                } else if (!punto) {
+                    exponente++;
+                }
+                digitos = true;
+            } else if (c == '.' && !punto) {
+                punto = true;
+            } else if ((c == 'E' || c == 'e') && digitos) {
+                int signo = 1;
+                int valor = 0;
+                i++;
+                if (i < fin && (datos.get(i) == '-' || datos.get(i) == '+')) {
+                    signo = datos.get(i) == '-' ? -1 : 1;
+                    i++;
+                }
+                if (i >= fin) return Float.NaN;
+                for (; i < fin; i++) {
+                    int d = datos.get(i) - '0';
+                    if (d < 0 || d > 9) return Float.NaN;
+                    valor = Math.min(valor * 10 + d, 1000);
+                }
+                exponente += signo * valor;
+                break;
+            } else {
+                return Float.NaN;
+            }
+        }
+        if (!digitos) return Float.NaN;
+        double valor = exponente >= 0 ? mantisa * Math.pow(10, exponente) : mantisa / Math.pow(10, -exponente);
+        return (float) (negativo ? -valor : valor);
+    }
+}
@@ -0,0 +1,87 @@
+package com.untels.hito2labo;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Tarea fork/join que analiza segmentos del historial persistido (ya
+ * proyectados en memoria). La lista se parte por la mitad hasta llegar a un
+ * segmento por tarea; cada segmento cubre como máximo una hora, así que
+ * las hojas quedan equilibradas. Los tiempos se pasan a hora local para
+ * que los resúmenes coincidan con los de los CSV exportados.
+ */
+public class TareaAnalisisSegmentos extends RecursiveTask<ResultadoAnalisis> {
+    private final List<SegmentoHistorial> segmentos;
+    private final int desde;
+    private final int hasta;
+    /* Para cada canal del registro, la columna global del análisis o -1 */
+    private final int[] columnaDeCanal;
+    private final ZoneRules zona;
+    private final ResultadoAnalisis plantilla;
+
+    /**
+     * @param segmentos      Segmentos en orden cronológico.
+     * @param columnaDeCanal Columna global de cada canal (-1 si no se analiza).
+     * @param zona           Zona horaria con la que se exportarían los datos.
+     * @param plantilla      Resultado vacío con la forma del análisis.
+     */
+    public TareaAnalisisSegmentos(List<SegmentoHistorial> segmentos, int[] columnaDeCanal,
+                                  ZoneId zona, ResultadoAnalisis plantilla) {
+        this(segmentos, 0, segmentos.size(), columnaDeCanal, zona.getRules(), plantilla);
+    }
+
+    private TareaAnalisisSegmentos(List<SegmentoHistorial> segmentos, int desde, int hasta,
+                                   int[] columnaDeCanal, ZoneRules zona, ResultadoAnalisis plantilla) {
+        this.segmentos = segmentos;
+        this.desde = desde;
+        this.hasta = hasta;
+        this.columnaDeCanal = columnaDeCanal;
+        this.zona = zona;
+        this.plantilla = plantilla;
+    }
+
+    @Override
+    protected ResultadoAnalisis compute() {
+        if (hasta - desde <= 1) {
+            ResultadoAnalisis resultado = plantilla.vacio();
+            if (hasta > desde) {
+                analizar(segmentos.get(desde), resultado);
+            }
+            return resultado;
+        }
+        int medio = (desde + hasta) >>> 1;
+        TareaAnalisisSegmentos izquierda = new TareaAnalisisSegmentos(segmentos, desde, medio, columnaDeCanal, zona, plantilla);
+        TareaAnalisisSegmentos derecha = new TareaAnalisisSegmentos(segmentos, medio, hasta, columnaDeCanal, zona, plantilla);
+        izquierda.fork();
+        ResultadoAnalisis resultadoDerecha = derecha.compute();
+        ResultadoAnalisis resultado = izquierda.join();
+        resultado.combinar(resultadoDerecha, true);
+        return resultado;
+    }
+
+    private void analizar(SegmentoHistorial segmento, ResultadoAnalisis resultado) {
+        float[] valores = new float[plantilla.getNumColumnas()];
+        /* El desfase de la zona solo se recalcula al cambiar de hora */
+        long horaDesfase = Long.MIN_VALUE;
+        long desfaseMs = 0;
+        for (int fila = 0; fila < segmento.getFilas(); fila++) {
+            long tiempo = segmento.getTiempo(fila);
+            long hora = Math.floorDiv(tiempo, 3_600_000L);
+            if (hora != horaDesfase) {
+                horaDesfase = hora;
+                desfaseMs = zona.getOffset(Instant.ofEpochMilli(tiempo)).getTotalSeconds() * 1000L;
+            }
+            Arrays.fill(valores, Float.NaN);
+            for (int canal = 0; canal < columnaDeCanal.length; canal++) {
+                if (columnaDeCanal[canal] >= 0 && segmento.tieneCanal(canal)) {
+                    valores[columnaDeCanal[canal]] = segmento.getFiltrado(canal, fila);
+                }
+            }
+            resultado.agregarFila(tiempo + desfaseMs, valores);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.untels.hito2labo;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import javax.swing.JComponent;
+
+/**
+ * Tesela del tablero con el estado de un dispositivo: temperatura, humedad,
+ * conexión, salud del sensor y severidad de la alerta.
+ * Los datos pueden llegar desde cualquier hilo: solo se guardan y se marca
+ * la tesela como pendiente, sin pedir un repintado. Es el reloj común del
+ * {@link TableroDispositivos} quien repinta, en el hilo de eventos, las
+ * teselas marcadas. El fondo (marco, nombre y rótulos) se dibuja una vez
+ * en una imagen y solo se vuelve a generar si cambia el tamaño.
+ */
+public class TeselaDispositivo extends JComponent {
+    private static final Font FUENTE_NOMBRE = new Font("Arial", Font.BOLD, 13);
+    private static final Font FUENTE_VALOR = new Font("Arial", Font.BOLD, 26);
+    private static final Font FUENTE_ROTULO = new Font("Arial", Font.PLAIN, 11);
+    private static final Color COLOR_MARCO = new Color(200, 200, 200);
+    private static final Color COLOR_CONECTADO = new Color(0, 150, 0);
+    private static final Color COLOR_INACTIVO = Color.ORANGE;
+    /*
+     * Un dispositivo conectado se muestra inactivo tras cinco intervalos de
+     * muestreo sin muestras (10 s con el intervalo por defecto de 2 s).
+     */
+    private static final int INTERVALOS_INACTIVIDAD = 5;
+    private static final long INACTIVIDAD_MINIMA_MS = 2000;
+
+    private final String nombre;
+
+    /* Estado escrito por los hilos de datos (protegido por this) */
+    private float temperatura = Float.NaN;
+    private float humedad = Float.NaN;
+    private boolean conectado;
+    private int severidadAlerta = ReglaAlerta.SEVERIDAD_NINGUNA;
+    private int salud = MonitorSalud.SANO;
+    private long ultimaMuestraMs;
+    private long inactividadMs = INTERVALOS_INACTIVIDAD * 2000L;
+    private volatile boolean pendiente = true;
+
+    /* Estado mostrado, solo en el hilo de eventos */
+    private String textoTemperatura = "--";
+    private String textoHumedad = "--";
+    private Color colorEstado = Color.GRAY;
+    private Color colorValores = Color.DARK_GRAY;
+    private boolean inactivaMostrada;
+
+    private BufferedImage fondo;
+
+    public TeselaDispositivo(String nombre) {
+        this.nombre = nombre;
+        setOpaque(true);
+        setPreferredSize(new Dimension(190, 100));
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    /**
+     * Guarda una muestra del dispositivo. Se puede llamar desde cualquier hilo.
+     *
+     * @param temperatura La temperatura, o NaN si no venía.
+     * @param humedad     La humedad, o NaN si no venía.
+     */
+    public synchronized void actualizar(float temperatura, float humedad) {
+        if (!Float.isNaN(temperatura)) this.temperatura = temperatura;
+        if (!Float.isNaN(humedad)) this.humedad = humedad;
+        ultimaMuestraMs = System.currentTimeMillis();
+        pendiente = true;
+    }
+
+    public synchronized void setConectado(boolean conectado) {
+        if (this.conectado != conectado) {
+            this.conectado = conectado;
+            pendiente = true;
+        }
+    }
+
+    /**
+     * Severidad más alta de las alertas activas del dispositivo (una de las
+     * de ReglaAlerta); da el color de los valores.
+     */
+    public synchronized void setSeveridadAlerta(int severidadAlerta) {
+        if (this.severidadAlerta != severidadAlerta) {
+            this.severidadAlerta = severidadAlerta;
+            pendiente = true;
+        }
+    }
+
+    /**
+     * Intervalo de muestreo confirmado por el dispositivo, del que depende
+     * cuánto silencio se tolera antes de mostrarlo inactivo.
+     */
+    public synchronized void setIntervaloMuestreo(int intervaloMs) {
+        long inactividad = Math.max(INACTIVIDAD_MINIMA_MS, (long) INTERVALOS_INACTIVIDAD * intervaloMs);
+        if (inactividadMs != inactividad) {
+            inactividadMs = inactividad;
+            pendiente = true;
+        }
+    }
+
+    /**
+     * Estado de {@link MonitorSalud}; con el sensor no sano el indicador de
+     * estado se muestra como inactivo.
+     */
+    public synchronized void setSalud(int salud) {
+        if (this.salud != salud) {
+            this.salud = salud;
+            pendiente = true;
+        }
+    }
+
+    /**
+     * Llamado por el reloj del tablero en el hilo de eventos: si el estado
+     * cambió desde el último repintado (o la tesela pasó a inactiva por
+     * falta de muestras) actualiza los textos y pide el repintado.
+     *
+     * @param ahora Instante actual.
+     * @return True si se pidió un repintado.
+     */
+    boolean refrescar(long ahora) {
+        boolean inactiva;
+        synchronized (this) {
+            inactiva = conectado && ultimaMuestraMs > 0 && ahora - ultimaMuestraMs > inactividadMs;
+            if (!pendiente && inactiva == inactivaMostrada) {
+                return false;
+            }
+            pendiente = false;
+            textoTemperatura = Float.isNaN(temperatura) ? "--" : texto(temperatura) + " °C";
+            textoHumedad = Float.isNaN(humedad) ? "--" : texto(humedad) + " %";
+            colorEstado = !conectado ? Color.GRAY
+                : inactiva || salud != MonitorSalud.SANO ? COLOR_INACTIVO
+                : COLOR_CONECTADO;
+            colorValores = severidadAlerta == ReglaAlerta.SEVERIDAD_ALARMA ? Color.RED
+                : severidadAlerta == ReglaAlerta.SEVERIDAD_AVISO ? Color.ORANGE
+                : conectado && !inactiva ? Color.BLACK : Color.GRAY;
+        }
+        inactivaMostrada = inactiva;
+        repaint();
+        return true;
+    }
+
+    /* Un decimal, como en los indicadores principales */
+    private static String texto(float valor) {
+        int decimas = Math.round(valor * 10);
+        int absoluto = Math.abs(decimas);
+        return (decimas < 0 ? "-" : "") + absoluto / 10 + "." + absoluto % 10;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        int ancho = getWidth();
+        int alto = getHeight();
+        if (fondo == null || fondo.getWidth() != ancho || fondo.getHeight() != alto) {
+            fondo = crearFondo(ancho, alto);
+        }
+        g.drawImage(fondo, 0, 0, null);
+
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g2.setColor(colorEstado);
+        g2.fillOval(ancho - 20, 10, 10, 10);
+
+        g2.setFont(FUENTE_VALOR);
+        g2.setColor(colorValores);
+        int columna = ancho / 2;
+        g2.drawString(textoTemperatura, 10, alto - 18);
+        g2.drawString(textoHumedad, columna + 5, alto - 18);
+    }
+
+    /*
+     * Marco, nombre y rótulos: todo lo que no depende de los datos.
+     */
+    private BufferedImage crearFondo(int ancho, int alto) {
+        BufferedImage imagen = getGraphicsConfiguration() != null
+            ? getGraphicsConfiguration().createCompatibleImage(Math.max(1, ancho), Math.max(1, alto))
+            : new BufferedImage(Math.max(1, ancho), Math.max(1, alto), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = imagen.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(getParent() != null ? getParent().getBackground() : Color.LIGHT_GRAY);
+        g.fillRect(0, 0, ancho, alto);
+        g.setColor(Color.WHITE);
+        g.fillRoundRect(1, 1, ancho - 3, alto - 3, 12, 12);
+        g.setColor(COLOR_MARCO);
+        g.setStroke(new BasicStroke(1f));
+        g.drawRoundRect(1, 1, ancho - 3, alto - 3, 12, 12);
+
+        g.setColor(Color.DARK_GRAY);
+        g.setFont(FUENTE_NOMBRE);
+        g.drawString(nombre, 10, 20);
+        g.setFont(FUENTE_ROTULO);
+        g.setColor(Color.GRAY);
+        g.drawString("Temperatura", 10, alto - 48);
+        g.drawString("Humedad", ancho / 2 + 5, alto - 48);
+        g.dispose();
+        return imagen;
+    }
+}
@@ -0,0 +1,38 @@
+package com.untels.hito2labo;
+
+/**
+ * Medio físico por el que SerialReader intercambia bytes con la placa.
+ * Permite sustituir el puerto serial real por un simulador.
+ */
+public interface Transporte {
+
+    /**
+     * Abre el transporte.
+     *
+     * @return True si se abrió correctamente.
+     */
+    boolean abrir();
+
+    void cerrar();
+
+    boolean estaAbierto();
+
+    /**
+     * @return Bytes listos para leer sin bloquear, o -1 si hubo un error.
+     */
+    int bytesDisponibles();
+
+    /**
+     * Lee hasta longitud bytes en el buffer.
+     *
+     * @return Bytes leídos, o -1 si hubo un error.
+     */
+    int leer(byte[] buffer, int longitud);
+
+    /**
+     * Escribe longitud bytes del arreglo.
+     *
+     * @return Bytes escritos, o -1 si hubo un error.
+     */
+    int escribir(byte[] datos, int longitud);
+}
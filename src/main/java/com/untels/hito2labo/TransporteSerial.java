@@ -0,0 +1,52 @@
+package com.untels.hito2labo;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+/**
+ * Transporte sobre un puerto serial real (jSerialComm).
+ */
+public class TransporteSerial implements Transporte {
+    private final SerialPort serialPort;
+
+    public TransporteSerial(String portName, int baudRate) {
+        serialPort = SerialPort.getCommPort(portName);
+        serialPort.setBaudRate(baudRate);
+        serialPort.setComPortTimeouts(
+            SerialPort.TIMEOUT_READ_SEMI_BLOCKING,
+            0,
+            0
+        );
+    }
+
+    @Override
+    public boolean abrir() {
+        return serialPort.openPort();
+    }
+
+    @Override
+    public void cerrar() {
+        if (serialPort.isOpen()) {
+            serialPort.closePort();
+        }
+    }
+
+    @Override
+    public boolean estaAbierto() {
+        return serialPort.isOpen();
+    }
+
+    @Override
+    public int bytesDisponibles() {
+        return serialPort.bytesAvailable();
+    }
+
+    @Override
+    public int leer(byte[] buffer, int longitud) {
+        return serialPort.readBytes(buffer, longitud);
+    }
+
+    @Override
+    public int escribir(byte[] datos, int longitud) {
+        return serialPort.writeBytes(datos, longitud);
+    }
+}
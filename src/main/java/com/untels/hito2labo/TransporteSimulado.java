@@ -0,0 +1,283 @@
+package com.untels.hito2labo;
+
+import java.util.Random;
+
+/**
+ * Transporte que simula la placa Arduino con el sketch del proyecto.
+ * Genera tramas "SEQ:n,TEMP:xx.x,HUM:yy.y;" según el intervalo de muestreo
+ * vigente, responde a los comandos ON/OFF y "RATE &lt;ms&gt;" (con
+ * confirmación "ACK:id;" si el comando la pide) y emite "ERROR;" con la
+ * probabilidad indicada.
+ * El reloj simulado puede acelerarse con un factor de tiempo para
+ * reproducir horas de tráfico en segundos. Las tramas se escriben en un
+ * buffer de bytes propio, sin crear objetos por muestra. Las muestras que
+ * se descartan por atraso consumen su número de secuencia, igual que las
+ * tramas perdidas en un enlace real. Opcionalmente la conexión se corta
+ * tras un tiempo simulado, como un cable que se suelta, para probar las
+ * reconexiones.
+ */
+public class TransporteSimulado implements Transporte {
+    public static final String NOMBRE_PUERTO = "SIMULADOR";
+
+    private static final int INTERVALO_MINIMO_MS = 1000;
+    private static final int INTERVALO_MAXIMO_MS = 60000;
+    private static final int MAX_MUESTRAS_ATRASADAS = 10;
+
+    private final Random random;
+    private final double factorTiempo;
+    private final double probabilidadError;
+    private final long corteMs;
+
+    private boolean abierto;
+    private long origenNanos;
+    private long proximaMuestraMs;
+    private int intervaloMs = 2000;
+    private float temperatura = 24f;
+    private float humedad = 55f;
+    private boolean led;
+    private int secuencia;
+
+    private final StringBuilder entrada = new StringBuilder();
+    private byte[] salida = new byte[4096];
+    private int inicioSalida;
+    private int finSalida;
+
+    /**
+     * Simulador en tiempo real, con un 1 % de lecturas erróneas.
+     */
+    public TransporteSimulado() {
+        this(System.nanoTime(), 1.0, 0.01);
+    }
+
+    /**
+     * @param semilla           Semilla de los valores generados.
+     * @param factorTiempo      Velocidad del reloj simulado respecto al real (1 = tiempo real).
+     * @param probabilidadError Probabilidad de que una lectura produzca "ERROR".
+     */
+    public TransporteSimulado(long semilla, double factorTiempo, double probabilidadError) {
+        this(semilla, factorTiempo, probabilidadError, 0);
+    }
+
+    /**
+     * @param semilla           Semilla de los valores generados.
+     * @param factorTiempo      Velocidad del reloj simulado respecto al real (1 = tiempo real).
+     * @param probabilidadError Probabilidad de que una lectura produzca "ERROR".
+     * @param corteMs           Tiempo simulado tras el que se corta la conexión (0 = nunca).
+     */
+    public TransporteSimulado(long semilla, double factorTiempo, double probabilidadError, long corteMs) {
+        this.random = new Random(semilla);
+        this.factorTiempo = factorTiempo;
+        this.probabilidadError = probabilidadError;
+        this.corteMs = corteMs;
+    }
+
+    /**
+     * Crea el simulador a partir del nombre de puerto
+     * "SIMULADOR[:factor[:horas hasta el corte]]".
+     */
+    public static TransporteSimulado desdeNombre(String portName) {
+        String[] partes = portName.split(":");
+        double factor = partes.length > 1 ? Double.parseDouble(partes[1]) : 1.0;
+        long corteMs = partes.length > 2 ? (long) (Double.parseDouble(partes[2]) * 3_600_000L) : 0;
+        return new TransporteSimulado(System.nanoTime(), factor, 0.01, corteMs);
+    }
+
+    public static boolean esSimulador(String portName) {
+        return portName != null && portName.toUpperCase().startsWith(NOMBRE_PUERTO);
+    }
+
+    @Override
+    public synchronized boolean abrir() {
+        abierto = true;
+        origenNanos = System.nanoTime();
+        /* Abrir el puerto reinicia la placa: vuelven el intervalo del sketch y la secuencia */
+        intervaloMs = 2000;
+        led = false;
+        proximaMuestraMs = intervaloMs;
+        secuencia = 0;
+        inicioSalida = 0;
+        finSalida = 0;
+        entrada.setLength(0);
+        return true;
+    }
+
+    @Override
+    public synchronized void cerrar() {
+        abierto = false;
+    }
+
+    @Override
+    public synchronized boolean estaAbierto() {
+        comprobarCorte();
+        return abierto;
+    }
+
+    @Override
+    public synchronized int bytesDisponibles() {
+        comprobarCorte();
+        if (!abierto) return -1;
+        generarMuestras();
+        return finSalida - inicioSalida;
+    }
+
+    @Override
+    public synchronized int leer(byte[] buffer, int longitud) {
+        if (!abierto) return -1;
+        int n = Math.min(longitud, finSalida - inicioSalida);
+        System.arraycopy(salida, inicioSalida, buffer, 0, n);
+        inicioSalida += n;
+        if (inicioSalida == finSalida) {
+            inicioSalida = 0;
+            finSalida = 0;
+        }
+        return n;
+    }
+
+    @Override
+    public synchronized int escribir(byte[] datos, int longitud) {
+        if (!abierto) return -1;
+        for (int i = 0; i < longitud; i++) {
+            char c = (char) datos[i];
+            if (c == '\n') {
+                procesarComando(entrada.toString().trim());
+                entrada.setLength(0);
+            } else if (entrada.length() < 32) {
+                entrada.append(c);
+            }
+        }
+        return longitud;
+    }
+
+    public synchronized boolean isLedEncendido() {
+        return led;
+    }
+
+    public synchronized int getIntervaloMs() {
+        return intervaloMs;
+    }
+
+    /*
+     * Cierra la conexión si venció el tiempo hasta el corte.
+     */
+    private void comprobarCorte() {
+        if (abierto && corteMs > 0 && tiempoSimuladoMs() >= corteMs) {
+            abierto = false;
+        }
+    }
+
+    /*
+     * Tiempo simulado transcurrido desde la apertura, en milisegundos.
+     */
+    private long tiempoSimuladoMs() {
+        return (long) ((System.nanoTime() - origenNanos) / 1_000_000.0 * factorTiempo);
+    }
+
+    /*
+     * Emite las tramas vencidas según el reloj simulado, igual que el loop() del sketch.
+     */
+    private void generarMuestras() {
+        long ahora = tiempoSimuladoMs();
+        if (ahora - proximaMuestraMs > (long) MAX_MUESTRAS_ATRASADAS * intervaloMs) {
+            /* Lector muy atrasado: se descartan muestras, como haría el búfer de la placa */
+            long nuevaProxima = ahora - (long) MAX_MUESTRAS_ATRASADAS * intervaloMs;
+            long descartadas = (nuevaProxima - proximaMuestraMs) / intervaloMs;
+            secuencia = (int) ((secuencia + descartadas) & 0xFFFF);
+            proximaMuestraMs = nuevaProxima;
+        }
+        while (ahora >= proximaMuestraMs) {
+            proximaMuestraMs += intervaloMs;
+            if (random.nextDouble() < probabilidadError) {
+                escribirTexto("ERROR;\r\n");
+                continue;
+            }
+            temperatura = limitar(temperatura + (float) random.nextGaussian() * 0.1f, 0f, 50f);
+            humedad = limitar(humedad + (float) random.nextGaussian() * 0.3f, 20f, 90f);
+            escribirTexto("SEQ:");
+            escribirEntero(secuencia);
+            secuencia = (secuencia + 1) & 0xFFFF;
+            escribirTexto(",TEMP:");
+            escribirDecimas(Math.round(temperatura * 10));
+            escribirTexto(",HUM:");
+            escribirDecimas(Math.round(humedad * 10));
+            escribirTexto(";\r\n");
+        }
+    }
+
+    private void procesarComando(String comando) {
+        String id = "";
+        int separador = comando.indexOf('#');
+        if (separador >= 0) {
+            id = comando.substring(separador + 1);
+            comando = comando.substring(0, separador);
+        }
+
+        if (comando.equals("ON")) {
+            led = true;
+        } else if (comando.equals("OFF")) {
+            led = false;
+        } else if (comando.startsWith("RATE ")) {
+            try {
+                int pedido = Integer.parseInt(comando.substring(5).trim());
+                /* Igual que el sketch: "RATE 0" (o negativo) no cambia el intervalo */
+                if (pedido > 0) {
+                    intervaloMs = Math.max(INTERVALO_MINIMO_MS, Math.min(INTERVALO_MAXIMO_MS, pedido));
+                    proximaMuestraMs = tiempoSimuladoMs() + intervaloMs;
+                }
+            } catch (NumberFormatException e) {
+                // Igual que el sketch: un intervalo inválido se ignora
+            }
+            escribirTexto("RATE:" + intervaloMs + ";\r\n");
+        }
+
+        if (!id.isEmpty()) {
+            escribirTexto("ACK:" + id + ";\r\n");
+        }
+    }
+
+    private static float limitar(float valor, float minimo, float maximo) {
+        return Math.max(minimo, Math.min(maximo, valor));
+    }
+
+    private void asegurarEspacio(int bytes) {
+        if (finSalida + bytes <= salida.length) return;
+        int pendientes = finSalida - inicioSalida;
+        byte[] destino = pendientes + bytes <= salida.length ? salida : new byte[(pendientes + bytes) * 2];
+        System.arraycopy(salida, inicioSalida, destino, 0, pendientes);
+        salida = destino;
+        inicioSalida = 0;
+        finSalida = pendientes;
+    }
+
+    private void escribirTexto(String texto) {
+        asegurarEspacio(texto.length());
+        for (int i = 0; i < texto.length(); i++) {
+            salida[finSalida++] = (byte) texto.charAt(i);
+        }
+    }
+
+    /*
+     * Escribe un entero no negativo en decimal.
+     */
+    private void escribirEntero(int valor) {
+        asegurarEspacio(10);
+        int divisor = 1;
+        while (divisor <= valor / 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) {
+            salida[finSalida++] = (byte) ('0' + (valor / divisor) % 10);
+        }
+    }
+
+    /*
+     * Escribe un valor en décimas con un decimal, sin formatear cadenas.
+     */
+    private void escribirDecimas(int decimas) {
+        asegurarEspacio(12);
+        if (decimas < 0) {
+            salida[finSalida++] = '-';
+            decimas = -decimas;
+        }
+        escribirEntero(decimas / 10);
+        salida[finSalida++] = '.';
+        salida[finSalida++] = (byte) ('0' + decimas % 10);
+    }
+}
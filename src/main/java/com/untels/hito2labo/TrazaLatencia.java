@@ -0,0 +1,97 @@
+package com.untels.hito2labo;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Latencias por etapa del camino de una muestra, desde que sus bytes llegan
+ * al SerialReader hasta que el indicador la pinta:
+ * <ul>
+ *   <li>entramado: desde el primer byte de la trama hasta el ';' final,</li>
+ *   <li>entrega al EDT: desde la trama completa hasta que el hilo de eventos la toma,</li>
+ *   <li>procesado: parseo, filtros, reglas, historial y actualización de paneles,</li>
+ *   <li>repintado: desde la actualización del panel hasta que se pinta,</li>
+ *   <li>total: desde el primer byte hasta el píxel pintado.</li>
+ * </ul>
+ * Cada etapa es un {@link Histograma} en microsegundos, con memoria fija.
+ */
+public class TrazaLatencia {
+    public static final int ENTRAMADO = 0;
+    public static final int ENTREGA_EDT = 1;
+    public static final int PROCESADO = 2;
+    public static final int REPINTADO = 3;
+    public static final int TOTAL = 4;
+    public static final String[] NOMBRES = {"Entramado", "Entrega al EDT", "Procesado", "Repintado", "Total"};
+
+    /** Percentiles mostrados y exportados */
+    public static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    /** Objetivo de latencia total hasta pantalla */
+    public static final long OBJETIVO_MS = 100;
+
+    private final Histograma[] etapas = new Histograma[NOMBRES.length];
+
+    public TrazaLatencia() {
+        for (int i = 0; i < etapas.length; i++) {
+            etapas[i] = new Histograma();
+        }
+    }
+
+    /**
+     * Registra la duración de una etapa.
+     *
+     * @param etapa  Una de las constantes de etapa.
+     * @param nanos  Duración en nanosegundos.
+     */
+    public void registrar(int etapa, long nanos) {
+        etapas[etapa].registrar(nanos / 1000);
+    }
+
+    public Histograma getHistograma(int etapa) {
+        return etapas[etapa];
+    }
+
+    /**
+     * Fracción de muestras pintadas dentro del objetivo de latencia total.
+     */
+    public double getFraccionDentroDelObjetivo() {
+        return etapas[TOTAL].getFraccionHasta(OBJETIVO_MS * 1000);
+    }
+
+    public void reset() {
+        for (Histograma etapa : etapas) {
+            etapa.reset();
+        }
+    }
+
+    /**
+     * Escribe las latencias en CSV (milisegundos): una fila por etapa con
+     * el número de muestras, la media, los percentiles y el máximo.
+     */
+    public void exportarCsv(PrintWriter writer) {
+        StringBuilder sb = new StringBuilder("Etapa,Muestras,Media (ms)");
+        for (double p : PERCENTILES) {
+            sb.append(",p").append(formatoPercentil(p)).append(" (ms)");
+        }
+        writer.println(sb.append(",Maximo (ms)"));
+        for (int i = 0; i < etapas.length; i++) {
+            Histograma h = etapas[i];
+            sb.setLength(0);
+            sb.append(NOMBRES[i]).append(',').append(h.getTotal()).append(',').append(ms(h.getMedia()));
+            for (double p : PERCENTILES) {
+                sb.append(',').append(ms(h.getPercentil(p)));
+            }
+            writer.println(sb.append(',').append(ms(h.getMaximo())));
+        }
+        writer.println(String.format(Locale.ROOT, "Dentro de %d ms,%.3f%%", OBJETIVO_MS,
+                                     getFraccionDentroDelObjetivo() * 100));
+    }
+
+    static String formatoPercentil(double p) {
+        return p == Math.rint(p) ? String.valueOf((long) p) : String.valueOf(p);
+    }
+
+    static String ms(double microsegundos) {
+        return String.format(Locale.ROOT, "%.3f", microsegundos / 1000.0);
+    }
+}
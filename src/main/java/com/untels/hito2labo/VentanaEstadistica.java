@@ -0,0 +1,91 @@
+package com.untels.hito2labo;
+
+import java.util.Arrays;
+
+/**
+ * Estadísticas de un canal en una ventana deslizante de tiempo.
+ * La ventana se divide en cubetas de igual duración, cada una con su
+ * estadística de Welford y su resumen KLL. Una muestra actualiza solo la
+ * cubeta de su instante (O(1)); la cubeta se vacía al reutilizarse, así que
+ * los datos caducan por cubetas enteras y la ventana efectiva está entre
+ * la duración pedida menos una cubeta y la duración pedida.
+ * Las consultas combinan las cubetas vigentes.
+ */
+public class VentanaEstadistica {
+    private static final int K_CUBETA = 128;
+    private static final int K_CONSULTA = 200;
+
+    private final long duracionMs;
+    private final long anchoCubetaMs;
+    private final long[] periodos;
+    private final EstadisticaWelford[] welford;
+    private final SketchKll[] sketches;
+
+    /* Acumuladores reutilizados por consultar() */
+    private final EstadisticaWelford totalWelford = new EstadisticaWelford();
+    private final SketchKll totalSketch = new SketchKll(K_CONSULTA);
+
+    /**
+     * @param duracionMs  Duración de la ventana.
+     * @param numCubetas  Número de cubetas en que se divide.
+     */
+    public VentanaEstadistica(long duracionMs, int numCubetas) {
+        this.duracionMs = duracionMs;
+        this.anchoCubetaMs = Math.max(1, duracionMs / numCubetas);
+        this.periodos = new long[numCubetas];
+        this.welford = new EstadisticaWelford[numCubetas];
+        this.sketches = new SketchKll[numCubetas];
+        Arrays.fill(periodos, Long.MIN_VALUE);
+        for (int i = 0; i < numCubetas; i++) {
+            welford[i] = new EstadisticaWelford();
+            sketches[i] = new SketchKll(K_CUBETA);
+        }
+    }
+
+    public long getDuracionMs() {
+        return duracionMs;
+    }
+
+    public void agregar(long tiempoMs, float valor) {
+        if (Float.isNaN(valor)) return;
+        long periodo = tiempoMs / anchoCubetaMs;
+        int i = (int) Math.floorMod(periodo, (long) periodos.length);
+        if (periodos[i] > periodo) {
+            /* Muestra más antigua que la ventana: la cubeta ya es de un periodo posterior */
+            return;
+        }
+        if (periodos[i] != periodo) {
+            periodos[i] = periodo;
+            welford[i].reset();
+            sketches[i].reset();
+        }
+        welford[i].agregar(valor);
+        sketches[i].agregar(valor);
+    }
+
+    /**
+     * Suma las cubetas vigentes en los acumuladores indicados. Llamándolo
+     * sobre las ventanas de varios dispositivos con los mismos acumuladores
+     * se obtienen estadísticas combinadas.
+     */
+    public void acumular(long ahoraMs, EstadisticaWelford destinoWelford, SketchKll destinoSketch) {
+        long actual = ahoraMs / anchoCubetaMs;
+        for (int i = 0; i < periodos.length; i++) {
+            if (periodos[i] > actual - periodos.length && periodos[i] <= actual) {
+                destinoWelford.combinar(welford[i]);
+                destinoSketch.combinar(sketches[i]);
+            }
+        }
+    }
+
+    public ResumenEstadistico consultar(long ahoraMs) {
+        totalWelford.reset();
+        totalSketch.reset();
+        acumular(ahoraMs, totalWelford, totalSketch);
+        return ResumenEstadistico.de(totalWelford, totalSketch);
+    }
+
+    public void reset() {
+        Arrays.fill(periodos, Long.MIN_VALUE);
+    }
+}
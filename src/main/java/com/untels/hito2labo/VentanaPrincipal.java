@@ -4,12 +4,15 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
+import java.awt.Graphics;
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.border.TitledBorder;
 
 /**
@@ -21,7 +24,16 @@ public class VentanaPrincipal extends JFrame {
     private PanelHumedad panelHumedad;
     private PanelControl panelControl;
     private PanelLog panelLog;
+    private PanelEstadisticas panelEstadisticas;
     private JLabel lblEstado;
+    /* Tarea pendiente hasta el primer frame (solo en el hilo de eventos) */
+    private Runnable trasPrimerFrame;
+
+    /*
+     * Espera máxima al primer frame: si la ventana no llega a pintarse (por
+     * ejemplo, abierta minimizada) la tarea se ejecuta igualmente.
+     */
+    private static final int ESPERA_PRIMER_FRAME_MS = 2000;
 
     /**
      * Constructor de la VentanaPrincipal.
@@ -73,10 +85,15 @@ public class VentanaPrincipal extends JFrame {
         add(panelCentral, BorderLayout.CENTER);
 
         /*
-         * Panel para los controles de la aplicación.
+         * Panel inferior: estadísticas de las ventanas de 1 h y 24 h sobre
+         * los controles de la aplicación.
          */
+        JPanel panelInferior = new JPanel(new BorderLayout());
+        panelEstadisticas = new PanelEstadisticas();
+        panelInferior.add(panelEstadisticas, BorderLayout.NORTH);
         panelControl = new PanelControl();
-        add(panelControl, BorderLayout.SOUTH);
+        panelInferior.add(panelControl, BorderLayout.SOUTH);
+        add(panelInferior, BorderLayout.SOUTH);
 
         /*
          * Panel para el registro de eventos (log).
@@ -114,6 +131,45 @@ public class VentanaPrincipal extends JFrame {
         return panelLog;
     }
 
+    public PanelEstadisticas getPanelEstadisticas() {
+        return panelEstadisticas;
+    }
+
+    /**
+     * Pinta la ventana y registra el primer frame para la medición de arranque.
+     */
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!MedicionArranque.hayPrimerFrame()) {
+            MedicionArranque.marcarPrimerFrame();
+        }
+        if (trasPrimerFrame != null) {
+            /* En un evento aparte, para no alargar este pintado */
+            SwingUtilities.invokeLater(this::ejecutarTrasPrimerFrame);
+        }
+    }
+
+    /**
+     * Ejecuta la tarea en el hilo de eventos una vez pintado el primer frame
+     * de la ventana (o pasada una espera máxima), para que el trabajo lento
+     * del arranque no retrase su aparición. Se llama desde el hilo de eventos.
+     */
+    public void trasPrimerFrame(Runnable tarea) {
+        trasPrimerFrame = tarea;
+        Timer espera = new Timer(ESPERA_PRIMER_FRAME_MS, e -> ejecutarTrasPrimerFrame());
+        espera.setRepeats(false);
+        espera.start();
+    }
+
+    private void ejecutarTrasPrimerFrame() {
+        Runnable tarea = trasPrimerFrame;
+        trasPrimerFrame = null;
+        if (tarea != null) {
+            tarea.run();
+        }
+    }
+
     /**
      * Actualiza el estado de conexión mostrado en la interfaz gráfica.
      *